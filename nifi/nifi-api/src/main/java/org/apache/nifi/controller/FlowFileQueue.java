@@ -177,6 +177,20 @@ public interface FlowFileQueue {
      */
     List<FlowFileRecord> poll(int maxResults, Set<FlowFileRecord> expiredRecords);
 
+    /**
+     * Polls the next flow files on the queue, up to the max results, into the
+     * given destination list rather than into a new one, so that a caller that
+     * polls many queues can gather them into one list that it reuses. Flow
+     * files already in the destination are left in place and do not count
+     * toward the max results.
+     *
+     * @param maxResults
+     * @param expiredRecords
+     * @param destination the list to which the flow files are added
+     * @return the number of flow files added to the destination
+     */
+    int poll(int maxResults, Set<FlowFileRecord> expiredRecords, List<FlowFileRecord> destination);
+
     /**
      * Drains flow files from the given source queue into the given destination
      * list.
@@ -197,4 +211,15 @@ public interface FlowFileQueue {
 
     void setFlowFileExpiration(String flowExpirationPeriod);
 
+    /**
+     * Locks the queue so that other threads are unable to interact with it
+     * until {@link #unlock()} is called by the same thread
+     */
+    void lock();
+
+    /**
+     * Unlocks a queue that was locked via {@link #lock()}
+     */
+    void unlock();
+
 }
@@ -96,6 +96,24 @@ public interface ContentRepository {
      */
     ContentClaim create(boolean lossTolerant) throws IOException;
 
+    /**
+     * Returns a content claim to which content can be appended. Unlike
+     * {@link #create(boolean)}, the repository may return a claim that already
+     * holds the content of other FlowFiles. In that case, the stream returned
+     * by {@link #write(ContentClaim)} appends to the existing content, and
+     * {@link #size(ContentClaim)}, called once the stream has been obtained,
+     * returns the offset at which newly written content begins.
+     *
+     * As with {@link #create(boolean)}, the claimant count of the returned
+     * claim has already been incremented on behalf of the caller.
+     *
+     * @param lossTolerant indicates whether the content for the claim is loss
+     * tolerant
+     * @return a claim to which content may be appended
+     * @throws java.io.IOException
+     */
+    ContentClaim createAppendable(boolean lossTolerant) throws IOException;
+
     /**
      * Increments the number of claimants for the given claim
      *
@@ -66,7 +66,16 @@ public enum SchedulingStrategy {
      * Indicates that the component will be scheduled to run according to a
      * Cron-style expression
      */
-    CRON_DRIVEN(1, "* * * * * ?");
+    CRON_DRIVEN(1, "* * * * * ?"),
+    /**
+     * Components should be scheduled on a periodic interval, as with
+     * {@link TIMER_DRIVEN}, but each concurrent task is given a thread of its
+     * own rather than borrowing one from the shared timer-driven thread pool
+     * each time it is triggered. Intended for components that spend most of
+     * their time blocked on network I/O, so that many of them can wait at once
+     * without starving other components of threads.
+     */
+    BLOCKING_IO(1, "0 sec");
 
     private final int defaultConcurrentTasks;
     private final String defaultSchedulingPeriod;
@@ -18,6 +18,8 @@ package org.apache.nifi.provenance;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -31,6 +33,18 @@ import org.apache.nifi.provenance.search.QueryResult;
 public class StandardQueryResult implements QueryResult {
 
     public static final int TTL = (int) TimeUnit.MILLISECONDS.convert(30, TimeUnit.MINUTES);
+
+    private static final Comparator<ProvenanceEventRecord> NEWEST_FIRST = new Comparator<ProvenanceEventRecord>() {
+        @Override
+        public int compare(final ProvenanceEventRecord o1, final ProvenanceEventRecord o2) {
+            final int timeComparison = Long.compare(o2.getEventTime(), o1.getEventTime());
+            if (timeComparison != 0) {
+                return timeComparison;
+            }
+            return Long.compare(o2.getEventId(), o1.getEventId());
+        }
+    };
+
     private final Query query;
     private final long creationNanos;
 
@@ -57,20 +71,15 @@ public class StandardQueryResult implements QueryResult {
         updateExpiration();
     }
 
+    /**
+     * @return the newest matching events that have been found so far, at most
+     * {@link Query#getMaxResults()} of them, ordered from newest to oldest
+     */
     @Override
     public List<ProvenanceEventRecord> getMatchingEvents() {
         readLock.lock();
         try {
-            if (matchingRecords.size() <= query.getMaxResults()) {
-                return new ArrayList<>(matchingRecords);
-            }
-
-            final List<ProvenanceEventRecord> copy = new ArrayList<>(query.getMaxResults());
-            for (int i = 0; i < query.getMaxResults(); i++) {
-                copy.add(matchingRecords.get(i));
-            }
-
-            return copy;
+            return new ArrayList<>(matchingRecords);
         } finally {
             readLock.unlock();
         }
@@ -144,7 +153,14 @@ public class StandardQueryResult implements QueryResult {
     public void update(final Collection<ProvenanceEventRecord> matchingRecords, final long totalHits) {
         writeLock.lock();
         try {
+            // Each update holds the events from one step of the query, such as the search of a single index. Only
+            // the newest events of all steps are kept, so that the size of the result is bounded by the max results.
             this.matchingRecords.addAll(matchingRecords);
+            Collections.sort(this.matchingRecords, NEWEST_FIRST);
+            final int maxResults = query.getMaxResults();
+            if (this.matchingRecords.size() > maxResults) {
+                this.matchingRecords.subList(Math.max(0, maxResults), this.matchingRecords.size()).clear();
+            }
             this.totalHitCount += totalHits;
 
             numCompletedSteps++;
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.nifi.flowfile.FlowFile;
+
+/**
+ * <p>
+ * A read-only view of the values that an Expression may reference for a given
+ * FlowFile: its attributes, its core properties (flowFileId, fileSize,
+ * entryDate, and lineageStartDate), the environment variables, and the System
+ * Properties, in that order of precedence.
+ * </p>
+ *
+ * <p>
+ * The FlowFile's core properties are converted to Strings only when they are
+ * referenced. System Properties are always read from the live System
+ * Properties, so that a property that is set, changed, or cleared at runtime
+ * is seen by the very next evaluation.
+ * </p>
+ *
+ * <p>
+ * Operations that iterate over the entire map are not expected on the
+ * evaluation path; they are supported by building a merged copy.
+ * </p>
+ */
+final class FlowFileExpressionMap extends AbstractMap<String, String> {
+
+    static final String FLOWFILE_ID = "flowFileId";
+    static final String FILE_SIZE = "fileSize";
+    static final String ENTRY_DATE = "entryDate";
+    static final String LINEAGE_START_DATE = "lineageStartDate";
+
+    private static final Map<String, String> ENVIRONMENT = System.getenv();
+
+    private final FlowFile flowFile;
+    private final Map<String, String> attributes;
+
+    FlowFileExpressionMap(final FlowFile flowFile) {
+        this.flowFile = flowFile;
+        this.attributes = flowFile == null ? Collections.<String, String>emptyMap() : flowFile.getAttributes();
+    }
+
+    @Override
+    public String get(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null Keys are not allowed");
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        final String attributeValue = attributes.get(key);
+        if (attributeValue != null) {
+            return attributeValue;
+        }
+
+        final String coreValue = getCoreProperty((String) key);
+        if (coreValue != null) {
+            return coreValue;
+        }
+
+        final String envValue = ENVIRONMENT.get(key);
+        if (envValue != null) {
+            return envValue;
+        }
+
+        final Object systemValue = System.getProperties().get(key);
+        return systemValue == null ? null : String.valueOf(systemValue);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        final Map<String, String> merged = new HashMap<>();
+        final Properties properties = System.getProperties();
+        synchronized (properties) {
+            for (final Map.Entry<?, ?> entry : properties.entrySet()) {
+                merged.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+        }
+        merged.putAll(ENVIRONMENT);
+        if (flowFile != null) {
+            merged.put(FLOWFILE_ID, String.valueOf(flowFile.getId()));
+            merged.put(FILE_SIZE, String.valueOf(flowFile.getSize()));
+            merged.put(ENTRY_DATE, String.valueOf(flowFile.getEntryDate()));
+            merged.put(LINEAGE_START_DATE, String.valueOf(flowFile.getLineageStartDate()));
+        }
+        merged.putAll(attributes);
+        return Collections.unmodifiableMap(merged).entrySet();
+    }
+
+    private String getCoreProperty(final String key) {
+        if (flowFile == null) {
+            return null;
+        }
+
+        switch (key) {
+            case FLOWFILE_ID:
+                return String.valueOf(flowFile.getId());
+            case FILE_SIZE:
+                return String.valueOf(flowFile.getSize());
+            case ENTRY_DATE:
+                return String.valueOf(flowFile.getEntryDate());
+            case LINEAGE_START_DATE:
+                return String.valueOf(flowFile.getLineageStartDate());
+            default:
+                return null;
+        }
+    }
+}
@@ -20,16 +20,14 @@ import static org.apache.nifi.attribute.expression.language.antlr.AttributeExpre
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.nifi.attribute.expression.language.antlr.AttributeExpressionLexer;
 import org.apache.nifi.attribute.expression.language.antlr.AttributeExpressionParser;
+import org.apache.nifi.attribute.expression.language.compile.ExpressionCompiler;
 import org.apache.nifi.attribute.expression.language.evaluation.BooleanEvaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.DateEvaluator;
 import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
@@ -125,6 +123,14 @@ import org.apache.nifi.attribute.expression.language.evaluation.selection.Mappin
  */
 public class Query {
 
+    /**
+     * System property that, when set to <code>true</code>, causes
+     * {@link #prepare(String)} to compile expressions rather than interpret
+     * them
+     */
+    public static final String COMPILE_EXPRESSIONS_PROPERTY = "nifi.expression.language.compile";
+    private static final boolean COMPILE_EXPRESSIONS = Boolean.getBoolean(COMPILE_EXPRESSIONS_PROPERTY);
+
     private final String query;
     private final Tree tree;
     private final Evaluator<?> evaluator;
@@ -283,15 +289,80 @@ public class Query {
 
     static String evaluateExpression(final Tree tree, final String queryText, final Map<String, String> expressionMap, final AttributeValueDecorator decorator) throws ProcessException {
         final Object evaluated = Query.fromTree(tree, queryText).evaluate(expressionMap).getValue();
+        return formatResult(evaluated, decorator);
+    }
+
+    /**
+     * Evaluates the given Evaluator, which must have been obtained from
+     * {@link #buildReusableEvaluator(Tree)}, against the given expression map.
+     *
+     * @param evaluator
+     * @param expressionMap
+     * @param decorator
+     * @return
+     * @throws ProcessException
+     */
+    static String evaluateExpression(final Evaluator<?> evaluator, final Map<String, String> expressionMap, final AttributeValueDecorator decorator) throws ProcessException {
+        final Object evaluated = evaluator.evaluate(expressionMap).getValue();
+        return formatResult(evaluated, decorator);
+    }
+
+    private static String formatResult(final Object evaluated, final AttributeValueDecorator decorator) {
         if (evaluated == null) {
             return null;
         }
 
         final String value = evaluated.toString();
-        final String escaped = value.replace("$$", "$");
+        final String escaped = value.contains("$$") ? value.replace("$$", "$") : value;
         return (decorator == null) ? escaped : decorator.decorate(escaped);
     }
 
+    /**
+     * Builds an Evaluator for the given tree that may be evaluated any number
+     * of times, from any number of threads. Evaluators that reference multiple
+     * attributes (e.g., anyAttribute, allDelineatedValues) and reduce functions
+     * (count, join) keep state between calls to evaluate and therefore cannot
+     * be reused; for such trees, this
+     * method returns <code>null</code> and the caller must build a new
+     * Evaluator for each evaluation.
+     *
+     * @param tree
+     * @return
+     */
+    static Evaluator<?> buildReusableEvaluator(final Tree tree) {
+        if (!isReusable(tree)) {
+            return null;
+        }
+
+        return buildEvaluator(tree);
+    }
+
+    private static boolean isReusable(final Tree tree) {
+        switch (tree.getType()) {
+            case MULTI_ATTRIBUTE_REFERENCE:
+            case COUNT:
+            case JOIN:
+                return false;
+            case STRING_LITERAL: {
+                // String Literals may embed expressions of their own. Rather than compiling them
+                // here, we conservatively treat any embedded expression as not reusable.
+                final String text = tree.getText();
+                if (text != null && text.contains("${")) {
+                    return false;
+                }
+                break;
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!isReusable(tree.getChild(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     static String evaluateExpressions(final String rawValue, Map<String, String> expressionMap) throws ProcessException {
         return evaluateExpressions(rawValue, expressionMap, null);
     }
@@ -340,144 +411,16 @@ public class Query {
         return value.replaceAll("\\$\\$(?=\\$*\\{.*?\\})", "\\$");
     }
 
-    static Map<String, String> createExpressionMap(final FlowFile flowFile) {
-        final Map<String, String> attributeMap = flowFile == null ? new HashMap<String, String>() : flowFile.getAttributes();
-        final Map<String, String> envMap = System.getenv();
-        final Map<?, ?> sysProps = System.getProperties();
-
-        final Map<String, String> flowFileProps = new HashMap<>();
-        if (flowFile != null) {
-            flowFileProps.put("flowFileId", String.valueOf(flowFile.getId()));
-            flowFileProps.put("fileSize", String.valueOf(flowFile.getSize()));
-            flowFileProps.put("entryDate", String.valueOf(flowFile.getEntryDate()));
-            flowFileProps.put("lineageStartDate", String.valueOf(flowFile.getLineageStartDate()));
-        }
-
-        return wrap(attributeMap, flowFileProps, envMap, sysProps);
-    }
-
-    private static Map<String, String> wrap(final Map<String, String> attributes, final Map<String, String> flowFileProps,
-            final Map<String, String> env, final Map<?, ?> sysProps) {
-        @SuppressWarnings("rawtypes")
-        final Map[] maps = new Map[]{attributes, flowFileProps, env, sysProps};
-
-        return new Map<String, String>() {
-            @Override
-            public int size() {
-                int size = 0;
-                for (final Map<?, ?> map : maps) {
-                    size += map.size();
-                }
-                return size;
-            }
-
-            @Override
-            public boolean isEmpty() {
-                for (final Map<?, ?> map : maps) {
-                    if (!map.isEmpty()) {
-                        return false;
-                    }
-                }
-                return true;
-            }
-
-            @Override
-            public boolean containsKey(final Object key) {
-                if (key == null) {
-                    return false;
-                }
-                if (!(key instanceof String)) {
-                    return false;
-                }
-
-                for (final Map<?, ?> map : maps) {
-                    if (map.containsKey(key)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-
-            @Override
-            public boolean containsValue(final Object value) {
-                for (final Map<?, ?> map : maps) {
-                    if (map.containsValue(value)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-
-            @Override
-            @SuppressWarnings("rawtypes")
-            public String get(final Object key) {
-                if (key == null) {
-                    throw new IllegalArgumentException("Null Keys are not allowed");
-                }
-                if (!(key instanceof String)) {
-                    return null;
-                }
-
-                for (final Map map : maps) {
-                    final Object val = map.get(key);
-                    if (val != null) {
-                        return String.valueOf(val);
-                    }
-                }
-                return null;
-            }
-
-            @Override
-            public String put(String key, String value) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public String remove(final Object key) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public void putAll(final Map<? extends String, ? extends String> m) {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            public void clear() {
-                throw new UnsupportedOperationException();
-            }
-
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Set<String> keySet() {
-                final Set<String> keySet = new HashSet<>();
-                for (final Map map : maps) {
-                    keySet.addAll(map.keySet());
-                }
-                return keySet;
-            }
-
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Collection<String> values() {
-                final Set<String> values = new HashSet<>();
-                for (final Map map : maps) {
-                    values.addAll(map.values());
-                }
-                return values;
-            }
-
-            @Override
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            public Set<java.util.Map.Entry<String, String>> entrySet() {
-                final Set<java.util.Map.Entry<String, String>> entrySet = new HashSet<>();
-                for (final Map map : maps) {
-                    entrySet.addAll(map.entrySet());
-                }
-                return entrySet;
-            }
-
-        };
+    /**
+     * Creates a read-only view of the attributes, core properties, environment
+     * variables, and System Properties that expressions may reference for the
+     * given FlowFile. Values are resolved only when they are referenced.
+     *
+     * @param flowFile the FlowFile, or <code>null</code>
+     * @return
+     */
+    public static Map<String, String> createExpressionMap(final FlowFile flowFile) {
+        return new FlowFileExpressionMap(flowFile);
     }
 
     public static Query fromTree(final Tree tree, final String text) {
@@ -503,6 +446,20 @@ public class Query {
     }
 
     public static PreparedQuery prepare(final String query) throws AttributeExpressionLanguageParsingException {
+        return prepare(query, COMPILE_EXPRESSIONS);
+    }
+
+    /**
+     * Prepares the given query for evaluation.
+     *
+     * @param query
+     * @param compile if <code>true</code>, the query's expressions are compiled
+     * via the {@link ExpressionCompiler} where possible; otherwise, they are
+     * interpreted
+     * @return
+     * @throws AttributeExpressionLanguageParsingException
+     */
+    public static PreparedQuery prepare(final String query, final boolean compile) throws AttributeExpressionLanguageParsingException {
         if (query == null) {
             return new EmptyPreparedQuery(null);
         }
@@ -536,7 +493,7 @@ public class Query {
                 substrings.add(treeText);
             }
 
-            return new StandardPreparedQuery(substrings, trees);
+            return compile ? ExpressionCompiler.compile(substrings, trees) : new StandardPreparedQuery(substrings, trees);
         } catch (final AttributeExpressionLanguageParsingException e) {
             return new InvalidPreparedQuery(query, e.getMessage());
         }
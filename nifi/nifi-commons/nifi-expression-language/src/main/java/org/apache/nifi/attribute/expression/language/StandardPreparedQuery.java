@@ -21,20 +21,37 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.nifi.attribute.expression.language.evaluation.Evaluator;
 import org.apache.nifi.expression.AttributeValueDecorator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.exception.ProcessException;
 
 import org.antlr.runtime.tree.Tree;
 
+/**
+ * A PreparedQuery that builds the Evaluators for each of its expressions once,
+ * when the query is prepared, and reuses them for every evaluation. Expressions
+ * whose Evaluators maintain state between evaluations (such as those that
+ * reference multiple attributes) cannot be shared and are instead rebuilt from
+ * their trees each time that they are evaluated.
+ */
 public class StandardPreparedQuery implements PreparedQuery {
 
     private final List<String> queryStrings;
     private final Map<String, Tree> trees;
+    private final Map<String, Evaluator<?>> evaluators;
 
     public StandardPreparedQuery(final List<String> queryStrings, final Map<String, Tree> trees) {
         this.queryStrings = new ArrayList<>(queryStrings);
         this.trees = new HashMap<>(trees);
+        this.evaluators = new HashMap<>(trees.size());
+
+        for (final Map.Entry<String, Tree> entry : trees.entrySet()) {
+            final Evaluator<?> evaluator = Query.buildReusableEvaluator(entry.getValue());
+            if (evaluator != null) {
+                evaluators.put(entry.getKey(), evaluator);
+            }
+        }
     }
 
     @Override
@@ -50,7 +67,14 @@ public class StandardPreparedQuery implements PreparedQuery {
             if (tree == null) {
                 sb.append(val);
             } else {
-                final String evaluated = Query.evaluateExpression(tree, val, attributes, decorator);
+                final Evaluator<?> evaluator = evaluators.get(val);
+                final String evaluated;
+                if (evaluator == null) {
+                    evaluated = Query.evaluateExpression(tree, val, attributes, decorator);
+                } else {
+                    evaluated = Query.evaluateExpression(evaluator, attributes, decorator);
+                }
+
                 if (evaluated != null) {
                     sb.append(evaluated);
                 }
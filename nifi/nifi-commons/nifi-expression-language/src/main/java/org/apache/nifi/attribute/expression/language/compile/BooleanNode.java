@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled node that produces a primitive boolean. The compiler only creates
+ * Boolean nodes for constructs whose interpreted form can never produce a
+ * <code>null</code> Boolean, so no boxing is necessary.
+ */
+abstract class BooleanNode {
+
+    abstract boolean evaluate(Map<String, String> attributes);
+
+    static final class Literal extends BooleanNode {
+
+        private final boolean value;
+
+        Literal(final boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return value;
+        }
+    }
+
+    static final class IsNull extends BooleanNode {
+
+        private final StringNode subject;
+
+        IsNull(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return subject.evaluate(attributes) == null;
+        }
+    }
+
+    static final class NotNull extends BooleanNode {
+
+        private final StringNode subject;
+
+        NotNull(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return subject.evaluate(attributes) != null;
+        }
+    }
+
+    static final class IsEmpty extends BooleanNode {
+
+        private final StringNode subject;
+
+        IsEmpty(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return value == null || value.trim().isEmpty();
+        }
+    }
+
+    static final class StartsWith extends BooleanNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        StartsWith(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final String searchValue = search.evaluate(attributes);
+            return searchValue != null && value.startsWith(searchValue);
+        }
+    }
+
+    static final class EndsWith extends BooleanNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        EndsWith(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final String searchValue = search.evaluate(attributes);
+            return searchValue != null && value.endsWith(searchValue);
+        }
+    }
+
+    static final class Contains extends BooleanNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        Contains(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final String searchValue = search.evaluate(attributes);
+            return searchValue != null && value.contains(searchValue);
+        }
+    }
+
+    static final class Matches extends BooleanNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+        private final Pattern compiledPattern;
+        private final boolean find;
+
+        Matches(final StringNode subject, final StringNode search, final boolean find) {
+            this.subject = subject;
+            this.search = search;
+            this.find = find;
+            this.compiledPattern = (search instanceof StringNode.Literal) ? Pattern.compile(((StringNode.Literal) search).getValue()) : null;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final Pattern pattern = compiledPattern == null ? Pattern.compile(search.evaluate(attributes)) : compiledPattern;
+            return find ? pattern.matcher(value).find() : pattern.matcher(value).matches();
+        }
+    }
+
+    static final class Equals extends BooleanNode {
+
+        private final StringNode subject;
+        private final StringNode compareTo;
+        private final boolean ignoreCase;
+
+        Equals(final StringNode subject, final StringNode compareTo, final boolean ignoreCase) {
+            this.subject = subject;
+            this.compareTo = compareTo;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final String compareToValue = compareTo.evaluate(attributes);
+            if (compareToValue == null) {
+                return false;
+            }
+            return ignoreCase ? value.equalsIgnoreCase(compareToValue) : value.equals(compareToValue);
+        }
+    }
+
+    static final class NumberEquals extends BooleanNode {
+
+        private final NumberNode subject;
+        private final NumberNode compareTo;
+
+        NumberEquals(final NumberNode subject, final NumberNode compareTo) {
+            this.subject = subject;
+            this.compareTo = compareTo;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final Long value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final Long compareToValue = compareTo.evaluate(attributes);
+            return compareToValue != null && value.longValue() == compareToValue.longValue();
+        }
+    }
+
+    static final class BooleanEquals extends BooleanNode {
+
+        private final BooleanNode subject;
+        private final BooleanNode compareTo;
+
+        BooleanEquals(final BooleanNode subject, final BooleanNode compareTo) {
+            this.subject = subject;
+            this.compareTo = compareTo;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return subject.evaluate(attributes) == compareTo.evaluate(attributes);
+        }
+    }
+
+    static final class Compare extends BooleanNode {
+
+        static final int GREATER_THAN = 0;
+        static final int GREATER_THAN_OR_EQUAL = 1;
+        static final int LESS_THAN = 2;
+        static final int LESS_THAN_OR_EQUAL = 3;
+
+        private final NumberNode subject;
+        private final NumberNode comparison;
+        private final int operator;
+
+        Compare(final NumberNode subject, final NumberNode comparison, final int operator) {
+            this.subject = subject;
+            this.comparison = comparison;
+            this.operator = operator;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            final Long value = subject.evaluate(attributes);
+            if (value == null) {
+                return false;
+            }
+            final Long comparisonValue = comparison.evaluate(attributes);
+            if (comparisonValue == null) {
+                return false;
+            }
+
+            final long lhs = value;
+            final long rhs = comparisonValue;
+            switch (operator) {
+                case GREATER_THAN:
+                    return lhs > rhs;
+                case GREATER_THAN_OR_EQUAL:
+                    return lhs >= rhs;
+                case LESS_THAN:
+                    return lhs < rhs;
+                default:
+                    return lhs <= rhs;
+            }
+        }
+    }
+
+    static final class And extends BooleanNode {
+
+        private final BooleanNode subject;
+        private final BooleanNode rhs;
+
+        And(final BooleanNode subject, final BooleanNode rhs) {
+            this.subject = subject;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return subject.evaluate(attributes) && rhs.evaluate(attributes);
+        }
+    }
+
+    static final class Or extends BooleanNode {
+
+        private final BooleanNode subject;
+        private final BooleanNode rhs;
+
+        Or(final BooleanNode subject, final BooleanNode rhs) {
+            this.subject = subject;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return subject.evaluate(attributes) || rhs.evaluate(attributes);
+        }
+    }
+
+    static final class Not extends BooleanNode {
+
+        private final BooleanNode subject;
+
+        Not(final BooleanNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, String> attributes) {
+            return !subject.evaluate(attributes);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.attribute.expression.language.PreparedQuery;
+import org.apache.nifi.attribute.expression.language.Query;
+import org.apache.nifi.expression.AttributeValueDecorator;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.exception.ProcessException;
+
+/**
+ * A PreparedQuery whose expressions have been compiled by the
+ * {@link ExpressionCompiler}. Expressions that could not be compiled are
+ * delegated to the interpreter.
+ */
+final class CompiledPreparedQuery implements PreparedQuery {
+
+    private final Segment[] segments;
+
+    CompiledPreparedQuery(final List<Segment> segments) {
+        this.segments = segments.toArray(new Segment[segments.size()]);
+    }
+
+    @Override
+    public String evaluateExpressions(final Map<String, String> attributes) throws ProcessException {
+        return evaluateExpressions(attributes, null);
+    }
+
+    @Override
+    public String evaluateExpressions(final Map<String, String> attributes, final AttributeValueDecorator decorator) throws ProcessException {
+        if (segments.length == 1) {
+            return segments[0].evaluate(attributes, decorator);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (final Segment segment : segments) {
+            sb.append(segment.evaluate(attributes, decorator));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String evaluateExpressions(final FlowFile flowFile, final AttributeValueDecorator decorator) throws ProcessException {
+        return evaluateExpressions(Query.createExpressionMap(flowFile), decorator);
+    }
+
+    @Override
+    public String evaluateExpressions() throws ProcessException {
+        return evaluateExpressions((FlowFile) null, null);
+    }
+
+    @Override
+    public String evaluateExpressions(final AttributeValueDecorator decorator) throws ProcessException {
+        return evaluateExpressions((FlowFile) null, decorator);
+    }
+
+    @Override
+    public String evaluateExpressions(final FlowFile flowFile) throws ProcessException {
+        return evaluateExpressions(flowFile, null);
+    }
+
+    /**
+     * A portion of the query. Each segment returns a non-null String.
+     */
+    static interface Segment {
+
+        String evaluate(Map<String, String> attributes, AttributeValueDecorator decorator);
+    }
+
+    static final class LiteralSegment implements Segment {
+
+        private final String value;
+
+        LiteralSegment(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String evaluate(final Map<String, String> attributes, final AttributeValueDecorator decorator) {
+            return value;
+        }
+    }
+
+    static final class CompiledSegment implements Segment {
+
+        private final StringNode node;
+
+        CompiledSegment(final StringNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public String evaluate(final Map<String, String> attributes, final AttributeValueDecorator decorator) {
+            final String value = node.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+
+            final String escaped = value.contains("$$") ? value.replace("$$", "$") : value;
+            return (decorator == null) ? escaped : decorator.decorate(escaped);
+        }
+    }
+
+    static final class InterpretedSegment implements Segment {
+
+        private final PreparedQuery query;
+
+        InterpretedSegment(final PreparedQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        public String evaluate(final Map<String, String> attributes, final AttributeValueDecorator decorator) {
+            return query.evaluateExpressions(attributes, decorator);
+        }
+    }
+}
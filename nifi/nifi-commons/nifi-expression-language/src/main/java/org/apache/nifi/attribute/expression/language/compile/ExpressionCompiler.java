@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import static org.apache.nifi.attribute.expression.language.antlr.AttributeExpressionParser.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.tree.Tree;
+import org.apache.nifi.attribute.expression.language.PreparedQuery;
+import org.apache.nifi.attribute.expression.language.Query;
+import org.apache.nifi.attribute.expression.language.StandardPreparedQuery;
+import org.apache.nifi.attribute.expression.language.evaluation.literals.StringLiteralEvaluator;
+
+/**
+ * <p>
+ * Compiles the trees produced by {@link Query#compileTree(String)} into a graph
+ * of typed nodes. Unlike the Evaluators used by the interpreter, each node
+ * returns its value directly (a String, a primitive boolean, or a Long) rather
+ * than wrapping it in a QueryResult, and each node's type is known when the
+ * graph is built, so no casting or result-type checks are necessary while
+ * evaluating.
+ * </p>
+ *
+ * <p>
+ * Only a subset of the Expression Language is supported: attribute references,
+ * literals, and the commonly used String, Boolean, and Number functions. Any
+ * expression that makes use of a construct that is not supported (for
+ * instance, multi-attribute references, dates, or subjectless functions) is
+ * evaluated by the interpreter instead.
+ * </p>
+ */
+public final class ExpressionCompiler {
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Creates a PreparedQuery for the given query strings and the trees of
+     * those query strings that are expressions, as built by
+     * {@link Query#prepare(String)}
+     *
+     * @param queryStrings
+     * @param trees
+     * @return
+     */
+    public static PreparedQuery compile(final List<String> queryStrings, final Map<String, Tree> trees) {
+        final List<CompiledPreparedQuery.Segment> segments = new ArrayList<>(queryStrings.size());
+        for (final String queryString : queryStrings) {
+            final Tree tree = trees.get(queryString);
+            if (tree == null) {
+                segments.add(new CompiledPreparedQuery.LiteralSegment(queryString));
+                continue;
+            }
+
+            final Object node = compileNode(tree);
+            if (node == null) {
+                final PreparedQuery interpreted = new StandardPreparedQuery(Collections.singletonList(queryString), Collections.singletonMap(queryString, tree));
+                segments.add(new CompiledPreparedQuery.InterpretedSegment(interpreted));
+            } else {
+                segments.add(new CompiledPreparedQuery.CompiledSegment(toStringNode(node)));
+            }
+        }
+
+        return new CompiledPreparedQuery(segments);
+    }
+
+    /**
+     * @param tree
+     * @return <code>true</code> if the given tree can be compiled in its
+     * entirety, <code>false</code> if it must be interpreted
+     */
+    public static boolean isCompilable(final Tree tree) {
+        return compileNode(tree) != null;
+    }
+
+    /**
+     * @param tree
+     * @return a StringNode, BooleanNode, or NumberNode, or <code>null</code>
+     * if the tree makes use of a construct that is not supported
+     */
+    private static Object compileNode(final Tree tree) {
+        switch (tree.getType()) {
+            case EXPRESSION:
+                return compileExpression(tree);
+            case ATTRIBUTE_REFERENCE: {
+                final StringNode name = toStringNode(compileNode(tree.getChild(0)));
+                if (name == null) {
+                    return null;
+                }
+                if (name instanceof StringNode.Literal) {
+                    return new StringNode.NamedAttribute(((StringNode.Literal) name).getValue());
+                }
+                return new StringNode.Attribute(name);
+            }
+            case ATTR_NAME:
+                return compileStringLiteral(tree.getChild(0).getText());
+            case STRING_LITERAL:
+                return compileStringLiteral(tree.getText());
+            case NUMBER:
+                return new NumberNode.Literal(Long.parseLong(tree.getText()));
+            case TRUE:
+                return new BooleanNode.Literal(true);
+            case FALSE:
+                return new BooleanNode.Literal(false);
+            default:
+                return null;
+        }
+    }
+
+    private static StringNode compileStringLiteral(final String text) {
+        // String Literals that embed expressions of their own are left to the interpreter
+        if (text != null && text.length() > 1 && !Query.extractExpressionRanges(text).isEmpty()) {
+            return null;
+        }
+        return new StringNode.Literal(new StringLiteralEvaluator(text).evaluate(null).getValue());
+    }
+
+    private static Object compileExpression(final Tree tree) {
+        if (tree.getChildCount() == 0) {
+            return null;
+        }
+
+        Object subject = compileNode(tree.getChild(0));
+        for (int i = 1; i < tree.getChildCount() && subject != null; i++) {
+            final Tree functionTree = tree.getChild(i);
+            final List<Object> args = new ArrayList<>(functionTree.getChildCount() - 1);
+            for (int j = 1; j < functionTree.getChildCount(); j++) {
+                final Object arg = compileNode(functionTree.getChild(j));
+                if (arg == null) {
+                    return null;
+                }
+                args.add(arg);
+            }
+
+            subject = compileFunction(functionTree.getChild(0).getType(), subject, args);
+        }
+
+        return subject;
+    }
+
+    private static Object compileFunction(final int functionType, final Object subject, final List<Object> args) {
+        switch (functionType) {
+            case TRIM:
+            case TO_STRING:
+            case TO_UPPER:
+            case TO_LOWER:
+            case IS_NULL:
+            case NOT_NULL:
+            case IS_EMPTY:
+            case LENGTH:
+            case TO_NUMBER:
+            case NOT:
+                if (!args.isEmpty()) {
+                    return null;
+                }
+                break;
+            case SUBSTRING:
+                if (args.size() != 1 && args.size() != 2) {
+                    return null;
+                }
+                break;
+            case REPLACE:
+            case REPLACE_ALL:
+                if (args.size() != 2) {
+                    return null;
+                }
+                break;
+            default:
+                if (args.size() != 1) {
+                    return null;
+                }
+                break;
+        }
+
+        switch (functionType) {
+            case TRIM:
+                return new StringNode.Trim(toStringNode(subject));
+            case TO_STRING:
+                return toStringNode(subject);
+            case TO_UPPER:
+                return new StringNode.ToUpper(toStringNode(subject));
+            case TO_LOWER:
+                return new StringNode.ToLower(toStringNode(subject));
+            case APPEND:
+                return new StringNode.Append(toStringNode(subject), toStringNode(args.get(0)));
+            case PREPEND:
+                return new StringNode.Prepend(toStringNode(subject), toStringNode(args.get(0)));
+            case SUBSTRING_BEFORE:
+                return new StringNode.SubstringBefore(toStringNode(subject), toStringNode(args.get(0)));
+            case SUBSTRING_AFTER:
+                return new StringNode.SubstringAfter(toStringNode(subject), toStringNode(args.get(0)));
+            case SUBSTRING_BEFORE_LAST:
+                return new StringNode.SubstringBeforeLast(toStringNode(subject), toStringNode(args.get(0)));
+            case SUBSTRING_AFTER_LAST:
+                return new StringNode.SubstringAfterLast(toStringNode(subject), toStringNode(args.get(0)));
+            case SUBSTRING: {
+                final NumberNode startIndex = toNumberNode(args.get(0));
+                final NumberNode endIndex = args.size() == 2 ? toNumberNode(args.get(1)) : null;
+                if (startIndex == null || (args.size() == 2 && endIndex == null)) {
+                    return null;
+                }
+                return new StringNode.Substring(toStringNode(subject), startIndex, endIndex);
+            }
+            case REPLACE:
+                return new StringNode.Replace(toStringNode(subject), toStringNode(args.get(0)), toStringNode(args.get(1)));
+            case REPLACE_ALL:
+                return new StringNode.ReplaceAll(toStringNode(subject), toStringNode(args.get(0)), toStringNode(args.get(1)));
+            case REPLACE_NULL:
+                return new StringNode.ReplaceNull(toStringNode(subject), toStringNode(args.get(0)));
+            case REPLACE_EMPTY:
+                return new StringNode.ReplaceEmpty(toStringNode(subject), toStringNode(args.get(0)));
+            case IS_NULL:
+                return new BooleanNode.IsNull(toStringNode(subject));
+            case NOT_NULL:
+                return new BooleanNode.NotNull(toStringNode(subject));
+            case IS_EMPTY:
+                return new BooleanNode.IsEmpty(toStringNode(subject));
+            case STARTS_WITH:
+                return new BooleanNode.StartsWith(toStringNode(subject), toStringNode(args.get(0)));
+            case ENDS_WITH:
+                return new BooleanNode.EndsWith(toStringNode(subject), toStringNode(args.get(0)));
+            case CONTAINS:
+                return new BooleanNode.Contains(toStringNode(subject), toStringNode(args.get(0)));
+            case MATCHES:
+                return new BooleanNode.Matches(toStringNode(subject), toStringNode(args.get(0)), false);
+            case FIND:
+                return new BooleanNode.Matches(toStringNode(subject), toStringNode(args.get(0)), true);
+            case EQUALS_IGNORE_CASE:
+                return new BooleanNode.Equals(toStringNode(subject), toStringNode(args.get(0)), true);
+            case EQUALS: {
+                // values of differing types are normalized by the interpreter before being compared; that is left to the interpreter.
+                final Object compareTo = args.get(0);
+                if (subject instanceof StringNode && compareTo instanceof StringNode) {
+                    return new BooleanNode.Equals((StringNode) subject, (StringNode) compareTo, false);
+                } else if (subject instanceof NumberNode && compareTo instanceof NumberNode) {
+                    return new BooleanNode.NumberEquals((NumberNode) subject, (NumberNode) compareTo);
+                } else if (subject instanceof BooleanNode && compareTo instanceof BooleanNode) {
+                    return new BooleanNode.BooleanEquals((BooleanNode) subject, (BooleanNode) compareTo);
+                }
+                return null;
+            }
+            case GREATER_THAN:
+                return newComparison(subject, args.get(0), BooleanNode.Compare.GREATER_THAN);
+            case GREATER_THAN_OR_EQUAL:
+                return newComparison(subject, args.get(0), BooleanNode.Compare.GREATER_THAN_OR_EQUAL);
+            case LESS_THAN:
+                return newComparison(subject, args.get(0), BooleanNode.Compare.LESS_THAN);
+            case LESS_THAN_OR_EQUAL:
+                return newComparison(subject, args.get(0), BooleanNode.Compare.LESS_THAN_OR_EQUAL);
+            case AND: {
+                final BooleanNode lhs = toBooleanNode(subject);
+                final BooleanNode rhs = toBooleanNode(args.get(0));
+                return (lhs == null || rhs == null) ? null : new BooleanNode.And(lhs, rhs);
+            }
+            case OR: {
+                final BooleanNode lhs = toBooleanNode(subject);
+                final BooleanNode rhs = toBooleanNode(args.get(0));
+                return (lhs == null || rhs == null) ? null : new BooleanNode.Or(lhs, rhs);
+            }
+            case NOT: {
+                final BooleanNode booleanSubject = toBooleanNode(subject);
+                return booleanSubject == null ? null : new BooleanNode.Not(booleanSubject);
+            }
+            case LENGTH:
+                return new NumberNode.Length(toStringNode(subject));
+            case TO_NUMBER:
+                // the interpreter requires that the subject of toNumber() be a String
+                return (subject instanceof StringNode) ? new NumberNode.ToNumber((StringNode) subject) : null;
+            case INDEX_OF:
+                return new NumberNode.IndexOf(toStringNode(subject), toStringNode(args.get(0)), false);
+            case LAST_INDEX_OF:
+                return new NumberNode.IndexOf(toStringNode(subject), toStringNode(args.get(0)), true);
+            case PLUS:
+                return newArithmetic(subject, args.get(0), NumberNode.Arithmetic.PLUS);
+            case MINUS:
+                return newArithmetic(subject, args.get(0), NumberNode.Arithmetic.MINUS);
+            case MULTIPLY:
+                return newArithmetic(subject, args.get(0), NumberNode.Arithmetic.MULTIPLY);
+            case DIVIDE:
+                return newArithmetic(subject, args.get(0), NumberNode.Arithmetic.DIVIDE);
+            case MOD:
+                return newArithmetic(subject, args.get(0), NumberNode.Arithmetic.MOD);
+            default:
+                return null;
+        }
+    }
+
+    private static Object newComparison(final Object subject, final Object comparison, final int operator) {
+        final NumberNode lhs = toNumberNode(subject);
+        final NumberNode rhs = toNumberNode(comparison);
+        return (lhs == null || rhs == null) ? null : new BooleanNode.Compare(lhs, rhs, operator);
+    }
+
+    private static Object newArithmetic(final Object subject, final Object operand, final int operator) {
+        final NumberNode lhs = toNumberNode(subject);
+        final NumberNode rhs = toNumberNode(operand);
+        return (lhs == null || rhs == null) ? null : new NumberNode.Arithmetic(lhs, rhs, operator);
+    }
+
+    private static StringNode toStringNode(final Object node) {
+        if (node instanceof StringNode) {
+            return (StringNode) node;
+        } else if (node instanceof NumberNode) {
+            return new StringNode.FromNumber((NumberNode) node);
+        } else if (node instanceof BooleanNode) {
+            return new StringNode.FromBoolean((BooleanNode) node);
+        }
+        return null;
+    }
+
+    private static NumberNode toNumberNode(final Object node) {
+        if (node instanceof NumberNode) {
+            return (NumberNode) node;
+        } else if (node instanceof StringNode) {
+            return new NumberNode.FromString((StringNode) node);
+        }
+        return null;
+    }
+
+    private static BooleanNode toBooleanNode(final Object node) {
+        // Strings converted to Booleans may be null, which the interpreter treats in ways that a
+        // primitive boolean cannot represent, so only true Boolean nodes are accepted.
+        if (node instanceof BooleanNode) {
+            return (BooleanNode) node;
+        }
+        return null;
+    }
+}
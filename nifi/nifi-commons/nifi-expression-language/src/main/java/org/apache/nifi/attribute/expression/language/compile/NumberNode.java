@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled node that produces a Long, or <code>null</code> if the value is
+ * not a number.
+ */
+abstract class NumberNode {
+
+    abstract Long evaluate(Map<String, String> attributes);
+
+    static final class Literal extends NumberNode {
+
+        private final Long value;
+
+        Literal(final long value) {
+            this.value = value;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            return value;
+        }
+    }
+
+    /**
+     * Implicit conversion of a String to a Number, as performed when a String
+     * is used where a Number is expected. Values that are not numbers become
+     * <code>null</code>.
+     */
+    static final class FromString extends NumberNode {
+
+        private static final Pattern NUMBER_PATTERN = Pattern.compile("-?\\d+");
+
+        private final StringNode subject;
+
+        FromString(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return null;
+            }
+
+            final String trimmed = value.trim();
+            return NUMBER_PATTERN.matcher(trimmed).matches() ? Long.valueOf(trimmed) : null;
+        }
+    }
+
+    /**
+     * Explicit conversion via the toNumber() function, which fails if the value
+     * is not a number.
+     */
+    static final class ToNumber extends NumberNode {
+
+        private final StringNode subject;
+
+        ToNumber(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return (value == null || value.trim().isEmpty()) ? null : Long.valueOf(value);
+        }
+    }
+
+    static final class Length extends NumberNode {
+
+        private final StringNode subject;
+
+        Length(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return (long) (value == null ? 0 : value.length());
+        }
+    }
+
+    static final class IndexOf extends NumberNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+        private final boolean last;
+
+        IndexOf(final StringNode subject, final StringNode search, final boolean last) {
+            this.subject = subject;
+            this.search = search;
+            this.last = last;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return -1L;
+            }
+            final String searchValue = search.evaluate(attributes);
+            return (long) (last ? value.lastIndexOf(searchValue) : value.indexOf(searchValue));
+        }
+    }
+
+    static final class Arithmetic extends NumberNode {
+
+        static final int PLUS = 0;
+        static final int MINUS = 1;
+        static final int MULTIPLY = 2;
+        static final int DIVIDE = 3;
+        static final int MOD = 4;
+
+        private final NumberNode subject;
+        private final NumberNode operand;
+        private final int operator;
+
+        Arithmetic(final NumberNode subject, final NumberNode operand, final int operator) {
+            this.subject = subject;
+            this.operand = operand;
+            this.operator = operator;
+        }
+
+        @Override
+        Long evaluate(final Map<String, String> attributes) {
+            final Long value = subject.evaluate(attributes);
+            if (value == null) {
+                return null;
+            }
+            final Long operandValue = operand.evaluate(attributes);
+            if (operandValue == null) {
+                return null;
+            }
+
+            final long lhs = value;
+            final long rhs = operandValue;
+            switch (operator) {
+                case PLUS:
+                    return lhs + rhs;
+                case MINUS:
+                    return lhs - rhs;
+                case MULTIPLY:
+                    return lhs * rhs;
+                case DIVIDE:
+                    return lhs / rhs;
+                default:
+                    return lhs % rhs;
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled node that produces a String, or <code>null</code>. Each
+ * implementation mirrors the semantics of the corresponding String Evaluator.
+ */
+abstract class StringNode {
+
+    abstract String evaluate(Map<String, String> attributes);
+
+    static final class Literal extends StringNode {
+
+        private final String value;
+
+        Literal(final String value) {
+            this.value = value;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            return value;
+        }
+    }
+
+    static final class NamedAttribute extends StringNode {
+
+        private final String name;
+
+        NamedAttribute(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            return attributes.get(name);
+        }
+    }
+
+    static final class Attribute extends StringNode {
+
+        private final StringNode name;
+
+        Attribute(final StringNode name) {
+            this.name = name;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            return attributes.get(name.evaluate(attributes));
+        }
+    }
+
+    static final class FromNumber extends StringNode {
+
+        private final NumberNode subject;
+
+        FromNumber(final NumberNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final Long value = subject.evaluate(attributes);
+            return value == null ? null : value.toString();
+        }
+    }
+
+    static final class FromBoolean extends StringNode {
+
+        private final BooleanNode subject;
+
+        FromBoolean(final BooleanNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            return String.valueOf(subject.evaluate(attributes));
+        }
+    }
+
+    static final class Trim extends StringNode {
+
+        private final StringNode subject;
+
+        Trim(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return value == null ? null : value.trim();
+        }
+    }
+
+    static final class ToUpper extends StringNode {
+
+        private final StringNode subject;
+
+        ToUpper(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return value == null ? null : value.toUpperCase();
+        }
+    }
+
+    static final class ToLower extends StringNode {
+
+        private final StringNode subject;
+
+        ToLower(final StringNode subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return value == null ? null : value.toLowerCase();
+        }
+    }
+
+    static final class Append extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode suffix;
+
+        Append(final StringNode subject, final StringNode suffix) {
+            this.subject = subject;
+            this.suffix = suffix;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            final String suffixValue = suffix.evaluate(attributes);
+            return (value == null ? "" : value) + (suffixValue == null ? "" : suffixValue);
+        }
+    }
+
+    static final class Prepend extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode prefix;
+
+        Prepend(final StringNode subject, final StringNode prefix) {
+            this.subject = subject;
+            this.prefix = prefix;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            final String prefixValue = prefix.evaluate(attributes);
+            return (prefixValue == null ? "" : prefixValue) + (value == null ? "" : value);
+        }
+    }
+
+    static final class SubstringBefore extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        SubstringBefore(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+            final String searchValue = search.evaluate(attributes);
+            if (searchValue == null || searchValue.length() == 0) {
+                return value;
+            }
+            final int index = value.indexOf(searchValue);
+            return index < 0 ? value : value.substring(0, index);
+        }
+    }
+
+    static final class SubstringAfter extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        SubstringAfter(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+            final String searchValue = search.evaluate(attributes);
+            if (searchValue == null || searchValue.length() == 0) {
+                return value;
+            }
+            final int index = value.indexOf(searchValue);
+            return index < 0 ? value : value.substring(index + searchValue.length());
+        }
+    }
+
+    static final class SubstringBeforeLast extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        SubstringBeforeLast(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+            final int index = value.lastIndexOf(search.evaluate(attributes));
+            return index < 0 ? value : value.substring(0, index);
+        }
+    }
+
+    static final class SubstringAfterLast extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+
+        SubstringAfterLast(final StringNode subject, final StringNode search) {
+            this.subject = subject;
+            this.search = search;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+            final String searchValue = search.evaluate(attributes);
+            final int index = value.lastIndexOf(searchValue);
+            if (index < 0 || index >= value.length()) {
+                return value;
+            }
+            return value.substring(index + searchValue.length());
+        }
+    }
+
+    static final class Substring extends StringNode {
+
+        private final StringNode subject;
+        private final NumberNode startIndex;
+        private final NumberNode endIndex;
+
+        Substring(final StringNode subject, final NumberNode startIndex, final NumberNode endIndex) {
+            this.subject = subject;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return "";
+            }
+            final int start = startIndex.evaluate(attributes).intValue();
+            if (endIndex == null) {
+                return value.substring(start);
+            }
+            return value.substring(start, endIndex.evaluate(attributes).intValue());
+        }
+    }
+
+    static final class Replace extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+        private final StringNode replacement;
+
+        Replace(final StringNode subject, final StringNode search, final StringNode replacement) {
+            this.subject = subject;
+            this.search = search;
+            this.replacement = replacement;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return null;
+            }
+            return value.replace(search.evaluate(attributes), replacement.evaluate(attributes));
+        }
+    }
+
+    static final class ReplaceAll extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode search;
+        private final StringNode replacement;
+        private final Pattern compiledPattern;
+
+        ReplaceAll(final StringNode subject, final StringNode search, final StringNode replacement) {
+            this.subject = subject;
+            this.search = search;
+            this.replacement = replacement;
+            this.compiledPattern = (search instanceof Literal) ? Pattern.compile(((Literal) search).getValue()) : null;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            if (value == null) {
+                return null;
+            }
+            final Pattern pattern = compiledPattern == null ? Pattern.compile(search.evaluate(attributes)) : compiledPattern;
+            return pattern.matcher(value).replaceAll(replacement.evaluate(attributes));
+        }
+    }
+
+    static final class ReplaceNull extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode replacement;
+
+        ReplaceNull(final StringNode subject, final StringNode replacement) {
+            this.subject = subject;
+            this.replacement = replacement;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return value == null ? replacement.evaluate(attributes) : value;
+        }
+    }
+
+    static final class ReplaceEmpty extends StringNode {
+
+        private final StringNode subject;
+        private final StringNode replacement;
+
+        ReplaceEmpty(final StringNode subject, final StringNode replacement) {
+            this.subject = subject;
+            this.replacement = replacement;
+        }
+
+        @Override
+        String evaluate(final Map<String, String> attributes) {
+            final String value = subject.evaluate(attributes);
+            return (value == null || value.trim().isEmpty()) ? replacement.evaluate(attributes) : value;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.tree.Tree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares evaluating an expression by rebuilding its Evaluators from the
+ * parsed tree for every evaluation against evaluating a
+ * {@link StandardPreparedQuery}, which builds its Evaluators only once, and
+ * against a query compiled by the ExpressionCompiler.
+ *
+ * This is not run as part of the build. The JMH harness is generated only when
+ * the test sources are compiled with the <code>benchmarks</code> profile
+ * (<code>mvn clean test-compile -P benchmarks</code>), after which the
+ * benchmark can be run via this class's main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class PreparedQueryBenchmark {
+
+    @Param({
+        "${filename}",
+        "${filename:toUpper():substringBefore('.')}",
+        "${filename:matches('.*\\.txt')}",
+        "${filename:endsWith('.txt'):and(${fileSize:toNumber():gt(1024)})}"
+    })
+    public String expression;
+
+    private Map<String, String> attributes;
+    private Tree tree;
+    private PreparedQuery preparedQuery;
+    private PreparedQuery compiledQuery;
+
+    @Setup
+    public void setup() {
+        attributes = new HashMap<>();
+        attributes.put("filename", "my-file.txt");
+        attributes.put("fileSize", "4096");
+        attributes.put("uuid", "3f2b3bb2-5c0a-4b27-b2fd-1e0b0a4c6f11");
+
+        tree = Query.compileTree(expression);
+        preparedQuery = Query.prepare(expression, false);
+        compiledQuery = Query.prepare(expression, true);
+    }
+
+    @Benchmark
+    public String rebuildEvaluatorPerEvaluation() {
+        return Query.evaluateExpression(tree, expression, attributes, null);
+    }
+
+    @Benchmark
+    public String preparedQuery() {
+        return preparedQuery.evaluateExpressions(attributes, null);
+    }
+
+    @Benchmark
+    public String compiledQuery() {
+        return compiledQuery.evaluateExpressions(attributes, null);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PreparedQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
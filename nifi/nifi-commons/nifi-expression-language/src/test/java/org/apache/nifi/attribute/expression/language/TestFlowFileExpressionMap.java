@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestFlowFileExpressionMap {
+
+    private FlowFile createMockFlowFile(final Map<String, String> attributes) {
+        final FlowFile mockFlowFile = Mockito.mock(FlowFile.class);
+        Mockito.when(mockFlowFile.getAttributes()).thenReturn(attributes);
+        Mockito.when(mockFlowFile.getId()).thenReturn(4L);
+        Mockito.when(mockFlowFile.getEntryDate()).thenReturn(1000L);
+        Mockito.when(mockFlowFile.getSize()).thenReturn(1024L);
+        Mockito.when(mockFlowFile.getLineageStartDate()).thenReturn(500L);
+        return mockFlowFile;
+    }
+
+    @Test
+    public void testCorePropertiesOnlyComputedWhenReferenced() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file.txt");
+        final FlowFile flowFile = createMockFlowFile(attributes);
+
+        assertEquals("file.txt", Query.evaluateExpressions("${filename}", flowFile));
+        Mockito.verify(flowFile, Mockito.never()).getId();
+        Mockito.verify(flowFile, Mockito.never()).getSize();
+        Mockito.verify(flowFile, Mockito.never()).getEntryDate();
+        Mockito.verify(flowFile, Mockito.never()).getLineageStartDate();
+
+        assertEquals("1024", Query.evaluateExpressions("${fileSize}", flowFile));
+        Mockito.verify(flowFile, Mockito.times(1)).getSize();
+        Mockito.verify(flowFile, Mockito.never()).getId();
+    }
+
+    @Test
+    public void testCoreProperties() {
+        final FlowFile flowFile = createMockFlowFile(new HashMap<String, String>());
+        assertEquals("4", Query.evaluateExpressions("${flowFileId}", flowFile));
+        assertEquals("1024", Query.evaluateExpressions("${fileSize}", flowFile));
+        assertEquals("1000", Query.evaluateExpressions("${entryDate}", flowFile));
+        assertEquals("500", Query.evaluateExpressions("${lineageStartDate}", flowFile));
+        assertEquals("true", Query.evaluateExpressions("${fileSize:gt(1000)}", flowFile));
+    }
+
+    @Test
+    public void testAttributesTakePrecedence() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("fileSize", "attribute value");
+        attributes.put("java.version", "attribute value");
+        final FlowFile flowFile = createMockFlowFile(attributes);
+
+        assertEquals("attribute value", Query.evaluateExpressions("${fileSize}", flowFile));
+        assertEquals("attribute value", Query.evaluateExpressions("${java.version}", flowFile));
+        assertEquals(System.getProperty("java.version"), Query.evaluateExpressions("${java.version}", (FlowFile) null));
+    }
+
+    @Test
+    public void testSystemPropertyChangedAtRuntime() {
+        final Map<String, String> expressionMap = Query.createExpressionMap(null);
+        assertNull(expressionMap.get("test.flowfile.expression.map.added"));
+
+        System.setProperty("test.flowfile.expression.map.added", "added");
+        try {
+            assertEquals("added", expressionMap.get("test.flowfile.expression.map.added"));
+            assertEquals("added", Query.evaluateExpressions("${test.flowfile.expression.map.added}"));
+
+            System.setProperty("test.flowfile.expression.map.added", "changed");
+            assertEquals("changed", expressionMap.get("test.flowfile.expression.map.added"));
+            assertEquals("changed", Query.evaluateExpressions("${test.flowfile.expression.map.added}"));
+        } finally {
+            System.clearProperty("test.flowfile.expression.map.added");
+        }
+
+        assertNull(expressionMap.get("test.flowfile.expression.map.added"));
+        assertFalse(expressionMap.containsKey("test.flowfile.expression.map.added"));
+    }
+
+    @Test
+    public void testReadOnlyView() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file.txt");
+        final Map<String, String> expressionMap = Query.createExpressionMap(createMockFlowFile(attributes));
+
+        assertTrue(expressionMap.containsKey("filename"));
+        assertTrue(expressionMap.containsKey("flowFileId"));
+        assertFalse(expressionMap.containsKey("no such attribute"));
+        assertTrue(expressionMap.keySet().contains("fileSize"));
+        assertTrue(expressionMap.keySet().contains("filename"));
+
+        try {
+            expressionMap.put("filename", "other.txt");
+            fail("Expression Map should be read-only");
+        } catch (final UnsupportedOperationException uoe) {
+        }
+    }
+
+    @Test
+    public void testAllocationRate() {
+        final java.lang.management.ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadMxBean = (com.sun.management.ThreadMXBean) mxBean;
+        assumeTrue(threadMxBean.isThreadAllocatedMemorySupported() && threadMxBean.isThreadAllocatedMemoryEnabled());
+
+        final FlowFile flowFile = new StubFlowFile(Collections.singletonMap("filename", "file.txt"));
+        final int iterations = 100000;
+
+        // warm up so that the measurement does not include class loading, etc.
+        for (int i = 0; i < iterations; i++) {
+            Query.createExpressionMap(flowFile).get("filename");
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long startBytes = threadMxBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            assertEquals("file.txt", Query.createExpressionMap(flowFile).get("filename"));
+        }
+        final long bytesPerEvaluation = (threadMxBean.getThreadAllocatedBytes(threadId) - startBytes) / iterations;
+
+        // Building the map eagerly allocated a HashMap, its entries, and a String for each
+        // of the four core properties, several hundred bytes in all. The lazy view should be
+        // at most a single small object.
+        assertTrue("Allocated " + bytesPerEvaluation + " bytes per evaluation", bytesPerEvaluation <= 64);
+    }
+
+    private static class StubFlowFile implements FlowFile {
+
+        private final Map<String, String> attributes;
+
+        public StubFlowFile(final Map<String, String> attributes) {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public long getId() {
+            return 1L;
+        }
+
+        @Override
+        public long getEntryDate() {
+            return 0L;
+        }
+
+        @Override
+        public long getLineageStartDate() {
+            return 0L;
+        }
+
+        @Override
+        public Long getLastQueueDate() {
+            return null;
+        }
+
+        @Override
+        public Set<String> getLineageIdentifiers() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean isPenalized() {
+            return false;
+        }
+
+        @Override
+        public String getAttribute(final String key) {
+            return attributes.get(key);
+        }
+
+        @Override
+        public long getSize() {
+            return 0L;
+        }
+
+        @Override
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public int compareTo(final FlowFile other) {
+            return Long.compare(getId(), other.getId());
+        }
+    }
+}
@@ -84,6 +84,69 @@ public class TestStandardPreparedQuery {
 
     }
     
+    @Test
+    public void testPreparedQueryReusedAcrossEvaluations() {
+        final PreparedQuery prepared = Query.prepare("${xx:toUpper():matches('W.*')}");
+
+        final Map<String, String> attrs = new HashMap<>();
+        attrs.put("xx", "world");
+        assertEquals("true", prepared.evaluateExpressions(attrs, null));
+
+        attrs.put("xx", "hello");
+        assertEquals("false", prepared.evaluateExpressions(attrs, null));
+
+        attrs.put("xx", "wonderful");
+        assertEquals("true", prepared.evaluateExpressions(attrs, null));
+    }
+
+    @Test
+    public void testMultiAttributeExpressionEvaluatedRepeatedly() {
+        final PreparedQuery prepared = Query.prepare("${allDelineatedValues(${xx}, ','):length():gt(2)}");
+        final PreparedQuery anyAttribute = Query.prepare("${anyAttribute('a', 'b'):equals('x')}");
+
+        final Map<String, String> attrs = new HashMap<>();
+        attrs.put("xx", "abc,def");
+        attrs.put("a", "x");
+        attrs.put("b", "y");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("true", prepared.evaluateExpressions(attrs, null));
+            assertEquals("true", anyAttribute.evaluateExpressions(attrs, null));
+        }
+
+        attrs.put("xx", "abc,de");
+        attrs.put("a", "y");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("false", prepared.evaluateExpressions(attrs, null));
+            assertEquals("false", anyAttribute.evaluateExpressions(attrs, null));
+        }
+    }
+
+    @Test
+    public void testEmbeddedExpressionInLiteralEvaluatedRepeatedly() {
+        final PreparedQuery prepared = Query.prepare("${xx:append('${yy}!')}");
+
+        final Map<String, String> attrs = new HashMap<>();
+        attrs.put("xx", "hello, ");
+        attrs.put("yy", "world");
+        assertEquals("hello, world!", prepared.evaluateExpressions(attrs, null));
+
+        attrs.put("yy", "you");
+        assertEquals("hello, you!", prepared.evaluateExpressions(attrs, null));
+    }
+
+    @Test
+    public void testReduceFunctionEvaluatedRepeatedly() {
+        final PreparedQuery count = Query.prepare("${filename:count()}");
+        final PreparedQuery join = Query.prepare("${filename:join(',')}");
+
+        final Map<String, String> attrs = new HashMap<>();
+        attrs.put("filename", "abc.txt");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("1", count.evaluateExpressions(attrs, null));
+            assertEquals("abc.txt", join.evaluateExpressions(attrs, null));
+        }
+    }
+
     private String evaluate(final String query, final Map<String, String> attrs) {
         final String evaluated = ((StandardPreparedQuery) Query.prepare(query)).evaluateExpressions(attrs, null);
         return evaluated;
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.attribute.expression.language.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.nifi.attribute.expression.language.PreparedQuery;
+import org.apache.nifi.attribute.expression.language.Query;
+import org.apache.nifi.expression.AttributeValueDecorator;
+import org.junit.Test;
+
+public class TestExpressionCompiler {
+
+    private Map<String, String> createAttributes() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "My File.txt");
+        attributes.put("path", "/a/b/c/");
+        attributes.put("size", "1024");
+        attributes.put("negative", "-12");
+        attributes.put("blank", "   ");
+        attributes.put("empty", "");
+        attributes.put("notNumber", "abc");
+        attributes.put("bool", "true");
+        attributes.put("name", "filename");
+        attributes.put("dollars", "a$$b");
+        return attributes;
+    }
+
+    private void verifySame(final String query) {
+        final Map<String, String> attributes = createAttributes();
+        final String interpreted = Query.prepare(query, false).evaluateExpressions(attributes);
+        final String compiled = Query.prepare(query, true).evaluateExpressions(attributes);
+        assertEquals("Compiled result differs for " + query, interpreted, compiled);
+    }
+
+    private void verifyCompilable(final String expression, final boolean compilable) {
+        assertEquals(expression, compilable, ExpressionCompiler.isCompilable(Query.compileTree(expression)));
+    }
+
+    @Test
+    public void testStringFunctions() {
+        verifySame("${filename}");
+        verifySame("${missing}");
+        verifySame("${filename:toUpper()}");
+        verifySame("${filename:toLower():trim()}");
+        verifySame("${blank:trim()}");
+        verifySame("${filename:append('.bak')}");
+        verifySame("${missing:append('.bak')}");
+        verifySame("${filename:prepend(${path})}");
+        verifySame("${filename:substringBefore('.')}");
+        verifySame("${filename:substringBefore('')}");
+        verifySame("${filename:substringAfter(' ')}");
+        verifySame("${filename:substringAfter('zzz')}");
+        verifySame("${path:substringBeforeLast('/')}");
+        verifySame("${path:substringAfterLast('/')}");
+        verifySame("${missing:substringAfterLast('/')}");
+        verifySame("${filename:substring(3)}");
+        verifySame("${filename:substring(0, 2)}");
+        verifySame("${filename:substring(0, ${filename:indexOf(' ')})}");
+        verifySame("${filename:replace(' ', '_')}");
+        verifySame("${filename:replaceAll('\\s+', '-')}");
+        verifySame("${filename:replaceAll(${notNumber:substring(0, 1)}, '-')}");
+        verifySame("${missing:replaceNull('default')}");
+        verifySame("${blank:replaceEmpty('default')}");
+        verifySame("${filename:replaceEmpty('default')}");
+        verifySame("${${name}}");
+        verifySame("${size:toNumber():toString()}");
+        verifySame("${dollars}");
+    }
+
+    @Test
+    public void testBooleanFunctions() {
+        verifySame("${filename:isNull()}");
+        verifySame("${missing:isNull()}");
+        verifySame("${filename:notNull()}");
+        verifySame("${blank:isEmpty()}");
+        verifySame("${filename:startsWith('My')}");
+        verifySame("${missing:startsWith('My')}");
+        verifySame("${filename:endsWith('.txt')}");
+        verifySame("${filename:contains('File')}");
+        verifySame("${filename:matches('My.*')}");
+        verifySame("${filename:find('Fi')}");
+        verifySame("${filename:matches(${notNumber})}");
+        verifySame("${filename:equals('My File.txt')}");
+        verifySame("${missing:equals('My File.txt')}");
+        verifySame("${filename:equalsIgnoreCase('my file.TXT')}");
+        verifySame("${size:gt(100)}");
+        verifySame("${size:ge(1024)}");
+        verifySame("${size:lt(${negative})}");
+        verifySame("${notNumber:le(1)}");
+        verifySame("${size:toNumber():equals(1024)}");
+        verifySame("${filename:endsWith('.txt'):and(${size:gt(1000)})}");
+        verifySame("${filename:endsWith('.csv'):or(${size:gt(1000)})}");
+        verifySame("${filename:endsWith('.csv'):not()}");
+        verifySame("${filename:endsWith('.txt'):equals(true)}");
+        verifySame("${filename:endsWith('.txt'):toUpper()}");
+    }
+
+    @Test
+    public void testNumberFunctions() {
+        verifySame("${filename:length()}");
+        verifySame("${missing:length()}");
+        verifySame("${size:toNumber()}");
+        verifySame("${missing:toNumber()}");
+        verifySame("${size:plus(5)}");
+        verifySame("${size:minus(${negative})}");
+        verifySame("${size:multiply(2):divide(3)}");
+        verifySame("${size:mod(7)}");
+        verifySame("${notNumber:plus(1)}");
+        verifySame("${filename:indexOf('F')}");
+        verifySame("${missing:indexOf('F')}");
+        verifySame("${filename:lastIndexOf('e')}");
+    }
+
+    @Test
+    public void testMixedQueries() {
+        verifySame("Hello, ${filename}!");
+        verifySame("${filename}${path}");
+        verifySame("${filename} is ${size} bytes and ${allAttributes('size', 'negative'):matches('-?\\d+')}");
+        verifySame("$${filename} ${filename:append('${path}')}");
+        verifySame("No expressions here");
+    }
+
+    @Test
+    public void testDecorator() {
+        final AttributeValueDecorator decorator = new AttributeValueDecorator() {
+            @Override
+            public String decorate(final String attributeValue) {
+                return "[" + attributeValue + "]";
+            }
+        };
+
+        final Map<String, String> attributes = createAttributes();
+        final String query = "${filename} - ${size:plus(1)} - ${anyAttribute('size', 'notNumber'):equals('abc')}";
+        assertEquals(Query.prepare(query, false).evaluateExpressions(attributes, decorator),
+                Query.prepare(query, true).evaluateExpressions(attributes, decorator));
+    }
+
+    @Test
+    public void testUnsupportedConstructsFallBack() {
+        verifyCompilable("${filename:toUpper()}", true);
+        verifyCompilable("${filename:append('${path}')}", false);
+        verifyCompilable("${anyAttribute('a', 'b'):equals('x')}", false);
+        verifyCompilable("${now():toNumber()}", false);
+        verifyCompilable("${size:toDate('yyyy')}", false);
+        verifyCompilable("${bool:and(true)}", false);
+        verifyCompilable("${size:equals(1024)}", false);
+        verifyCompilable("${UUID()}", false);
+
+        verifySame("${now():toNumber():gt(0)}");
+        verifySame("${bool:and(true)}");
+        verifySame("${size:equals(1024)}");
+    }
+
+    @Test
+    public void testReusedAcrossEvaluations() {
+        final PreparedQuery query = Query.prepare("${filename:matches('.*\\.txt')}", true);
+        final Map<String, String> attributes = createAttributes();
+        for (int i = 0; i < 100; i++) {
+            attributes.put("filename", i % 2 == 0 ? "file.txt" : "file.csv");
+            final boolean matches = Boolean.parseBoolean(query.evaluateExpressions(attributes));
+            if (i % 2 == 0) {
+                assertTrue(matches);
+            } else {
+                assertFalse(matches);
+            }
+        }
+    }
+}
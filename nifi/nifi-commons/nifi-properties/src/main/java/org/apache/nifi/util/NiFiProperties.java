@@ -28,8 +28,10 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 public class NiFiProperties extends Properties {
 
@@ -51,6 +53,13 @@ public class NiFiProperties extends Properties {
     public static final String WRITE_DELAY_INTERVAL = "nifi.flowservice.writedelay.interval";
     public static final String AUTO_RESUME_STATE = "nifi.flowcontroller.autoResumeState";
     public static final String FLOW_CONTROLLER_GRACEFUL_SHUTDOWN_PERIOD = "nifi.flowcontroller.graceful.shutdown.period";
+    public static final String FLOW_CONTROLLER_PARK_IDLE_TASKS = "nifi.flowcontroller.park.idle.tasks";
+    public static final String ADAPTIVE_RUN_DURATION_ENABLED = "nifi.flowcontroller.adaptive.run.duration.enabled";
+    public static final String ADAPTIVE_RUN_DURATION_LATENCY_TARGET = "nifi.flowcontroller.adaptive.run.duration.latency.target";
+    public static final String SCHEDULING_FAIR_SHARE_ENABLED = "nifi.scheduling.fair.share.enabled";
+    public static final String SCHEDULING_POOL_GROUPS_PREFIX = "nifi.scheduling.pool.groups.";
+    public static final String SCHEDULING_POOL_WEIGHT_PREFIX = "nifi.scheduling.pool.weight.";
+    public static final String BLOCKING_IO_MAX_THREADS = "nifi.flowcontroller.blocking.io.max.threads";
     public static final String NAR_LIBRARY_DIRECTORY = "nifi.nar.library.directory";
     public static final String NAR_WORKING_DIRECTORY = "nifi.nar.working.directory";
     public static final String COMPONENT_DOCS_DIRECTORY = "nifi.documentation.working.directory";
@@ -69,6 +78,7 @@ public class NiFiProperties extends Properties {
     public static final String CONTENT_REPOSITORY_IMPLEMENTATION = "nifi.content.repository.implementation";
     public static final String MAX_APPENDABLE_CLAIM_SIZE = "nifi.content.claim.max.appendable.size";
     public static final String MAX_FLOWFILES_PER_CLAIM = "nifi.content.claim.max.flow.files";
+    public static final String CONTENT_CLAIM_PACKING_ENABLED = "nifi.content.claim.packing.enabled";
     public static final String CONTENT_ARCHIVE_MAX_RETENTION_PERIOD = "nifi.content.repository.archive.max.retention.period";
     public static final String CONTENT_ARCHIVE_MAX_USAGE_PERCENTAGE = "nifi.content.repository.archive.max.usage.percentage";
     public static final String CONTENT_ARCHIVE_BACK_PRESSURE_PERCENTAGE = "nifi.content.repository.archive.backpressure.percentage";
@@ -82,8 +92,13 @@ public class NiFiProperties extends Properties {
     public static final String FLOWFILE_REPOSITORY_DIRECTORY = "nifi.flowfile.repository.directory";
     public static final String FLOWFILE_REPOSITORY_PARTITIONS = "nifi.flowfile.repository.partitions";
     public static final String FLOWFILE_REPOSITORY_CHECKPOINT_INTERVAL = "nifi.flowfile.repository.checkpoint.interval";
+    public static final String FLOWFILE_REPOSITORY_GROUP_COMMIT_PERIOD = "nifi.flowfile.repository.group.commit.period";
+    public static final String FLOWFILE_REPOSITORY_GROUP_COMMIT_SIZE = "nifi.flowfile.repository.group.commit.size";
     public static final String FLOWFILE_SWAP_MANAGER_IMPLEMENTATION = "nifi.swap.manager.implementation";
     public static final String QUEUE_SWAP_THRESHOLD = "nifi.queue.swap.threshold";
+    public static final String QUEUE_STRIPED_ENABLED = "nifi.queue.striped.enabled";
+    public static final String QUEUE_COMPACT_RECORDS_ENABLED = "nifi.queue.compact.records.enabled";
+    public static final String QUEUE_COMPACT_RECORDS_OFF_HEAP_SIZE = "nifi.queue.compact.records.off.heap.size";
     public static final String SWAP_IN_THREADS = "nifi.swap.in.threads";
     public static final String SWAP_IN_PERIOD = "nifi.swap.in.period";
     public static final String SWAP_OUT_THREADS = "nifi.swap.out.threads";
@@ -192,6 +207,8 @@ public class NiFiProperties extends Properties {
     public static final String DEFAULT_FLOWFILE_CHECKPOINT_INTERVAL = "2 min";
     public static final int DEFAULT_MAX_FLOWFILES_PER_CLAIM = 100;
     public static final int DEFAULT_QUEUE_SWAP_THRESHOLD = 20000;
+    public static final String DEFAULT_ADAPTIVE_RUN_DURATION_LATENCY_TARGET = "25 ms";
+    public static final int DEFAULT_BLOCKING_IO_MAX_THREADS = 5000;
     public static final String DEFAULT_SWAP_STORAGE_LOCATION = "./flowfile_repository/swap";
     public static final String DEFAULT_SWAP_IN_PERIOD = "1 sec";
     public static final String DEFAULT_SWAP_OUT_PERIOD = "5 sec";
@@ -315,6 +332,87 @@ public class NiFiProperties extends Properties {
         }
     }
 
+    /**
+     * Returns whether connections should use a FlowFile queue that is striped
+     * across many locks, rather than the standard queue that is guarded by a
+     * single lock
+     *
+     * @return
+     */
+    public boolean isStripedQueueEnabled() {
+        return Boolean.parseBoolean(getProperty(QUEUE_STRIPED_ENABLED, "false"));
+    }
+
+    /**
+     * Returns whether timer-driven components whose incoming connections are
+     * all empty should stop being triggered until a FlowFile is queued for
+     * them, rather than being triggered according to their run schedule
+     *
+     * @return
+     */
+    public boolean isParkIdleTasksEnabled() {
+        return Boolean.parseBoolean(getProperty(FLOW_CONTROLLER_PARK_IDLE_TASKS, "false"));
+    }
+
+    /**
+     * Returns whether the framework should choose how long to batch the
+     * invocations of each processor that supports batching, rather than using
+     * the run duration configured for it
+     *
+     * @return
+     */
+    public boolean isAdaptiveRunDurationEnabled() {
+        return Boolean.parseBoolean(getProperty(ADAPTIVE_RUN_DURATION_ENABLED, "false"));
+    }
+
+    /**
+     * Returns the longest that a batch of invocations may take, including the
+     * commit of its session, for a processor that has no run duration
+     * configured. When adaptive run durations are enabled, the run duration
+     * configured for a processor is used as its own latency target.
+     *
+     * @return
+     */
+    public String getAdaptiveRunDurationLatencyTarget() {
+        return getProperty(ADAPTIVE_RUN_DURATION_LATENCY_TARGET, DEFAULT_ADAPTIVE_RUN_DURATION_LATENCY_TARGET);
+    }
+
+    /**
+     * Returns whether timer-driven components should be run on threads that
+     * are shared fairly between scheduling pools, rather than on a single pool
+     * of threads in the order in which they become due to run
+     *
+     * @return
+     */
+    public boolean isFairShareSchedulingEnabled() {
+        return Boolean.parseBoolean(getProperty(SCHEDULING_FAIR_SHARE_ENABLED, "false"));
+    }
+
+    /**
+     * Returns the most threads that may be used to run processors that are
+     * scheduled with the Blocking I/O strategy. These threads are created only
+     * as they are needed and are not taken from the timer-driven thread pool.
+     *
+     * @return
+     */
+    public int getMaxBlockingIoThreads() {
+        return getIntegerProperty(BLOCKING_IO_MAX_THREADS, DEFAULT_BLOCKING_IO_MAX_THREADS);
+    }
+
+    public boolean isCompactRecordsEnabled() {
+        return Boolean.parseBoolean(getProperty(QUEUE_COMPACT_RECORDS_ENABLED, "false"));
+    }
+
+    /**
+     * @return the maximum amount of off-heap memory to use for storing the
+     * attributes of compact FlowFile records, or null if attributes should be
+     * stored on the heap
+     */
+    public String getCompactRecordsOffHeapSize() {
+        final String value = getProperty(QUEUE_COMPACT_RECORDS_OFF_HEAP_SIZE);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
     public Integer getIntegerProperty(final String propertyName, final Integer defaultValue) {
         final String value = getProperty(propertyName);
         if (value == null) {
@@ -431,6 +529,30 @@ public class NiFiProperties extends Properties {
         return getProperty(FLOWFILE_REPOSITORY_CHECKPOINT_INTERVAL, DEFAULT_FLOWFILE_CHECKPOINT_INTERVAL);
     }
 
+    /**
+     * Returns the maximum amount of time that an update to the FlowFile
+     * Repository that must be synced to disk waits for other updates to be
+     * synced along with it, or null if each update is to be synced on its own
+     *
+     * @return
+     */
+    public String getFlowFileRepositoryGroupCommitPeriod() {
+        final String value = getProperty(FLOWFILE_REPOSITORY_GROUP_COMMIT_PERIOD);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
+    /**
+     * Returns the amount of data that, once written to a partition of the
+     * FlowFile Repository, causes the partition to be synced without waiting
+     * for the group commit period to elapse, or null if not configured
+     *
+     * @return
+     */
+    public String getFlowFileRepositoryGroupCommitSize() {
+        final String value = getProperty(FLOWFILE_REPOSITORY_GROUP_COMMIT_SIZE);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
     /**
      * @return the restore directory or null if not configured
      */
@@ -848,6 +970,51 @@ public class NiFiProperties extends Properties {
         return provenanceRepositoryPaths;
     }
 
+    /**
+     * Returns the process groups that have been assigned to each named
+     * scheduling pool. This method returns a mapping of pool name to the
+     * identifiers of the process groups in that pool.
+     *
+     * @return
+     */
+    public Map<String, Set<String>> getSchedulingPoolGroups() {
+        final Map<String, Set<String>> poolGroups = new HashMap<>();
+
+        for (String propertyName : stringPropertyNames()) {
+            if (StringUtils.startsWith(propertyName, SCHEDULING_POOL_GROUPS_PREFIX)) {
+                final String poolName = StringUtils.substringAfter(propertyName, SCHEDULING_POOL_GROUPS_PREFIX);
+
+                final Set<String> groupIds = new HashSet<>();
+                for (final String groupId : getProperty(propertyName).split(",")) {
+                    if (!groupId.trim().isEmpty()) {
+                        groupIds.add(groupId.trim());
+                    }
+                }
+                poolGroups.put(poolName, groupIds);
+            }
+        }
+        return poolGroups;
+    }
+
+    /**
+     * Returns the weights that have been given to scheduling pools. This
+     * method returns a mapping of pool name to weight. Pools that are not
+     * named here have a weight of 1.
+     *
+     * @return
+     */
+    public Map<String, Integer> getSchedulingPoolWeights() {
+        final Map<String, Integer> weights = new HashMap<>();
+
+        for (String propertyName : stringPropertyNames()) {
+            if (StringUtils.startsWith(propertyName, SCHEDULING_POOL_WEIGHT_PREFIX)) {
+                final String poolName = StringUtils.substringAfter(propertyName, SCHEDULING_POOL_WEIGHT_PREFIX);
+                weights.put(poolName, Integer.parseInt(getProperty(propertyName).trim()));
+            }
+        }
+        return weights;
+    }
+
     public int getMaxFlowFilesPerClaim() {
         try {
             return Integer.parseInt(getProperty(MAX_FLOWFILES_PER_CLAIM));
@@ -860,6 +1027,17 @@ public class NiFiProperties extends Properties {
         return getProperty(MAX_APPENDABLE_CLAIM_SIZE);
     }
 
+    /**
+     * Returns whether or not the Content Repository should write the content
+     * of many FlowFiles, across sessions, into a shared claim rather than
+     * creating a new claim for each session. Defaults to false.
+     *
+     * @return true if content claims should be packed
+     */
+    public boolean isContentClaimPackingEnabled() {
+        return Boolean.parseBoolean(getProperty(CONTENT_CLAIM_PACKING_ENABLED));
+    }
+
     @Override
     public String getProperty(final String key, final String defaultValue) {
         final String value = super.getProperty(key, defaultValue);
@@ -27,9 +27,13 @@ public class CompressionInputStream extends InputStream {
 
     private final InputStream in;
     private final Inflater inflater;
+    private final boolean ownsInflater;
 
+    // the buffers are reused for every chunk that fits, so only their first bufferLength/compressedLength bytes are valid
     private byte[] compressedBuffer;
     private byte[] buffer;
+    private int compressedLength;
+    private int bufferLength;
 
     private int bufferIndex;
     private boolean eos = false;    // whether or not we've reached the end of stream
@@ -38,8 +42,28 @@ public class CompressionInputStream extends InputStream {
     private final byte[] fourByteBuffer = new byte[4];
 
     public CompressionInputStream(final InputStream in) {
+        this(in, new Inflater(), true);
+    }
+
+    /**
+     * Creates a stream that decompresses using the given Inflater rather than
+     * creating its own, so that one Inflater can be used for many streams in
+     * turn.
+     *
+     * @param in the stream to read the compressed data from
+     * @param inflater the Inflater to use; it must not be used by any other
+     * stream while this one is being read
+     */
+    public CompressionInputStream(final InputStream in, final Inflater inflater) {
+        this(in, inflater, false);
+    }
+
+    private CompressionInputStream(final InputStream in, final Inflater inflater, final boolean ownsInflater) {
         this.in = in;
-        inflater = new Inflater();
+        this.inflater = inflater;
+        this.ownsInflater = ownsInflater;
+        // a shared Inflater may hold input from a stream that was abandoned due to a failure
+        inflater.reset();
 
         buffer = new byte[0];
         compressedBuffer = new byte[0];
@@ -67,13 +91,19 @@ public class CompressionInputStream extends InputStream {
 
         // determine the size of the decompressed buffer
         fillBuffer(fourByteBuffer);
-        buffer = new byte[toInt(fourByteBuffer)];
+        bufferLength = toInt(fourByteBuffer);
+        if (buffer.length < bufferLength) {
+            buffer = new byte[bufferLength];
+        }
 
         // determine the size of the compressed buffer
         fillBuffer(fourByteBuffer);
-        compressedBuffer = new byte[toInt(fourByteBuffer)];
+        compressedLength = toInt(fourByteBuffer);
+        if (compressedBuffer.length < compressedLength) {
+            compressedBuffer = new byte[compressedLength];
+        }
 
-        bufferIndex = buffer.length;	// indicate that buffer is empty
+        bufferIndex = bufferLength;	// indicate that buffer is empty
     }
 
     private int toInt(final byte[] data) {
@@ -90,11 +120,11 @@ public class CompressionInputStream extends InputStream {
         }
 
         readChunkHeader();
-        fillBuffer(compressedBuffer);
+        fillBuffer(compressedBuffer, compressedLength);
 
-        inflater.setInput(compressedBuffer);
+        inflater.setInput(compressedBuffer, 0, compressedLength);
         try {
-            inflater.inflate(buffer);
+            inflater.inflate(buffer, 0, bufferLength);
         } catch (final DataFormatException e) {
             throw new IOException(e);
         }
@@ -110,21 +140,25 @@ public class CompressionInputStream extends InputStream {
     }
 
     private void fillBuffer(final byte[] buffer) throws IOException {
+        fillBuffer(buffer, buffer.length);
+    }
+
+    private void fillBuffer(final byte[] buffer, final int length) throws IOException {
         int len;
-        int bytesLeft = buffer.length;
+        int bytesLeft = length;
         int bytesRead = 0;
         while (bytesLeft > 0 && (len = in.read(buffer, bytesRead, bytesLeft)) > 0) {
             bytesLeft -= len;
             bytesRead += len;
         }
 
-        if (bytesRead < buffer.length) {
+        if (bytesRead < length) {
             throw new EOFException();
         }
     }
 
     private boolean isBufferEmpty() {
-        return bufferIndex >= buffer.length;
+        return bufferIndex >= bufferLength;
     }
 
     @Override
@@ -142,7 +176,7 @@ public class CompressionInputStream extends InputStream {
             return -1;
         }
 
-        return buffer[bufferIndex++];
+        return buffer[bufferIndex++] & 0xFF;
     }
 
     @Override
@@ -165,7 +199,7 @@ public class CompressionInputStream extends InputStream {
             return -1;
         }
 
-        final int free = buffer.length - bufferIndex;
+        final int free = bufferLength - bufferIndex;
         final int bytesToTransfer = Math.min(len, free);
         System.arraycopy(buffer, bufferIndex, b, off, bytesToTransfer);
         bufferIndex += bytesToTransfer;
@@ -174,11 +208,14 @@ public class CompressionInputStream extends InputStream {
     }
 
     /**
-     * Does nothing. Does NOT close underlying InputStream
+     * Releases the Inflater if this stream created it. Does NOT close
+     * underlying InputStream
      * @throws java.io.IOException
      */
     @Override
     public void close() throws IOException {
-
+        if (ownsInflater) {
+            inflater.end();
+        }
     }
 }
@@ -30,6 +30,7 @@ public class CompressionOutputStream extends OutputStream {
 
     private final OutputStream out;
     private final Deflater deflater;
+    private final boolean ownsDeflater;
 
     private final byte[] buffer;
     private final byte[] compressed;
@@ -46,17 +47,43 @@ public class CompressionOutputStream extends OutputStream {
     }
 
     public CompressionOutputStream(final OutputStream outStream, final int bufferSize, final int level, final int strategy) {
+        this(outStream, bufferSize, createDeflater(level, strategy), true);
+    }
+
+    /**
+     * Creates a stream that compresses using the given Deflater rather than
+     * creating its own, so that one Deflater, and the native memory that it
+     * holds, can be used for many streams in turn. The Deflater is not ended
+     * when this stream is closed.
+     *
+     * @param outStream the stream to write the compressed data to
+     * @param deflater the Deflater to use; it must not be used by any other
+     * stream until this one is closed
+     */
+    public CompressionOutputStream(final OutputStream outStream, final Deflater deflater) {
+        this(outStream, DEFAULT_BUFFER_SIZE, deflater, false);
+    }
+
+    private CompressionOutputStream(final OutputStream outStream, final int bufferSize, final Deflater deflater, final boolean ownsDeflater) {
         if (bufferSize < MIN_BUFFER_SIZE) {
             throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE);
         }
 
         this.out = outStream;
-        this.deflater = new Deflater(level);
-        this.deflater.setStrategy(strategy);
+        this.deflater = deflater;
+        this.ownsDeflater = ownsDeflater;
+        // a shared Deflater may hold input from a stream that was abandoned due to a failure
+        deflater.reset();
         buffer = new byte[bufferSize];
         compressed = new byte[bufferSize + 64];
     }
 
+    private static Deflater createDeflater(final int level, final int strategy) {
+        final Deflater deflater = new Deflater(level);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
     /**
      * Compresses the currently buffered chunk of data and sends it to the
      * output stream
@@ -138,10 +165,21 @@ public class CompressionOutputStream extends OutputStream {
         super.flush();
     }
 
+    /**
+     * Writes out any buffered data and indicates that the stream is finished.
+     * Does NOT close the underlying OutputStream
+     *
+     * @throws IOException
+     */
     @Override
     public void close() throws IOException {
         compressAndWrite();
         out.write(0);   // indicate that the stream is finished.
         out.flush();
+
+        // release the Deflater's native memory now rather than waiting for it to be finalized
+        if (ownsDeflater) {
+            deflater.end();
+        }
     }
 }
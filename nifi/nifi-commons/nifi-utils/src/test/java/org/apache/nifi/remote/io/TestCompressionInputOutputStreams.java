@@ -16,6 +16,7 @@
  */
 package org.apache.nifi.remote.io;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -23,6 +24,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.apache.nifi.remote.io.CompressionInputStream;
 import org.apache.nifi.remote.io.CompressionOutputStream;
@@ -49,6 +52,25 @@ public class TestCompressionInputOutputStreams {
         assertTrue(Arrays.equals(data, decompressed));
     }
 
+    @Test
+    public void testSingleByteReads() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        final CompressionOutputStream cos = new CompressionOutputStream(baos);
+        cos.write(data);
+        cos.close();
+
+        final CompressionInputStream cis = new CompressionInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(i, cis.read());
+        }
+        assertEquals(-1, cis.read());
+    }
+
     @Test
     public void testDataLargerThanBuffer() throws IOException {
         final String str = "The quick brown fox jumps over the lazy dog\r\n\n\n\r";
@@ -139,6 +161,62 @@ public class TestCompressionInputOutputStreams {
         assertTrue(Arrays.equals(data512, decompressed2));
     }
 
+    @Test
+    public void testSharedDeflaterAndInflater() throws IOException {
+        final String str = "The quick brown fox jumps over the lazy dog\r\n\n\n\r";
+        final Deflater deflater = new Deflater(CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL);
+        final Inflater inflater = new Inflater();
+
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[][] expected = new byte[3][];
+            for (int i = 0; i < expected.length; i++) {
+                // each stream is a different size so that the chunks that are read vary in size
+                final StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < (3 - i) * 2000; j++) {
+                    sb.append(str);
+                }
+                expected[i] = sb.toString().getBytes("UTF-8");
+
+                final CompressionOutputStream cos = new CompressionOutputStream(baos, deflater);
+                cos.write(expected[i]);
+                cos.close();
+            }
+
+            final ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+            for (int i = 0; i < expected.length; i++) {
+                final CompressionInputStream cis = new CompressionInputStream(bais, inflater);
+                assertTrue(Arrays.equals(expected[i], readFully(cis)));
+                cis.close();
+            }
+            assertEquals(-1, bais.read());
+        } finally {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    @Test
+    public void testSharedDeflaterAfterAbandonedStream() throws IOException {
+        final byte[] data = "Hello, World!".getBytes("UTF-8");
+        final Deflater deflater = new Deflater(CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL);
+
+        try {
+            // leave input in the Deflater, as would happen if a transaction failed part way through
+            deflater.setInput(new byte[100]);
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final CompressionOutputStream cos = new CompressionOutputStream(baos, deflater);
+            cos.write(data);
+            cos.close();
+
+            final CompressionInputStream cis = new CompressionInputStream(new ByteArrayInputStream(baos.toByteArray()));
+            assertTrue(Arrays.equals(data, readFully(cis)));
+        } finally {
+            deflater.end();
+        }
+    }
+
     private byte[] readFully(final InputStream in) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wali;
+
+/**
+ * <p>
+ * A {@link SyncListener} that is also notified each time a partition is
+ * synched on behalf of a group of updates by a repository that supports group
+ * commit. Such a repository checks whether its listener implements this
+ * interface and, if so, calls {@link #onGroupCommit(int, int, long)} in
+ * addition to {@link SyncListener#onSync(int)}.
+ * </p>
+ *
+ * <p>
+ * Like {@link SyncListener#onSync(int)}, the
+ * {@link #onGroupCommit(int, int, long)} method will always be called while
+ * the associated partition is locked.
+ * </p>
+ */
+public interface GroupCommitListener extends SyncListener {
+
+    /**
+     * This method is called whenever a partition is synched on behalf of a
+     * group of updates
+     *
+     * @param partitionIndex the index of the partition that was synched
+     * @param groupSize the number of updates that were waiting for the sync
+     * @param syncNanos the number of nanoseconds taken to sync the partition
+     */
+    void onGroupCommit(int partitionIndex, int groupSize, long syncNanos);
+}
@@ -53,6 +53,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -72,6 +73,17 @@ import org.slf4j.LoggerFactory;
  * updates for a given Record at any one time.
  * </p>
  *
+ * <p>
+ * By default, each call to {@link #update(Collection, boolean)} that requests
+ * a sync forces the partition's journal to disk before returning. If a group
+ * commit period is configured, the journal is instead forced to disk by a
+ * background thread at most once per period (or sooner, once the configured
+ * number of bytes is waiting to be synced), and all callers whose updates are
+ * covered by that sync are released together. Callers still do not return
+ * until their updates are on disk, but the cost of the sync is shared by all
+ * of them.
+ * </p>
+ *
  * @param <T>
  */
 public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepository<T> {
@@ -101,6 +113,14 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
     private final Lock readLock = rwLock.readLock(); // required to update a partition
     private final Lock writeLock = rwLock.writeLock(); // required for checkpoint
 
+    private final GroupCommitSyncer groupCommitSyncer; // null unless group commit is enabled
+
+    // While a checkpoint copies the records out of the recordMap, the state that each record had when the
+    // checkpoint began is captured here the first time that the record is updated, so that the copy can be made
+    // without holding the write lock. Null when no checkpoint is copying records.
+    private volatile ConcurrentMap<Object, Object> checkpointPreImages = null;
+    private static final Object NO_RECORD = new Object();
+
     private volatile boolean updated = false;
     private volatile boolean recovered = false;
 
@@ -108,6 +128,15 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         this(new TreeSet<>(Collections.singleton(path)), partitionCount, serde, syncListener);
     }
 
+    public MinimalLockingWriteAheadLog(final Path path, final int partitionCount, final SerDe<T> serde, final SyncListener syncListener,
+            final long groupCommitPeriod, final TimeUnit groupCommitTimeUnit, final long groupCommitBytes) throws IOException {
+        this(new TreeSet<>(Collections.singleton(path)), partitionCount, serde, syncListener, groupCommitPeriod, groupCommitTimeUnit, groupCommitBytes);
+    }
+
+    public MinimalLockingWriteAheadLog(final SortedSet<Path> paths, final int partitionCount, final SerDe<T> serde, final SyncListener syncListener) throws IOException {
+        this(paths, partitionCount, serde, syncListener, 0L, TimeUnit.NANOSECONDS, 0L);
+    }
+
     /**
      *
      * @param paths a sorted set of Paths to use for the partitions/journals and
@@ -120,10 +149,23 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
      *
      * @param serde
      * @param syncListener
+     *
+     * @param groupCommitPeriod the maximum amount of time that an update that
+     * requests a sync waits for its partition to be synced. If not positive,
+     * group commit is disabled and each update that requests a sync syncs the
+     * partition itself
+     *
+     * @param groupCommitTimeUnit the unit of the groupCommitPeriod
+     *
+     * @param groupCommitBytes if positive, a partition is synced without
+     * waiting for the group commit period to elapse as soon as this many bytes
+     * have been written to it since it was last synced
+     *
      * @throws IOException
      */
     @SuppressWarnings("unchecked")
-    public MinimalLockingWriteAheadLog(final SortedSet<Path> paths, final int partitionCount, final SerDe<T> serde, final SyncListener syncListener) throws IOException {
+    public MinimalLockingWriteAheadLog(final SortedSet<Path> paths, final int partitionCount, final SerDe<T> serde, final SyncListener syncListener,
+            final long groupCommitPeriod, final TimeUnit groupCommitTimeUnit, final long groupCommitBytes) throws IOException {
         this.syncListener = syncListener;
 
         requireNonNull(paths);
@@ -191,6 +233,16 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
             partitions[i] = new Partition<>(partitionBasePath.resolve("partition-" + i), serde, i, getVersion());
         }
+
+        if (groupCommitPeriod > 0L) {
+            groupCommitSyncer = new GroupCommitSyncer(groupCommitTimeUnit.toNanos(groupCommitPeriod), groupCommitBytes);
+            final Thread syncThread = new Thread(groupCommitSyncer, "Write-Ahead Log Group Commit for " + basePath);
+            syncThread.setDaemon(true);
+            groupCommitSyncer.setThread(syncThread);
+            syncThread.start();
+        } else {
+            groupCommitSyncer = null;
+        }
     }
 
     @Override
@@ -216,6 +268,8 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
                 final int resolvedIdx = (int) (partitionIdx % partitions.length);
                 final Partition<T> partition = partitions[resolvedIdx];
                 if (partition.tryClaim()) {
+                    final boolean groupCommit = forceSync && groupCommitSyncer != null;
+                    final long updateSequence;
                     try {
                         final long transactionId = transactionIdGenerator.getAndIncrement();
                         if (logger.isTraceEnabled()) {
@@ -225,24 +279,36 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
                         }
 
                         try {
-                            partition.update(records, transactionId, unmodifiableRecordMap, forceSync);
+                            updateSequence = partition.update(records, transactionId, unmodifiableRecordMap, forceSync && !groupCommit, !forceSync);
                         } catch (final Exception e) {
                             partition.blackList();
                             numberBlackListedPartitions.incrementAndGet();
                             throw e;
                         }
 
-                        if (forceSync && syncListener != null) {
+                        if (forceSync && !groupCommit && syncListener != null) {
                             syncListener.onSync(resolvedIdx);
                         }
                     } finally {
                         partition.releaseClaim();
                     }
 
+                    if (groupCommit) {
+                        // Wait for the syncer to force our update to disk. If the sync fails, the syncer blacklists the partition.
+                        partition.awaitSync(updateSequence, groupCommitSyncer);
+                    }
+
+                    final ConcurrentMap<Object, Object> preImages = checkpointPreImages;
                     for (final T record : records) {
                         final UpdateType updateType = serde.getUpdateType(record);
                         final Object recordIdentifier = serde.getRecordIdentifier(record);
 
+                        if (preImages != null && !preImages.containsKey(recordIdentifier)) {
+                            // only one thread updates a given record at a time, so this is the record's state as of the checkpoint
+                            final T preImage = recordMap.get(recordIdentifier);
+                            preImages.putIfAbsent(recordIdentifier, preImage == null ? NO_RECORD : preImage);
+                        }
+
                         if (updateType == UpdateType.DELETE) {
                             recordMap.remove(recordIdentifier);
                         } else if (updateType == UpdateType.SWAP_OUT) {
@@ -468,7 +534,7 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
     @Override
     public synchronized int checkpoint() throws IOException {
-        final Set<T> records;
+        final Collection<T> records;
         final Set<String> swapLocations;
         final long maxTransactionId;
 
@@ -480,28 +546,34 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         long stopTheWorldNanos = -1L;
         long stopTheWorldStart = -1L;
         try {
+            // Create the partitions' new journals before stopping the world, so that rolling over is only a matter of
+            // swapping streams.
+            for (final Partition<T> partition : partitions) {
+                partition.prepareRollover();
+            }
+
+            final ConcurrentMap<Object, Object> preImages = new ConcurrentHashMap<>();
             writeLock.lock();
             try {
                 stopTheWorldStart = System.nanoTime();
-                // stop the world while we make a copy of the records that must
-                // be checkpointed and rollover the partitions.
-                // We copy the records because serializing them is potentially
-                // very expensive, especially when we have hundreds
-                // of thousands or even millions of them. We don't want to
-                // prevent WALI from being used during this time.
-
-                // So the design is to copy all of the records, determine the
-                // last transaction ID that the records represent,
-                // and roll over the partitions to new write-ahead logs.
-                // Then, outside of the write lock, we will serialize the data
-                // to disk, and then remove the old Partition data.
-                records = new HashSet<>(recordMap.values());
+                // stop the world only long enough to determine the last
+                // transaction ID that the records represent and to roll over
+                // the partitions to new write-ahead logs. We do not copy the
+                // records here, because with millions of records that alone
+                // would block all updates for a significant amount of time.
+                // Instead, from this point until the copy below is complete,
+                // each update first captures the state that the record had
+                // at this point.
+
+                // Then, outside of the write lock, we will copy and serialize
+                // the data to disk, and then remove the old Partition data.
                 maxTransactionId = transactionIdGenerator.get() - 1;
 
                 swapLocations = new HashSet<>(externalLocations);
                 for (final Partition<T> partition : partitions) {
                     partition.rollover();
                 }
+                checkpointPreImages = preImages;
 
                 // notify global sync with the write lock held. We do this because we don't want the repository to get updated
                 // while the listener is performing its necessary tasks
@@ -514,6 +586,12 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
             stopTheWorldNanos = System.nanoTime() - stopTheWorldStart;
 
+            try {
+                records = copyRecordsAsOfCheckpoint(preImages);
+            } finally {
+                checkpointPreImages = null;
+            }
+
             // perform checkpoint, writing to .partial file
             fileOut = new FileOutputStream(partialPath.toFile());
             dataOut = new DataOutputStream(fileOut);
@@ -577,10 +655,49 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         return records.size();
     }
 
+    /**
+     * Copies the records as they were when the current checkpoint stopped the
+     * world, while updates continue to be applied to the recordMap
+     *
+     * @param preImages the state of each record updated since the checkpoint
+     * stopped the world, as it was before the first such update
+     * @return the records to checkpoint
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<T> copyRecordsAsOfCheckpoint(final ConcurrentMap<Object, Object> preImages) {
+        final Map<Object, T> records = new HashMap<>(recordMap.size());
+        for (final Map.Entry<Object, T> entry : recordMap.entrySet()) {
+            // The value must be obtained before checking for a pre-image: an update captures the pre-image before
+            // changing the value, so if there is no pre-image now, the value was not changed by an update
+            final Object recordId = entry.getKey();
+            final T currentRecord = entry.getValue();
+            if (!preImages.containsKey(recordId)) {
+                records.put(recordId, currentRecord);
+            }
+        }
+
+        // Restore the state of the records that have since been updated, including any that have been removed, and
+        // drop any that have been created.
+        for (final Map.Entry<Object, Object> entry : preImages.entrySet()) {
+            if (entry.getValue() == NO_RECORD) {
+                records.remove(entry.getKey());
+            } else {
+                records.put(entry.getKey(), (T) entry.getValue());
+            }
+        }
+
+        return records.values();
+    }
+
     @Override
     public void shutdown() throws IOException {
         writeLock.lock();
         try {
+            // No update can be waiting on a sync while we hold the write lock, so the syncer can be stopped.
+            if (groupCommitSyncer != null) {
+                groupCommitSyncer.shutdown();
+            }
+
             for (final Partition<T> partition : partitions) {
                 partition.close();
             }
@@ -594,6 +711,72 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         return 1;
     }
 
+    /**
+     * Forces partitions to disk on behalf of updates that are waiting for a
+     * sync, once per group commit period, or as soon as the configured number
+     * of bytes is waiting to be synced.
+     */
+    private class GroupCommitSyncer implements Runnable {
+
+        private final long periodNanos;
+        private final long syncBytes;
+        private volatile Thread thread;
+        private volatile boolean stopped = false;
+
+        public GroupCommitSyncer(final long periodNanos, final long syncBytes) {
+            this.periodNanos = periodNanos;
+            this.syncBytes = syncBytes;
+        }
+
+        void setThread(final Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Called by an update that is about to wait for a sync. If enough data
+         * has been written since the partition was last synced, wakes the
+         * syncer rather than waiting for the period to elapse.
+         */
+        void onSyncRequested(final long unsyncedBytes) {
+            if (syncBytes > 0L && unsyncedBytes >= syncBytes) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void shutdown() {
+            stopped = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                LockSupport.parkNanos(this, periodNanos);
+
+                for (int i = 0; i < partitions.length; i++) {
+                    final Partition<T> partition = partitions[i];
+                    try {
+                        partition.syncGroup(i, syncListener);
+                    } catch (final Throwable t) {
+                        logger.error("{} failed to sync {} due to {}; blacklisting partition", new Object[]{MinimalLockingWriteAheadLog.this, partition, t.toString()});
+                        if (logger.isDebugEnabled()) {
+                            logger.error("", t);
+                        }
+
+                        if (partition.blackList()) {
+                            numberBlackListedPartitions.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Represents a partition of this repository, which maps directly to a
      * .journal file.
@@ -623,6 +806,11 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         private int recoveryVersion;
         private String currentJournalFilename = "";
 
+        // the journal to which the next rollover switches, if already created by prepareRollover()
+        private DataOutputStream preparedDataOut = null;
+        private FileOutputStream preparedFileOut = null;
+        private Path preparedEditPath = null;
+
         private static final byte TRANSACTION_CONTINUE = 1;
         private static final byte TRANSACTION_COMMIT = 2;
 
@@ -632,6 +820,21 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
 
         private final Queue<Path> recoveryFiles;
 
+        // Group commit state. Each update written to the partition is assigned a sequence number. Updates up to and
+        // including 'syncedSequence' are known to be on disk. 'writtenSequence', 'lastUnsyncedWriteSequence',
+        // 'journalPosition' and 'unsyncedBytes' are guarded by the partition's lock; the rest by 'syncMonitor'.
+        private final Object syncMonitor = new Object();
+        private final Lock syncLock = new ReentrantLock(); // held while forcing or closing the journal's file
+        private long writtenSequence = 0L;
+        private long lastUnsyncedWriteSequence = 0L;
+        private long journalPosition = 0L;
+        private volatile long unsyncedBytes = 0L;
+        private long syncedSequence = 0L;
+        private long inFlightSequence = 0L;
+        private int inFlightWaiters = 0;
+        private int pendingWaiters = 0;
+        private IOException syncFailure = null;
+
         public Partition(final Path path, final SerDe<S> serde, final int partitionIndex, final int writeAheadLogVersion) throws IOException {
             this.editDirectory = path;
             this.serde = serde;
@@ -673,10 +876,13 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
         public void close() {
             final DataOutputStream out = dataOut;
             if (out != null) {
+                syncLock.lock();
                 try {
                     out.close();
                 } catch (final Exception e) {
 
+                } finally {
+                    syncLock.unlock();
                 }
             }
 
@@ -684,14 +890,24 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             this.dataOut = null;
         }
 
-        public void blackList() {
+        /**
+         * Blacklists the partition so that it is not updated until the next
+         * rollover
+         *
+         * @return <code>true</code> if the partition was not already
+         * blacklisted
+         */
+        public boolean blackList() {
+            final boolean wasBlackListed;
             lock.lock();
             try {
+                wasBlackListed = blackListed;
                 blackListed = true;
             } finally {
                 lock.unlock();
             }
             logger.debug("Blacklisted {}", this);
+            return !wasBlackListed;
         }
 
         /**
@@ -705,25 +921,66 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             try {
                 final DataOutputStream out = dataOut;
                 if (out != null) {
-                    out.close();
+                    syncLock.lock();
+                    try {
+                        out.close();
+                    } finally {
+                        syncLock.unlock();
+                    }
+                }
+
+                if (preparedDataOut == null) {
+                    prepareRollover();
+                }
+
+                final FileOutputStream fos = preparedFileOut;
+                dataOut = preparedDataOut;
+                fileOut = fos;
+                journalPosition = fos.getChannel().position();
+                currentJournalFilename = preparedEditPath.toFile().getName();
+
+                preparedDataOut = null;
+                preparedFileOut = null;
+                preparedEditPath = null;
+
+                blackListed = false;
+                synchronized (syncMonitor) {
+                    syncFailure = null;
                 }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Creates the journal that the next call to {@link #rollover()} will
+         * switch to, so that the rollover itself does not have to. This does
+         * not affect the current journal, so it may be called while the
+         * partition is being updated, but not concurrently with rollover().
+         *
+         * @throws IOException
+         */
+        public void prepareRollover() throws IOException {
+            if (preparedDataOut != null) {
+                return;
+            }
 
-                final Path editPath = getNewEditPath();
-                final FileOutputStream fos = new FileOutputStream(editPath.toFile());
+            final Path editPath = getNewEditPath();
+            final FileOutputStream fos = new FileOutputStream(editPath.toFile());
+            try {
                 final DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(fos));
                 outStream.writeUTF(MinimalLockingWriteAheadLog.class.getName());
                 outStream.writeInt(writeAheadLogVersion);
                 outStream.writeUTF(serde.getClass().getName());
                 outStream.writeInt(serde.getVersion());
                 outStream.flush();
-                dataOut = outStream;
-                fileOut = fos;
 
-                currentJournalFilename = editPath.toFile().getName();
-
-                blackListed = false;
-            } finally {
-                lock.unlock();
+                preparedDataOut = outStream;
+                preparedFileOut = fos;
+                preparedEditPath = editPath;
+            } catch (final IOException ioe) {
+                fos.close();
+                throw ioe;
             }
         }
 
@@ -831,7 +1088,21 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             return true;
         }
 
-        public void update(final Collection<S> records, final long transactionId, final Map<Object, S> recordMap, final boolean forceSync) throws IOException {
+        /**
+         * Writes the given records to the partition's journal
+         *
+         * @param records
+         * @param transactionId
+         * @param recordMap
+         * @param forceSync whether to force the journal to disk before
+         * returning
+         * @param unsynced <code>true</code> if the caller will not wait for the
+         * update to be synced
+         * @return the sequence number assigned to the update, which can be
+         * passed to {@link #awaitSync(long, GroupCommitSyncer)}
+         * @throws IOException
+         */
+        public long update(final Collection<S> records, final long transactionId, final Map<Object, S> recordMap, final boolean forceSync, final boolean unsynced) throws IOException {
             if (this.closed) {
                 throw new IllegalStateException("Partition is closed");
             }
@@ -858,6 +1129,132 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             if (forceSync) {
                 fileOut.getFD().sync();
             }
+
+            final long position = fileOut.getChannel().position();
+            unsyncedBytes += position - journalPosition;
+            journalPosition = position;
+
+            final long sequence = ++writtenSequence;
+            if (unsynced) {
+                lastUnsyncedWriteSequence = sequence;
+            }
+            return sequence;
+        }
+
+        /**
+         * Blocks until the update with the given sequence number has been
+         * synced to disk by the given syncer. Must NOT be called while holding
+         * the claim.
+         *
+         * @param sequence
+         * @param syncer
+         * @throws IOException if the partition could not be synced
+         */
+        public void awaitSync(final long sequence, final MinimalLockingWriteAheadLog<?>.GroupCommitSyncer syncer) throws IOException {
+            synchronized (syncMonitor) {
+                if (sequence > syncedSequence) {
+                    if (sequence <= inFlightSequence) {
+                        // the sync that is currently in progress covers this update
+                        inFlightWaiters++;
+                    } else {
+                        pendingWaiters++;
+                        syncer.onSyncRequested(unsyncedBytes);
+                    }
+                }
+
+                while (sequence > syncedSequence) {
+                    if (syncFailure != null) {
+                        throw new IOException("Failed to sync " + this, syncFailure);
+                    }
+
+                    try {
+                        syncMonitor.wait();
+                    } catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for " + this + " to be synced");
+                    }
+                }
+            }
+        }
+
+        /**
+         * Forces the journal to disk if any update is waiting for it, releasing
+         * all of the updates that were written before the sync began. Called
+         * only by the GroupCommitSyncer.
+         *
+         * @param partitionIndex
+         * @param syncListener
+         * @throws IOException
+         */
+        public void syncGroup(final int partitionIndex, final SyncListener syncListener) throws IOException {
+            synchronized (syncMonitor) {
+                if (pendingWaiters == 0) {
+                    return;
+                }
+            }
+
+            // Determine the last update that this sync will cover. Any update that is waiting was written before this
+            // point, because it had to hold the lock to be written.
+            final long targetSequence;
+            final FileOutputStream syncOut;
+            lock.lock();
+            try {
+                if (closed || fileOut == null) {
+                    return;
+                }
+
+                targetSequence = writtenSequence;
+                syncOut = fileOut;
+                unsyncedBytes = 0L;
+                synchronized (syncMonitor) {
+                    inFlightSequence = targetSequence;
+                    inFlightWaiters = pendingWaiters;
+                    pendingWaiters = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            final long syncStart = System.nanoTime();
+            syncLock.lock();
+            try {
+                syncOut.getFD().sync();
+            } catch (final IOException ioe) {
+                synchronized (syncMonitor) {
+                    syncFailure = ioe;
+                    syncMonitor.notifyAll();
+                }
+                throw ioe;
+            } finally {
+                syncLock.unlock();
+            }
+            final long syncNanos = System.nanoTime() - syncStart;
+
+            final int groupSize;
+            synchronized (syncMonitor) {
+                syncedSequence = Math.max(syncedSequence, targetSequence);
+                groupSize = inFlightWaiters;
+                inFlightWaiters = 0;
+                syncMonitor.notifyAll();
+            }
+
+            if (syncListener != null) {
+                lock.lock();
+                try {
+                    if (syncListener instanceof GroupCommitListener) {
+                        ((GroupCommitListener) syncListener).onGroupCommit(partitionIndex, groupSize, syncNanos);
+                    }
+
+                    // Listeners may act on the assumption that everything written to the partition is on disk. That is
+                    // not the case if an update that did not wait for a sync has been written since this sync began, in
+                    // which case we leave it to a subsequent sync to notify the listener.
+                    if (lastUnsyncedWriteSequence <= targetSequence) {
+                        syncListener.onSync(partitionIndex);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
         }
 
         private DataInputStream createDataInputStream(final Path path) throws IOException {
@@ -945,6 +1342,7 @@ public final class MinimalLockingWriteAheadLog<T> implements WriteAheadRepositor
             outStream.flush();
             dataOut = outStream;
             fileOut = fos;
+            journalPosition = fos.getChannel().position();
         }
 
         public Set<Object> recoverNextTransaction(final Map<Object, S> currentRecordMap, final Map<Object, S> updatedRecordMap, final Set<String> swapLocations) throws IOException {
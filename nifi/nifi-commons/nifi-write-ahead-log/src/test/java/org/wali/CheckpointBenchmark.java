@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wali;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the latency of {@link MinimalLockingWriteAheadLog#update} while the
+ * repository is continually being checkpointed by a background thread. The
+ * sample-time mode reports the latency percentiles, of which the upper ones
+ * reflect the time that updates are blocked by the checkpoint.
+ *
+ * This is not run as part of the build. The JMH harness is generated only when
+ * the test sources are compiled with the <code>benchmarks</code> profile
+ * (<code>mvn clean test-compile -P benchmarks</code>), after which the
+ * benchmark can be run via this class's main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Threads(4)
+@Fork(1)
+public class CheckpointBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int recordCount;
+
+    private Path path;
+    private MinimalLockingWriteAheadLog<DummyRecord> repo;
+    private Thread checkpointThread;
+    private volatile boolean stopped = false;
+    private volatile IOException checkpointFailure = null;
+
+    @Setup
+    public void setup() throws IOException {
+        path = Paths.get("target/checkpoint-benchmark");
+        deleteRecursively(path.toFile());
+        Files.createDirectories(path);
+
+        repo = new MinimalLockingWriteAheadLog<>(path, 16, new DummyRecordSerde(), null);
+        repo.recoverRecords();
+
+        final List<DummyRecord> records = new ArrayList<>();
+        for (int i = 0; i < recordCount; i++) {
+            records.add(createRecord(i, UpdateType.CREATE));
+            if (records.size() == 10000) {
+                repo.update(records, false);
+                records.clear();
+            }
+        }
+        if (!records.isEmpty()) {
+            repo.update(records, false);
+        }
+
+        checkpointThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        repo.checkpoint();
+                    } catch (final IOException e) {
+                        // fail the iteration rather than go on measuring updates without any checkpoints
+                        checkpointFailure = e;
+                        return;
+                    }
+                }
+            }
+        }, "Checkpoint Thread");
+        checkpointThread.start();
+    }
+
+    @TearDown
+    public void teardown() throws IOException, InterruptedException {
+        stopped = true;
+        checkpointThread.join();
+        repo.shutdown();
+        deleteRecursively(path.toFile());
+
+        if (checkpointFailure != null) {
+            throw checkpointFailure;
+        }
+    }
+
+    @Benchmark
+    public int update() throws IOException {
+        if (checkpointFailure != null) {
+            throw new IOException("Failed to checkpoint repository", checkpointFailure);
+        }
+
+        final Collection<DummyRecord> records = Collections.singleton(createRecord(ThreadLocalRandom.current().nextInt(recordCount), UpdateType.UPDATE));
+        return repo.update(records, false);
+    }
+
+    private static DummyRecord createRecord(final int id, final UpdateType updateType) {
+        final DummyRecord record = new DummyRecord(String.valueOf(id), updateType);
+        record.setProperty("filename", "file-" + id + ".txt");
+        record.setProperty("uuid", "00000000-0000-0000-0000-" + id);
+        return record;
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CheckpointBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -28,11 +28,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -253,6 +256,148 @@ public class TestMinimalLockingWriteAheadLog {
 
     }
 
+    @Test
+    public void testGroupCommit() throws IOException, InterruptedException {
+        final int numPartitions = 4;
+        final int numThreads = 8;
+        final int updatesPerThread = 250;
+
+        final Path path = Paths.get("target/minimal-locking-repo-group-commit");
+        deleteRecursively(path.toFile());
+        assertTrue(path.toFile().mkdirs());
+
+        final AtomicInteger groupCommits = new AtomicInteger(0);
+        final AtomicLong groupedUpdates = new AtomicLong(0L);
+        final AtomicInteger partitionSyncs = new AtomicInteger(0);
+        final GroupCommitListener listener = new GroupCommitListener() {
+            @Override
+            public void onSync(final int partitionIndex) {
+                partitionSyncs.incrementAndGet();
+            }
+
+            @Override
+            public void onGlobalSync() {
+            }
+
+            @Override
+            public void onGroupCommit(final int partitionIndex, final int groupSize, final long syncNanos) {
+                groupCommits.incrementAndGet();
+                groupedUpdates.addAndGet(groupSize);
+            }
+        };
+
+        final DummyRecordSerde serde = new DummyRecordSerde();
+        final WriteAheadRepository<DummyRecord> repo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, listener, 5L, TimeUnit.MILLISECONDS, 0L);
+        assertTrue(repo.recoverRecords().isEmpty());
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int startIndex = i * updatesPerThread;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < updatesPerThread; j++) {
+                            final DummyRecord record = new DummyRecord(String.valueOf(startIndex + j), UpdateType.CREATE);
+                            record.setProperty("A", "B");
+                            repo.update(Collections.singleton(record), true);
+                        }
+                    } catch (final IOException e) {
+                        Assert.fail("Failed to update: " + e.toString());
+                    }
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        repo.shutdown();
+
+        // every update waited for a sync, and the syncs were shared among updates rather than one per update
+        final int totalUpdates = numThreads * updatesPerThread;
+        assertTrue(groupCommits.get() > 0);
+        assertTrue(groupCommits.get() < totalUpdates);
+        assertTrue(groupedUpdates.get() <= totalUpdates);
+        assertEquals(groupCommits.get(), partitionSyncs.get());
+
+        final WriteAheadRepository<DummyRecord> recoverRepo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, null);
+        final Collection<DummyRecord> recoveredRecords = recoverRepo.recoverRecords();
+        assertEquals(totalUpdates, recoveredRecords.size());
+        recoverRepo.shutdown();
+    }
+
+    @Test
+    public void testCheckpointWhileUpdating() throws IOException, InterruptedException {
+        final int numPartitions = 4;
+        final int numRecords = 5000;
+
+        final Path path = Paths.get("target/minimal-locking-repo-checkpoint-while-updating");
+        deleteRecursively(path.toFile());
+        assertTrue(path.toFile().mkdirs());
+
+        final DummyRecordSerde serde = new DummyRecordSerde();
+        final WriteAheadRepository<DummyRecord> repo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, null);
+        assertTrue(repo.recoverRecords().isEmpty());
+
+        for (int i = 0; i < numRecords; i++) {
+            final DummyRecord record = new DummyRecord(String.valueOf(i), UpdateType.CREATE);
+            record.setProperty("version", "0");
+            repo.update(Collections.singleton(record), false);
+        }
+
+        // Update, delete, and re-create records while checkpoints are taken. Whatever state each checkpoint captures,
+        // the snapshot plus the journals written after it must recover the final state of every record.
+        final int rounds = 20;
+        final Thread updater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int round = 1; round <= rounds; round++) {
+                        for (int i = 0; i < numRecords; i++) {
+                            final String id = String.valueOf(i);
+                            if (i % 10 == round % 10) {
+                                repo.update(Collections.singleton(new DummyRecord(id, UpdateType.DELETE)), false);
+                                final DummyRecord recreated = new DummyRecord(id, UpdateType.CREATE);
+                                recreated.setProperty("version", String.valueOf(round));
+                                repo.update(Collections.singleton(recreated), false);
+                            } else {
+                                final DummyRecord record = new DummyRecord(id, UpdateType.UPDATE);
+                                record.setProperty("version", String.valueOf(round));
+                                repo.update(Collections.singleton(record), false);
+                            }
+                        }
+                    }
+
+                    for (int i = 0; i < numRecords; i += 2) {
+                        repo.update(Collections.singleton(new DummyRecord(String.valueOf(i), UpdateType.DELETE)), false);
+                    }
+                } catch (final IOException e) {
+                    Assert.fail("Failed to update: " + e.toString());
+                }
+            }
+        });
+
+        updater.start();
+        while (updater.isAlive()) {
+            repo.checkpoint();
+        }
+        updater.join();
+        repo.shutdown();
+
+        final WriteAheadRepository<DummyRecord> recoverRepo = new MinimalLockingWriteAheadLog<>(path, numPartitions, serde, null);
+        final Collection<DummyRecord> recoveredRecords = recoverRepo.recoverRecords();
+        assertEquals(numRecords / 2, recoveredRecords.size());
+        for (final DummyRecord record : recoveredRecords) {
+            assertEquals(1, Integer.parseInt(record.getId()) % 2);
+            assertEquals(String.valueOf(rounds), record.getProperty("version"));
+        }
+        recoverRepo.shutdown();
+    }
+
     private static class InsertThread extends Thread {
 
         private final List<List<DummyRecord>> records;
@@ -391,7 +391,8 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             writeLock.unlock("put(FlowFileRecord)");
         }
 
-        if (connection.getDestination().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
+        if (connection.getDestination().getSchedulingStrategy() != SchedulingStrategy.CRON_DRIVEN) {
+            // the destination has work to do. If it is event-driven, queue it to run; if it is timer-driven, wake up any tasks it parked while idle
             scheduler.registerEvent(connection.getDestination());
         }
     }
@@ -422,7 +423,8 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             writeLock.unlock("putAll");
         }
 
-        if (connection.getDestination().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
+        if (connection.getDestination().getSchedulingStrategy() != SchedulingStrategy.CRON_DRIVEN) {
+            // the destination has work to do. If it is event-driven, queue it to run; if it is timer-driven, wake up any tasks it parked while idle
             scheduler.registerEvent(connection.getDestination());
         }
     }
@@ -646,6 +648,13 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
     @Override
     public List<FlowFileRecord> poll(int maxResults, final Set<FlowFileRecord> expiredRecords) {
         final List<FlowFileRecord> records = new ArrayList<>(Math.min(1024, maxResults));
+        poll(maxResults, expiredRecords, records);
+        return records;
+    }
+
+    @Override
+    public int poll(final int maxResults, final Set<FlowFileRecord> expiredRecords, final List<FlowFileRecord> records) {
+        final int startSize = records.size();
 
         // First check if we have any records Pre-Fetched.
         final long expirationMillis = flowFileExpirationMillis.get();
@@ -671,9 +680,10 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
                 }
 
                 // If anything was prefetched, use what we have.
-                if (!records.isEmpty()) {
-                    updateUnacknowledgedSize(records.size(), totalSize);
-                    return records;
+                final int prefetched = records.size() - startSize;
+                if (prefetched > 0) {
+                    updateUnacknowledgedSize(prefetched, totalSize);
+                    return prefetched;
                 }
 
                 preFetchRef.compareAndSet(preFetch, null);
@@ -685,9 +695,9 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
             doPoll(records, maxResults, expiredRecords);
         } finally {
             activeQueueSizeRef.set(activeQueue.size());
-            writeLock.unlock("poll(int, Set)");
+            writeLock.unlock("poll(int, Set, List)");
         }
-        return records;
+        return records.size() - startSize;
     }
 
     private void doPoll(final List<FlowFileRecord> records, int maxResults, final Set<FlowFileRecord> expiredRecords) {
@@ -695,7 +705,10 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
         final boolean queueFullAtStart = queueFullRef.get();
 
-        final long bytesDrained = drainQueue(activeQueue, records, maxResults, expiredRecords);
+        // drainQueue fills the list up to a size, rather than by a number of records
+        final int startSize = records.size();
+        final int maxSize = (int) Math.min(Integer.MAX_VALUE, (long) startSize + maxResults);
+        final long bytesDrained = drainQueue(activeQueue, records, maxSize, expiredRecords);
 
         long expiredBytes = 0L;
         for (final FlowFileRecord record : expiredRecords) {
@@ -703,7 +716,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         }
 
         activeQueueContentSize -= bytesDrained;
-        updateUnacknowledgedSize(records.size(), bytesDrained - expiredBytes);
+        updateUnacknowledgedSize(records.size() - startSize, bytesDrained - expiredBytes);
 
         // if at least 1 FlowFile was expired & the queue was full before we started, then
         // we need to determine whether or not the queue is full again. If no FlowFile was expired,
@@ -858,12 +871,12 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
         }
     }
 
-    private static final class Prioritizer implements Comparator<FlowFileRecord>, Serializable {
+    static final class Prioritizer implements Comparator<FlowFileRecord>, Serializable {
 
         private static final long serialVersionUID = 1L;
         private final transient List<FlowFilePrioritizer> prioritizers = new ArrayList<>();
 
-        private Prioritizer(final List<FlowFilePrioritizer> priorities) {
+        Prioritizer(final List<FlowFilePrioritizer> priorities) {
             if (null != priorities) {
                 prioritizers.addAll(priorities);
             }
@@ -951,6 +964,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
      * Lock the queue so that other threads are unable to interact with the
      * queue
      */
+    @Override
     public void lock() {
         writeLock.lock();
     }
@@ -958,6 +972,7 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
     /**
      * Unlock the queue
      */
+    @Override
     public void unlock() {
         writeLock.unlock("external unlock");
     }
@@ -1027,8 +1042,18 @@ public final class StandardFlowFileQueue implements FlowFileQueue {
 
     private final TimedBuffer<TimestampedLong> pollCounts = new TimedBuffer<>(TimeUnit.SECONDS, 5, new LongEntityAccess());
 
+    /**
+     * MUST be called with write lock held.
+     */
     private boolean incrementPollCount() {
         pollCounts.add(new TimestampedLong(1L));
+
+        // totaling the counts costs far more than adding to them, so don't bother when there is nothing left to pre-fetch,
+        // as is the case after most polls of a queue that is kept drained
+        if (activeQueue.isEmpty()) {
+            return false;
+        }
+
         final long totalCount = pollCounts.getAggregateValue(System.currentTimeMillis() - 5000L).getValue();
         return totalCount > PREFETCH_POLL_THRESHOLD * 5;
     }
@@ -0,0 +1,957 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.FlowFilePrioritizer;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.FlowFileFilter.FlowFileFilterResult;
+import org.apache.nifi.processor.QueueSize;
+import org.apache.nifi.scheduling.SchedulingStrategy;
+import org.apache.nifi.util.FormatUtils;
+
+/**
+ * <p>
+ * A FlowFileQueue for connections that see heavy contention from many
+ * concurrent producers and consumers. Must be thread safe.
+ * </p>
+ *
+ * <p>
+ * Rather than guarding a single PriorityQueue with a single lock, as the
+ * {@link StandardFlowFileQueue} does, FlowFiles are spread across a number of
+ * segments, each of which has its own lock and its own counts. Each producing
+ * thread adds to the segment that its thread maps to, so concurrent producers
+ * rarely share a lock and the FlowFiles queued by any one thread stay in
+ * order. Consumers poll segments in turn, starting at a random one and
+ * skipping those that are empty without locking them. The number of FlowFiles and bytes
+ * queued are obtained by summing the counts of the segments, so no single
+ * counter is updated by every thread.
+ * </p>
+ *
+ * <p>
+ * This is appropriate only when the order of FlowFiles does not matter beyond
+ * first-in, first-out: FlowFiles within a segment are delivered in the order
+ * in which they were queued, but FlowFiles in different segments may be
+ * delivered out of order with respect to one another. Penalized FlowFiles are
+ * set aside within their segment until their penalty expires, so that they do
+ * not hold up the FlowFiles behind them. If any prioritizer other than
+ * first-in, first-out is configured, the queue falls back to a single segment
+ * that is ordered by the prioritizers, and behaves like the
+ * StandardFlowFileQueue.
+ * </p>
+ */
+public final class StripedFlowFileQueue implements FlowFileQueue {
+
+    public static final int MAX_EXPIRED_RECORDS_PER_ITERATION = StandardFlowFileQueue.MAX_EXPIRED_RECORDS_PER_ITERATION;
+    public static final int SWAP_RECORD_POLL_SIZE = StandardFlowFileQueue.SWAP_RECORD_POLL_SIZE;
+    public static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    private static final String FIFO_PRIORITIZER_CLASS = "org.apache.nifi.prioritizer.FirstInFirstOutPrioritizer";
+
+    private final String identifier;
+    private final Connection connection;
+    private final int swapThreshold;
+    private final int segmentCount;
+    private final List<FlowFilePrioritizer> priorities = new ArrayList<>();
+
+    // SCHEDULER CANNOT BE NOTIFIED OF EVENTS WITH A SEGMENT LOCK OR THE SWAP LOCK HELD! DOING SO WILL RESULT IN A DEADLOCK!
+    private final ProcessScheduler scheduler;
+
+    // replaced, with all of the segments' locks held, only when the priorities change
+    private volatile Segment[] segments;
+
+    // Guards the swap queue. This lock may be obtained before a segment's lock, but never while holding one.
+    private final ReentrantLock swapLock = new ReentrantLock();
+    private final ArrayList<FlowFileRecord> swapQueue = new ArrayList<>();
+    private volatile int swapQueueCount = 0;
+    private volatile int swappedRecordCount = 0;
+    private volatile long swappedContentSize = 0L;
+    private volatile boolean swapMode = false;
+
+    // Striped by thread, like the segments, so that acknowledging does not contend on a single counter
+    private final AtomicLongArray unacknowledgedCounts;
+    private final AtomicLongArray unacknowledgedBytes;
+
+    private volatile String maximumQueueDataSize = "0 MB";
+    private volatile long maximumQueueByteCount = 0L;
+    private volatile long maximumQueueObjectCount = 0L;
+    private final AtomicBoolean queueFullRef = new AtomicBoolean(false);
+
+    private final AtomicLong flowFileExpirationMillis = new AtomicLong(0L);
+    private final AtomicReference<String> flowFileExpirationPeriod = new AtomicReference<>("0 mins");
+
+    public StripedFlowFileQueue(final String identifier, final Connection connection, final ProcessScheduler scheduler, final int swapThreshold) {
+        this(identifier, connection, scheduler, swapThreshold, DEFAULT_SEGMENT_COUNT);
+    }
+
+    public StripedFlowFileQueue(final String identifier, final Connection connection, final ProcessScheduler scheduler, final int swapThreshold, final int segmentCount) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("Segment count must be positive");
+        }
+
+        this.identifier = identifier;
+        this.connection = connection;
+        this.scheduler = scheduler;
+        this.swapThreshold = swapThreshold;
+        this.segmentCount = segmentCount;
+        this.unacknowledgedCounts = new AtomicLongArray(segmentCount);
+        this.unacknowledgedBytes = new AtomicLongArray(segmentCount);
+        this.segments = createSegments(Collections.<FlowFilePrioritizer>emptyList());
+    }
+
+    private Segment[] createSegments(final List<FlowFilePrioritizer> prioritizers) {
+        if (isFirstInFirstOut(prioritizers)) {
+            final Segment[] newSegments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                newSegments[i] = new Segment(null);
+            }
+            return newSegments;
+        }
+
+        return new Segment[]{new Segment(new StandardFlowFileQueue.Prioritizer(prioritizers))};
+    }
+
+    private static boolean isFirstInFirstOut(final List<FlowFilePrioritizer> prioritizers) {
+        for (final FlowFilePrioritizer prioritizer : prioritizers) {
+            if (!FIFO_PRIORITIZER_CLASS.equals(prioritizer.getClass().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    @Override
+    public List<FlowFilePrioritizer> getPriorities() {
+        synchronized (priorities) {
+            return Collections.unmodifiableList(new ArrayList<>(priorities));
+        }
+    }
+
+    @Override
+    public int getSwapThreshold() {
+        return swapThreshold;
+    }
+
+    @Override
+    public void setPriorities(final List<FlowFilePrioritizer> newPriorities) {
+        final Segment[] oldSegments = lockAllSegments();
+        try {
+            final Segment[] newSegments = createSegments(newPriorities);
+            int index = 0;
+            for (final Segment oldSegment : oldSegments) {
+                for (final FlowFileRecord record : oldSegment.removeAll()) {
+                    newSegments[index++ % newSegments.length].add(record);
+                }
+                oldSegment.retired = true;
+            }
+
+            synchronized (priorities) {
+                priorities.clear();
+                priorities.addAll(newPriorities);
+            }
+            segments = newSegments;
+        } finally {
+            unlockSegments(oldSegments);
+        }
+    }
+
+    @Override
+    public void setBackPressureObjectThreshold(final long maxQueueSize) {
+        maximumQueueObjectCount = maxQueueSize;
+        queueFullRef.set(determineIfFull());
+    }
+
+    @Override
+    public long getBackPressureObjectThreshold() {
+        return maximumQueueObjectCount;
+    }
+
+    @Override
+    public void setBackPressureDataSizeThreshold(final String maxDataSize) {
+        maximumQueueByteCount = DataUnit.parseDataSize(maxDataSize, DataUnit.B).longValue();
+        maximumQueueDataSize = maxDataSize;
+        queueFullRef.set(determineIfFull());
+    }
+
+    @Override
+    public String getBackPressureDataSizeThreshold() {
+        return maximumQueueDataSize;
+    }
+
+    @Override
+    public QueueSize size() {
+        final QueueSize active = getActiveQueueSize();
+        return new QueueSize(active.getObjectCount() + swappedRecordCount + (int) sum(unacknowledgedCounts),
+                active.getByteCount() + swappedContentSize + sum(unacknowledgedBytes));
+    }
+
+    @Override
+    public long contentSize() {
+        return size().getByteCount();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return isActiveQueueEmpty() && swappedRecordCount == 0 && sum(unacknowledgedCounts) == 0L;
+    }
+
+    @Override
+    public boolean isActiveQueueEmpty() {
+        for (final Segment segment : segments) {
+            if (segment.count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public QueueSize getActiveQueueSize() {
+        int count = 0;
+        long bytes = 0L;
+        for (final Segment segment : segments) {
+            count += segment.count;
+            bytes += segment.bytes;
+        }
+        return new QueueSize(count, bytes);
+    }
+
+    private int getActiveQueueCount() {
+        int count = 0;
+        for (final Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    @Override
+    public void acknowledge(final FlowFileRecord flowFile) {
+        updateUnacknowledgedSize(-1, -flowFile.getSize());
+        if (queueFullRef.get()) {
+            queueFullRef.set(determineIfFull());
+        }
+
+        if (connection.getSource().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
+            // queue was full but no longer is. Notify that the source may now be available to run,
+            // because of back pressure caused by this queue.
+            scheduler.registerEvent(connection.getSource());
+        }
+    }
+
+    @Override
+    public void acknowledge(final Collection<FlowFileRecord> flowFiles) {
+        long totalSize = 0L;
+        for (final FlowFileRecord flowFile : flowFiles) {
+            totalSize += flowFile.getSize();
+        }
+
+        updateUnacknowledgedSize(-flowFiles.size(), -totalSize);
+        if (queueFullRef.get()) {
+            queueFullRef.set(determineIfFull());
+        }
+
+        if (connection.getSource().getSchedulingStrategy() == SchedulingStrategy.EVENT_DRIVEN) {
+            // it's possible that queue was full but no longer is. Notify that the source may now be available to run,
+            // because of back pressure caused by this queue.
+            scheduler.registerEvent(connection.getSource());
+        }
+    }
+
+    @Override
+    public boolean isFull() {
+        return queueFullRef.get();
+    }
+
+    private boolean determineIfFull() {
+        final long maxSize = maximumQueueObjectCount;
+        final long maxBytes = maximumQueueByteCount;
+        if (maxSize <= 0 && maxBytes <= 0) {
+            return false;
+        }
+
+        final QueueSize queueSize = size();
+        if (maxSize > 0 && queueSize.getObjectCount() >= maxSize) {
+            return true;
+        }
+
+        if (maxBytes > 0 && (queueSize.getByteCount() >= maxBytes)) {
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void put(final FlowFileRecord file) {
+        if (!addToSwapQueueIfNecessary(Collections.singletonList(file), file.getSize(), 1)) {
+            final Segment segment = lockSegment(getThreadStripe());
+            try {
+                segment.add(file);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        queueFullRef.set(determineIfFull());
+
+        if (connection.getDestination().getSchedulingStrategy() != SchedulingStrategy.CRON_DRIVEN) {
+            // the destination has work to do. If it is event-driven, queue it to run; if it is timer-driven, wake up any tasks it parked while idle
+            scheduler.registerEvent(connection.getDestination());
+        }
+    }
+
+    @Override
+    public void putAll(final Collection<FlowFileRecord> files) {
+        final int numFiles = files.size();
+        long bytes = 0L;
+        for (final FlowFile flowFile : files) {
+            bytes += flowFile.getSize();
+        }
+
+        if (!addToSwapQueueIfNecessary(files, bytes, numFiles)) {
+            // keep FlowFiles queued together in the same segment so that they retain their order
+            final Segment segment = lockSegment(getThreadStripe());
+            try {
+                for (final FlowFileRecord file : files) {
+                    segment.add(file);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        queueFullRef.set(determineIfFull());
+
+        if (connection.getDestination().getSchedulingStrategy() != SchedulingStrategy.CRON_DRIVEN) {
+            // the destination has work to do. If it is event-driven, queue it to run; if it is timer-driven, wake up any tasks it parked while idle
+            scheduler.registerEvent(connection.getDestination());
+        }
+    }
+
+    /**
+     * Adds the given FlowFiles to the swap queue if the queue is in swap mode
+     * or the active queue has reached the swap threshold
+     *
+     * @return <code>true</code> if the FlowFiles were added to the swap queue
+     */
+    private boolean addToSwapQueueIfNecessary(final Collection<FlowFileRecord> files, final long bytes, final int numFiles) {
+        if (!swapMode && getActiveQueueCount() + numFiles <= swapThreshold) {
+            return false;
+        }
+
+        swapLock.lock();
+        try {
+            swapQueue.addAll(files);
+            swapQueueCount = swapQueue.size();
+            swappedContentSize += bytes;
+            swappedRecordCount += numFiles;
+            swapMode = true;
+            return true;
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    @Override
+    public List<FlowFileRecord> pollSwappableRecords() {
+        swapLock.lock();
+        try {
+            if (swapQueue.size() < SWAP_RECORD_POLL_SIZE) {
+                return null;
+            }
+
+            final List<FlowFileRecord> swapRecords = new ArrayList<>(swapQueue.subList(0, SWAP_RECORD_POLL_SIZE));
+            swapQueue.subList(0, SWAP_RECORD_POLL_SIZE).clear();
+            swapQueue.trimToSize();
+            swapQueueCount = swapQueue.size();
+            return swapRecords;
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    @Override
+    public void putSwappedRecords(final Collection<FlowFileRecord> records) {
+        swapLock.lock();
+        try {
+            long bytes = 0L;
+            for (final FlowFileRecord record : records) {
+                bytes += record.getSize();
+            }
+            swappedContentSize -= bytes;
+            swappedRecordCount -= records.size();
+            addToSegments(records);
+
+            if (swappedRecordCount > swapQueue.size()) {
+                // we have more swap files to be swapped in.
+                return;
+            }
+
+            // If a call to #pollSwappableRecords will not produce any, go ahead and roll those FlowFiles back into the mix
+            if (swapQueue.size() < SWAP_RECORD_POLL_SIZE) {
+                addToSegments(swapQueue);
+                swapQueue.clear();
+                swapQueueCount = 0;
+                swappedContentSize = 0L;
+                swappedRecordCount = 0;
+                swapMode = false;
+            }
+        } finally {
+            swapLock.unlock();
+            scheduler.registerEvent(connection.getDestination());
+        }
+    }
+
+    /**
+     * Distributes the given FlowFiles among the segments. MUST be called with
+     * the swap lock held and no segment lock held.
+     */
+    private void addToSegments(final Collection<FlowFileRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        final Iterator<FlowFileRecord> itr = records.iterator();
+        final int recordsPerSegment = Math.max(1, records.size() / segmentCount);
+        int segmentIndex = ThreadLocalRandom.current().nextInt(segmentCount);
+        while (itr.hasNext()) {
+            final Segment segment = lockSegment(segmentIndex++);
+            try {
+                for (int i = 0; i < recordsPerSegment && itr.hasNext(); i++) {
+                    segment.add(itr.next());
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void incrementSwapCount(final int numRecords, final long contentSize) {
+        swapLock.lock();
+        try {
+            swappedContentSize += contentSize;
+            swappedRecordCount += numRecords;
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    @Override
+    public int unswappedSize() {
+        return getActiveQueueCount() + (int) sum(unacknowledgedCounts);
+    }
+
+    @Override
+    public int getSwapRecordCount() {
+        return swappedRecordCount;
+    }
+
+    @Override
+    public int getSwapQueueSize() {
+        return swapQueueCount;
+    }
+
+    /**
+     * If there are FlowFiles waiting on the swap queue, and none have been
+     * swapped out to disk, move them to the active queue until we meet our
+     * threshold, as the StandardFlowFileQueue does. MUST NOT be called with a
+     * segment lock held.
+     */
+    private void migrateSwapToActive() {
+        if (swappedRecordCount == 0 && swapQueueCount == 0) {
+            return;
+        }
+
+        swapLock.lock();
+        try {
+            if (swappedRecordCount > swapQueue.size()) {
+                // we already have FlowFiles swapped out, so we won't migrate the queue; we will wait for
+                // an external process to swap FlowFiles back in.
+                return;
+            }
+
+            final int numToMigrate = Math.min(swapQueue.size(), swapThreshold - getActiveQueueCount());
+            if (numToMigrate <= 0) {
+                return;
+            }
+
+            final List<FlowFileRecord> toMigrate = swapQueue.subList(0, numToMigrate);
+            long bytes = 0L;
+            for (final FlowFileRecord record : toMigrate) {
+                bytes += record.getSize();
+            }
+
+            addToSegments(toMigrate);
+            toMigrate.clear();
+            swapQueueCount = swapQueue.size();
+            swappedContentSize -= bytes;
+            swappedRecordCount -= numToMigrate;
+
+            if (swappedRecordCount == 0) {
+                swapMode = false;
+            }
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    private boolean isLaterThan(final Long maxAge) {
+        if (maxAge == null) {
+            return false;
+        }
+        return maxAge < System.currentTimeMillis();
+    }
+
+    private Long getExpirationDate(final FlowFile flowFile, final long expirationMillis) {
+        if (flowFile == null) {
+            return null;
+        }
+        if (expirationMillis <= 0) {
+            return null;
+        } else {
+            final long entryDate = flowFile.getEntryDate();
+            final long expirationDate = entryDate + expirationMillis;
+            return expirationDate;
+        }
+    }
+
+    @Override
+    public FlowFileRecord poll(final Set<FlowFileRecord> expiredRecords) {
+        final List<FlowFileRecord> records = poll(1, expiredRecords);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    @Override
+    public List<FlowFileRecord> poll(final int maxResults, final Set<FlowFileRecord> expiredRecords) {
+        final List<FlowFileRecord> records = new ArrayList<>(Math.min(1024, maxResults));
+        poll(maxResults, expiredRecords, records);
+        return records;
+    }
+
+    @Override
+    public int poll(final int maxResults, final Set<FlowFileRecord> expiredRecords, final List<FlowFileRecord> records) {
+        final int startSize = records.size();
+        final int maxSize = (int) Math.min(Integer.MAX_VALUE, (long) startSize + maxResults);
+        if (!isHeldByCurrentThread()) {
+            migrateSwapToActive();
+        }
+
+        final long expirationMillis = flowFileExpirationMillis.get();
+        final boolean queueFullAtStart = queueFullRef.get();
+        long bytesPolled = 0L;
+
+        Segment[] current = segments;
+        final int start = ThreadLocalRandom.current().nextInt(current.length);
+        int visited = 0;
+        while (visited < current.length && records.size() < maxSize && expiredRecords.size() < MAX_EXPIRED_RECORDS_PER_ITERATION) {
+            final Segment segment = current[(start + visited) % current.length];
+            visited++;
+            if (segment.count == 0) {
+                continue;
+            }
+
+            segment.lock.lock();
+            try {
+                if (segment.retired) {
+                    // the priorities were changed. Start over with the new segments.
+                    current = segments;
+                    visited = 0;
+                    continue;
+                }
+
+                FlowFileRecord record;
+                while (records.size() < maxSize && (record = segment.poll()) != null) {
+                    if (isLaterThan(getExpirationDate(record, expirationMillis))) {
+                        expiredRecords.add(record);
+                        if (expiredRecords.size() >= MAX_EXPIRED_RECORDS_PER_ITERATION) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    records.add(record);
+                    bytesPolled += record.getSize();
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        final int polled = records.size() - startSize;
+        if (polled > 0) {
+            updateUnacknowledgedSize(polled, bytesPolled);
+        }
+
+        // if at least 1 FlowFile was expired & the queue was full before we started, then
+        // we need to determine whether or not the queue is full again. If no FlowFile was expired,
+        // then the queue will still be full until the appropriate #acknowledge method is called.
+        if (queueFullAtStart && !expiredRecords.isEmpty()) {
+            queueFullRef.set(determineIfFull());
+        }
+
+        return polled;
+    }
+
+    @Override
+    public long drainQueue(final Queue<FlowFileRecord> sourceQueue, final List<FlowFileRecord> destination, int maxResults, final Set<FlowFileRecord> expiredRecords) {
+        long drainedSize = 0L;
+        FlowFileRecord pulled = null;
+
+        final long expirationMillis = this.flowFileExpirationMillis.get();
+        while (destination.size() < maxResults && (pulled = sourceQueue.poll()) != null) {
+            if (isLaterThan(getExpirationDate(pulled, expirationMillis))) {
+                expiredRecords.add(pulled);
+                if (expiredRecords.size() >= MAX_EXPIRED_RECORDS_PER_ITERATION) {
+                    break;
+                }
+            } else {
+                if (pulled.isPenalized()) {
+                    sourceQueue.add(pulled);
+                    break;
+                }
+                destination.add(pulled);
+            }
+            drainedSize += pulled.getSize();
+        }
+        return drainedSize;
+    }
+
+    @Override
+    public List<FlowFileRecord> poll(final FlowFileFilter filter, final Set<FlowFileRecord> expiredRecords) {
+        if (!isHeldByCurrentThread()) {
+            migrateSwapToActive();
+        }
+
+        final Segment[] lockedSegments = lockAllSegments();
+        try {
+            final long expirationMillis = this.flowFileExpirationMillis.get();
+            final boolean queueFullAtStart = queueFullRef.get();
+
+            final List<FlowFileRecord> selectedFlowFiles = new ArrayList<>();
+            boolean terminate = false;
+            for (int i = 0; i < lockedSegments.length && !terminate; i++) {
+                final Segment segment = lockedSegments[i];
+                final List<FlowFileRecord> unselected = new ArrayList<>();
+
+                FlowFileRecord flowFile;
+                while ((flowFile = segment.poll()) != null) {
+                    final boolean isExpired = isLaterThan(getExpirationDate(flowFile, expirationMillis));
+                    if (isExpired) {
+                        expiredRecords.add(flowFile);
+                        if (expiredRecords.size() >= MAX_EXPIRED_RECORDS_PER_ITERATION) {
+                            terminate = true;
+                            break;
+                        } else {
+                            continue;
+                        }
+                    }
+
+                    final FlowFileFilterResult result = filter.filter(flowFile);
+                    if (result.isAccept()) {
+                        updateUnacknowledgedSize(1, flowFile.getSize());
+                        selectedFlowFiles.add(flowFile);
+                    } else {
+                        unselected.add(flowFile);
+                    }
+
+                    if (!result.isContinue()) {
+                        terminate = true;
+                        break;
+                    }
+                }
+
+                segment.requeue(unselected);
+            }
+
+            // if at least 1 FlowFile was expired & the queue was full before we started, then
+            // we need to determine whether or not the queue is full again. If no FlowFile was expired,
+            // then the queue will still be full until the appropriate #acknowledge method is called.
+            if (queueFullAtStart && !expiredRecords.isEmpty()) {
+                queueFullRef.set(determineIfFull());
+            }
+
+            return selectedFlowFiles;
+        } finally {
+            unlockSegments(lockedSegments);
+        }
+    }
+
+    @Override
+    public String getFlowFileExpiration() {
+        return flowFileExpirationPeriod.get();
+    }
+
+    @Override
+    public int getFlowFileExpiration(final TimeUnit timeUnit) {
+        return (int) timeUnit.convert(flowFileExpirationMillis.get(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setFlowFileExpiration(final String flowExpirationPeriod) {
+        final long millis = FormatUtils.getTimeDuration(flowExpirationPeriod, TimeUnit.MILLISECONDS);
+        if (millis < 0) {
+            throw new IllegalArgumentException("FlowFile Expiration Period must be positive");
+        }
+        this.flowFileExpirationPeriod.set(flowExpirationPeriod);
+        this.flowFileExpirationMillis.set(millis);
+    }
+
+    @Override
+    public String toString() {
+        return "FlowFileQueue[id=" + identifier + "]";
+    }
+
+    /**
+     * Lock the queue so that other threads are unable to interact with the
+     * queue
+     */
+    @Override
+    public void lock() {
+        lockAllSegments();
+    }
+
+    /**
+     * Unlock the queue
+     */
+    @Override
+    public void unlock() {
+        unlockSegments(segments);
+    }
+
+    /**
+     * Locks the segment at the given index (modulo the number of segments).
+     * The caller is responsible for unlocking it.
+     */
+    private Segment lockSegment(final int index) {
+        while (true) {
+            final Segment[] current = segments;
+            final Segment segment = current[index % current.length];
+            segment.lock.lock();
+            if (!segment.retired) {
+                return segment;
+            }
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Locks all of the segments, in order. The caller is responsible for
+     * unlocking them.
+     */
+    private Segment[] lockAllSegments() {
+        while (true) {
+            final Segment[] current = segments;
+            for (final Segment segment : current) {
+                segment.lock.lock();
+            }
+
+            if (!current[0].retired) {
+                return current;
+            }
+            unlockSegments(current);
+        }
+    }
+
+    private void unlockSegments(final Segment[] toUnlock) {
+        for (int i = toUnlock.length - 1; i >= 0; i--) {
+            toUnlock[i].lock.unlock();
+        }
+    }
+
+    private boolean isHeldByCurrentThread() {
+        return segments[0].lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * @return the stripe that the current thread maps to, which is used both
+     * to choose the segment that the thread adds FlowFiles to and to choose
+     * the counter of unacknowledged FlowFiles that it updates
+     */
+    private int getThreadStripe() {
+        return (int) (Thread.currentThread().getId() % segmentCount);
+    }
+
+    private void updateUnacknowledgedSize(final int addToCount, final long addToSize) {
+        final int stripe = getThreadStripe();
+        unacknowledgedCounts.addAndGet(stripe, addToCount);
+        unacknowledgedBytes.addAndGet(stripe, addToSize);
+    }
+
+    private static long sum(final AtomicLongArray array) {
+        long total = 0L;
+        for (int i = 0; i < array.length(); i++) {
+            total += array.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * A portion of the active queue, along with its own lock and counts. All
+     * methods MUST be called with the segment's lock held.
+     */
+    private static final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // A first-in, first-out Deque or, if prioritizers are configured, a PriorityQueue
+        private final Queue<FlowFileRecord> queue;
+        private final boolean prioritized;
+
+        // FlowFiles taken from a first-in, first-out queue because they were penalized, in order of penalty expiration
+        private final PriorityQueue<FlowFileRecord> penalized = new PriorityQueue<>(20, new PenaltyComparator());
+
+        // written only with the lock held, but read without it
+        private volatile int count = 0;
+        private volatile long bytes = 0L;
+
+        private boolean retired = false;
+
+        public Segment(final Comparator<FlowFileRecord> prioritizer) {
+            if (prioritizer == null) {
+                queue = new ArrayDeque<>();
+                prioritized = false;
+            } else {
+                queue = new PriorityQueue<>(20, prioritizer);
+                prioritized = true;
+            }
+        }
+
+        public void add(final FlowFileRecord record) {
+            queue.add(record);
+            count++;
+            bytes += record.getSize();
+        }
+
+        /**
+         * @return the next FlowFile that is not penalized, or null if there is
+         * none
+         */
+        public FlowFileRecord poll() {
+            final FlowFileRecord record;
+            if (prioritized) {
+                // penalized FlowFiles are ordered last, so if the first is penalized, they all are
+                final FlowFileRecord head = queue.peek();
+                if (head == null || head.isPenalized()) {
+                    return null;
+                }
+                record = queue.poll();
+            } else {
+                record = pollFirstInFirstOut();
+                if (record == null) {
+                    return null;
+                }
+            }
+
+            count--;
+            bytes -= record.getSize();
+            return record;
+        }
+
+        private FlowFileRecord pollFirstInFirstOut() {
+            final FlowFileRecord penalizedHead = penalized.peek();
+            if (penalizedHead != null && !penalizedHead.isPenalized()) {
+                return penalized.poll();
+            }
+
+            FlowFileRecord record;
+            while ((record = queue.poll()) != null) {
+                if (!record.isPenalized()) {
+                    return record;
+                }
+                penalized.add(record);
+            }
+            return null;
+        }
+
+        /**
+         * Returns FlowFiles that were polled but not used to the segment, ahead
+         * of those that are still queued
+         */
+        public void requeue(final List<FlowFileRecord> records) {
+            if (prioritized) {
+                for (final FlowFileRecord record : records) {
+                    add(record);
+                }
+                return;
+            }
+
+            final Deque<FlowFileRecord> deque = (Deque<FlowFileRecord>) queue;
+            final ListIterator<FlowFileRecord> itr = records.listIterator(records.size());
+            while (itr.hasPrevious()) {
+                final FlowFileRecord record = itr.previous();
+                deque.addFirst(record);
+                count++;
+                bytes += record.getSize();
+            }
+        }
+
+        public List<FlowFileRecord> removeAll() {
+            final List<FlowFileRecord> records = new ArrayList<>(count);
+            records.addAll(penalized);
+            records.addAll(queue);
+            penalized.clear();
+            queue.clear();
+            count = 0;
+            bytes = 0L;
+            return records;
+        }
+    }
+
+    private static final class PenaltyComparator implements Comparator<FlowFileRecord>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(final FlowFileRecord f1, final FlowFileRecord f2) {
+            final int penaltyComparison = Long.compare(f1.getPenaltyExpirationMillis(), f2.getPenaltyExpirationMillis());
+            if (penaltyComparison != 0) {
+                return penaltyComparison;
+            }
+            return Long.compare(f1.getId(), f2.getId());
+        }
+    }
+}
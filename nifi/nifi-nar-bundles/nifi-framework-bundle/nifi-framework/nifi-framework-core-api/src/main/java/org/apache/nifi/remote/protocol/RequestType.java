@@ -26,7 +26,8 @@ public enum RequestType {
     REQUEST_PEER_LIST,
     SEND_FLOWFILES,
     RECEIVE_FLOWFILES,
-    SHUTDOWN;
+    SHUTDOWN,
+    MULTIPLEX;
 
     public void writeRequestType(final DataOutputStream dos) throws IOException {
         dos.writeUTF(name());
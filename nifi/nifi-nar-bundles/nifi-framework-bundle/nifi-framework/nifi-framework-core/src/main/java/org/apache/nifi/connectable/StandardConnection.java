@@ -29,6 +29,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.apache.nifi.controller.FlowFileQueue;
 import org.apache.nifi.controller.ProcessScheduler;
 import org.apache.nifi.controller.StandardFlowFileQueue;
+import org.apache.nifi.controller.StripedFlowFileQueue;
 import org.apache.nifi.controller.repository.FlowFileRecord;
 import org.apache.nifi.groups.ProcessGroup;
 import org.apache.nifi.processor.FlowFileFilter;
@@ -52,7 +53,7 @@ public final class StandardConnection implements Connection {
     private final Connectable source;
     private final AtomicReference<Connectable> destination;
     private final AtomicReference<Collection<Relationship>> relationships;
-    private final StandardFlowFileQueue flowFileQueue;
+    private final FlowFileQueue flowFileQueue;
     private final AtomicInteger labelIndex = new AtomicInteger(1);
     private final AtomicLong zIndex = new AtomicLong(0L);
     private final ProcessScheduler scheduler;
@@ -67,7 +68,12 @@ public final class StandardConnection implements Connection {
         destination = new AtomicReference<>(builder.destination);
         relationships = new AtomicReference<>(Collections.unmodifiableCollection(builder.relationships));
         scheduler = builder.scheduler;
-        flowFileQueue = new StandardFlowFileQueue(id, this, scheduler, NiFiProperties.getInstance().getQueueSwapThreshold());
+        final NiFiProperties properties = NiFiProperties.getInstance();
+        if (properties.isStripedQueueEnabled()) {
+            flowFileQueue = new StripedFlowFileQueue(id, this, scheduler, properties.getQueueSwapThreshold());
+        } else {
+            flowFileQueue = new StandardFlowFileQueue(id, this, scheduler, properties.getQueueSwapThreshold());
+        }
         hashCode = new HashCodeBuilder(7, 67).append(id).toHashCode();
     }
 
@@ -42,10 +42,13 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -56,6 +59,7 @@ import java.util.regex.Pattern;
 
 import org.apache.nifi.controller.repository.ConnectionSwapInfo;
 import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.controller.repository.FlowFileRecordCompactor;
 import org.apache.nifi.controller.repository.FlowFileRepository;
 import org.apache.nifi.controller.repository.FlowFileSwapManager;
 import org.apache.nifi.controller.repository.QueueProvider;
@@ -66,6 +70,8 @@ import org.apache.nifi.engine.FlowEngine;
 import org.apache.nifi.events.EventReporter;
 import org.apache.nifi.stream.io.BufferedOutputStream;
 import org.apache.nifi.processor.QueueSize;
+import org.apache.nifi.remote.io.CompressionInputStream;
+import org.apache.nifi.remote.io.CompressionOutputStream;
 import org.apache.nifi.reporting.Severity;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.NiFiProperties;
@@ -84,11 +90,16 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     private static final Pattern SWAP_FILE_PATTERN = Pattern.compile("\\d+-.+\\.swap");
     private static final Pattern TEMP_SWAP_FILE_PATTERN = Pattern.compile("\\d+-.+\\.swap\\.part");
     
-    public static final int SWAP_ENCODING_VERSION = 6;
+    public static final int SWAP_ENCODING_VERSION = 7;
+
+    // as of this version, FlowFiles are written in compressed blocks and recurring names are written only once
+    private static final int BLOCK_ENCODING_VERSION = 7;
+    private static final int SWAP_BLOCK_SIZE = 256 * 1024;
     public static final String EVENT_CATEGORY = "Swap FlowFiles";
 
     private final ScheduledExecutorService swapQueueIdentifierExecutor;
     private final ScheduledExecutorService swapInExecutor;
+    private final ScheduledExecutorService swapReadAheadExecutor;
     private volatile FlowFileRepository flowFileRepository;
     private volatile EventReporter eventReporter;
 
@@ -99,6 +110,7 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     private final long swapOutMillis;
     private final int swapOutThreadCount;
 
+    private final FlowFileRecordCompactor recordCompactor;
     private ContentClaimManager claimManager;	// effectively final
 
     private static final Logger logger = LoggerFactory.getLogger(FileSystemSwapManager.class);
@@ -118,6 +130,8 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         swapOutMillis = FormatUtils.getTimeDuration(properties.getSwapOutPeriod(), TimeUnit.MILLISECONDS);
         swapOutThreadCount = properties.getSwapOutThreads();
         swapInExecutor = new FlowEngine(properties.getSwapInThreads(), "Swap In FlowFiles");
+        swapReadAheadExecutor = new FlowEngine(1, "Read Ahead Swapped FlowFiles", true);
+        recordCompactor = FlowFileRecordCompactor.getInstance();
     }
 
     @Override
@@ -146,7 +160,7 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         swapInExecutor.scheduleWithFixedDelay(new SwapInTask(), swapInMillis, swapInMillis, TimeUnit.MILLISECONDS);
     }
 
-    public int serializeFlowFiles(final List<FlowFileRecord> toSwap, final FlowFileQueue queue, final String swapLocation, final OutputStream destination) throws IOException {
+    public static int serializeFlowFiles(final List<FlowFileRecord> toSwap, final FlowFileQueue queue, final String swapLocation, final OutputStream destination) throws IOException {
         if (toSwap == null || toSwap.isEmpty()) {
             return 0;
         }
@@ -160,44 +174,53 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         final OutputStream bufferedOut = new BufferedOutputStream(destination);
         final DataOutputStream out = new DataOutputStream(bufferedOut);
         try {
+            // the header is not compressed so that the swap file can be recovered without reading the FlowFiles
             out.writeInt(SWAP_ENCODING_VERSION);
             out.writeUTF(queue.getIdentifier());
             out.writeInt(toSwap.size());
             out.writeLong(contentSize);
+            out.flush();
+
+            final CompressionOutputStream compressedOut = new CompressionOutputStream(bufferedOut, SWAP_BLOCK_SIZE);
+            final DataOutputStream blockOut = new DataOutputStream(compressedOut);
+            final Map<String, Integer> names = new HashMap<>();
 
             for (final FlowFileRecord flowFile : toSwap) {
-                out.writeLong(flowFile.getId());
-                out.writeLong(flowFile.getEntryDate());
+                blockOut.writeLong(flowFile.getId());
+                blockOut.writeLong(flowFile.getEntryDate());
 
                 final Set<String> lineageIdentifiers = flowFile.getLineageIdentifiers();
-                out.writeInt(lineageIdentifiers.size());
+                blockOut.writeInt(lineageIdentifiers.size());
                 for (final String lineageId : lineageIdentifiers) {
-                    out.writeUTF(lineageId);
+                    blockOut.writeUTF(lineageId);
                 }
 
-                out.writeLong(flowFile.getLineageStartDate());
-                out.writeLong(flowFile.getLastQueueDate());
-                out.writeLong(flowFile.getSize());
+                blockOut.writeLong(flowFile.getLineageStartDate());
+                blockOut.writeLong(flowFile.getLastQueueDate());
+                blockOut.writeLong(flowFile.getSize());
 
                 final ContentClaim claim = flowFile.getContentClaim();
                 if (claim == null) {
-                    out.writeBoolean(false);
+                    blockOut.writeBoolean(false);
                 } else {
-                    out.writeBoolean(true);
-                    out.writeUTF(claim.getId());
-                    out.writeUTF(claim.getContainer());
-                    out.writeUTF(claim.getSection());
-                    out.writeLong(flowFile.getContentClaimOffset());
-                    out.writeBoolean(claim.isLossTolerant());
+                    blockOut.writeBoolean(true);
+                    blockOut.writeUTF(claim.getId());
+                    writeName(claim.getContainer(), blockOut, names);
+                    writeName(claim.getSection(), blockOut, names);
+                    blockOut.writeLong(flowFile.getContentClaimOffset());
+                    blockOut.writeBoolean(claim.isLossTolerant());
                 }
 
                 final Map<String, String> attributes = flowFile.getAttributes();
-                out.writeInt(attributes.size());
+                blockOut.writeInt(attributes.size());
                 for (final Map.Entry<String, String> entry : attributes.entrySet()) {
-                    writeString(entry.getKey(), out);
-                    writeString(entry.getValue(), out);
+                    writeName(entry.getKey(), blockOut, names);
+                    writeString(entry.getValue(), blockOut);
                 }
             }
+
+            blockOut.flush();
+            compressedOut.close();  // writes the end-of-data marker but does not close the underlying stream
         } finally {
             out.flush();
         }
@@ -207,7 +230,37 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         return toSwap.size();
     }
 
-    private void writeString(final String toWrite, final OutputStream out) throws IOException {
+    /**
+     * Writes a String that is likely to recur within the swap file, such as an
+     * attribute name. The first occurrence is written in full and is assigned
+     * the next index; each later occurrence is written as only that index.
+     */
+    private static void writeName(final String name, final DataOutputStream out, final Map<String, Integer> names) throws IOException {
+        final Integer index = names.get(name);
+        if (index == null) {
+            out.writeInt(-1);
+            writeString(name, out);
+            names.put(name, names.size());
+        } else {
+            out.writeInt(index);
+        }
+    }
+
+    private static String readName(final DataInputStream in, final List<String> names) throws IOException {
+        final int index = in.readInt();
+        if (index == -1) {
+            final String name = readString(in);
+            names.add(name);
+            return name;
+        }
+
+        if (index < 0 || index >= names.size()) {
+            throw new IOException("Swap File is corrupt: it refers to name #" + index + " but only " + names.size() + " names have been defined");
+        }
+        return names.get(index);
+    }
+
+    private static void writeString(final String toWrite, final OutputStream out) throws IOException {
         final byte[] bytes = toWrite.getBytes("UTF-8");
         final int utflen = bytes.length;
 
@@ -245,6 +298,10 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     }
 
     static List<FlowFileRecord> deserializeFlowFiles(final DataInputStream in, final int numFlowFiles, final FlowFileQueue queue, final int serializationVersion, final boolean incrementContentClaims, final ContentClaimManager claimManager) throws IOException {
+        if (serializationVersion >= BLOCK_ENCODING_VERSION) {
+            return deserializeBlocks(new DataInputStream(new CompressionInputStream(in)), numFlowFiles, incrementContentClaims, claimManager);
+        }
+
         final List<FlowFileRecord> flowFiles = new ArrayList<>();
         for (int i = 0; i < numFlowFiles; i++) {
             // legacy encoding had an "action" because it used to be couple with FlowFile Repository code
@@ -332,6 +389,54 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         return flowFiles;
     }
 
+    private static List<FlowFileRecord> deserializeBlocks(final DataInputStream in, final int numFlowFiles, final boolean incrementContentClaims, final ContentClaimManager claimManager) throws IOException {
+        final List<FlowFileRecord> flowFiles = new ArrayList<>(numFlowFiles);
+        final List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < numFlowFiles; i++) {
+            final StandardFlowFileRecord.Builder ffBuilder = new StandardFlowFileRecord.Builder();
+            ffBuilder.id(in.readLong());
+            ffBuilder.entryDate(in.readLong());
+
+            final int numLineageIdentifiers = in.readInt();
+            final Set<String> lineageIdentifiers = new HashSet<>(numLineageIdentifiers);
+            for (int lineageIdIdx = 0; lineageIdIdx < numLineageIdentifiers; lineageIdIdx++) {
+                lineageIdentifiers.add(in.readUTF());
+            }
+            ffBuilder.lineageIdentifiers(lineageIdentifiers);
+            ffBuilder.lineageStartDate(in.readLong());
+            ffBuilder.lastQueueDate(in.readLong());
+            ffBuilder.size(in.readLong());
+
+            if (in.readBoolean()) {
+                final String claimId = in.readUTF();
+                final String container = readName(in, names);
+                final String section = readName(in, names);
+                final long claimOffset = in.readLong();
+                final boolean lossTolerant = in.readBoolean();
+
+                final ContentClaim claim = claimManager.newContentClaim(container, section, claimId, lossTolerant);
+                if (incrementContentClaims) {
+                    claimManager.incrementClaimantCount(claim);
+                }
+
+                ffBuilder.contentClaim(claim);
+                ffBuilder.contentClaimOffset(claimOffset);
+            }
+
+            final int numAttributes = in.readInt();
+            for (int j = 0; j < numAttributes; j++) {
+                final String key = readName(in, names);
+                final String value = readString(in);
+                ffBuilder.addAttribute(key, value);
+            }
+
+            flowFiles.add(ffBuilder.build());
+        }
+
+        return flowFiles;
+    }
+
     private static String readString(final InputStream in) throws IOException {
         final Integer numBytes = readFieldLength(in);
         if (numBytes == null) {
@@ -419,13 +524,24 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         public void run() {
             for (final Map.Entry<FlowFileQueue, QueueLockWrapper> entry : swapMap.entrySet()) {
                 final FlowFileQueue flowFileQueue = entry.getKey();
-
-                // if queue is more than 60% of its swap threshold, don't swap flowfiles in
-                if (flowFileQueue.unswappedSize() >= ((float) flowFileQueue.getSwapThreshold() * 0.6F)) {
+                final QueueLockWrapper queueLockWrapper = entry.getValue();
+                final float swapInThreshold = (float) flowFileQueue.getSwapThreshold() * 0.6F;
+
+                // Estimate how large the active queue will be when this task next runs, based on how quickly it has been
+                // drained, so that FlowFiles are swapped in before the active queue runs dry rather than after.
+                final int activeQueueSize = flowFileQueue.unswappedSize();
+                final double drainRate = queueLockWrapper.updateDrainRate(activeQueueSize, System.nanoTime());
+                final double projectedSize = activeQueueSize - drainRate * swapInMillis;
+
+                // if queue will still be more than 60% of its swap threshold, don't swap flowfiles in. If it will fall below that
+                // by the run after, though, start reading the next Swap File now so that it is ready to be swapped in.
+                if (projectedSize >= swapInThreshold) {
+                    if (projectedSize - drainRate * swapInMillis < swapInThreshold) {
+                        readAhead(flowFileQueue, queueLockWrapper);
+                    }
                     continue;
                 }
 
-                final QueueLockWrapper queueLockWrapper = entry.getValue();
                 if (queueLockWrapper.getLock().tryLock()) {
                     try {
                         final Queue<File> queue = queueLockWrapper.getQueue();
@@ -439,12 +555,9 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
                                     break;
                                 }
 
-                                try (final InputStream fis = new FileInputStream(swapFile);
-                                        final DataInputStream in = new DataInputStream(fis)) {
-                                    final List<FlowFileRecord> swappedFlowFiles = deserializeFlowFiles(in, flowFileQueue, claimManager);
-                                    flowFileRepository.swapFlowFilesIn(swapFile.getAbsolutePath(), swappedFlowFiles, flowFileQueue);
-                                    flowFileQueue.putSwappedRecords(swappedFlowFiles);
-                                }
+                                final List<FlowFileRecord> swappedFlowFiles = getSwappedFlowFiles(swapFile, flowFileQueue, queueLockWrapper);
+                                flowFileRepository.swapFlowFilesIn(swapFile.getAbsolutePath(), swappedFlowFiles, flowFileQueue);
+                                flowFileQueue.putSwappedRecords(swappedFlowFiles);
 
                                 if (!swapFile.delete()) {
                                     warn("Swapped in FlowFiles from file " + swapFile.getAbsolutePath() + " but failed to delete the file; this file should be cleaned up manually");
@@ -468,11 +581,85 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
                     } finally {
                         queueLockWrapper.getLock().unlock();
                     }
+
+                    // don't count the FlowFiles that were just swapped in as having been drained
+                    queueLockWrapper.updateDrainRate(flowFileQueue.unswappedSize(), System.nanoTime());
                 }
             }
         }
     }
 
+    /**
+     * Starts reading the next Swap File for the given queue in the background,
+     * unless it is already being read
+     */
+    private void readAhead(final FlowFileQueue flowFileQueue, final QueueLockWrapper queueLockWrapper) {
+        synchronized (queueLockWrapper) {
+            if (queueLockWrapper.readAheadFile != null) {
+                return;
+            }
+
+            final File swapFile = queueLockWrapper.getQueue().peek();
+            if (swapFile == null) {
+                return;
+            }
+
+            queueLockWrapper.readAheadFile = swapFile;
+            queueLockWrapper.readAheadFuture = swapReadAheadExecutor.submit(new Callable<List<FlowFileRecord>>() {
+                @Override
+                public List<FlowFileRecord> call() throws IOException {
+                    return readSwapFile(swapFile, flowFileQueue);
+                }
+            });
+            logger.debug("Reading ahead Swap File {} for {}", swapFile, flowFileQueue);
+        }
+    }
+
+    /**
+     * Returns the FlowFiles in the given Swap File, waiting for them to be read
+     * ahead if they are already being read, or reading them now otherwise
+     */
+    private List<FlowFileRecord> getSwappedFlowFiles(final File swapFile, final FlowFileQueue flowFileQueue, final QueueLockWrapper queueLockWrapper) throws IOException {
+        final Future<List<FlowFileRecord>> readAheadFuture;
+        synchronized (queueLockWrapper) {
+            final File readAheadFile = queueLockWrapper.readAheadFile;
+            readAheadFuture = queueLockWrapper.readAheadFuture;
+            queueLockWrapper.readAheadFile = null;
+            queueLockWrapper.readAheadFuture = null;
+
+            if (readAheadFuture != null && !swapFile.equals(readAheadFile)) {
+                readAheadFuture.cancel(true);
+                return readSwapFile(swapFile, flowFileQueue);
+            }
+        }
+
+        if (readAheadFuture == null) {
+            return readSwapFile(swapFile, flowFileQueue);
+        }
+
+        try {
+            return readAheadFuture.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Swap File " + swapFile + " to be read", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private List<FlowFileRecord> readSwapFile(final File swapFile, final FlowFileQueue flowFileQueue) throws IOException {
+        try (final InputStream fis = new FileInputStream(swapFile);
+                final InputStream bufferedIn = new BufferedInputStream(fis);
+                final DataInputStream in = new DataInputStream(bufferedIn)) {
+            final List<FlowFileRecord> swappedFlowFiles = deserializeFlowFiles(in, flowFileQueue, claimManager);
+            return recordCompactor == null ? swappedFlowFiles : recordCompactor.compact(swappedFlowFiles);
+        }
+    }
+
     private void error(final String error, final Throwable t) {
         error(error);
         if ( logger.isDebugEnabled() ) {
@@ -682,6 +869,7 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
     public void shutdown() {
         swapQueueIdentifierExecutor.shutdownNow();
         swapInExecutor.shutdownNow();
+        swapReadAheadExecutor.shutdownNow();
     }
 
     private static class SwapFileComparator implements Comparator<String> {
@@ -740,6 +928,14 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
         private final Lock lock = new ReentrantLock();
         private final Queue<File> queue;
 
+        // the Swap File that is being read ahead of time, if any; protected by synchronizing on this
+        private File readAheadFile;
+        private Future<List<FlowFileRecord>> readAheadFuture;
+
+        private int lastObservedSize = -1;
+        private long lastObservationNanos;
+        private double drainRate = 0D;  // FlowFiles per millisecond, smoothed over recent observations
+
         public QueueLockWrapper(final Queue<File> queue) {
             this.queue = queue;
         }
@@ -752,6 +948,23 @@ public class FileSystemSwapManager implements FlowFileSwapManager {
             return lock;
         }
 
+        /**
+         * Records the current size of the active queue and returns the rate at
+         * which it has been drained since the previous observation, in
+         * FlowFiles per millisecond, averaged with earlier rates
+         */
+        public synchronized double updateDrainRate(final int activeQueueSize, final long nanos) {
+            if (lastObservedSize >= 0 && nanos > lastObservationNanos) {
+                final double elapsedMillis = (nanos - lastObservationNanos) / 1000000D;
+                final double rate = Math.max(0, lastObservedSize - activeQueueSize) / elapsedMillis;
+                drainRate = (drainRate + rate) / 2D;
+            }
+
+            lastObservedSize = activeQueueSize;
+            lastObservationNanos = nanos;
+            return drainRate;
+        }
+
         @Override
         public int hashCode() {
             return queue.hashCode();
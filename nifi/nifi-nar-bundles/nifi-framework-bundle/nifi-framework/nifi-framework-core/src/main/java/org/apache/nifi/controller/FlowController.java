@@ -82,6 +82,7 @@ import org.apache.nifi.controller.repository.CounterRepository;
 import org.apache.nifi.controller.repository.FlowFileEvent;
 import org.apache.nifi.controller.repository.FlowFileEventRepository;
 import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.controller.repository.FlowFileRecordCompactor;
 import org.apache.nifi.controller.repository.FlowFileRepository;
 import org.apache.nifi.controller.repository.FlowFileSwapManager;
 import org.apache.nifi.controller.repository.QueueProvider;
@@ -95,9 +96,11 @@ import org.apache.nifi.controller.repository.claim.ContentClaimManager;
 import org.apache.nifi.controller.repository.claim.ContentDirection;
 import org.apache.nifi.controller.repository.claim.StandardContentClaimManager;
 import org.apache.nifi.controller.repository.io.LimitedInputStream;
+import org.apache.nifi.controller.scheduling.BlockingIOSchedulingAgent;
 import org.apache.nifi.controller.scheduling.EventDrivenSchedulingAgent;
 import org.apache.nifi.controller.scheduling.ProcessContextFactory;
 import org.apache.nifi.controller.scheduling.QuartzSchedulingAgent;
+import org.apache.nifi.controller.scheduling.SchedulingPools;
 import org.apache.nifi.controller.scheduling.StandardProcessScheduler;
 import org.apache.nifi.controller.scheduling.TimerDrivenSchedulingAgent;
 import org.apache.nifi.controller.service.ControllerServiceNode;
@@ -116,6 +119,8 @@ import org.apache.nifi.controller.tasks.ExpireFlowFiles;
 import org.apache.nifi.diagnostics.SystemDiagnostics;
 import org.apache.nifi.diagnostics.SystemDiagnosticsFactory;
 import org.apache.nifi.encrypt.StringEncryptor;
+import org.apache.nifi.engine.FairShareExecutor;
+import org.apache.nifi.engine.FairShareExecutor.PoolStatus;
 import org.apache.nifi.engine.FlowEngine;
 import org.apache.nifi.events.BulletinFactory;
 import org.apache.nifi.events.EventReporter;
@@ -210,6 +215,7 @@ public class FlowController implements EventAccess, ControllerServiceProvider, H
     private final AtomicInteger maxTimerDrivenThreads;
     private final AtomicInteger maxEventDrivenThreads;
     private final AtomicReference<FlowEngine> timerDrivenEngineRef;
+    private final FairShareExecutor fairShareExecutor;
     private final AtomicReference<FlowEngine> eventDrivenEngineRef;
 
     private final ContentRepository contentRepository;
@@ -221,6 +227,8 @@ public class FlowController implements EventAccess, ControllerServiceProvider, H
     private final TemplateManager templateManager;
     private final SnippetManager snippetManager;
     private final long gracefulShutdownSeconds;
+    private final boolean adaptiveRunDurationEnabled;
+    private final long adaptiveRunDurationTargetNanos;
     private final ExtensionManager extensionManager;
     private final NiFiProperties properties;
     private final SSLContext sslContext;
@@ -400,15 +408,30 @@ public class FlowController implements EventAccess, ControllerServiceProvider, H
         processScheduler = new StandardProcessScheduler(this, this, encryptor);
         eventDrivenWorkerQueue = new EventDrivenWorkerQueue(false, false, processScheduler);
 
-        final ProcessContextFactory contextFactory = new ProcessContextFactory(contentRepository, flowFileRepository, flowFileEventRepository, counterRepositoryRef.get(), provenanceEventRepository);
+        final ProcessContextFactory contextFactory = new ProcessContextFactory(contentRepository, flowFileRepository, flowFileEventRepository, counterRepositoryRef.get(),
+                provenanceEventRepository, FlowFileRecordCompactor.getInstance());
         processScheduler.setSchedulingAgent(SchedulingStrategy.EVENT_DRIVEN, new EventDrivenSchedulingAgent(
                 eventDrivenEngineRef.get(), this, eventDrivenWorkerQueue, contextFactory, maxEventDrivenThreads.get(), encryptor));
 
         final QuartzSchedulingAgent quartzSchedulingAgent = new QuartzSchedulingAgent(this, timerDrivenEngineRef.get(), contextFactory, encryptor);
-        final TimerDrivenSchedulingAgent timerDrivenAgent = new TimerDrivenSchedulingAgent(this, timerDrivenEngineRef.get(), contextFactory, encryptor);
+        if (properties.isFairShareSchedulingEnabled()) {
+            final SchedulingPools schedulingPools = new SchedulingPools(properties.getSchedulingPoolGroups(), properties.getSchedulingPoolWeights());
+            fairShareExecutor = new FairShareExecutor(maxTimerDrivenThreads.get(), "Fair-Share Process");
+            for (final Map.Entry<String, Integer> entry : schedulingPools.getWeights().entrySet()) {
+                fairShareExecutor.setWeight(entry.getKey(), entry.getValue());
+            }
+            processScheduler.setSchedulingPools(schedulingPools);
+        } else {
+            fairShareExecutor = null;
+        }
+
+        final TimerDrivenSchedulingAgent timerDrivenAgent = new TimerDrivenSchedulingAgent(this, timerDrivenEngineRef.get(), contextFactory, encryptor,
+                properties.isParkIdleTasksEnabled(), fairShareExecutor);
         processScheduler.setSchedulingAgent(SchedulingStrategy.TIMER_DRIVEN, timerDrivenAgent);
         processScheduler.setSchedulingAgent(SchedulingStrategy.PRIMARY_NODE_ONLY, timerDrivenAgent);
         processScheduler.setSchedulingAgent(SchedulingStrategy.CRON_DRIVEN, quartzSchedulingAgent);
+        processScheduler.setSchedulingAgent(SchedulingStrategy.BLOCKING_IO, new BlockingIOSchedulingAgent(this, contextFactory, encryptor,
+                properties.getMaxBlockingIoThreads()));
         processScheduler.scheduleFrameworkTask(new ExpireFlowFiles(this, contextFactory), "Expire FlowFiles", 30L, 30L, TimeUnit.SECONDS);
 
         startConnectablesAfterInitialization = new ArrayList<>();
@@ -427,6 +450,9 @@ public class FlowController implements EventAccess, ControllerServiceProvider, H
         }
         gracefulShutdownSeconds = shutdownSecs;
 
+        adaptiveRunDurationEnabled = properties.isAdaptiveRunDurationEnabled();
+        adaptiveRunDurationTargetNanos = FormatUtils.getTimeDuration(properties.getAdaptiveRunDurationLatencyTarget(), TimeUnit.NANOSECONDS);
+
         remoteInputSocketPort = properties.getRemoteInputPort();
         isSiteToSiteSecure = properties.isSiteToSiteSecure();
 
@@ -1158,10 +1184,41 @@ public class FlowController implements EventAccess, ControllerServiceProvider, H
         return maxEventDrivenThreads.get();
     }
 
+    /**
+     * @return <code>true</code> if the framework chooses how long to batch the
+     * invocations of processors that support batching, rather than using the
+     * run duration configured for each of them
+     */
+    public boolean isAdaptiveRunDurationEnabled() {
+        return adaptiveRunDurationEnabled;
+    }
+
+    /**
+     * @param timeUnit the unit of the returned duration
+     * @return the latency target for the batches of a processor that supports
+     * batching but has no run duration configured, when adaptive run durations
+     * are enabled
+     */
+    public long getAdaptiveRunDurationTarget(final TimeUnit timeUnit) {
+        return timeUnit.convert(adaptiveRunDurationTargetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the status of each pool that timer-driven components are run in,
+     * or an empty list if they are not run in scheduling pools
+     */
+    public List<PoolStatus> getSchedulingPoolStatus() {
+        if (fairShareExecutor == null) {
+            return Collections.emptyList();
+        }
+        return fairShareExecutor.getPoolStatus();
+    }
+
     public void setMaxTimerDrivenThreadCount(final int maxThreadCount) {
         writeLock.lock();
         try {
             setMaxThreadCount(maxThreadCount, this.timerDrivenEngineRef.get(), this.maxTimerDrivenThreads);
+            processScheduler.setMaxThreadCount(SchedulingStrategy.TIMER_DRIVEN, maxThreadCount);
         } finally {
             writeLock.unlock();
         }
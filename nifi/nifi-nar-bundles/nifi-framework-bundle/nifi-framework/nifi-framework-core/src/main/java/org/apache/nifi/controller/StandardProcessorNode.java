@@ -475,7 +475,8 @@ public class StandardProcessorNode extends ProcessorNode implements Connectable
                 }
                 break;
                 case PRIMARY_NODE_ONLY:
-                case TIMER_DRIVEN: {
+                case TIMER_DRIVEN:
+                case BLOCKING_IO: {
                     final long schedulingNanos = FormatUtils.getTimeDuration(requireNonNull(schedulingPeriod), TimeUnit.NANOSECONDS);
                     if (schedulingNanos < 0) {
                         throw new IllegalArgumentException("Scheduling Period must be positive");
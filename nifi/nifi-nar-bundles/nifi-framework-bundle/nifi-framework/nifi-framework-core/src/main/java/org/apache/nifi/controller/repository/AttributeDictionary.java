@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * A dictionary of Strings that is shared by all {@link CompactFlowFileRecord}s,
+ * so that an attribute name or value that occurs on many FlowFiles is held in
+ * memory only once and each FlowFile refers to it by an integer code.
+ * </p>
+ *
+ * <p>
+ * Attribute names are added to the dictionary the first time they are seen.
+ * Values that are unique to a FlowFile, such as the uuid, must not be added, or
+ * the dictionary would grow without bound. For this reason, a value is added
+ * only once it has been seen at least twice, which is tracked by a small, lossy
+ * table of recently seen values. The dictionary never holds more than a fixed
+ * number of entries; once it is full, Strings are simply not interned.
+ * </p>
+ *
+ * <b>Thread Safe</b>
+ */
+public class AttributeDictionary {
+
+    public static final int DEFAULT_MAX_ENTRIES = 65536;
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 256;
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int CANDIDATE_TABLE_SIZE = 4096;
+
+    private final int maxEntries;
+    private final int maxValueLength;
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> candidates = new AtomicReferenceArray<>(CANDIDATE_TABLE_SIZE);
+
+    // the Strings are stored in pages of a fixed size so that the dictionary can grow without copying
+    // and so that a code can be looked up without locking.
+    private volatile String[][] pages = new String[0][];
+    private int size = 0;   // protected by synchronizing on this
+
+    public AttributeDictionary() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_VALUE_LENGTH);
+    }
+
+    public AttributeDictionary(final int maxEntries, final int maxValueLength) {
+        this.maxEntries = maxEntries;
+        this.maxValueLength = maxValueLength;
+    }
+
+    /**
+     * Returns the code for the given attribute name, adding it to the
+     * dictionary if it is not already present.
+     *
+     * @param key the attribute name
+     * @return the code of the name, or -1 if the dictionary is full
+     */
+    public int getKeyCode(final String key) {
+        final Integer code = codes.get(key);
+        if (code != null) {
+            return code;
+        }
+
+        return add(key);
+    }
+
+    /**
+     * Returns the code for the given attribute value. The value is added to the
+     * dictionary only if it is not too long and it has recently been seen
+     * already.
+     *
+     * @param value the attribute value
+     * @return the code of the value, or -1 if the value is not in the
+     * dictionary
+     */
+    public int getValueCode(final String value) {
+        final Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+
+        if (value.length() > maxValueLength) {
+            return -1;
+        }
+
+        final int slot = (value.hashCode() & 0x7FFFFFFF) % CANDIDATE_TABLE_SIZE;
+        final String candidate = candidates.get(slot);
+        if (value.equals(candidate)) {
+            candidates.compareAndSet(slot, candidate, null);
+            return add(value);
+        }
+
+        candidates.set(slot, value);
+        return -1;
+    }
+
+    /**
+     * @param code a code that was returned by this dictionary
+     * @return the String for the given code
+     */
+    public String getString(final int code) {
+        return pages[code >>> PAGE_SHIFT][code & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * @return the number of Strings in the dictionary
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(final String value) {
+        final Integer existing = codes.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (size >= maxEntries) {
+            return -1;
+        }
+
+        final int code = size;
+        final int pageIndex = code >>> PAGE_SHIFT;
+        String[][] currentPages = pages;
+        if (pageIndex >= currentPages.length) {
+            final String[][] newPages = new String[pageIndex + 1][];
+            System.arraycopy(currentPages, 0, newPages, 0, currentPages.length);
+            newPages[pageIndex] = new String[PAGE_SIZE];
+            currentPages = newPages;
+        }
+
+        currentPages[pageIndex][code & (PAGE_SIZE - 1)] = value;
+        // write the volatile field before publishing the code so that any thread that obtains the code sees the String
+        pages = currentPages;
+        codes.put(value, code);
+        size++;
+        return code;
+    }
+}
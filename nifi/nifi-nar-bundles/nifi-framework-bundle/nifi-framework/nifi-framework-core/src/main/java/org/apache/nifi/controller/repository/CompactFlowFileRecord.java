@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.controller.repository.claim.ContentClaim;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+
+import org.apache.commons.lang3.builder.CompareToBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * <p>
+ * A FlowFile record that holds its attributes in an encoded form, rather than
+ * as a Map, in order to reduce the memory that is needed for FlowFiles that
+ * are waiting in a queue. The attributes are decoded only when they are
+ * requested.
+ * </p>
+ *
+ * <p>
+ * Each attribute is encoded as a key token followed by a value token. A token
+ * is a variable-length integer that is either an even number, in which case
+ * the String is the entry of the {@link AttributeDictionary} whose code is half
+ * of the number, or an odd number, in which case half of the number is the
+ * length of the UTF-8 encoded String that immediately follows. The encoded
+ * attributes are held either in a byte array or in an {@link OffHeapArena}.
+ * </p>
+ *
+ * <p>
+ * Records are created by a {@link FlowFileRecordCompactor}. A compact record is
+ * equal to a {@link StandardFlowFileRecord} that has the same identifier.
+ * </p>
+ *
+ * <b>Immutable - Thread Safe</b>
+ */
+public final class CompactFlowFileRecord implements FlowFileRecord {
+
+    private final long id;
+    private final long entryDate;
+    private final long lineageStartDate;
+    private final Set<String> lineageIdentifiers;
+    private final long size;
+    private final long penaltyExpirationMs;
+    private final ContentClaim claim;
+    private final long claimOffset;
+    private final long lastQueueDate;
+    private final AttributeDictionary dictionary;
+    private final Object encodedAttributes; // either a byte[] or an OffHeapArena.Allocation
+
+    CompactFlowFileRecord(final FlowFileRecord flowFile, final Set<String> lineageIdentifiers, final AttributeDictionary dictionary, final Object encodedAttributes) {
+        this.id = flowFile.getId();
+        this.entryDate = flowFile.getEntryDate();
+        this.lineageStartDate = flowFile.getLineageStartDate();
+        this.lineageIdentifiers = lineageIdentifiers;
+        this.size = flowFile.getSize();
+        this.penaltyExpirationMs = flowFile.getPenaltyExpirationMillis();
+        this.claim = flowFile.getContentClaim();
+        this.claimOffset = flowFile.getContentClaimOffset();
+        this.lastQueueDate = flowFile.getLastQueueDate() == null ? System.currentTimeMillis() : flowFile.getLastQueueDate();
+        this.dictionary = dictionary;
+        this.encodedAttributes = encodedAttributes;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public long getEntryDate() {
+        return entryDate;
+    }
+
+    @Override
+    public Set<String> getLineageIdentifiers() {
+        return lineageIdentifiers;
+    }
+
+    @Override
+    public long getLineageStartDate() {
+        return lineageStartDate;
+    }
+
+    @Override
+    public Long getLastQueueDate() {
+        return lastQueueDate;
+    }
+
+    @Override
+    public boolean isPenalized() {
+        return (penaltyExpirationMs > 0) ? penaltyExpirationMs > System.currentTimeMillis() : false;
+    }
+
+    @Override
+    public long getPenaltyExpirationMillis() {
+        return penaltyExpirationMs;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public ContentClaim getContentClaim() {
+        return claim;
+    }
+
+    @Override
+    public long getContentClaimOffset() {
+        return claimOffset;
+    }
+
+    /**
+     * Finds the value of the given attribute without decoding the others
+     *
+     * @param key the attribute name
+     * @return the value of the attribute, or <code>null</code> if it is not
+     * present
+     */
+    @Override
+    public String getAttribute(final String key) {
+        if (key == null) {
+            return null;
+        }
+
+        final Decoder decoder = new Decoder();
+        final int numAttributes = decoder.readVarInt();
+        for (int i = 0; i < numAttributes; i++) {
+            final String attributeKey = decoder.readString();
+            if (key.equals(attributeKey)) {
+                return decoder.readString();
+            }
+            decoder.skipString();
+        }
+
+        return null;
+    }
+
+    /**
+     * Decodes the attributes of this FlowFile. The attributes are not cached,
+     * so each call decodes them again.
+     *
+     * @return an unmodifiable Map of the attributes
+     */
+    @Override
+    public Map<String, String> getAttributes() {
+        final Decoder decoder = new Decoder();
+        final int numAttributes = decoder.readVarInt();
+        final Map<String, String> attributes = new HashMap<>(numAttributes * 4 / 3 + 1);
+        for (int i = 0; i < numAttributes; i++) {
+            final String key = decoder.readString();
+            final String value = decoder.readString();
+            attributes.put(key, value);
+        }
+
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * @return <code>true</code> if the attributes of this record are stored
+     * outside of the heap
+     */
+    boolean isOffHeap() {
+        return encodedAttributes instanceof OffHeapArena.Allocation;
+    }
+
+    /**
+     * Encodes the given attributes, using the given dictionary for attribute
+     * names and recurring values
+     *
+     * @param attributes the attributes to encode
+     * @param dictionary the dictionary to use
+     * @return the encoded attributes
+     */
+    static byte[] encodeAttributes(final Map<String, String> attributes, final AttributeDictionary dictionary) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16 + attributes.size() * 24);
+        writeVarInt(out, attributes.size());
+        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+            writeToken(out, entry.getKey(), dictionary.getKeyCode(entry.getKey()));
+            writeToken(out, entry.getValue(), dictionary.getValueCode(entry.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeToken(final ByteArrayOutputStream out, final String value, final int code) {
+        if (code >= 0) {
+            writeVarInt(out, code << 1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, (bytes.length << 1) | 1);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static void writeVarInt(final ByteArrayOutputStream out, final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    /**
+     * Provides the natural ordering for FlowFile objects which is based on
+     * their identifier.
+     *
+     * @param other
+     * @return
+     */
+    @Override
+    public int compareTo(final FlowFile other) {
+        return new CompareToBuilder().append(id, other.getId()).toComparison();
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof CompactFlowFileRecord) {
+            return id == ((CompactFlowFileRecord) other).id;
+        }
+        if (other instanceof StandardFlowFileRecord) {
+            return id == ((StandardFlowFileRecord) other).getId();
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        // must match StandardFlowFileRecord, as the two may be equal
+        return new HashCodeBuilder(7, 13).append(id).toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        final ToStringBuilder builder = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
+        builder.append("uuid", getAttribute(CoreAttributes.UUID.key()));
+        builder.append("claim", claim == null ? "" : claim.getId());
+        builder.append("offset", claimOffset);
+        builder.append("name", getAttribute(CoreAttributes.FILENAME.key())).append("size", size);
+        return builder.toString();
+    }
+
+    /**
+     * Reads the encoded attributes from wherever they are stored
+     */
+    private class Decoder {
+
+        private final byte[] heapBytes;
+        private final OffHeapArena.Allocation allocation;
+        private int position = 0;
+
+        private Decoder() {
+            if (encodedAttributes instanceof byte[]) {
+                heapBytes = (byte[]) encodedAttributes;
+                allocation = null;
+            } else {
+                heapBytes = null;
+                allocation = (OffHeapArena.Allocation) encodedAttributes;
+            }
+        }
+
+        private byte readByte() {
+            return heapBytes == null ? allocation.get(position++) : heapBytes[position++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() {
+            final int token = readVarInt();
+            if ((token & 1) == 0) {
+                return dictionary.getString(token >>> 1);
+            }
+
+            final int length = token >>> 1;
+            final String value;
+            if (heapBytes == null) {
+                final byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = allocation.get(position + i);
+                }
+                value = new String(bytes, StandardCharsets.UTF_8);
+            } else {
+                value = new String(heapBytes, position, length, StandardCharsets.UTF_8);
+            }
+            position += length;
+            return value;
+        }
+
+        private void skipString() {
+            final int token = readVarInt();
+            if ((token & 1) == 1) {
+                position += token >>> 1;
+            }
+        }
+    }
+}
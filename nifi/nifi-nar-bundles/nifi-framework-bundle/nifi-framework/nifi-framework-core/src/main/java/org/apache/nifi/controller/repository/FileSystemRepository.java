@@ -65,6 +65,7 @@ import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.ContentClaimManager;
 import org.apache.nifi.controller.repository.io.SyncOnCloseOutputStream;
 import org.apache.nifi.engine.FlowEngine;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.util.file.FileUtils;
 import org.apache.nifi.stream.io.StreamUtils;
 import org.apache.nifi.util.FormatUtils;
@@ -86,6 +87,8 @@ public class FileSystemRepository implements ContentRepository {
     public static final int SECTIONS_PER_CONTAINER = 1024;
     public static final String ARCHIVE_DIR_NAME = "archive";
     public static final Pattern MAX_ARCHIVE_SIZE_PATTERN = Pattern.compile("\\d{1,2}%");
+    public static final int MAX_WRITABLE_CLAIMS = 100;
+    private static final long DEFAULT_MAX_APPENDABLE_CLAIM_LENGTH = 10L * 1024L * 1024L;
     private static final Logger LOG = LoggerFactory.getLogger(FileSystemRepository.class);
 
     private final Map<String, Path> containers;
@@ -102,6 +105,15 @@ public class FileSystemRepository implements ContentRepository {
     private final boolean alwaysSync;
     private final ScheduledExecutorService containerCleanupExecutor;
 
+    // When packing is enabled, content for many FlowFiles is appended to a single claim. Claims that can still be appended
+    // to are kept open in these queues while they are not being written to; each claim in a queue holds one claimant count
+    // on behalf of the queue so that it cannot be destroyed while it may still be handed out.
+    private final boolean packClaims;
+    private final long maxAppendableClaimLength;
+    private final BlockingQueue<WritableClaim> writableClaimQueue = new LinkedBlockingQueue<>(MAX_WRITABLE_CLAIMS);
+    private final BlockingQueue<WritableClaim> lossTolerantWritableClaimQueue = new LinkedBlockingQueue<>(MAX_WRITABLE_CLAIMS);
+    private final ConcurrentMap<ContentClaim, WritableClaim> activeWritableClaims = new ConcurrentHashMap<>();
+
     private ContentClaimManager contentClaimManager;	// effectively final
 
     // Map of contianer to archived files that should be deleted next.
@@ -191,6 +203,13 @@ public class FileSystemRepository implements ContentRepository {
 
         this.alwaysSync = Boolean.parseBoolean(properties.getProperty("nifi.content.repository.always.sync"));
         LOG.info("Initializing FileSystemRepository with 'Always Sync' set to {}", alwaysSync);
+
+        this.packClaims = properties.isContentClaimPackingEnabled();
+        final String maxAppendableClaimSize = properties.getMaxAppendableClaimSize();
+        this.maxAppendableClaimLength = (maxAppendableClaimSize == null) ? DEFAULT_MAX_APPENDABLE_CLAIM_LENGTH : DataUnit.parseDataSize(maxAppendableClaimSize, DataUnit.B).longValue();
+        if (packClaims) {
+            LOG.info("Content Claim packing is enabled; content will be appended to shared claims of up to {} bytes", maxAppendableClaimLength);
+        }
         initializeRepository();
 
         executor.scheduleWithFixedDelay(new BinDestructableClaims(), 1, 1, TimeUnit.SECONDS);
@@ -227,6 +246,16 @@ public class FileSystemRepository implements ContentRepository {
     public void shutdown() {
         executor.shutdown();
         containerCleanupExecutor.shutdown();
+        closeWritableClaims();
+    }
+
+    private void closeWritableClaims() {
+        final List<WritableClaim> writableClaims = new ArrayList<>();
+        writableClaimQueue.drainTo(writableClaims);
+        lossTolerantWritableClaimQueue.drainTo(writableClaims);
+        for (final WritableClaim writableClaim : writableClaims) {
+            writableClaim.closeQuietly();
+        }
     }
     
     private static double getRatio(final String value) {
@@ -486,6 +515,68 @@ public class FileSystemRepository implements ContentRepository {
         return claim;
     }
 
+    @Override
+    public ContentClaim createAppendable(final boolean lossTolerant) throws IOException {
+        if (!packClaims) {
+            return create(lossTolerant);
+        }
+
+        // Take a claim that has room left in it, if there is one. The claimant count that the queue held for it
+        // now belongs to the caller. Claims whose container requires us to wait for archive cleanup are retired so that
+        // we fall back to #create, which performs the wait.
+        final BlockingQueue<WritableClaim> queue = lossTolerant ? lossTolerantWritableClaimQueue : writableClaimQueue;
+        WritableClaim writableClaim;
+        while ((writableClaim = queue.poll()) != null) {
+            final ContentClaim claim = writableClaim.getClaim();
+            if (!containerStateMap.get(claim.getContainer()).isWaitRequired()) {
+                break;
+            }
+
+            writableClaim.closeQuietly();
+            if (contentClaimManager.decrementClaimantCount(claim) == 0) {
+                contentClaimManager.markDestructable(claim);
+            }
+        }
+
+        if (writableClaim == null) {
+            final ContentClaim claim = create(lossTolerant);
+            try {
+                writableClaim = new WritableClaim(claim, new FileOutputStream(getPath(claim).toFile(), true), lossTolerant);
+            } catch (final IOException ioe) {
+                contentClaimManager.decrementClaimantCount(claim);
+                remove(claim);
+                throw ioe;
+            }
+        }
+
+        activeWritableClaims.put(writableClaim.getClaim(), writableClaim);
+        return writableClaim.getClaim();
+    }
+
+    /**
+     * Called when the caller that obtained the given claim from
+     * {@link #createAppendable(boolean)} has finished writing to it. If the
+     * claim is still referenced and has room left in it, it is queued up to be
+     * handed out again; otherwise, its stream is closed.
+     */
+    private void releaseWritableClaim(final WritableClaim writableClaim) {
+        final ContentClaim claim = writableClaim.getClaim();
+        activeWritableClaims.remove(claim);
+
+        // Take the queue's claimant count first and check it in the same step, so that a FlowFile cannot give up the claim
+        // in between. If no FlowFile references the claim, the caller is about to remove it. The count is taken as for a new
+        // claim so that doing so does not take the claim back from the claims that are waiting to be destroyed.
+        if (writableClaim.getLength() < maxAppendableClaimLength) {
+            final BlockingQueue<WritableClaim> queue = writableClaim.isLossTolerant() ? lossTolerantWritableClaimQueue : writableClaimQueue;
+            if (contentClaimManager.incrementClaimantCount(claim, true) > 1 && queue.offer(writableClaim)) {
+                return;
+            }
+            contentClaimManager.decrementClaimantCount(claim);
+        }
+
+        writableClaim.closeQuietly();
+    }
+
     @Override
     public int incrementClaimaintCount(final ContentClaim claim) {
         if (claim == null) {
@@ -620,6 +711,14 @@ public class FileSystemRepository implements ContentRepository {
 
     @Override
     public long importFrom(final InputStream content, final ContentClaim claim, final boolean append) throws IOException {
+        final WritableClaim writableClaim = append ? activeWritableClaims.get(claim) : null;
+        if (writableClaim != null) {
+            // write through the claim's own stream so that the length of the claim stays accurate
+            final long copied = StreamUtils.copy(content, writableClaim.getOutputStream());
+            writableClaim.sync(alwaysSync);
+            return copied;
+        }
+
         try (final FileOutputStream out = new FileOutputStream(getPath(claim).toFile(), append)) {
             final long copied = StreamUtils.copy(content, out);
             if (alwaysSync) {
@@ -734,6 +833,11 @@ public class FileSystemRepository implements ContentRepository {
             return 0L;
         }
 
+        final WritableClaim writableClaim = activeWritableClaims.get(claim);
+        if (writableClaim != null) {
+            return writableClaim.getLength();
+        }
+
         return Files.size(getPath(claim, true));
     }
 
@@ -749,12 +853,20 @@ public class FileSystemRepository implements ContentRepository {
     @Override
     @SuppressWarnings("resource")
     public OutputStream write(final ContentClaim claim) throws IOException {
+        final WritableClaim writableClaim = activeWritableClaims.get(claim);
+        if (writableClaim != null) {
+            return new WritableClaimOutputStream(writableClaim);
+        }
+
         final FileOutputStream fos = new FileOutputStream(getPath(claim).toFile());
         return alwaysSync ? new SyncOnCloseOutputStream(fos) : fos;
     }
 
     @Override
     public void purge() {
+        closeWritableClaims();
+        activeWritableClaims.clear();
+
         // delete all content from repositories
         for (final Path path : containers.values()) {
             FileUtils.deleteFilesInDir(path.toFile(), null, LOG, true);
@@ -1253,6 +1365,111 @@ public class FileSystemRepository implements ContentRepository {
         }
     }
 
+    /**
+     * A claim that was handed out by {@link #createAppendable(boolean)},
+     * along with the stream that appends to it. Only one caller writes to a
+     * WritableClaim at a time.
+     */
+    private static class WritableClaim {
+
+        private final ContentClaim claim;
+        private final FileOutputStream fos;
+        private final boolean lossTolerant;
+        private final OutputStream out;
+        private volatile long length;
+
+        public WritableClaim(final ContentClaim claim, final FileOutputStream fos, final boolean lossTolerant) throws IOException {
+            this.claim = claim;
+            this.fos = fos;
+            this.lossTolerant = lossTolerant;
+            this.length = fos.getChannel().size();
+            this.out = new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    fos.write(b);
+                    length++;
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    fos.write(b, off, len);
+                    length += len;
+                }
+            };
+        }
+
+        public ContentClaim getClaim() {
+            return claim;
+        }
+
+        public boolean isLossTolerant() {
+            return lossTolerant;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        public void sync(final boolean alwaysSync) throws IOException {
+            if (alwaysSync) {
+                fos.getFD().sync();
+            }
+        }
+
+        public void closeQuietly() {
+            try {
+                fos.close();
+            } catch (final IOException ioe) {
+                LOG.warn("Failed to close stream for {} due to {}", claim, ioe.toString());
+            }
+        }
+    }
+
+    /**
+     * The stream returned by {@link #write(ContentClaim)} for a WritableClaim.
+     * Closing it does not close the underlying file but gives the claim back
+     * to the repository.
+     */
+    private class WritableClaimOutputStream extends OutputStream {
+
+        private final WritableClaim writableClaim;
+        private final OutputStream out;
+        private boolean closed = false;
+
+        public WritableClaimOutputStream(final WritableClaim writableClaim) {
+            this.writableClaim = writableClaim;
+            this.out = writableClaim.getOutputStream();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                writableClaim.sync(alwaysSync);
+            } finally {
+                releaseWritableClaim(writableClaim);
+            }
+        }
+    }
+
     private class ContainerState {
 
         private final String containerName;
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.util.NiFiProperties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Converts FlowFile records into {@link CompactFlowFileRecord}s. All records
+ * that are created by the same compactor share a single
+ * {@link AttributeDictionary}, and records whose lineage identifiers are equal
+ * share a single Set of them. If an {@link OffHeapArena} is provided, the
+ * encoded attributes are stored in it for as long as it has room.
+ * </p>
+ *
+ * <p>
+ * Because the dictionary is only useful if it is shared, the framework uses a
+ * single instance, which is obtained via {@link #getInstance()}.
+ * </p>
+ *
+ * <b>Thread Safe</b>
+ */
+public class FlowFileRecordCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowFileRecordCompactor.class);
+    private static final int LINEAGE_STRIPES = 16;
+
+    private static FlowFileRecordCompactor instance;
+    private static boolean initialized = false;
+
+    private final AttributeDictionary dictionary;
+    private final OffHeapArena arena;
+    private final List<Map<Set<String>, WeakReference<Set<String>>>> lineageSets = new ArrayList<>(LINEAGE_STRIPES);
+
+    /**
+     * @param dictionary the dictionary to use for attribute names and values
+     * @param arena the arena in which to store encoded attributes, or
+     * <code>null</code> to keep them on the heap
+     */
+    public FlowFileRecordCompactor(final AttributeDictionary dictionary, final OffHeapArena arena) {
+        this.dictionary = dictionary;
+        this.arena = arena;
+        for (int i = 0; i < LINEAGE_STRIPES; i++) {
+            lineageSets.add(new WeakHashMap<Set<String>, WeakReference<Set<String>>>());
+        }
+    }
+
+    /**
+     * Returns the compactor that is configured in the NiFi properties
+     *
+     * @return the compactor that is shared by the framework, or
+     * <code>null</code> if compact records are not enabled
+     */
+    public static synchronized FlowFileRecordCompactor getInstance() {
+        if (!initialized) {
+            instance = createInstance(NiFiProperties.getInstance());
+            initialized = true;
+        }
+
+        return instance;
+    }
+
+    private static FlowFileRecordCompactor createInstance(final NiFiProperties properties) {
+        if (!properties.isCompactRecordsEnabled()) {
+            return null;
+        }
+
+        final String offHeapSize = properties.getCompactRecordsOffHeapSize();
+        final OffHeapArena arena;
+        if (offHeapSize == null) {
+            arena = null;
+        } else {
+            final long maxBytes = DataUnit.parseDataSize(offHeapSize, DataUnit.B).longValue();
+            arena = new OffHeapArena(maxBytes);
+            logger.info("Attributes of queued FlowFiles will be stored using up to {} of off-heap memory", offHeapSize);
+        }
+
+        return new FlowFileRecordCompactor(new AttributeDictionary(), arena);
+    }
+
+    /**
+     * Converts the given FlowFile into a compact record
+     *
+     * @param flowFile the FlowFile to convert
+     * @return a compact record that is equal to the given FlowFile, or the
+     * FlowFile itself if it is already compact
+     */
+    public FlowFileRecord compact(final FlowFileRecord flowFile) {
+        if (flowFile instanceof CompactFlowFileRecord) {
+            return flowFile;
+        }
+
+        final byte[] encoded = CompactFlowFileRecord.encodeAttributes(flowFile.getAttributes(), dictionary);
+        Object encodedAttributes = encoded;
+        if (arena != null) {
+            final OffHeapArena.Allocation allocation = arena.store(encoded);
+            if (allocation != null) {
+                encodedAttributes = allocation;
+            }
+        }
+
+        return new CompactFlowFileRecord(flowFile, getLineageIdentifiers(flowFile.getLineageIdentifiers()), dictionary, encodedAttributes);
+    }
+
+    /**
+     * Converts each of the given FlowFiles into a compact record
+     *
+     * @param flowFiles the FlowFiles to convert
+     * @return a List of compact records, in the same order as the given
+     * FlowFiles
+     */
+    public List<FlowFileRecord> compact(final List<FlowFileRecord> flowFiles) {
+        final List<FlowFileRecord> compacted = new ArrayList<>(flowFiles.size());
+        for (final FlowFileRecord flowFile : flowFiles) {
+            compacted.add(compact(flowFile));
+        }
+        return compacted;
+    }
+
+    public AttributeDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns an unmodifiable Set that is equal to the given Set, which is
+     * shared with any other record whose lineage identifiers are equal. The
+     * Sets are weakly referenced so that they are released when the last
+     * record that uses them is.
+     */
+    private Set<String> getLineageIdentifiers(final Set<String> lineageIdentifiers) {
+        if (lineageIdentifiers.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final Map<Set<String>, WeakReference<Set<String>>> stripe = lineageSets.get((lineageIdentifiers.hashCode() & 0x7FFFFFFF) % LINEAGE_STRIPES);
+        synchronized (stripe) {
+            final WeakReference<Set<String>> reference = stripe.get(lineageIdentifiers);
+            final Set<String> existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+
+            final Set<String> canonical;
+            if (lineageIdentifiers.size() == 1) {
+                canonical = Collections.singleton(lineageIdentifiers.iterator().next());
+            } else {
+                canonical = Collections.unmodifiableSet(new HashSet<>(lineageIdentifiers));
+            }
+
+            stripe.put(canonical, new WeakReference<>(canonical));
+            return canonical;
+        }
+    }
+}
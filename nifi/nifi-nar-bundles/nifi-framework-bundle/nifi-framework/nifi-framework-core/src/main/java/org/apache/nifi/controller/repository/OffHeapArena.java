@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Stores byte arrays outside of the Java heap. Memory is allocated from direct
+ * ByteBuffers of a fixed size, called chunks, by bumping a pointer; a chunk is
+ * never written to again once it is full.
+ * </p>
+ *
+ * <p>
+ * Memory is never explicitly freed. Each {@link Allocation} refers to its
+ * chunk, so a chunk remains in use for as long as any of the records that are
+ * stored in it are reachable, and its memory is released by the garbage
+ * collector afterward. This means that a record can never observe memory that
+ * has been reused, at the cost of a chunk being retained by its longest-lived
+ * record.
+ * </p>
+ *
+ * <b>Thread Safe</b>
+ */
+public class OffHeapArena {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapArena.class);
+
+    private final int chunkSize;
+    private final long maxBytes;
+
+    private final ReferenceQueue<Chunk> releasedChunks = new ReferenceQueue<>();
+    // holds the phantom references so that they are not themselves collected before their chunks
+    private final Set<Reference<Chunk>> chunkReferences = Collections.newSetFromMap(new ConcurrentHashMap<Reference<Chunk>, Boolean>());
+
+    private volatile Chunk currentChunk;
+    private long allocatedBytes = 0L;   // protected by synchronizing on this
+
+    public OffHeapArena(final long maxBytes) {
+        this(maxBytes, DEFAULT_CHUNK_SIZE);
+    }
+
+    public OffHeapArena(final long maxBytes, final int chunkSize) {
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Copies the given bytes into off-heap memory
+     *
+     * @param bytes the bytes to store
+     * @return the location of the stored bytes, or <code>null</code> if the
+     * arena has no more memory available, in which case the caller should keep
+     * the bytes on the heap
+     */
+    public Allocation store(final byte[] bytes) {
+        if (bytes.length > chunkSize) {
+            return null;
+        }
+
+        while (true) {
+            final Chunk chunk = currentChunk;
+            if (chunk != null) {
+                final int offset = chunk.allocate(bytes.length);
+                if (offset >= 0) {
+                    final ByteBuffer destination = chunk.buffer.duplicate();
+                    destination.position(offset);
+                    destination.put(bytes);
+                    return new Allocation(chunk, offset, bytes.length);
+                }
+            }
+
+            if (!rollover(chunk)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory that are currently held
+     * by the arena
+     */
+    public synchronized long getAllocatedBytes() {
+        reclaim();
+        return allocatedBytes;
+    }
+
+    private synchronized boolean rollover(final Chunk fullChunk) {
+        if (currentChunk != fullChunk) {
+            return true;    // another thread already replaced the chunk
+        }
+
+        reclaim();
+        if (allocatedBytes + chunkSize > maxBytes) {
+            return false;
+        }
+
+        final ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(chunkSize);
+        } catch (final OutOfMemoryError oome) {
+            logger.warn("Unable to allocate {} bytes of direct memory for FlowFile attributes; attributes will be stored on the heap. "
+                    + "Consider increasing the JVM's maximum direct memory size", chunkSize);
+            return false;
+        }
+
+        final Chunk chunk = new Chunk(buffer);
+        chunkReferences.add(new PhantomReference<>(chunk, releasedChunks));
+        allocatedBytes += chunkSize;
+        currentChunk = chunk;
+        return true;
+    }
+
+    private synchronized void reclaim() {
+        Reference<? extends Chunk> reference;
+        while ((reference = releasedChunks.poll()) != null) {
+            chunkReferences.remove(reference);
+            allocatedBytes -= chunkSize;
+        }
+    }
+
+    static final class Chunk {
+
+        private final ByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger(0);
+
+        private Chunk(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int allocate(final int length) {
+            while (true) {
+                final int offset = position.get();
+                if (offset + length > buffer.capacity()) {
+                    return -1;
+                }
+                if (position.compareAndSet(offset, offset + length)) {
+                    return offset;
+                }
+            }
+        }
+    }
+
+    /**
+     * The location of a byte array that has been stored in the arena
+     */
+    public static final class Allocation {
+
+        private final Chunk chunk;
+        private final int offset;
+        private final int length;
+
+        private Allocation(final Chunk chunk, final int offset, final int length) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public byte get(final int index) {
+            return chunk.buffer.get(offset + index);
+        }
+    }
+}
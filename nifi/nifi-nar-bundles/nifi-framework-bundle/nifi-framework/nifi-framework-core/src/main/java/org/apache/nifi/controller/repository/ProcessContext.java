@@ -45,10 +45,18 @@ public class ProcessContext {
     private final CounterRepository counterRepo;
     private final ProvenanceEventRepository provenanceRepo;
     private final AtomicLong connectionIndex;
+    private final FlowFileRecordCompactor recordCompactor;
 
     public ProcessContext(final Connectable connectable, final AtomicLong connectionIndex, final ContentRepository contentRepository,
             final FlowFileRepository flowFileRepository, final FlowFileEventRepository flowFileEventRepository,
             final CounterRepository counterRepository, final ProvenanceEventRepository provenanceRepository) {
+        this(connectable, connectionIndex, contentRepository, flowFileRepository, flowFileEventRepository, counterRepository, provenanceRepository, null);
+    }
+
+    public ProcessContext(final Connectable connectable, final AtomicLong connectionIndex, final ContentRepository contentRepository,
+            final FlowFileRepository flowFileRepository, final FlowFileEventRepository flowFileEventRepository,
+            final CounterRepository counterRepository, final ProvenanceEventRepository provenanceRepository,
+            final FlowFileRecordCompactor recordCompactor) {
         this.connectable = connectable;
         contentRepo = contentRepository;
         flowFileRepo = flowFileRepository;
@@ -57,6 +65,7 @@ public class ProcessContext {
         provenanceRepo = provenanceRepository;
 
         this.connectionIndex = connectionIndex;
+        this.recordCompactor = recordCompactor;
     }
 
     Connectable getConnectable() {
@@ -160,6 +169,14 @@ public class ProcessContext {
         return provenanceRepo;
     }
 
+    /**
+     * @return the compactor for FlowFiles that are transferred to a queue, or
+     * <code>null</code> if FlowFiles should be queued as they are
+     */
+    FlowFileRecordCompactor getRecordCompactor() {
+        return recordCompactor;
+    }
+
     long getNextFlowFileSequence() {
         return flowFileRepo.getNextFlowFileSequence();
     }
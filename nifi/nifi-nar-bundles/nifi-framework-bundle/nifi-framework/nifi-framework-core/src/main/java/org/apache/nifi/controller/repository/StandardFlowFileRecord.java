@@ -143,6 +143,9 @@ public final class StandardFlowFileRecord implements FlowFile, FlowFileRecord {
         if (this == other) {
             return true;
         }
+        if (other instanceof CompactFlowFileRecord) {
+            return id == ((CompactFlowFileRecord) other).getId();
+        }
         if (!(other instanceof StandardFlowFileRecord)) {
             return false;
         }
@@ -118,6 +118,15 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
     private final Set<String> removedFlowFiles = new HashSet<>();
     private final Set<String> createdFlowFiles = new HashSet<>();
 
+    // filled by the queues with the FlowFiles that expired while being polled. It is reused, and cleared after each poll,
+    // so that a set is not allocated for every connection that is polled
+    private final Set<FlowFileRecord> expiredOnPoll = new HashSet<>();
+    // the connections that get(int) may still poll, in the order in which they are offered their shares; reused from call to call
+    private Connection[] pollCandidates = new Connection[0];
+    // the queues drain the FlowFiles that get(int) polls into this list, which is copied into the list returned and cleared;
+    // reused from call to call, so that no list is allocated for each connection polled
+    private final List<FlowFileRecord> polledRecords = new ArrayList<>();
+
     private final StandardProvenanceReporter provenanceReporter;
 
     private int removedCount = 0;    // number of flowfiles removed in this session
@@ -334,6 +343,17 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             }
         }
 
+        // Convert the FlowFiles that will be queued into their compact form before updating the FlowFile Repository
+        // so that the repository and the queue both hold the same compact record.
+        final FlowFileRecordCompactor recordCompactor = context.getRecordCompactor();
+        if (recordCompactor != null) {
+            for (final StandardRepositoryRecord record : checkpoint.records.values()) {
+                if (record.isWorking() && !record.isMarkedForAbort() && !record.isMarkedForDelete()) {
+                    record.setWorking(recordCompactor.compact(record.getWorking()));
+                }
+            }
+        }
+
         final long claimRemovalFinishNanos = System.nanoTime();
         final long claimRemovalNanos = claimRemovalFinishNanos - claimRemovalStart;
 
@@ -845,7 +865,7 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         }
 
         final Set<RepositoryRecord> abortedRecords = new HashSet<>();
-        final Set<StandardRepositoryRecord> transferRecords = new HashSet<>();
+        final List<StandardRepositoryRecord> transferRecords = new ArrayList<>(records.size());
         for (final StandardRepositoryRecord record : records.values()) {
             if (record.isMarkedForAbort()) {
                 removeContent(record.getWorkingClaim());
@@ -861,22 +881,33 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             }
         }
 
-        // Put the FlowFiles that are not marked for abort back to their original queues
+        // Put the FlowFiles that are not marked for abort back to their original queues, all of a queue's at once
+        final Map<FlowFileQueue, Collection<FlowFileRecord>> recordMap = new HashMap<>();
         for (final StandardRepositoryRecord record : transferRecords) {
             if (record.getOriginal() != null) {
                 final FlowFileQueue originalQueue = record.getOriginalQueue();
                 if (originalQueue != null) {
+                    Collection<FlowFileRecord> collection = recordMap.get(originalQueue);
+                    if (collection == null) {
+                        collection = new ArrayList<>();
+                        recordMap.put(originalQueue, collection);
+                    }
+
                     if (penalize) {
                         final long expirationEpochMillis = System.currentTimeMillis() + context.getConnectable().getPenalizationPeriod(TimeUnit.MILLISECONDS);
                         final FlowFileRecord newFile = new StandardFlowFileRecord.Builder().fromFlowFile(record.getOriginal()).penaltyExpirationTime(expirationEpochMillis).build();
-                        originalQueue.put(newFile);
+                        collection.add(newFile);
                     } else {
-                        originalQueue.put(record.getOriginal());
+                        collection.add(record.getOriginal());
                     }
                 }
             }
         }
 
+        for (final Map.Entry<FlowFileQueue, Collection<FlowFileRecord>> entry : recordMap.entrySet()) {
+            entry.getKey().putAll(entry.getValue());
+        }
+
         if (!abortedRecords.isEmpty()) {
             try {
                 context.getFlowFileRepository().updateRepository(abortedRecords);
@@ -1138,9 +1169,8 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         final int numConnections = connections.size();
         for (int numAttempts = 0; numAttempts < numConnections; numAttempts++) {
             final Connection conn = connections.get(context.getNextIncomingConnectionIndex() % connections.size());
-            final Set<FlowFileRecord> expired = new HashSet<>();
-            final FlowFileRecord flowFile = conn.getFlowFileQueue().poll(expired);
-            removeExpired(expired, conn);
+            final FlowFileRecord flowFile = conn.getFlowFileQueue().poll(expiredOnPoll);
+            removeExpiredOnPoll(conn);
 
             if (flowFile != null) {
                 registerDequeuedRecord(flowFile, conn);
@@ -1151,6 +1181,17 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         return null;
     }
 
+    /**
+     * Polls up to <code>maxResults</code> FlowFiles from all of the incoming
+     * connections in one pass, rather than from the first connection that has
+     * any. So that no connection is starved, the FlowFiles are shared fairly:
+     * each connection is offered an equal share of those that remain to be
+     * polled, and the shares that connections cannot fill are offered again to
+     * those that still have FlowFiles. The connection that is offered its share first
+     * rotates from one call to the next, so that when the FlowFiles cannot be
+     * divided evenly, the remainder does not always go to the same
+     * connections.
+     */
     @Override
     public List<FlowFile> get(final int maxResults) {
         if (maxResults < 0) {
@@ -1160,23 +1201,55 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
             return Collections.emptyList();
         }
 
-        return get(new QueuePoller() {
-            @Override
-            public List<FlowFileRecord> poll(final FlowFileQueue queue, final Set<FlowFileRecord> expiredRecords) {
-                return queue.poll(new FlowFileFilter() {
-                    int polled = 0;
+        final List<Connection> connections = context.getPollableConnections();
+        final int numConnections = connections.size();
+        if (numConnections == 0) {
+            return new ArrayList<>();
+        }
 
-                    @Override
-                    public FlowFileFilterResult filter(final FlowFile flowFile) {
-                        if (++polled <= maxResults) {
-                            return FlowFileFilterResult.ACCEPT_AND_CONTINUE;
-                        } else {
-                            return FlowFileFilterResult.ACCEPT_AND_TERMINATE;
-                        }
+        if (pollCandidates.length < numConnections) {
+            pollCandidates = new Connection[numConnections];
+        }
+
+        // the connections that may still have FlowFiles, in the order in which they are offered their shares
+        final Connection[] candidates = pollCandidates;
+        final int startIndex = context.getNextIncomingConnectionIndex() % numConnections;
+        for (int i = 0; i < numConnections; i++) {
+            candidates[i] = connections.get((startIndex + i) % numConnections);
+        }
+
+        final List<FlowFileRecord> polled = polledRecords;
+        try {
+            int numCandidates = numConnections;
+            while (numCandidates > 0 && polled.size() < maxResults) {
+                final int share = Math.max(1, (maxResults - polled.size()) / numCandidates);
+                int stillCandidates = 0;
+                for (int i = 0; i < numCandidates && polled.size() < maxResults; i++) {
+                    final Connection conn = candidates[i];
+                    final int toPoll = Math.min(share, maxResults - polled.size());
+                    final FlowFileQueue queue = conn.getFlowFileQueue();
+                    final int added = queue.poll(toPoll, expiredOnPoll, polled);
+                    final boolean expired = removeExpiredOnPoll(conn);
+
+                    for (int j = polled.size() - added; j < polled.size(); j++) {
+                        registerDequeuedRecord(polled.get(j), conn);
+                    }
+
+                    // a queue may fall short of the share without having run out, such as when it hands out only what it has
+                    // pre-fetched, so it is only given up on once it has nothing to give or nothing left. Polling a queue that
+                    // has nothing left would cost as much as polling one that does, for no FlowFiles.
+                    if ((added > 0 || expired) && !queue.isActiveQueueEmpty()) {
+                        candidates[stillCandidates++] = conn;
                     }
-                }, expiredRecords);
+                }
+
+                numCandidates = stillCandidates;
             }
-        }, false);
+
+            return new ArrayList<FlowFile>(polled);
+        } finally {
+            polled.clear();
+        }
     }
 
     @Override
@@ -1199,11 +1272,10 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
 
         try {
             for (final Connection conn : connections) {
-                final Set<FlowFileRecord> expired = new HashSet<>();
-                final List<FlowFileRecord> newlySelected = poller.poll(conn.getFlowFileQueue(), expired);
-                removeExpired(expired, conn);
+                final List<FlowFileRecord> newlySelected = poller.poll(conn.getFlowFileQueue(), expiredOnPoll);
+                final boolean expired = removeExpiredOnPoll(conn);
 
-                if (newlySelected.isEmpty() && expired.isEmpty()) {
+                if (newlySelected.isEmpty() && !expired) {
                     continue;
                 }
 
@@ -1589,6 +1661,25 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
         }
     }
 
+    /**
+     * Removes any FlowFiles that expired while the given connection was being
+     * polled, leaving the set of expired FlowFiles empty for the next poll
+     *
+     * @return <code>true</code> if any FlowFiles had expired
+     */
+    private boolean removeExpiredOnPoll(final Connection connection) {
+        if (expiredOnPoll.isEmpty()) {
+            return false;
+        }
+
+        try {
+            removeExpired(expiredOnPoll, connection);
+        } finally {
+            expiredOnPoll.clear();
+        }
+        return true;
+    }
+
     private void removeExpired(final Set<FlowFileRecord> flowFiles, final Connection connection) {
         if (flowFiles.isEmpty()) {
             return;
@@ -1864,7 +1955,7 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
 
         if (currentWriteClaimStream == null) {
             try {
-                currentWriteClaim = context.getContentRepository().create(context.getConnectable().isLossTolerant());
+                currentWriteClaim = context.getContentRepository().createAppendable(context.getConnectable().isLossTolerant());
                 claimLog.debug("Creating ContentClaim {} to enforce Current Write Claim State for {}", currentWriteClaim, context.getConnectable());
             } catch (final IOException e) {
                 throw new FlowFileHandlingException("Unable to create ContentClaim due to " + e.toString(), e);
@@ -1872,6 +1963,8 @@ public final class StandardProcessSession implements ProcessSession, ProvenanceE
 
             try {
                 currentWriteClaimStream = context.getContentRepository().write(currentWriteClaim);
+                // the claim may already hold content written by other sessions, in which case we append to it
+                currentWriteClaimSize = context.getContentRepository().size(currentWriteClaim);
             } catch (IOException e) {
                 resetWriteClaims();
                 throw new FlowFileAccessException("Unable to obtain stream for writing to Content Repostiory: " + e, e);
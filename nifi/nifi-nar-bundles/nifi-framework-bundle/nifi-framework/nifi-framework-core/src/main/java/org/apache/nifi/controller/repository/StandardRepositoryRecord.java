@@ -38,7 +38,6 @@ public class StandardRepositoryRecord implements RepositoryRecord {
     private final FlowFileQueue originalQueue;
     private String swapLocation;
     private final Map<String, String> updatedAttributes = new HashMap<>();
-    private final Map<String, String> originalAttributes;
 
     /**
      * Creates a new record which has no original claim or flow file - it is
@@ -67,7 +66,6 @@ public class StandardRepositoryRecord implements RepositoryRecord {
         this.originalFlowFileRecord = originalFlowFileRecord;
         this.type = RepositoryRecordType.SWAP_OUT;
         this.swapLocation = swapLocation;
-        this.originalAttributes = originalFlowFileRecord == null ? Collections.<String, String>emptyMap() : originalFlowFileRecord.getAttributes();
     }
 
     @Override
@@ -182,7 +180,8 @@ public class StandardRepositoryRecord implements RepositoryRecord {
     }
 
     Map<String, String> getOriginalAttributes() {
-        return originalAttributes;
+        // not held in a field, as records are retained by the FlowFile Repository for as long as the FlowFile is queued
+        return originalFlowFileRecord == null ? Collections.<String, String>emptyMap() : originalFlowFileRecord.getAttributes();
     }
 
     Map<String, String> getUpdatedAttributes() {
@@ -209,6 +209,12 @@ public class VolatileContentRepository implements ContentRepository {
         }
     }
 
+    @Override
+    public ContentClaim createAppendable(final boolean lossTolerant) throws IOException {
+        // content is held in memory per claim, so there is nothing to gain from sharing a claim
+        return create(lossTolerant);
+    }
+
     private ContentClaim createLossTolerant() {
         final long id = idGenerator.getAndIncrement();
         final ContentClaim claim = claimManager.newContentClaim(CONTAINER_NAME, "section", String.valueOf(id), true);
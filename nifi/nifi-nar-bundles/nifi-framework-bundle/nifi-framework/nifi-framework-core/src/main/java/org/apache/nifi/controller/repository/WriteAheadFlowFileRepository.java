@@ -45,14 +45,15 @@ import org.apache.nifi.controller.FlowFileQueue;
 import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.ContentClaimManager;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.NiFiProperties;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wali.GroupCommitListener;
 import org.wali.MinimalLockingWriteAheadLog;
 import org.wali.SerDe;
-import org.wali.SyncListener;
 import org.wali.UpdateType;
 import org.wali.WriteAheadRepository;
 
@@ -78,11 +79,22 @@ import org.wali.WriteAheadRepository;
  * choose instead to not sync to disk for every write but instead sync only when
  * we checkpoint.
  * </p>
+ *
+ * <p>
+ * When syncing on each update is required, the
+ * <code>nifi.flowfile.repository.group.commit.period</code> property can be
+ * set so that concurrent updates are synced to disk together by WALI, rather
+ * than each update paying for its own sync. The number of updates that shared
+ * each sync, and the time that the syncs took, are logged when the repository
+ * is checkpointed.
+ * </p>
  */
-public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncListener {
+public class WriteAheadFlowFileRepository implements FlowFileRepository, GroupCommitListener {
 
     private final AtomicLong flowFileSequenceGenerator = new AtomicLong(0L);
     private final boolean alwaysSync;
+    private final long groupCommitNanos;
+    private final long groupCommitBytes;
 
     private static final Logger logger = LoggerFactory.getLogger(WriteAheadFlowFileRepository.class);
     private volatile ScheduledFuture<?> checkpointFuture;
@@ -92,6 +104,11 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
     private final int numPartitions;
     private final ScheduledExecutorService checkpointExecutor;
 
+    // group commit statistics, reset each time that they are logged
+    private final AtomicLong groupCommitCount = new AtomicLong(0L);
+    private final AtomicLong groupCommitUpdateCount = new AtomicLong(0L);
+    private final AtomicLong groupCommitSyncNanos = new AtomicLong(0L);
+
     // effectively final
     private WriteAheadRepository<RepositoryRecord> wal;
     private WriteAheadRecordSerde serde;
@@ -129,6 +146,11 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         flowFileRepositoryPath = properties.getFlowFileRepositoryPath();
         numPartitions = properties.getFlowFileRepositoryPartitions();
         checkpointDelayMillis = FormatUtils.getTimeDuration(properties.getFlowFileRepositoryCheckpointInterval(), TimeUnit.MILLISECONDS);
+
+        final String groupCommitPeriod = properties.getFlowFileRepositoryGroupCommitPeriod();
+        groupCommitNanos = groupCommitPeriod == null ? 0L : FormatUtils.getTimeDuration(groupCommitPeriod, TimeUnit.NANOSECONDS);
+        final String groupCommitSize = properties.getFlowFileRepositoryGroupCommitSize();
+        groupCommitBytes = groupCommitSize == null ? 0L : DataUnit.parseDataSize(groupCommitSize, DataUnit.B).longValue();
         
         checkpointExecutor = Executors.newSingleThreadScheduledExecutor();
     }
@@ -144,7 +166,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         // backup and then the data deleted from the normal location; then can move backup to normal location and
         // delete backup. On restore, if no files exist in partition's directory, would have to check backup directory
         serde = new WriteAheadRecordSerde(claimManager);
-        wal = new MinimalLockingWriteAheadLog<>(flowFileRepositoryPath, numPartitions, serde, this);
+        wal = new MinimalLockingWriteAheadLog<>(flowFileRepositoryPath, numPartitions, serde, this, groupCommitNanos, TimeUnit.NANOSECONDS, groupCommitBytes);
     }
 
     @Override
@@ -262,6 +284,25 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
         }
     }
 
+    @Override
+    public void onGroupCommit(final int partitionIndex, final int groupSize, final long syncNanos) {
+        groupCommitCount.incrementAndGet();
+        groupCommitUpdateCount.addAndGet(groupSize);
+        groupCommitSyncNanos.addAndGet(syncNanos);
+    }
+
+    private void logGroupCommitStatistics() {
+        final long commits = groupCommitCount.getAndSet(0L);
+        final long updates = groupCommitUpdateCount.getAndSet(0L);
+        final long syncNanos = groupCommitSyncNanos.getAndSet(0L);
+        if (commits == 0L) {
+            return;
+        }
+
+        logger.info("Since last checkpoint, FlowFile Repository performed {} group commits for {} updates; average group size = {}, average sync time = {} micros",
+                new Object[]{commits, updates, updates / commits, TimeUnit.NANOSECONDS.toMicros(syncNanos / commits)});
+    }
+
     /**
      * Swaps the FlowFiles that live on the given Connection out to disk, using
      * the specified Swap File and returns the number of FlowFiles that were
@@ -361,6 +402,7 @@ public class WriteAheadFlowFileRepository implements FlowFileRepository, SyncLis
                     final long millis = TimeUnit.MILLISECONDS.convert((end - start), TimeUnit.NANOSECONDS);
                     logger.info("Successfully checkpointed FlowFile Repository with {} records in {} milliseconds",
                             new Object[]{numRecordsCheckpointed, millis});
+                    logGroupCommitStatistics();
                 } catch (final IOException e) {
                     logger.error("Unable to checkpoint FlowFile Repository due to " + e.toString(), e);
                 }
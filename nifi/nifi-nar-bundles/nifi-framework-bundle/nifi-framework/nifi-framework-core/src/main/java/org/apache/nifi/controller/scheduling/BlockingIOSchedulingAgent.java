@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.controller.FlowController;
+import org.apache.nifi.controller.ProcessorNode;
+import org.apache.nifi.controller.ReportingTaskNode;
+import org.apache.nifi.controller.tasks.ContinuallyRunConnectableTask;
+import org.apache.nifi.controller.tasks.ContinuallyRunProcessorTask;
+import org.apache.nifi.encrypt.StringEncryptor;
+import org.apache.nifi.nar.NarThreadContextClassLoader;
+import org.apache.nifi.util.Connectables;
+import org.apache.nifi.util.FormatUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs components that are scheduled with the
+ * {@link org.apache.nifi.scheduling.SchedulingStrategy#BLOCKING_IO} strategy.
+ * Each concurrent task of such a component is given a thread of its own for as
+ * long as the component is scheduled, which it keeps while it is blocked on
+ * I/O and while it waits for its run schedule to elapse or for work to arrive.
+ * The threads are created as components are started, up to a maximum, with a
+ * small stack so that thousands of them are affordable, and are released once
+ * they are no longer needed. Tasks beyond the maximum wait for a thread to be
+ * released.
+ */
+public class BlockingIOSchedulingAgent implements SchedulingAgent {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockingIOSchedulingAgent.class);
+
+    /**
+     * The stack size of each thread. Components that block on I/O spend
+     * their time in shallow call stacks, so the JVM default of 1 MB or more is
+     * mostly wasted on them
+     */
+    static final long THREAD_STACK_SIZE = 256L * 1024L;
+
+    /**
+     * The longest that an idle task waits before checking for work on its
+     * own, in case it was not told that FlowFiles were queued for it
+     */
+    private static final long MAX_IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private final FlowController flowController;
+    private final ProcessContextFactory contextFactory;
+    private final StringEncryptor encryptor;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<Connectable, TaskGroup> taskGroups = new ConcurrentHashMap<>();
+
+    private volatile String adminYieldDuration = "1 sec";
+
+    /**
+     * @param maxThreads the most threads that may be running components at
+     * once
+     */
+    public BlockingIOSchedulingAgent(final FlowController flowController, final ProcessContextFactory contextFactory, final StringEncryptor encryptor, final int maxThreads) {
+        this.flowController = flowController;
+        this.contextFactory = contextFactory;
+        this.encryptor = encryptor;
+
+        // Only core threads are ever created, and they time out, so the pool grows one thread per task up to the
+        // maximum and shrinks again when components are stopped. Tasks beyond the maximum are queued.
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(null, r, "Blocking I/O Thread-" + threadIndex.incrementAndGet(), THREAD_STACK_SIZE);
+                t.setDaemon(true);
+                return t;
+            }
+        }) {
+            @Override
+            protected void beforeExecute(final Thread thread, final Runnable runnable) {
+                thread.setContextClassLoader(NarThreadContextClassLoader.getInstance());
+                super.beforeExecute(thread, runnable);
+            }
+        };
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void shutdown() {
+        for (final TaskGroup taskGroup : taskGroups.values()) {
+            taskGroup.cancel();
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public void schedule(final ReportingTaskNode taskNode, final ScheduleState scheduleState) {
+        throw new UnsupportedOperationException("ReportingTasks cannot be scheduled in Blocking I/O Mode");
+    }
+
+    @Override
+    public void unschedule(final ReportingTaskNode taskNode, final ScheduleState scheduleState) {
+        throw new UnsupportedOperationException("ReportingTasks cannot be scheduled in Blocking I/O Mode");
+    }
+
+    @Override
+    public void schedule(final Connectable connectable, final ScheduleState scheduleState) {
+        final Runnable runnable;
+        if (connectable.getConnectableType() == ConnectableType.PROCESSOR) {
+            final ProcessorNode procNode = (ProcessorNode) connectable;
+            runnable = new ContinuallyRunProcessorTask(this, procNode, flowController, contextFactory, scheduleState, encryptor);
+        } else {
+            runnable = new ContinuallyRunConnectableTask(contextFactory, connectable, scheduleState, encryptor);
+        }
+
+        final TaskGroup taskGroup = new TaskGroup();
+        final TaskGroup previous = taskGroups.put(connectable, taskGroup);
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        final long schedulingNanos = connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS);
+        for (int i = 0; i < connectable.getMaxConcurrentTasks(); i++) {
+            executor.execute(new BlockingTask(connectable, runnable, schedulingNanos, taskGroup));
+        }
+
+        // the tasks are not run by a ScheduledExecutorService, so there are no futures to cancel
+        scheduleState.setFutures(Collections.<ScheduledFuture<?>>emptyList());
+        logger.info("Scheduled {} to run with {} threads", connectable, connectable.getMaxConcurrentTasks());
+    }
+
+    @Override
+    public void unschedule(final Connectable connectable, final ScheduleState scheduleState) {
+        final TaskGroup taskGroup = taskGroups.remove(connectable);
+        if (taskGroup != null) {
+            // stop scheduling to run but do not interrupt currently running tasks.
+            taskGroup.cancel();
+        }
+
+        logger.info("Stopped scheduling {} to run", connectable);
+    }
+
+    /**
+     * Called when FlowFiles are queued for the given component; wakes up any
+     * of its tasks that are waiting for work
+     *
+     * @param connectable
+     */
+    @Override
+    public void onEvent(final Connectable connectable) {
+        final TaskGroup taskGroup = taskGroups.get(connectable);
+        if (taskGroup != null) {
+            taskGroup.signalWork();
+        }
+    }
+
+    @Override
+    public void assignToPool(final Connectable connectable, final String poolName) {
+        // every task has a thread of its own, so there are no threads to share between pools
+    }
+
+    @Override
+    public void setMaxThreadCount(final int maxThreads) {
+        if (maxThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxThreads);
+            executor.setCorePoolSize(maxThreads);
+        } else {
+            executor.setCorePoolSize(maxThreads);
+            executor.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    @Override
+    public void setAdministrativeYieldDuration(final String yieldDuration) {
+        this.adminYieldDuration = yieldDuration;
+    }
+
+    @Override
+    public String getAdministrativeYieldDuration() {
+        return adminYieldDuration;
+    }
+
+    @Override
+    public long getAdministrativeYieldDuration(final TimeUnit timeUnit) {
+        return FormatUtils.getTimeDuration(adminYieldDuration, timeUnit);
+    }
+
+    /**
+     * @return the number of threads that currently exist to run components
+     */
+    int getThreadCount() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * A component is idle if it only does work on the FlowFiles that are queued
+     * for it and none are
+     */
+    private static boolean isIdle(final Connectable connectable) {
+        return !connectable.isTriggerWhenEmpty() && connectable.hasIncomingConnection() && !Connectables.flowFilesQueued(connectable);
+    }
+
+    /**
+     * The tasks that were created for one scheduling of a component, through
+     * which they are told that there is work for them or that they are to
+     * stop.
+     */
+    private static class TaskGroup {
+
+        private final Lock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private volatile boolean cancelled = false;
+        private volatile long workSignals = 0L;
+
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void signalWork() {
+            lock.lock();
+            try {
+                workSignals++;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for the given number of nanoseconds, until the group is
+         * cancelled or, if <code>signalsSeen</code> is not negative, until work
+         * has been signalled since that many signals had been seen
+         */
+        void await(final long nanos, final long signalsSeen) throws InterruptedException {
+            lock.lock();
+            try {
+                long remaining = nanos;
+                while (remaining > 0L && !cancelled && (signalsSeen < 0L || workSignals == signalsSeen)) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Triggers a component over and over on the thread that runs it, with a
+     * fixed delay between runs, until the component is unscheduled. While the
+     * component is yielded, or is idle, the task waits on its thread rather
+     * than returning it.
+     */
+    private static class BlockingTask implements Runnable {
+
+        private final Connectable connectable;
+        private final Runnable task;
+        private final long schedulingNanos;
+        private final TaskGroup taskGroup;
+
+        BlockingTask(final Connectable connectable, final Runnable task, final long schedulingNanos, final TaskGroup taskGroup) {
+            this.connectable = connectable;
+            this.task = task;
+            this.schedulingNanos = schedulingNanos;
+            this.taskGroup = taskGroup;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!taskGroup.cancelled) {
+                    // read the signals before checking for work, so that a FlowFile queued in between is not missed
+                    final long signalsSeen = taskGroup.workSignals;
+                    if (isIdle(connectable)) {
+                        taskGroup.await(MAX_IDLE_WAIT_NANOS, signalsSeen);
+                        continue;
+                    }
+
+                    final long yieldNanos = TimeUnit.MILLISECONDS.toNanos(connectable.getYieldExpiration() - System.currentTimeMillis());
+                    if (yieldNanos > 0L) {
+                        taskGroup.await(yieldNanos, -1L);
+                        continue;
+                    }
+
+                    task.run();
+
+                    if (schedulingNanos > 0L) {
+                        taskGroup.await(schedulingNanos, -1L);
+                    }
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                logger.debug("Stopped running {} because its thread was interrupted", connectable);
+            }
+        }
+    }
+}
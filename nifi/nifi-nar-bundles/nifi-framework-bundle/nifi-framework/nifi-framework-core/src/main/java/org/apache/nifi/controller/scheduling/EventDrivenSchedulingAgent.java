@@ -112,6 +112,10 @@ public class EventDrivenSchedulingAgent implements SchedulingAgent {
         workerQueue.offer(connectable);
     }
 
+    @Override
+    public void assignToPool(final Connectable connectable, final String poolName) {
+    }
+
     @Override
     public void setMaxThreadCount(final int maxThreadCount) {
         final int oldMax = this.maxThreadCount.getAndSet(maxThreadCount);
@@ -22,6 +22,7 @@ import org.apache.nifi.connectable.Connectable;
 import org.apache.nifi.controller.repository.ContentRepository;
 import org.apache.nifi.controller.repository.CounterRepository;
 import org.apache.nifi.controller.repository.FlowFileEventRepository;
+import org.apache.nifi.controller.repository.FlowFileRecordCompactor;
 import org.apache.nifi.controller.repository.FlowFileRepository;
 import org.apache.nifi.controller.repository.ProcessContext;
 import org.apache.nifi.provenance.ProvenanceEventRepository;
@@ -33,19 +34,21 @@ public class ProcessContextFactory {
     private final FlowFileEventRepository flowFileEventRepo;
     private final CounterRepository counterRepo;
     private final ProvenanceEventRepository provenanceRepo;
+    private final FlowFileRecordCompactor recordCompactor;
 
     public ProcessContextFactory(final ContentRepository contentRepository, final FlowFileRepository flowFileRepository,
             final FlowFileEventRepository flowFileEventRepository, final CounterRepository counterRepository,
-            final ProvenanceEventRepository provenanceRepository) {
+            final ProvenanceEventRepository provenanceRepository, final FlowFileRecordCompactor recordCompactor) {
 
         this.contentRepo = contentRepository;
         this.flowFileRepo = flowFileRepository;
         this.flowFileEventRepo = flowFileEventRepository;
         this.counterRepo = counterRepository;
         this.provenanceRepo = provenanceRepository;
+        this.recordCompactor = recordCompactor;
     }
 
     public ProcessContext newProcessContext(final Connectable connectable, final AtomicLong connectionIndex) {
-        return new ProcessContext(connectable, connectionIndex, contentRepo, flowFileRepo, flowFileEventRepo, counterRepo, provenanceRepo);
+        return new ProcessContext(connectable, connectionIndex, contentRepo, flowFileRepo, flowFileEventRepo, counterRepo, provenanceRepo, recordCompactor);
     }
 }
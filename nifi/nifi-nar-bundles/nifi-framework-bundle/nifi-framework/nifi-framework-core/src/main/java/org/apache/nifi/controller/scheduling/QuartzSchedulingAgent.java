@@ -199,6 +199,10 @@ public class QuartzSchedulingAgent implements SchedulingAgent {
     public void onEvent(final Connectable connectable) {
     }
 
+    @Override
+    public void assignToPool(final Connectable connectable, final String poolName) {
+    }
+
     @Override
     public void setMaxThreadCount(final int maxThreads) {
     }
@@ -29,6 +29,16 @@ public interface SchedulingAgent {
 
     void onEvent(Connectable connectable);
 
+    /**
+     * Assigns the given component to the named pool of threads, which is to
+     * be used from the next time that the component is scheduled. Agents that
+     * do not share their threads between pools ignore the assignment.
+     *
+     * @param connectable
+     * @param poolName
+     */
+    void assignToPool(Connectable connectable, String poolName);
+
     void schedule(ReportingTaskNode taskNode, ScheduleState scheduleState);
 
     void unschedule(ReportingTaskNode taskNode, ScheduleState scheduleState);
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.groups.ProcessGroup;
+
+/**
+ * Decides which scheduling pool each component runs in, when timer-driven
+ * components share their threads fairly between pools.
+ *
+ * A component belongs to the pool that its process group, or the closest of
+ * that group's ancestors, has been assigned to. Components of a group that has
+ * not been assigned to a pool, nor has any ancestor that was, belong to a pool
+ * that is named after the identifier of their top-level group, that is, the
+ * group that is a child of the root group. Each top-level group and
+ * everything within it therefore gets a fair share of the threads by default.
+ * Components of the root group itself share a pool named after its
+ * identifier.
+ */
+public class SchedulingPools {
+
+    private final Map<String, String> poolsByGroupId = new HashMap<>();
+    private final Map<String, Integer> weights;
+
+    /**
+     * @param groupsByPool the identifiers of the process groups assigned to
+     * each named pool
+     * @param weights the weight of each pool that does not have the default
+     * weight
+     */
+    public SchedulingPools(final Map<String, Set<String>> groupsByPool, final Map<String, Integer> weights) {
+        for (final Map.Entry<String, Set<String>> entry : groupsByPool.entrySet()) {
+            for (final String groupId : entry.getValue()) {
+                final String existing = poolsByGroupId.put(groupId, entry.getKey());
+                if (existing != null && !existing.equals(entry.getKey())) {
+                    throw new IllegalArgumentException("Process Group " + groupId + " is assigned to both scheduling pool " + existing + " and scheduling pool " + entry.getKey());
+                }
+            }
+        }
+
+        this.weights = Collections.unmodifiableMap(new HashMap<>(weights));
+    }
+
+    public String getPoolName(final Connectable connectable) {
+        String topLevelGroupId = null;
+        for (ProcessGroup group = connectable.getProcessGroup(); group != null; group = group.getParent()) {
+            final String poolName = poolsByGroupId.get(group.getIdentifier());
+            if (poolName != null) {
+                return poolName;
+            }
+
+            // the last group on the way up that still has a parent is the top-level group
+            if (group.getParent() != null || topLevelGroupId == null) {
+                topLevelGroupId = group.getIdentifier();
+            }
+        }
+
+        return topLevelGroupId;
+    }
+
+    /**
+     * @return the weight of each pool that does not have the default weight
+     */
+    public Map<String, Integer> getWeights() {
+        return weights;
+    }
+}
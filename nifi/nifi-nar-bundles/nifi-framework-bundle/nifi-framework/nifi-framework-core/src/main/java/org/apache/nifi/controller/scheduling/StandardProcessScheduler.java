@@ -80,6 +80,7 @@ public final class StandardProcessScheduler implements ProcessScheduler {
     // thread pool for starting/stopping components
     private final ExecutorService componentLifeCycleThreadPool = new ThreadPoolExecutor(25, 50, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(5000));
     private final StringEncryptor encryptor;
+    private volatile SchedulingPools schedulingPools;
 
     public StandardProcessScheduler(final Heartbeater heartbeater, final ControllerServiceProvider controllerServiceProvider, final StringEncryptor encryptor) {
         this.heartbeater = heartbeater;
@@ -122,6 +123,17 @@ public final class StandardProcessScheduler implements ProcessScheduler {
         strategyAgentMap.put(strategy, agent);
     }
 
+    /**
+     * Sets the scheduling pools that components are assigned to whenever they
+     * are scheduled to run, or <code>null</code> if components are not to be
+     * assigned to pools
+     *
+     * @param schedulingPools
+     */
+    public void setSchedulingPools(final SchedulingPools schedulingPools) {
+        this.schedulingPools = schedulingPools;
+    }
+
     public SchedulingAgent getSchedulingAgent(final SchedulingStrategy strategy) {
         return strategyAgentMap.get(strategy);
     }
@@ -303,7 +315,7 @@ public final class StandardProcessScheduler implements ProcessScheduler {
                                 final SchedulingContext schedulingContext = new StandardSchedulingContext(processContext, controllerServiceProvider, procNode);
                                 ReflectionUtils.invokeMethodsWithAnnotation(OnScheduled.class, org.apache.nifi.processor.annotation.OnScheduled.class, procNode.getProcessor(), schedulingContext);
 
-                                getSchedulingAgent(procNode).schedule(procNode, scheduleState);
+                                schedule(procNode, scheduleState);
 
                                 heartbeater.heartbeat();
                                 return;
@@ -465,10 +477,19 @@ public final class StandardProcessScheduler implements ProcessScheduler {
             throw new IllegalStateException("Port cannot be scheduled to run until its last " + activeThreads + " threads finish");
         }
 
-        getSchedulingAgent(connectable).schedule(connectable, scheduleState);
+        schedule(connectable, scheduleState);
         scheduleState.setScheduled(true);
     }
 
+    private void schedule(final Connectable connectable, final ScheduleState scheduleState) {
+        final SchedulingAgent agent = getSchedulingAgent(connectable);
+        final SchedulingPools pools = schedulingPools;
+        if (pools != null) {
+            agent.assignToPool(connectable, pools.getPoolName(connectable));
+        }
+        agent.schedule(connectable, scheduleState);
+    }
+
     private synchronized void stopConnectable(final Connectable connectable) {
         final ScheduleState state = getScheduleState(requireNonNull(connectable));
         if (!state.isScheduled()) {
@@ -17,7 +17,13 @@
 package org.apache.nifi.controller.scheduling;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -30,7 +36,9 @@ import org.apache.nifi.controller.tasks.ContinuallyRunConnectableTask;
 import org.apache.nifi.controller.tasks.ContinuallyRunProcessorTask;
 import org.apache.nifi.controller.tasks.ReportingTaskWrapper;
 import org.apache.nifi.encrypt.StringEncryptor;
+import org.apache.nifi.engine.FairShareExecutor;
 import org.apache.nifi.engine.FlowEngine;
+import org.apache.nifi.util.Connectables;
 import org.apache.nifi.util.FormatUtils;
 
 import org.slf4j.Logger;
@@ -40,23 +48,60 @@ public class TimerDrivenSchedulingAgent implements SchedulingAgent {
 
     private static final Logger logger = LoggerFactory.getLogger(TimerDrivenSchedulingAgent.class);
 
+    /**
+     * The pool of components that have not been assigned to one
+     */
+    public static final String DEFAULT_POOL = "default";
+
     private final FlowController flowController;
     private final FlowEngine flowEngine;
     private final ProcessContextFactory contextFactory;
     private final StringEncryptor encryptor;
+    private final boolean parkIdleTasks;
+    private final FairShareExecutor fairShareExecutor;
+    private final ConcurrentMap<Connectable, ParkingLot> parkingLots = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Connectable, String> poolNames = new ConcurrentHashMap<>();
 
     private volatile String adminYieldDuration = "1 sec";
 
     public TimerDrivenSchedulingAgent(final FlowController flowController, final FlowEngine flowEngine, final ProcessContextFactory contextFactory, final StringEncryptor encryptor) {
+        this(flowController, flowEngine, contextFactory, encryptor, false);
+    }
+
+    /**
+     * @param parkIdleTasks if <code>true</code>, the tasks of a component that
+     * has incoming connections, none of which has any FlowFiles queued, are
+     * parked rather than triggered according to the component's run schedule,
+     * until {@link #onEvent(Connectable)} is called for that component
+     */
+    public TimerDrivenSchedulingAgent(final FlowController flowController, final FlowEngine flowEngine, final ProcessContextFactory contextFactory, final StringEncryptor encryptor,
+            final boolean parkIdleTasks) {
+        this(flowController, flowEngine, contextFactory, encryptor, parkIdleTasks, null);
+    }
+
+    /**
+     * @param parkIdleTasks see
+     * {@link #TimerDrivenSchedulingAgent(FlowController, FlowEngine, ProcessContextFactory, StringEncryptor, boolean)}
+     * @param fairShareExecutor if not <code>null</code>, components are run on
+     * the threads of this executor, in the pools that they have been assigned
+     * to, and the FlowEngine is used only to time their runs
+     */
+    public TimerDrivenSchedulingAgent(final FlowController flowController, final FlowEngine flowEngine, final ProcessContextFactory contextFactory, final StringEncryptor encryptor,
+            final boolean parkIdleTasks, final FairShareExecutor fairShareExecutor) {
         this.flowController = flowController;
         this.flowEngine = flowEngine;
         this.contextFactory = contextFactory;
         this.encryptor = encryptor;
+        this.parkIdleTasks = parkIdleTasks;
+        this.fairShareExecutor = fairShareExecutor;
     }
 
     @Override
     public void shutdown() {
         flowEngine.shutdown();
+        if (fairShareExecutor != null) {
+            fairShareExecutor.shutdown();
+        }
     }
 
     @Override
@@ -83,6 +128,37 @@ public class TimerDrivenSchedulingAgent implements SchedulingAgent {
             runnable = new ContinuallyRunConnectableTask(contextFactory, connectable, scheduleState, encryptor);
         }
 
+        if (parkIdleTasks || fairShareExecutor != null) {
+            final long schedulingNanos = connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS);
+            final String poolName = poolNames.containsKey(connectable) ? poolNames.get(connectable) : DEFAULT_POOL;
+            final ParkingLot parkingLot = new ParkingLot(poolName);
+            if (fairShareExecutor != null) {
+                fairShareExecutor.addComponent(poolName);
+            }
+            for (int i = 0; i < connectable.getMaxConcurrentTasks(); i++) {
+                parkingLot.tasks.add(new ParkableTask(connectable, runnable, schedulingNanos, parkingLot, poolName));
+            }
+
+            final ParkingLot previous = parkingLots.put(connectable, parkingLot);
+            if (previous != null) {
+                cancel(previous);
+            }
+
+            for (final ParkableTask task : parkingLot.tasks) {
+                task.schedule(0L);
+            }
+
+            // the tasks hold their own futures, which change every time they run
+            scheduleState.setFutures(Collections.<ScheduledFuture<?>>emptyList());
+
+            if (fairShareExecutor == null) {
+                logger.info("Scheduled {} to run with {} threads, parking them while there is no work", connectable, connectable.getMaxConcurrentTasks());
+            } else {
+                logger.info("Scheduled {} to run with {} threads in scheduling pool {}", connectable, connectable.getMaxConcurrentTasks(), poolName);
+            }
+            return;
+        }
+
         final List<ScheduledFuture<?>> futures = new ArrayList<>();
         for (int i = 0; i < connectable.getMaxConcurrentTasks(); i++) {
             final ScheduledFuture<?> future = flowEngine.scheduleWithFixedDelay(runnable, 0L, connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
@@ -100,6 +176,12 @@ public class TimerDrivenSchedulingAgent implements SchedulingAgent {
             future.cancel(false);
         }
 
+        final ParkingLot parkingLot = parkingLots.remove(connectable);
+        if (parkingLot != null) {
+            cancel(parkingLot);
+        }
+        poolNames.remove(connectable);
+
         logger.info("Stopped scheduling {} to run", connectable);
     }
 
@@ -128,12 +210,184 @@ public class TimerDrivenSchedulingAgent implements SchedulingAgent {
         return FormatUtils.getTimeDuration(adminYieldDuration, timeUnit);
     }
 
+    /**
+     * Called when FlowFiles are queued for the given component; wakes up any
+     * of its tasks that were parked because it had no work to do
+     *
+     * @param connectable
+     */
     @Override
     public void onEvent(final Connectable connectable) {
+        if (!parkIdleTasks) {
+            return;
+        }
+
+        final ParkingLot parkingLot = parkingLots.get(connectable);
+        if (parkingLot == null) {
+            return;
+        }
+
+        ParkableTask task;
+        while ((task = parkingLot.parked.poll()) != null) {
+            task.scheduleAfterLastRun();
+        }
+    }
+
+    @Override
+    public void assignToPool(final Connectable connectable, final String poolName) {
+        poolNames.put(connectable, poolName);
     }
 
     @Override
     public void setMaxThreadCount(final int maxThreads) {
+        if (fairShareExecutor != null) {
+            fairShareExecutor.setMaxThreads(maxThreads);
+        }
+    }
+
+    /**
+     * Cancels the tasks of the given parking lot and, if they ran in a
+     * scheduling pool, gives up the component's place in that pool
+     */
+    private void cancel(final ParkingLot parkingLot) {
+        parkingLot.cancel();
+        if (fairShareExecutor != null) {
+            fairShareExecutor.removeComponent(parkingLot.poolName);
+        }
+    }
+
+    /**
+     * A component is idle if it only does work on the FlowFiles that are queued
+     * for it and none are
+     */
+    private static boolean isIdle(final Connectable connectable) {
+        return !connectable.isTriggerWhenEmpty() && connectable.hasIncomingConnection() && !Connectables.flowFilesQueued(connectable);
     }
 
+    /**
+     * Holds the tasks that were created for one scheduling of a component, and
+     * those among them that are currently parked.
+     */
+    private static class ParkingLot {
+
+        private final String poolName;
+        private final List<ParkableTask> tasks = new ArrayList<>();
+        private final Queue<ParkableTask> parked = new ConcurrentLinkedQueue<>();
+        private volatile boolean cancelled = false;
+
+        ParkingLot(final String poolName) {
+            this.poolName = poolName;
+        }
+
+        void cancel() {
+            cancelled = true;
+            parked.clear();
+            for (final ParkableTask task : tasks) {
+                task.cancel();
+            }
+        }
+    }
+
+    /**
+     * Triggers a component with a fixed delay between runs, like
+     * {@link FlowEngine#scheduleWithFixedDelay}, except that it reschedules
+     * itself after each run, so that it can instead park itself whenever the
+     * component is idle, and can be run in a scheduling pool. A parked task
+     * holds no future and is not run again until it is woken by
+     * {@link TimerDrivenSchedulingAgent#onEvent(Connectable)}.
+     */
+    private class ParkableTask implements Runnable {
+
+        private final Connectable connectable;
+        private final Runnable task;
+        private final long schedulingNanos;
+        private final ParkingLot parkingLot;
+        private final String poolName;
+        private final Runnable submitToPool = new Runnable() {
+            @Override
+            public void run() {
+                submit();
+            }
+        };
+
+        private volatile ScheduledFuture<?> future;
+        private volatile long lastRunNanos = System.nanoTime();
+
+        ParkableTask(final Connectable connectable, final Runnable task, final long schedulingNanos, final ParkingLot parkingLot, final String poolName) {
+            this.connectable = connectable;
+            this.task = task;
+            this.schedulingNanos = schedulingNanos;
+            this.parkingLot = parkingLot;
+            this.poolName = poolName;
+        }
+
+        @Override
+        public void run() {
+            if (parkingLot.cancelled) {
+                return;
+            }
+
+            lastRunNanos = System.nanoTime();
+            if (parkIdleTasks && isIdle(connectable)) {
+                parkingLot.parked.offer(this);
+
+                // A FlowFile may have been queued after we checked but before we were parked, in which case
+                // the event that it raised did not find us. If so, and no other event has woken us since, carry on.
+                if (!isIdle(connectable) && parkingLot.parked.remove(this)) {
+                    runAndReschedule();
+                }
+                return;
+            }
+
+            runAndReschedule();
+        }
+
+        private void runAndReschedule() {
+            try {
+                task.run();
+            } finally {
+                schedule(schedulingNanos);
+            }
+        }
+
+        /**
+         * Schedules this task to run once the component's run schedule has
+         * elapsed since the task last ran. A task that has been parked for
+         * longer than that runs right away.
+         */
+        void scheduleAfterLastRun() {
+            schedule(Math.max(0L, lastRunNanos + schedulingNanos - System.nanoTime()));
+        }
+
+        void schedule(final long delayNanos) {
+            if (parkingLot.cancelled) {
+                return;
+            }
+
+            if (fairShareExecutor == null) {
+                future = flowEngine.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            } else if (delayNanos <= 0L) {
+                submit();
+            } else {
+                // the FlowEngine only waits out the delay; the component runs on a thread of its pool
+                future = flowEngine.schedule(submitToPool, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void submit() {
+            try {
+                fairShareExecutor.execute(poolName, this);
+            } catch (final RejectedExecutionException ree) {
+                logger.debug("Could not run {} because scheduling pools have been shut down", connectable);
+            }
+        }
+
+        void cancel() {
+            final ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                // stop scheduling to run but do not interrupt currently running tasks.
+                scheduled.cancel(false);
+            }
+        }
+    }
 }
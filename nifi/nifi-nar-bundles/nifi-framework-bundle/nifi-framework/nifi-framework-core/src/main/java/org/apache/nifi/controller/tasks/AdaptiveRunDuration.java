@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.tasks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how long a processor that supports batching is triggered within a
+ * single session, from the cost of its previous batches.
+ *
+ * Committing a session has a cost that does not depend on how many FlowFiles
+ * the session holds, so triggering a processor many times before committing
+ * raises its throughput. It also holds on to the FlowFiles that the processor
+ * has produced until the commit, which adds to their latency. The run
+ * duration therefore doubles while the processor has more work queued and
+ * commits take more than a tenth of each batch, never letting a batch and its
+ * commit exceed the latency target. It halves as soon as a batch exceeds the
+ * latency target or a destination of the processor is full, since FlowFiles
+ * cannot be moved downstream any faster than they are being taken.
+ */
+public class AdaptiveRunDuration {
+
+    /**
+     * The shortest run duration other than zero
+     */
+    static final long MIN_RUN_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+
+    /**
+     * Batches are lengthened only while their commits take more than
+     * 1/COMMIT_SHARE of their time
+     */
+    private static final int COMMIT_SHARE = 10;
+
+    private final long targetNanos;
+    private long runNanos = 0L;
+
+    public AdaptiveRunDuration(final long latencyTarget, final TimeUnit timeUnit) {
+        this.targetNanos = timeUnit.toNanos(latencyTarget);
+    }
+
+    public synchronized long getRunDuration(final TimeUnit timeUnit) {
+        return timeUnit.convert(runNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adjusts the run duration after a batch has been committed
+     *
+     * @param triggerNanos the time spent triggering the processor
+     * @param commitNanos the time spent committing the session
+     * @param workRemaining whether the batch ended because its run duration had
+     * elapsed while the processor still had work to do
+     * @param backPressure whether any destination of the processor was full
+     * when the batch ended
+     */
+    public synchronized void onBatchCompleted(final long triggerNanos, final long commitNanos, final boolean workRemaining, final boolean backPressure) {
+        if (backPressure || triggerNanos + commitNanos > targetNanos) {
+            runNanos = runNanos / 2 < MIN_RUN_NANOS ? 0L : runNanos / 2;
+            return;
+        }
+
+        if (workRemaining && commitNanos * COMMIT_SHARE > triggerNanos) {
+            // a batch runs past its run duration by up to one invocation, which must fit within the target as well
+            final long overrunNanos = Math.max(0L, triggerNanos - runNanos);
+            final long longer = Math.max(MIN_RUN_NANOS, runNanos * 2);
+            runNanos = Math.max(0L, Math.min(longer, targetNanos - commitNanos - overrunNanos));
+        }
+    }
+}
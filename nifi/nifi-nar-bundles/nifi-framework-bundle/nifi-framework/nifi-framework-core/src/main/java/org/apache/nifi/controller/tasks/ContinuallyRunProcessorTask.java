@@ -54,6 +54,7 @@ public class ContinuallyRunProcessorTask implements Runnable {
     private final StandardProcessContext processContext;
     private final FlowController flowController;
     private final int numRelationships;
+    private final AdaptiveRunDuration adaptiveRunDuration;
 
     public ContinuallyRunProcessorTask(final SchedulingAgent schedulingAgent, final ProcessorNode procNode,
             final FlowController flowController, final ProcessContextFactory contextFactory, final ScheduleState scheduleState, final StringEncryptor encryptor) {
@@ -66,6 +67,15 @@ public class ContinuallyRunProcessorTask implements Runnable {
 
         context = contextFactory.newProcessContext(procNode, new AtomicLong(0L));
         this.processContext = new StandardProcessContext(procNode, flowController, encryptor);
+
+        // when the framework chooses the run duration, one configured by the user becomes the latency target
+        if (flowController.isAdaptiveRunDurationEnabled() && procNode.isHighThroughputSupported()) {
+            final long configuredNanos = procNode.getRunDuration(TimeUnit.NANOSECONDS);
+            final long targetNanos = configuredNanos > 0L ? configuredNanos : flowController.getAdaptiveRunDurationTarget(TimeUnit.NANOSECONDS);
+            this.adaptiveRunDuration = new AdaptiveRunDuration(targetNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.adaptiveRunDuration = null;
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -94,11 +104,11 @@ public class ContinuallyRunProcessorTask implements Runnable {
             shouldRun = context.isRelationshipAvailabilitySatisfied(requiredNumberOfAvailableRelationships);
         }
 
-        final long batchNanos = procNode.getRunDuration(TimeUnit.NANOSECONDS);
+        final long batchNanos = adaptiveRunDuration == null ? procNode.getRunDuration(TimeUnit.NANOSECONDS) : adaptiveRunDuration.getRunDuration(TimeUnit.NANOSECONDS);
         final ProcessSessionFactory sessionFactory;
         final StandardProcessSession rawSession;
         final boolean batch;
-        if (procNode.isHighThroughputSupported() && batchNanos > 0L) {
+        if (procNode.isHighThroughputSupported() && (batchNanos > 0L || adaptiveRunDuration != null)) {
             rawSession = new StandardProcessSession(context);
             sessionFactory = new BatchingSessionFactory(rawSession);
             batch = true;
@@ -117,6 +127,7 @@ public class ContinuallyRunProcessorTask implements Runnable {
         final long startNanos = System.nanoTime();
         final long finishNanos = startNanos + batchNanos;
         int invocationCount = 0;
+        boolean runDurationElapsed = false;
         try {
             try (final AutoCloseable ncl = NarCloseable.withNarLoader()) {
                 while (shouldRun) {
@@ -128,6 +139,7 @@ public class ContinuallyRunProcessorTask implements Runnable {
                     }
 
                     if (System.nanoTime() > finishNanos) {
+                        runDurationElapsed = true;
                         return;
                     }
 
@@ -154,7 +166,15 @@ public class ContinuallyRunProcessorTask implements Runnable {
             }
         } finally {
             if (batch) {
+                final long commitStartNanos = System.nanoTime();
                 rawSession.commit();
+
+                if (adaptiveRunDuration != null) {
+                    final long commitNanos = System.nanoTime() - commitStartNanos;
+                    final boolean workRemaining = runDurationElapsed && (!procNode.hasIncomingConnection() || Connectables.flowFilesQueued(procNode));
+                    final boolean backPressure = numRelationships > 0 && !context.isRelationshipAvailabilitySatisfied(numRelationships);
+                    adaptiveRunDuration.onBatchCompleted(commitStartNanos - startNanos, commitNanos, workRemaining, backPressure);
+                }
             }
 
             final long processingNanos = System.nanoTime() - startNanos;
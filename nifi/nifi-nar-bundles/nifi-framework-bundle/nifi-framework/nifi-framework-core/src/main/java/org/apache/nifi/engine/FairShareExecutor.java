@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.nar.NarThreadContextClassLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a set of threads that is shared between named pools, so that
+ * the tasks of one pool cannot starve those of another.
+ *
+ * Each pool is given a share of the threads in proportion to its weight,
+ * counting only the pools that currently have tasks queued or running. A pool
+ * may use more than its share while the other pools do not need theirs, so no
+ * thread is left idle while any task is queued. Among the pools that are
+ * eligible for a thread, the one that has used the least run time for its
+ * weight goes first, so the run time of busy pools also follows their weights.
+ * Tasks within a pool run in the order in which they were submitted.
+ *
+ * Tasks are never interrupted, so a pool that is over its share gives threads
+ * back only as its tasks complete.
+ *
+ * Pools are created when they are first used. A pool that has not been given
+ * a weight is discarded, along with its status, once the last component that
+ * runs in it has been removed and it has no tasks queued or running.
+ */
+public final class FairShareExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairShareExecutor.class);
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final String threadNamePrefix;
+    private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workQueued = lock.newCondition();
+
+    // all guarded by lock
+    private final Map<String, Pool> pools = new HashMap<>();
+    private int maxThreads;
+    private int liveThreads = 0;
+    private boolean shutdown = false;
+
+    public FairShareExecutor(final int maxThreads, final String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+        setMaxThreads(maxThreads);
+    }
+
+    /**
+     * Sets the number of threads shared by all of the pools. If there are too
+     * many, the extra threads end as soon as they finish their current tasks.
+     *
+     * @param maxThreads
+     */
+    public void setMaxThreads(final int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        lock.lock();
+        try {
+            this.maxThreads = maxThreads;
+            while (liveThreads < maxThreads && !shutdown) {
+                final Thread thread = new Thread(new Worker(), threadNamePrefix + " Thread-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+                liveThreads++;
+            }
+            workQueued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the weight of the given pool, relative to the weights of the
+     * others. Pools are created with a weight of {@value #DEFAULT_WEIGHT}.
+     *
+     * @param poolName
+     * @param weight
+     */
+    public void setWeight(final String poolName, final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight of pool " + poolName + " must be positive");
+        }
+
+        lock.lock();
+        try {
+            final Pool pool = getPool(poolName);
+            pool.weight = weight;
+            pool.configured = true;
+            pool.retired = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a component will run its tasks in the given pool, so that
+     * the pool is kept until {@link #removeComponent(String)} is called for
+     * every component that was added to it
+     *
+     * @param poolName
+     */
+    public void addComponent(final String poolName) {
+        lock.lock();
+        try {
+            final Pool pool = getPool(poolName);
+            pool.components++;
+            pool.retired = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a component will no longer run tasks in the given pool. If
+     * it was the last such component, and the pool was not given a weight,
+     * the pool is discarded as soon as it has no tasks queued or running.
+     *
+     * @param poolName
+     */
+    public void removeComponent(final String poolName) {
+        lock.lock();
+        try {
+            final Pool pool = pools.get(poolName);
+            if (pool != null && --pool.components <= 0 && !pool.configured) {
+                pool.retired = true;
+                removeIfUnused(pool);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the given task to run in the given pool
+     *
+     * @param poolName
+     * @param task
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    public void execute(final String poolName, final Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+
+            final Pool pool = getPool(poolName);
+            if (!pool.isBusy()) {
+                // a pool that was idle should not have banked run time to spend all at once
+                pool.pass = Math.max(pool.pass, getMinimumPass());
+            }
+
+            pool.queue.add(new QueuedTask(task, System.nanoTime()));
+            workQueued.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops running tasks. Tasks that are running are allowed to complete;
+     * those that are queued are discarded.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (final Pool pool : pools.values()) {
+                pool.queue.clear();
+            }
+            workQueued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the status of every pool that has been given a weight or is in
+     * use
+     */
+    public List<PoolStatus> getPoolStatus() {
+        lock.lock();
+        try {
+            final List<PoolStatus> statuses = new ArrayList<>(pools.size());
+            for (final Pool pool : pools.values()) {
+                statuses.add(new PoolStatus(pool.name, pool.weight, pool.activeThreads, pool.queue.size(), pool.completedTasks, pool.queuedNanos, pool.runNanos));
+            }
+            return Collections.unmodifiableList(statuses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Pool getPool(final String poolName) {
+        Pool pool = pools.get(poolName);
+        if (pool == null) {
+            pool = new Pool(poolName);
+            pools.put(poolName, pool);
+        }
+        return pool;
+    }
+
+    private void removeIfUnused(final Pool pool) {
+        if (pool.retired && !pool.isBusy()) {
+            pools.remove(pool.name);
+        }
+    }
+
+    private long getMinimumPass() {
+        long minimum = Long.MAX_VALUE;
+        for (final Pool pool : pools.values()) {
+            if (pool.isBusy()) {
+                minimum = Math.min(minimum, pool.pass);
+            }
+        }
+        return minimum == Long.MAX_VALUE ? 0L : minimum;
+    }
+
+    /**
+     * Chooses the pool whose task should be run next, or returns
+     * <code>null</code> if no task is queued
+     */
+    private Pool selectPool() {
+        int busyWeight = 0;
+        for (final Pool pool : pools.values()) {
+            if (pool.isBusy()) {
+                busyWeight += pool.weight;
+            }
+        }
+
+        Pool withinShare = null;
+        Pool overShare = null;
+        for (final Pool pool : pools.values()) {
+            if (pool.queue.isEmpty()) {
+                continue;
+            }
+
+            // every busy pool is entitled to at least one thread
+            final int share = Math.max(1, maxThreads * pool.weight / busyWeight);
+            if (pool.activeThreads < share) {
+                if (withinShare == null || pool.pass < withinShare.pass) {
+                    withinShare = pool;
+                }
+            } else if (overShare == null || pool.pass < overShare.pass) {
+                overShare = pool;
+            }
+        }
+
+        return withinShare == null ? overShare : withinShare;
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                final Pool pool;
+                final QueuedTask queued;
+                lock.lock();
+                try {
+                    Pool selected = null;
+                    while (selected == null) {
+                        if (shutdown || liveThreads > maxThreads) {
+                            liveThreads--;
+                            return;
+                        }
+
+                        selected = selectPool();
+                        if (selected == null) {
+                            workQueued.awaitUninterruptibly();
+                        }
+                    }
+
+                    pool = selected;
+                    queued = pool.queue.poll();
+                    pool.activeThreads++;
+                } finally {
+                    lock.unlock();
+                }
+
+                final long startNanos = System.nanoTime();
+                try {
+                    Thread.currentThread().setContextClassLoader(NarThreadContextClassLoader.getInstance());
+                    queued.task.run();
+                } catch (final Throwable t) {
+                    logger.error("A task in scheduling pool {} failed due to {}", pool.name, t.toString());
+                    logger.error("", t);
+                }
+                final long runNanos = System.nanoTime() - startNanos;
+
+                lock.lock();
+                try {
+                    pool.activeThreads--;
+                    pool.completedTasks++;
+                    pool.queuedNanos += startNanos - queued.queuedNanos;
+                    pool.runNanos += runNanos;
+                    pool.pass += runNanos / pool.weight;
+                    removeIfUnused(pool);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static class QueuedTask {
+
+        private final Runnable task;
+        private final long queuedNanos;
+
+        QueuedTask(final Runnable task, final long queuedNanos) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private static class Pool {
+
+        private final String name;
+        private final Queue<QueuedTask> queue = new ArrayDeque<>();
+        private int weight = DEFAULT_WEIGHT;
+        private boolean configured = false;
+        private int components = 0;
+        // whether the pool is to be discarded once it is idle
+        private boolean retired = false;
+        private int activeThreads = 0;
+        private long pass = 0L;
+        private long completedTasks = 0L;
+        private long queuedNanos = 0L;
+        private long runNanos = 0L;
+
+        Pool(final String name) {
+            this.name = name;
+        }
+
+        boolean isBusy() {
+            return activeThreads > 0 || !queue.isEmpty();
+        }
+    }
+
+    /**
+     * A snapshot of the use of one pool. Times and counts are totals since the
+     * pool was first used.
+     */
+    public static class PoolStatus {
+
+        private final String name;
+        private final int weight;
+        private final int activeThreads;
+        private final int queuedTasks;
+        private final long completedTasks;
+        private final long queuedNanos;
+        private final long runNanos;
+
+        PoolStatus(final String name, final int weight, final int activeThreads, final int queuedTasks, final long completedTasks, final long queuedNanos, final long runNanos) {
+            this.name = name;
+            this.weight = weight;
+            this.activeThreads = activeThreads;
+            this.queuedTasks = queuedTasks;
+            this.completedTasks = completedTasks;
+            this.queuedNanos = queuedNanos;
+            this.runNanos = runNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        /**
+         * @return the total time that completed tasks spent queued, waiting
+         * for a thread
+         */
+        public long getQueuedNanos() {
+            return queuedNanos;
+        }
+
+        /**
+         * @return the total time that completed tasks spent running
+         */
+        public long getRunNanos() {
+            return runNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStatus[name=" + name + ", weight=" + weight + ", activeThreads=" + activeThreads + ", queuedTasks=" + queuedTasks
+                    + ", completedTasks=" + completedTasks + ", queuedNanos=" + queuedNanos + ", runNanos=" + runNanos + "]";
+        }
+    }
+}
@@ -33,6 +33,8 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -1556,14 +1558,23 @@ public class StandardRemoteProcessGroup implements RemoteProcessGroup {
 
     private void persistPeerStatuses(final Set<PeerStatus> statuses) {
         final File peersFile = getPeerPersistenceFile();
-        try (final OutputStream fos = new FileOutputStream(peersFile);
-                final OutputStream out = new BufferedOutputStream(fos)) {
+        // write to a temporary file and move it into place so that a restart never finds a partially written list of peers,
+        // which would leave us unable to transfer data until the remote instance's NCM can be reached
+        final File tempFile = new File(peersFile.getParentFile(), peersFile.getName() + ".tmp");
+        try {
+            try (final FileOutputStream fos = new FileOutputStream(tempFile);
+                    final OutputStream out = new BufferedOutputStream(fos)) {
+
+                for (final PeerStatus status : statuses) {
+                    final String line = status.getHostname() + ":" + status.getPort() + ":" + status.isSecure() + "\n";
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                }
 
-            for (final PeerStatus status : statuses) {
-                final String line = status.getHostname() + ":" + status.getPort() + ":" + status.isSecure() + "\n";
-                out.write(line.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                fos.getFD().sync();
             }
 
+            Files.move(tempFile.toPath(), peersFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (final IOException e) {
             logger.error("Failed to persist list of Peers due to {}; if restarted and peer's NCM is down, may be unable to transfer data until communications with NCM are restored", e.toString(), e);
         }
@@ -1586,7 +1597,13 @@ public class StandardRemoteProcessGroup implements RemoteProcessGroup {
                 }
 
                 final String hostname = splits[0];
-                final int port = Integer.parseInt(splits[1]);
+                final int port;
+                try {
+                    port = Integer.parseInt(splits[1]);
+                } catch (final NumberFormatException nfe) {
+                    logger.warn("{} Ignoring invalid entry '{}' in {}", this, line, file);
+                    continue;
+                }
                 final boolean secure = Boolean.parseBoolean(splits[2]);
 
                 statuses.add(new PeerStatus(hostname, port, secure, 1));
@@ -20,18 +20,25 @@ import org.apache.nifi.controller.FileSystemSwapManager;
 import static org.junit.Assert.assertEquals;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.controller.repository.StandardFlowFileRecord;
 import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.ContentClaimManager;
+import org.apache.nifi.controller.repository.claim.StandardContentClaimManager;
 
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -58,6 +65,64 @@ public class TestFileSystemSwapManager {
         }
     }
 
+    @Test
+    public void testRoundTrip() throws IOException {
+        final FlowFileQueue flowFileQueue = Mockito.mock(FlowFileQueue.class);
+        Mockito.when(flowFileQueue.getIdentifier()).thenReturn("87bb99fe-412c-49f6-a441-d1b0af4e20b4");
+        final ContentClaimManager claimManager = new StandardContentClaimManager();
+
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+
+        final List<FlowFileRecord> toSwap = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            final StandardFlowFileRecord.Builder builder = new StandardFlowFileRecord.Builder()
+                    .id(i)
+                    .entryDate(1000L + i)
+                    .lineageStartDate(500L)
+                    .lineageIdentifiers(Collections.singleton("lineage-" + i / 100))
+                    .lastQueueDate(2000L + i)
+                    .size(i)
+                    .addAttribute("uuid", UUID.randomUUID().toString())
+                    .addAttribute("filename", "file-" + i + ".txt")
+                    .addAttribute("unicode", "café über 中文");
+            if (i % 2 == 0) {
+                builder.contentClaim(claimManager.newContentClaim("container-" + i % 3, "section-" + i % 7, String.valueOf(i), false));
+                builder.contentClaimOffset(i * 10L);
+            }
+            if (i == 0) {
+                builder.addAttribute("long", longValue.toString());
+            }
+            toSwap.add(builder.build());
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(toSwap.size(), FileSystemSwapManager.serializeFlowFiles(toSwap, flowFileQueue, "swap-location", baos));
+
+        final List<FlowFileRecord> swappedIn;
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            swappedIn = FileSystemSwapManager.deserializeFlowFiles(in, flowFileQueue, claimManager);
+        }
+
+        assertEquals(toSwap.size(), swappedIn.size());
+        for (int i = 0; i < toSwap.size(); i++) {
+            final FlowFileRecord expected = toSwap.get(i);
+            final FlowFileRecord actual = swappedIn.get(i);
+
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getEntryDate(), actual.getEntryDate());
+            assertEquals(expected.getLineageStartDate(), actual.getLineageStartDate());
+            assertEquals(expected.getLineageIdentifiers(), actual.getLineageIdentifiers());
+            assertEquals(expected.getLastQueueDate(), actual.getLastQueueDate());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.getContentClaim(), actual.getContentClaim());
+            assertEquals(expected.getContentClaimOffset(), actual.getContentClaimOffset());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+        }
+    }
+
     public class NopContentClaimManager implements ContentClaimManager {
 
         @Override
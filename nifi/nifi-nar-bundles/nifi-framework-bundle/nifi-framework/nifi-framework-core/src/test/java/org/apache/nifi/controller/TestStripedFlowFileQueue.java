@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.controller.repository.FlowFileRecord;
+import org.apache.nifi.controller.repository.StandardFlowFileRecord;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.FlowFilePrioritizer;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.scheduling.SchedulingStrategy;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestStripedFlowFileQueue {
+
+    private Connection connection;
+    private ProcessScheduler scheduler;
+    private final AtomicInteger idGenerator = new AtomicInteger(0);
+
+    @Before
+    public void setup() {
+        final Connectable connectable = Mockito.mock(Connectable.class);
+        Mockito.when(connectable.getSchedulingStrategy()).thenReturn(SchedulingStrategy.TIMER_DRIVEN);
+
+        connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getSource()).thenReturn(connectable);
+        Mockito.when(connection.getDestination()).thenReturn(connectable);
+        scheduler = Mockito.mock(ProcessScheduler.class);
+    }
+
+    private FlowFileRecord createFlowFile(final long size) {
+        return new StandardFlowFileRecord.Builder().id(idGenerator.getAndIncrement()).size(size).build();
+    }
+
+    private FlowFileRecord createPenalizedFlowFile(final long size) {
+        return new StandardFlowFileRecord.Builder().id(idGenerator.getAndIncrement()).size(size)
+                .penaltyExpirationTime(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5L)).build();
+    }
+
+    @Test
+    public void testSizeAccounting() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000);
+        assertTrue(queue.isEmpty());
+
+        for (int i = 0; i < 100; i++) {
+            queue.put(createFlowFile(10L));
+        }
+        assertEquals(100, queue.size().getObjectCount());
+        assertEquals(1000L, queue.size().getByteCount());
+        assertEquals(100, queue.getActiveQueueSize().getObjectCount());
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        final List<FlowFileRecord> polled = queue.poll(10, expired);
+        assertEquals(10, polled.size());
+        assertTrue(expired.isEmpty());
+
+        // polled FlowFiles count toward the queue's size until acknowledged
+        assertEquals(100, queue.size().getObjectCount());
+        assertEquals(90, queue.getActiveQueueSize().getObjectCount());
+
+        queue.acknowledge(polled);
+        assertEquals(90, queue.size().getObjectCount());
+        assertEquals(900L, queue.contentSize());
+
+        final List<FlowFileRecord> remaining = queue.poll(1000, expired);
+        assertEquals(90, remaining.size());
+        assertTrue(queue.isActiveQueueEmpty());
+        assertFalse(queue.isEmpty());
+
+        queue.acknowledge(remaining);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollIntoList() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000);
+        for (int i = 0; i < 20; i++) {
+            queue.put(createFlowFile(10L));
+        }
+
+        // what the list already holds is kept, and does not count toward the max results
+        final FlowFileRecord alreadyPolled = createFlowFile(10L);
+        final List<FlowFileRecord> polled = new ArrayList<>();
+        polled.add(alreadyPolled);
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        assertEquals(15, queue.poll(15, expired, polled));
+        assertEquals(16, polled.size());
+        assertEquals(alreadyPolled, polled.get(0));
+        assertEquals(5, queue.getActiveQueueSize().getObjectCount());
+
+        assertEquals(5, queue.poll(15, expired, polled));
+        assertEquals(21, polled.size());
+        assertEquals(0, queue.poll(15, expired, polled));
+        assertTrue(queue.isActiveQueueEmpty());
+
+        // only the FlowFiles that the queue handed out are unacknowledged
+        assertEquals(20, queue.size().getObjectCount());
+        queue.acknowledge(polled.subList(1, polled.size()));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testFirstInFirstOutWithinSegment() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000, 1);
+        final List<FlowFileRecord> flowFiles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final FlowFileRecord flowFile = createFlowFile(50 - i);
+            flowFiles.add(flowFile);
+            queue.put(flowFile);
+        }
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        for (final FlowFileRecord flowFile : flowFiles) {
+            assertEquals(flowFile, queue.poll(expired));
+        }
+        assertNull(queue.poll(expired));
+    }
+
+    @Test
+    public void testFirstInFirstOutForSingleProducer() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000);
+        final List<FlowFileRecord> flowFiles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final FlowFileRecord flowFile = createFlowFile(10L);
+            flowFiles.add(flowFile);
+            queue.put(flowFile);
+        }
+
+        // everything queued by one thread goes to the same segment, so it is delivered in order
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        assertEquals(flowFiles, queue.poll(100, expired));
+    }
+
+    @Test
+    public void testPenalizedFlowFileDoesNotBlockQueue() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000, 1);
+        final FlowFileRecord penalized = createPenalizedFlowFile(10L);
+        final FlowFileRecord unpenalized = createFlowFile(10L);
+        queue.put(penalized);
+        queue.put(unpenalized);
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        assertEquals(unpenalized, queue.poll(expired));
+        assertNull(queue.poll(expired));
+
+        assertEquals(1, queue.getActiveQueueSize().getObjectCount());
+        assertFalse(queue.isActiveQueueEmpty());
+    }
+
+    @Test
+    public void testPrioritizersUseSingleOrderedSegment() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000);
+        for (int i = 0; i < 100; i++) {
+            queue.put(createFlowFile(i));
+        }
+
+        final FlowFilePrioritizer largestFirst = new FlowFilePrioritizer() {
+            @Override
+            public int compare(final FlowFile o1, final FlowFile o2) {
+                return Long.compare(o2.getSize(), o1.getSize());
+            }
+        };
+        queue.setPriorities(Collections.singletonList(largestFirst));
+        assertEquals(1, queue.getPriorities().size());
+        assertEquals(100, queue.getActiveQueueSize().getObjectCount());
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(i, queue.poll(expired).getSize());
+        }
+    }
+
+    @Test
+    public void testSwapQueue() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 100);
+        for (int i = 0; i < 150; i++) {
+            queue.put(createFlowFile(1L));
+        }
+
+        assertEquals(100, queue.getActiveQueueSize().getObjectCount());
+        assertEquals(50, queue.getSwapQueueSize());
+        assertEquals(50, queue.getSwapRecordCount());
+        assertEquals(150, queue.size().getObjectCount());
+
+        // too few FlowFiles to be swapped out
+        assertNull(queue.pollSwappableRecords());
+
+        // once FlowFiles are polled, those waiting on the swap queue are moved to the active queue
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        assertEquals(100, queue.poll(100, expired).size());
+        assertEquals(50, queue.poll(100, expired).size());
+        assertEquals(0, queue.getSwapQueueSize());
+        assertEquals(0, queue.getSwapRecordCount());
+    }
+
+    @Test
+    public void testPollWithFilter() {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, 10000);
+        for (int i = 0; i < 100; i++) {
+            queue.put(createFlowFile(i));
+        }
+
+        final Set<FlowFileRecord> expired = new HashSet<>();
+        final List<FlowFileRecord> selected = queue.poll(new FlowFileFilter() {
+            @Override
+            public FlowFileFilterResult filter(final FlowFile flowFile) {
+                return flowFile.getSize() % 2 == 0 ? FlowFileFilterResult.ACCEPT_AND_CONTINUE : FlowFileFilterResult.REJECT_AND_CONTINUE;
+            }
+        }, expired);
+
+        assertEquals(50, selected.size());
+        for (final FlowFileRecord flowFile : selected) {
+            assertEquals(0L, flowFile.getSize() % 2);
+        }
+        assertEquals(50, queue.getActiveQueueSize().getObjectCount());
+        assertEquals(100, queue.size().getObjectCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentProducersAndConsumers() throws InterruptedException {
+        final StripedFlowFileQueue queue = new StripedFlowFileQueue("1", connection, scheduler, Integer.MAX_VALUE);
+        final int numProducers = 8;
+        final int numConsumers = 8;
+        final int flowFilesPerProducer = 10000;
+        final int totalFlowFiles = numProducers * flowFilesPerProducer;
+
+        final Set<Long> received = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger(0);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < numProducers; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < flowFilesPerProducer; j++) {
+                        queue.put(createFlowFile(1L));
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < numConsumers; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Set<FlowFileRecord> expired = new HashSet<>();
+                    while (received.size() < totalFlowFiles) {
+                        final List<FlowFileRecord> polled = queue.poll(10, expired);
+                        for (final FlowFileRecord flowFile : polled) {
+                            if (!received.add(flowFile.getId())) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                        queue.acknowledge(polled);
+                    }
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(totalFlowFiles, received.size());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size().getObjectCount());
+        assertEquals(0L, queue.size().getByteCount());
+    }
+}
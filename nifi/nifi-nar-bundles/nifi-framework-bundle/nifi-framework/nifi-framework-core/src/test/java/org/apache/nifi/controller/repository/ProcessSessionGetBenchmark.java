@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.connectable.StandardConnection;
+import org.apache.nifi.controller.ProcessScheduler;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.groups.ProcessGroup;
+import org.apache.nifi.provenance.ProvenanceEventRepository;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@link StandardProcessSession#get(int)} for a component with many
+ * incoming connections, both when each connection holds only a few FlowFiles,
+ * so that a batch has to be gathered from all of them, and when each holds
+ * more than a batch. Each invocation polls a batch and rolls the session
+ * back, which returns the FlowFiles to their queues for the next invocation,
+ * so the time reported includes the rollback. As the batches differ in size,
+ * the FlowFiles polled per millisecond are reported as well as the calls.
+ *
+ * Like the other benchmarks in the test sources, this only has a JMH harness
+ * when compiled with the <code>benchmarks</code> profile
+ * (<code>mvn clean test-compile -P benchmarks</code>), and is run via its main
+ * method.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ProcessSessionGetBenchmark {
+
+    @Param({"16"})
+    public int numConnections;
+
+    @Param({"5", "5000"})
+    public int flowFilesPerConnection;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private StandardProcessSession session;
+
+    @Setup
+    public void setup() {
+        // the connections read their queue settings from the properties
+        System.setProperty("nifi.properties.file.path", "src/test/resources/nifi.properties");
+
+        final ProcessGroup procGroup = stub(ProcessGroup.class, Collections.<String, Object>singletonMap("getIdentifier", "proc-group-identifier-1"));
+        final List<Connection> connections = new ArrayList<>();
+
+        final Map<String, Object> connectableValues = new HashMap<>();
+        connectableValues.put("getIdentifier", "connectable-1");
+        connectableValues.put("getConnectableType", ConnectableType.INPUT_PORT);
+        connectableValues.put("getProcessGroup", procGroup);
+        connectableValues.put("hasIncomingConnection", true);
+        connectableValues.put("getIncomingConnections", connections);
+        connectableValues.put("getConnections", Collections.<Connection>emptySet());
+        final Connectable connectable = stub(Connectable.class, connectableValues);
+
+        // real connections, so that the cost of polling each one is that of its queue
+        final ProcessScheduler scheduler = stub(ProcessScheduler.class, Collections.<String, Object>emptyMap());
+        long nextFlowFileId = 0L;
+        for (int i = 0; i < numConnections; i++) {
+            final Connection connection = new StandardConnection.Builder(scheduler)
+                    .id("connection-" + i)
+                    .source(stub(Connectable.class, Collections.<String, Object>emptyMap()))
+                    .destination(connectable)
+                    .processGroup(procGroup)
+                    .build();
+
+            for (int j = 0; j < flowFilesPerConnection; j++) {
+                connection.getFlowFileQueue().put(new StandardFlowFileRecord.Builder()
+                        .id(nextFlowFileId++)
+                        .addAttribute("uuid", UUID.randomUUID().toString())
+                        .entryDate(System.currentTimeMillis())
+                        .build());
+            }
+            connections.add(connection);
+        }
+
+        final Map<String, Object> none = Collections.emptyMap();
+        final ProcessContext context = new ProcessContext(connectable, new AtomicLong(0L), stub(ContentRepository.class, none), stub(FlowFileRepository.class, none),
+                stub(FlowFileEventRepository.class, none), stub(CounterRepository.class, none), stub(ProvenanceEventRepository.class, none));
+        session = new StandardProcessSession(context);
+    }
+
+    @Benchmark
+    public int getBatch(final PolledCounter counter) {
+        final List<FlowFile> flowFiles = session.get(batchSize);
+        session.rollback();
+        counter.flowFiles += flowFiles.size();
+        return flowFiles.size();
+    }
+
+    /**
+     * Counts the FlowFiles that were polled, so that the FlowFiles polled per
+     * unit of time are reported alongside the calls to get(int), which may
+     * return batches of different sizes
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class PolledCounter {
+
+        public long flowFiles;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            flowFiles = 0L;
+        }
+    }
+
+    /**
+     * Creates an implementation of the given interface whose methods return the
+     * values given for their names, and otherwise return <code>null</code>,
+     * <code>false</code> or 0. Mocks would record, and take a stack trace for,
+     * each of the millions of calls that a benchmark makes, which would cost
+     * more than what is being measured.
+     */
+    private static <T> T stub(final Class<T> type, final Map<String, Object> returnValues) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+
+                if (returnValues.containsKey(method.getName())) {
+                    return returnValues.get(method.getName());
+                }
+
+                final Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else if (returnType.isPrimitive() && returnType != void.class) {
+                    throw new UnsupportedOperationException(method.toString());
+                }
+                return null;
+            }
+        }));
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProcessSessionGetBenchmark.class.getSimpleName()).build()).run();
+    }
+}
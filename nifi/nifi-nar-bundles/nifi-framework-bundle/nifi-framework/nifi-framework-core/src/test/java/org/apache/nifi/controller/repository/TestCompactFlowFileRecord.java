@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.junit.Test;
+
+public class TestCompactFlowFileRecord {
+
+    private FlowFileRecord createFlowFile(final long id, final String mimeType) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(CoreAttributes.UUID.key(), UUID.randomUUID().toString());
+        attributes.put(CoreAttributes.FILENAME.key(), "file-" + id + ".txt");
+        attributes.put(CoreAttributes.MIME_TYPE.key(), mimeType);
+        attributes.put("unicode", "café über 中文");
+        attributes.put("empty", "");
+
+        return new StandardFlowFileRecord.Builder().id(id).entryDate(1000L).lineageStartDate(500L).size(2048L)
+                .lineageIdentifiers(Arrays.asList("lineage-a", "lineage-b")).penaltyExpirationTime(12345L)
+                .contentClaimOffset(64L).lastQueueDate(2000L).addAttributes(attributes).build();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final FlowFileRecordCompactor compactor = new FlowFileRecordCompactor(new AttributeDictionary(), null);
+        final FlowFileRecord original = createFlowFile(1L, "text/plain");
+        final FlowFileRecord compact = compactor.compact(original);
+
+        assertTrue(compact instanceof CompactFlowFileRecord);
+        assertEquals(original.getAttributes(), compact.getAttributes());
+        assertEquals(original.getLineageIdentifiers(), compact.getLineageIdentifiers());
+        assertEquals(original.getId(), compact.getId());
+        assertEquals(original.getEntryDate(), compact.getEntryDate());
+        assertEquals(original.getLineageStartDate(), compact.getLineageStartDate());
+        assertEquals(original.getSize(), compact.getSize());
+        assertEquals(original.getPenaltyExpirationMillis(), compact.getPenaltyExpirationMillis());
+        assertEquals(original.getContentClaimOffset(), compact.getContentClaimOffset());
+        assertEquals(original.getLastQueueDate(), compact.getLastQueueDate());
+
+        assertEquals("file-1.txt", compact.getAttribute(CoreAttributes.FILENAME.key()));
+        assertEquals("café über 中文", compact.getAttribute("unicode"));
+        assertEquals("", compact.getAttribute("empty"));
+        assertNull(compact.getAttribute("missing"));
+
+        assertEquals(original, compact);
+        assertEquals(compact, original);
+        assertEquals(original.hashCode(), compact.hashCode());
+        assertSame(compact, compactor.compact(compact));
+    }
+
+    @Test
+    public void testOnlyRecurringValuesAreInterned() {
+        final AttributeDictionary dictionary = new AttributeDictionary();
+        final FlowFileRecordCompactor compactor = new FlowFileRecordCompactor(dictionary, null);
+        for (int i = 0; i < 1000; i++) {
+            compactor.compact(createFlowFile(i, "text/plain"));
+        }
+
+        // the 5 attribute names, the mime type, and the unicode and empty values, which are shared by all FlowFiles,
+        // but none of the uuids or filenames, which are unique to each FlowFile.
+        assertEquals(8, dictionary.size());
+        assertTrue(dictionary.getValueCode("text/plain") >= 0);
+    }
+
+    @Test
+    public void testDictionaryLimit() {
+        final AttributeDictionary dictionary = new AttributeDictionary(4, 16);
+        final FlowFileRecordCompactor compactor = new FlowFileRecordCompactor(dictionary, null);
+        final FlowFileRecord original = createFlowFile(1L, "text/plain");
+        final FlowFileRecord compact = compactor.compact(original);
+
+        assertEquals(4, dictionary.size());
+        assertEquals(original.getAttributes(), compact.getAttributes());
+    }
+
+    @Test
+    public void testLineageIdentifiersAreShared() {
+        final FlowFileRecordCompactor compactor = new FlowFileRecordCompactor(new AttributeDictionary(), null);
+        final FlowFileRecord first = compactor.compact(createFlowFile(1L, "text/plain"));
+        final FlowFileRecord second = compactor.compact(createFlowFile(2L, "text/plain"));
+
+        assertSame(first.getLineageIdentifiers(), second.getLineageIdentifiers());
+    }
+
+    @Test
+    public void testOffHeap() {
+        final OffHeapArena arena = new OffHeapArena(4096, 1024);
+        final FlowFileRecordCompactor compactor = new FlowFileRecordCompactor(new AttributeDictionary(), arena);
+
+        final FlowFileRecord original = createFlowFile(1L, "text/plain");
+        final CompactFlowFileRecord compact = (CompactFlowFileRecord) compactor.compact(original);
+        assertTrue(compact.isOffHeap());
+        assertEquals(original.getAttributes(), compact.getAttributes());
+        assertEquals(original.getAttribute(CoreAttributes.UUID.key()), compact.getAttribute(CoreAttributes.UUID.key()));
+
+        // once the arena is exhausted, attributes are kept on the heap
+        CompactFlowFileRecord last = compact;
+        for (int i = 2; i < 100; i++) {
+            last = (CompactFlowFileRecord) compactor.compact(createFlowFile(i, "text/plain"));
+        }
+        assertFalse(last.isOffHeap());
+        assertEquals(4096L, arena.getAllocatedBytes());
+        assertEquals("file-99.txt", last.getAttribute(CoreAttributes.FILENAME.key()));
+        assertEquals(original.getAttributes(), compact.getAttributes());
+    }
+}
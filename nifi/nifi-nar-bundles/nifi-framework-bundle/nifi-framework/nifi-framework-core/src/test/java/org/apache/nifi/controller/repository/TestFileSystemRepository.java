@@ -37,6 +37,8 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.nifi.controller.repository.claim.ContentClaim;
 import org.apache.nifi.controller.repository.claim.StandardContentClaimManager;
@@ -339,6 +341,170 @@ public class TestFileSystemRepository {
         assertTrue(Arrays.equals(expected, actual));
     }
 
+    private FileSystemRepository createPackingRepository(final String maxAppendableClaimSize) throws IOException {
+        final NiFiProperties properties = NiFiProperties.getInstance();
+        final String originalMaxAppendableClaimSize = properties.getMaxAppendableClaimSize();
+        properties.setProperty(NiFiProperties.CONTENT_CLAIM_PACKING_ENABLED, "true");
+        properties.setProperty(NiFiProperties.MAX_APPENDABLE_CLAIM_SIZE, maxAppendableClaimSize);
+        try {
+            final FileSystemRepository packingRepository = new FileSystemRepository();
+            packingRepository.initialize(new StandardContentClaimManager());
+            packingRepository.purge();
+            return packingRepository;
+        } finally {
+            properties.remove(NiFiProperties.CONTENT_CLAIM_PACKING_ENABLED);
+            properties.setProperty(NiFiProperties.MAX_APPENDABLE_CLAIM_SIZE, originalMaxAppendableClaimSize);
+        }
+    }
+
+    private void write(final FileSystemRepository repo, final ContentClaim claim, final String content) throws IOException {
+        try (final OutputStream out = repo.write(claim)) {
+            out.write(content.getBytes());
+        }
+    }
+
+    @Test
+    public void testCreateAppendableWithoutPackingCreatesNewClaims() throws IOException {
+        final ContentClaim claim = repository.createAppendable(false);
+        write(repository, claim, "hello");
+
+        final ContentClaim secondClaim = repository.createAppendable(false);
+        assertFalse(claim.equals(secondClaim));
+        assertEquals(1, repository.getClaimantCount(claim));
+    }
+
+    @Test
+    public void testPackedClaimsAppendToSharedFile() throws IOException {
+        final FileSystemRepository packingRepository = createPackingRepository("1 MB");
+        try {
+            final ContentClaim claim = packingRepository.createAppendable(false);
+            assertEquals(1, packingRepository.getClaimantCount(claim));
+            try (final OutputStream out = packingRepository.write(claim)) {
+                assertEquals(0L, packingRepository.size(claim));
+                out.write("hello".getBytes());
+            }
+
+            // the repository holds a claimant count while the claim is waiting to be appended to
+            assertEquals(2, packingRepository.getClaimantCount(claim));
+
+            final ContentClaim secondClaim = packingRepository.createAppendable(false);
+            assertEquals(claim, secondClaim);
+            assertEquals(2, packingRepository.getClaimantCount(claim));
+            try (final OutputStream out = packingRepository.write(secondClaim)) {
+                assertEquals(5L, packingRepository.size(secondClaim));
+                out.write("world".getBytes());
+            }
+            packingRepository.importFrom(new ByteArrayInputStream("!".getBytes()), packingRepository.createAppendable(false), true);
+
+            // loss-tolerant content is not mixed in with other content
+            final ContentClaim lossTolerantClaim = packingRepository.createAppendable(true);
+            assertFalse(claim.equals(lossTolerantClaim));
+            write(packingRepository, lossTolerantClaim, "other");
+
+            try (final InputStream in = packingRepository.read(claim)) {
+                assertEquals("helloworld!", new String(readFully(in, 16)));
+            }
+        } finally {
+            packingRepository.shutdown();
+        }
+    }
+
+    @Test
+    public void testPackedClaimRolledOverWhenFull() throws IOException {
+        final FileSystemRepository packingRepository = createPackingRepository("10 B");
+        try {
+            final ContentClaim claim = packingRepository.createAppendable(false);
+            write(packingRepository, claim, "hello");
+
+            assertEquals(claim, packingRepository.createAppendable(false));
+            write(packingRepository, claim, "hello world");
+
+            // the claim is now full, so it is no longer held by the repository
+            assertEquals(2, packingRepository.getClaimantCount(claim));
+            final ContentClaim secondClaim = packingRepository.createAppendable(false);
+            assertFalse(claim.equals(secondClaim));
+            assertEquals(2, packingRepository.getClaimantCount(claim));
+        } finally {
+            packingRepository.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnreferencedPackedClaimNotReused() throws IOException {
+        final FileSystemRepository packingRepository = createPackingRepository("1 MB");
+        try {
+            final ContentClaim claim = packingRepository.createAppendable(false);
+            final OutputStream out = packingRepository.write(claim);
+            out.write("hello".getBytes());
+
+            // the content is no longer needed before the stream is closed, as happens when a session is rolled back
+            assertEquals(0, packingRepository.decrementClaimantCount(claim));
+            out.close();
+            assertTrue(packingRepository.remove(claim));
+            assertFalse(Files.exists(getPath(packingRepository, claim)));
+
+            final ContentClaim secondClaim = packingRepository.createAppendable(false);
+            assertFalse(claim.equals(secondClaim));
+        } finally {
+            packingRepository.shutdown();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPackedClaimReleasedWhileLastClaimantRemoved() throws Exception {
+        final FileSystemRepository packingRepository = createPackingRepository("1 MB");
+        try {
+            ContentClaim removedClaim = null;
+            for (int i = 0; i < 500; i++) {
+                final ContentClaim claim = packingRepository.createAppendable(false);
+                if (removedClaim != null) {
+                    // a claim whose content has been removed must never be appended to again
+                    assertFalse(claim.equals(removedClaim));
+                }
+                assertTrue(Files.exists(getPath(packingRepository, claim)));
+
+                final OutputStream out = packingRepository.write(claim);
+                out.write("hello".getBytes());
+
+                // the session gives up the claim at the same time as its stream is closed
+                final CyclicBarrier barrier = new CyclicBarrier(2);
+                final AtomicBoolean removed = new AtomicBoolean(false);
+                final Thread remover = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            barrier.await();
+                            if (packingRepository.decrementClaimantCount(claim) == 0) {
+                                removed.set(true);
+                                packingRepository.remove(claim);
+                            }
+                        } catch (final Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                remover.start();
+                barrier.await();
+                out.close();
+                remover.join();
+
+                removedClaim = removed.get() ? claim : null;
+            }
+        } finally {
+            packingRepository.shutdown();
+        }
+    }
+
+    private Path getPath(final FileSystemRepository repo, final ContentClaim claim) {
+        try {
+            final Method m = repo.getClass().getDeclaredMethod("getPath", ContentClaim.class);
+            m.setAccessible(true);
+            return (Path) m.invoke(repo, claim);
+        } catch (final Exception e) {
+            throw new RuntimeException("Could not invoke #getPath on FileSystemRepository due to " + e.toString());
+        }
+    }
+
     private byte[] readFully(final InputStream inStream, final int size) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
         int len;
@@ -39,6 +39,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -81,6 +82,7 @@ public class TestStandardProcessSession {
 
     private ProvenanceEventRepository provenanceRepo;
     private MockFlowFileRepository flowFileRepo;
+    private final AtomicLong nextFlowFileId = new AtomicLong(0L);
 
     @After
     public void cleanup() {
@@ -914,6 +916,103 @@ public class TestStandardProcessSession {
     
     
     
+    @Test
+    public void testGetMaxResultsFromSingleConnection() {
+        enqueue(flowFileQueue, 10);
+
+        assertEquals(4, session.get(4).size());
+        assertEquals(6, session.get(100).size());
+        assertTrue(session.get(100).isEmpty());
+    }
+
+    @Test
+    public void testGetSharesBatchAcrossConnections() {
+        final List<FlowFileQueue> queues = createSessionWithIncomingQueues(16);
+        for (final FlowFileQueue queue : queues) {
+            enqueue(queue, 10);
+        }
+
+        final List<FlowFile> flowFiles = session.get(32);
+        assertEquals(32, flowFiles.size());
+        for (final FlowFileQueue queue : queues) {
+            assertEquals(8, queue.getActiveQueueSize().getObjectCount());
+        }
+    }
+
+    @Test
+    public void testGetGivesUnusedSharesToBusyConnections() {
+        final List<FlowFileQueue> queues = createSessionWithIncomingQueues(16);
+        enqueue(queues.get(0), 100);
+        for (int i = 1; i < queues.size(); i++) {
+            enqueue(queues.get(i), 1);
+        }
+
+        // every connection with a single FlowFile gives it up, and the busy connection fills the rest of the batch
+        assertEquals(50, session.get(50).size());
+        assertEquals(65, queues.get(0).getActiveQueueSize().getObjectCount());
+        for (int i = 1; i < queues.size(); i++) {
+            assertEquals(0, queues.get(i).getActiveQueueSize().getObjectCount());
+        }
+    }
+
+    @Test
+    public void testGetRotatesConnectionsForSmallBatches() {
+        final List<FlowFileQueue> queues = createSessionWithIncomingQueues(16);
+        for (final FlowFileQueue queue : queues) {
+            enqueue(queue, 10);
+        }
+
+        // batches smaller than the number of connections must not always be taken from the same connections
+        for (int i = 0; i < 16; i++) {
+            assertEquals(4, session.get(4).size());
+        }
+        for (final FlowFileQueue queue : queues) {
+            assertEquals(6, queue.getActiveQueueSize().getObjectCount());
+        }
+    }
+
+    private void enqueue(final FlowFileQueue queue, final int count) {
+        for (int i = 0; i < count; i++) {
+            queue.put(new StandardFlowFileRecord.Builder().id(nextFlowFileId.getAndIncrement()).addAttribute("uuid", UUID.randomUUID().toString()).entryDate(System.currentTimeMillis()).build());
+        }
+    }
+
+    /**
+     * Replaces the session with one whose component has the given number of
+     * incoming connections, and returns their queues
+     */
+    private List<FlowFileQueue> createSessionWithIncomingQueues(final int numConnections) {
+        final ProcessScheduler processScheduler = Mockito.mock(ProcessScheduler.class);
+        final Connectable connectable = Mockito.mock(Connectable.class);
+
+        final List<Connection> connList = new ArrayList<>();
+        final List<FlowFileQueue> queues = new ArrayList<>();
+        for (int i = 0; i < numConnections; i++) {
+            final Connection connection = Mockito.mock(Connection.class);
+            final FlowFileQueue queue = new StandardFlowFileQueue(String.valueOf(i), connection, processScheduler, 10000);
+            when(connection.getFlowFileQueue()).thenReturn(queue);
+            when(connection.getSource()).thenReturn(Mockito.mock(Connectable.class));
+            when(connection.getDestination()).thenReturn(connectable);
+            connList.add(connection);
+            queues.add(queue);
+        }
+
+        final ProcessGroup procGroup = Mockito.mock(ProcessGroup.class);
+        when(procGroup.getIdentifier()).thenReturn("proc-group-identifier-1");
+
+        when(connectable.hasIncomingConnection()).thenReturn(true);
+        when(connectable.getIncomingConnections()).thenReturn(connList);
+        when(connectable.getProcessGroup()).thenReturn(procGroup);
+        when(connectable.getIdentifier()).thenReturn("connectable-1");
+        when(connectable.getConnectableType()).thenReturn(ConnectableType.INPUT_PORT);
+        when(connectable.getConnections()).thenReturn(Collections.<Connection>emptySet());
+
+        final ProcessContext context = new ProcessContext(connectable, new AtomicLong(0L), contentRepo, flowFileRepo, Mockito.mock(FlowFileEventRepository.class),
+                Mockito.mock(CounterRepository.class), provenanceRepo);
+        session = new StandardProcessSession(context);
+        return queues;
+    }
+
     private static class MockFlowFileRepository implements FlowFileRepository {
 
         private final AtomicLong idGenerator = new AtomicLong(0L);
@@ -1001,6 +1100,11 @@ public class TestStandardProcessSession {
             return claim;
         }
 
+        @Override
+        public ContentClaim createAppendable(boolean lossTolerant) throws IOException {
+            return create(lossTolerant);
+        }
+
         @Override
         public int incrementClaimaintCount(ContentClaim claim) {
             final AtomicInteger count = claimantCounts.get(claim);
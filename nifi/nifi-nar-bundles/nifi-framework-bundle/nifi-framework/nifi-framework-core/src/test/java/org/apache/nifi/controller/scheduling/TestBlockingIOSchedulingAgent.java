@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.controller.FlowFileQueue;
+import org.apache.nifi.controller.repository.ProcessContext;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.Relationship;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestBlockingIOSchedulingAgent {
+
+    private ProcessContextFactory contextFactory;
+    private BlockingIOSchedulingAgent agent;
+
+    private final AtomicBoolean queueEmpty = new AtomicBoolean(true);
+    private final AtomicInteger triggers = new AtomicInteger(0);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void setup() {
+        contextFactory = Mockito.mock(ProcessContextFactory.class);
+        Mockito.when(contextFactory.newProcessContext(Mockito.any(Connectable.class), Mockito.any(AtomicLong.class))).thenReturn(Mockito.mock(ProcessContext.class));
+        agent = new BlockingIOSchedulingAgent(null, contextFactory, null, 1000);
+    }
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        agent.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void testManyBlockedTasksRunAtOnce() throws Exception {
+        release = new CountDownLatch(1);
+        final Connectable connectable = createConnectable(false, true, 500);
+        final ScheduleState scheduleState = createScheduleState();
+        agent.schedule(connectable, scheduleState);
+
+        while (scheduleState.getActiveThreadCount() < 500) {
+            Thread.sleep(10L);
+        }
+        assertEquals(500, agent.getThreadCount());
+
+        scheduleState.setScheduled(false);
+        agent.unschedule(connectable, scheduleState);
+        release.countDown();
+        while (scheduleState.getActiveThreadCount() > 0) {
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTasksBeyondMaxThreadsWait() throws Exception {
+        agent.setMaxThreadCount(5);
+        release = new CountDownLatch(1);
+        final Connectable connectable = createConnectable(false, true, 10);
+        final ScheduleState scheduleState = createScheduleState();
+        agent.schedule(connectable, scheduleState);
+
+        while (scheduleState.getActiveThreadCount() < 5) {
+            Thread.sleep(10L);
+        }
+        Thread.sleep(200L);
+        assertEquals(5, scheduleState.getActiveThreadCount());
+        assertEquals(5, agent.getThreadCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleTasksWaitUntilWorkQueued() throws Exception {
+        final Connectable connectable = createConnectable(true, false, 1);
+        agent.schedule(connectable, createScheduleState());
+
+        Thread.sleep(200L);
+        assertEquals(0, triggers.get());
+
+        queueEmpty.set(false);
+        agent.onEvent(connectable);
+        while (triggers.get() == 0) {
+            Thread.sleep(10L);
+        }
+
+        // the task empties the queue when triggered, so it should wait again
+        Thread.sleep(200L);
+        assertEquals(1, triggers.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testUnscheduledTasksNotWoken() throws Exception {
+        final Connectable connectable = createConnectable(true, false, 1);
+        final ScheduleState scheduleState = createScheduleState();
+        agent.schedule(connectable, scheduleState);
+
+        Thread.sleep(100L);
+        scheduleState.setScheduled(false);
+        agent.unschedule(connectable, scheduleState);
+
+        queueEmpty.set(false);
+        agent.onEvent(connectable);
+        Thread.sleep(200L);
+        assertEquals(0, triggers.get());
+        assertTrue(agent.getThreadCount() <= 1);
+    }
+
+    private ScheduleState createScheduleState() {
+        final ScheduleState scheduleState = new ScheduleState();
+        scheduleState.setScheduled(true);
+        return scheduleState;
+    }
+
+    private Connectable createConnectable(final boolean hasIncomingConnection, final boolean triggerWhenEmpty, final int concurrentTasks) {
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class);
+        Mockito.when(queue.isActiveQueueEmpty()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return queueEmpty.get();
+            }
+        });
+
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getFlowFileQueue()).thenReturn(queue);
+
+        final Connectable connectable = Mockito.mock(Connectable.class);
+        Mockito.when(connectable.getConnectableType()).thenReturn(ConnectableType.FUNNEL);
+        Mockito.when(connectable.getMaxConcurrentTasks()).thenReturn(concurrentTasks);
+        Mockito.when(connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS)).thenReturn(0L);
+        Mockito.when(connectable.getRelationships()).thenReturn(Collections.<Relationship>emptyList());
+        Mockito.when(connectable.hasIncomingConnection()).thenReturn(hasIncomingConnection);
+        Mockito.when(connectable.isTriggerWhenEmpty()).thenReturn(triggerWhenEmpty);
+        Mockito.when(connectable.getIncomingConnections()).thenReturn(hasIncomingConnection ? Collections.singletonList(connection) : Collections.<Connection>emptyList());
+
+        // each trigger blocks, as a transfer over the network would, until it is released
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                triggers.incrementAndGet();
+                queueEmpty.set(true);
+                release.await();
+                return null;
+            }
+        }).when(connectable).onTrigger(Mockito.any(org.apache.nifi.processor.ProcessContext.class), Mockito.any(ProcessSessionFactory.class));
+
+        return connectable;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.connectable.Connectable;
+import org.apache.nifi.connectable.ConnectableType;
+import org.apache.nifi.connectable.Connection;
+import org.apache.nifi.controller.FlowFileQueue;
+import org.apache.nifi.controller.repository.ProcessContext;
+import org.apache.nifi.engine.FairShareExecutor;
+import org.apache.nifi.engine.FairShareExecutor.PoolStatus;
+import org.apache.nifi.engine.FlowEngine;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.Relationship;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestTimerDrivenSchedulingAgent {
+
+    private FlowEngine flowEngine;
+    private ProcessContextFactory contextFactory;
+    private TimerDrivenSchedulingAgent agent;
+
+    private final AtomicBoolean queueEmpty = new AtomicBoolean(true);
+    private final AtomicInteger emptyChecks = new AtomicInteger(0);
+    private final AtomicInteger triggers = new AtomicInteger(0);
+
+    @Before
+    public void setup() {
+        flowEngine = new FlowEngine(2, "Test Timer-Driven Process", true);
+
+        contextFactory = Mockito.mock(ProcessContextFactory.class);
+        Mockito.when(contextFactory.newProcessContext(Mockito.any(Connectable.class), Mockito.any(AtomicLong.class))).thenReturn(Mockito.mock(ProcessContext.class));
+        agent = new TimerDrivenSchedulingAgent(null, flowEngine, contextFactory, null, true);
+    }
+
+    @After
+    public void cleanup() {
+        flowEngine.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleTasksParkedUntilWorkQueued() throws Exception {
+        final Connectable connectable = createConnectable(true, false);
+        agent.schedule(connectable, createScheduleState());
+
+        Thread.sleep(200L);
+        assertEquals(0, triggers.get());
+        // checked once before parking and once more after
+        assertEquals(2, emptyChecks.get());
+
+        queueEmpty.set(false);
+        agent.onEvent(connectable);
+        while (triggers.get() == 0) {
+            Thread.sleep(10L);
+        }
+
+        // the task empties the queue when triggered, so it should be parked again
+        Thread.sleep(200L);
+        assertEquals(1, triggers.get());
+
+        agent.onEvent(connectable);
+        queueEmpty.set(false);
+        agent.onEvent(connectable);
+        while (triggers.get() == 1) {
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSourceNotParked() throws Exception {
+        final Connectable connectable = createConnectable(false, true);
+        agent.schedule(connectable, createScheduleState());
+
+        while (triggers.get() < 10) {
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testUnscheduledTasksNotWoken() throws Exception {
+        final Connectable connectable = createConnectable(true, false);
+        final ScheduleState scheduleState = createScheduleState();
+        agent.schedule(connectable, scheduleState);
+
+        Thread.sleep(100L);
+        agent.unschedule(connectable, scheduleState);
+
+        queueEmpty.set(false);
+        agent.onEvent(connectable);
+        Thread.sleep(200L);
+        assertEquals(0, triggers.get());
+        assertTrue(emptyChecks.get() <= 2);
+    }
+
+    @Test(timeout = 10000)
+    public void testRunInAssignedPool() throws Exception {
+        final FairShareExecutor executor = new FairShareExecutor(1, "Test Fair-Share Process");
+        agent = new TimerDrivenSchedulingAgent(null, flowEngine, contextFactory, null, true, executor);
+        try {
+            final Connectable source = createConnectable(false, true);
+            agent.assignToPool(source, "ingest");
+            agent.schedule(source, createScheduleState());
+
+            while (triggers.get() < 10) {
+                Thread.sleep(10L);
+            }
+
+            final List<PoolStatus> statuses = executor.getPoolStatus();
+            assertEquals(1, statuses.size());
+            assertEquals("ingest", statuses.get(0).getName());
+            assertTrue(statuses.get(0).getCompletedTasks() > 0L);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private ScheduleState createScheduleState() {
+        final ScheduleState scheduleState = new ScheduleState();
+        scheduleState.setScheduled(true);
+        return scheduleState;
+    }
+
+    private Connectable createConnectable(final boolean hasIncomingConnection, final boolean triggerWhenEmpty) {
+        final FlowFileQueue queue = Mockito.mock(FlowFileQueue.class);
+        Mockito.when(queue.isActiveQueueEmpty()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                emptyChecks.incrementAndGet();
+                return queueEmpty.get();
+            }
+        });
+
+        final Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getFlowFileQueue()).thenReturn(queue);
+
+        final Connectable connectable = Mockito.mock(Connectable.class);
+        Mockito.when(connectable.getConnectableType()).thenReturn(ConnectableType.FUNNEL);
+        Mockito.when(connectable.getMaxConcurrentTasks()).thenReturn(1);
+        Mockito.when(connectable.getSchedulingPeriod(TimeUnit.NANOSECONDS)).thenReturn(0L);
+        Mockito.when(connectable.getRelationships()).thenReturn(Collections.<Relationship>emptyList());
+        Mockito.when(connectable.hasIncomingConnection()).thenReturn(hasIncomingConnection);
+        Mockito.when(connectable.isTriggerWhenEmpty()).thenReturn(triggerWhenEmpty);
+        Mockito.when(connectable.getIncomingConnections()).thenReturn(hasIncomingConnection ? Collections.singletonList(connection) : Collections.<Connection>emptyList());
+
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                triggers.incrementAndGet();
+                queueEmpty.set(true);
+                return null;
+            }
+        }).when(connectable).onTrigger(Mockito.any(org.apache.nifi.processor.ProcessContext.class), Mockito.any(ProcessSessionFactory.class));
+
+        return connectable;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.controller.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestAdaptiveRunDuration {
+
+    private static final long COMMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2L);
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(25L);
+
+    @Test
+    public void testGrowsUnderLoadWithinTarget() {
+        final AdaptiveRunDuration runDuration = new AdaptiveRunDuration(25L, TimeUnit.MILLISECONDS);
+        assertEquals(0L, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+
+        long previous = 0L;
+        for (int i = 0; i < 100; i++) {
+            final long runNanos = runDuration.getRunDuration(TimeUnit.NANOSECONDS);
+            assertTrue(runNanos >= previous);
+            previous = runNanos;
+
+            // a batch overruns its run duration by up to one invocation
+            runDuration.onBatchCompleted(runNanos + 1000L, COMMIT_NANOS, true, false);
+        }
+
+        // commits are 2 ms, so batches are lengthened until they take at least 20 ms
+        final long runNanos = runDuration.getRunDuration(TimeUnit.NANOSECONDS);
+        assertTrue(runNanos + 1000L >= COMMIT_NANOS * 10);
+        assertTrue(runNanos + 1000L + COMMIT_NANOS <= TARGET_NANOS);
+    }
+
+    @Test
+    public void testNotLengthenedWithoutWork() {
+        final AdaptiveRunDuration runDuration = new AdaptiveRunDuration(25L, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            runDuration.onBatchCompleted(1000L, COMMIT_NANOS, false, false);
+        }
+        assertEquals(0L, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testNotLengthenedWhenCommitsAreCheap() {
+        final AdaptiveRunDuration runDuration = new AdaptiveRunDuration(25L, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            runDuration.onBatchCompleted(TimeUnit.MILLISECONDS.toNanos(1L), TimeUnit.MICROSECONDS.toNanos(10L), true, false);
+        }
+        assertEquals(0L, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testShortenedByBackPressure() {
+        final AdaptiveRunDuration runDuration = grown();
+        final long grownNanos = runDuration.getRunDuration(TimeUnit.NANOSECONDS);
+
+        runDuration.onBatchCompleted(grownNanos, COMMIT_NANOS, true, true);
+        assertEquals(grownNanos / 2, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+
+        for (int i = 0; i < 20; i++) {
+            runDuration.onBatchCompleted(grownNanos, COMMIT_NANOS, true, true);
+        }
+        assertEquals(0L, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testShortenedWhenTargetExceeded() {
+        final AdaptiveRunDuration runDuration = grown();
+        final long grownNanos = runDuration.getRunDuration(TimeUnit.NANOSECONDS);
+
+        // a slow commit puts the latency target at risk
+        runDuration.onBatchCompleted(grownNanos, TARGET_NANOS, true, false);
+        assertEquals(grownNanos / 2, runDuration.getRunDuration(TimeUnit.NANOSECONDS));
+    }
+
+    private AdaptiveRunDuration grown() {
+        final AdaptiveRunDuration runDuration = new AdaptiveRunDuration(25L, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            runDuration.onBatchCompleted(runDuration.getRunDuration(TimeUnit.NANOSECONDS), COMMIT_NANOS, true, false);
+        }
+        assertTrue(runDuration.getRunDuration(TimeUnit.NANOSECONDS) > 0L);
+        return runDuration;
+    }
+}
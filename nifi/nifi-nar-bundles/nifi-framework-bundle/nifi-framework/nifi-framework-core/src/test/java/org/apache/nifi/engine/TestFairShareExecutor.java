@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.nifi.engine.FairShareExecutor.PoolStatus;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestFairShareExecutor {
+
+    private FairShareExecutor executor;
+
+    @After
+    public void cleanup() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleThreadsUsedByBusyPool() throws InterruptedException {
+        executor = new FairShareExecutor(2, "Test");
+        executor.execute("B", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        // pool A is entitled to one of the two threads, but B does not need the other
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.execute("A", new Runnable() {
+                @Override
+                public void run() {
+                    bothRunning.countDown();
+                    try {
+                        bothRunning.await();
+                    } catch (final InterruptedException e) {
+                    }
+                }
+            });
+        }
+
+        assertTrue(bothRunning.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testBusyPoolDoesNotStarveOthers() throws InterruptedException {
+        executor = new FairShareExecutor(2, "Test");
+
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(21);
+        for (int i = 0; i < 20; i++) {
+            executor.execute("A", new RecordingTask("A", started, finished));
+        }
+        executor.execute("B", new RecordingTask("B", started, finished));
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        // even if both threads were taken by A before B was queued, B gets the first that is freed
+        assertTrue(started.indexOf("B") <= 2);
+    }
+
+    @Test(timeout = 10000)
+    public void testRunTimeFollowsWeights() throws InterruptedException {
+        executor = new FairShareExecutor(1, "Test");
+        executor.setWeight("B", 3);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        executor.execute("A", new ResubmittingTask("A", running));
+        executor.execute("B", new ResubmittingTask("B", running));
+
+        Thread.sleep(1000L);
+        running.set(false);
+
+        final Map<String, PoolStatus> statuses = getStatuses();
+        final double ratio = (double) statuses.get("B").getRunNanos() / statuses.get("A").getRunNanos();
+        assertTrue("Ratio of run time was " + ratio, ratio > 2.0 && ratio < 4.5);
+    }
+
+    @Test(timeout = 10000)
+    public void testPoolStatus() throws InterruptedException {
+        executor = new FairShareExecutor(1, "Test");
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute("A", new RecordingTask("A", started, finished));
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        PoolStatus status = getStatuses().get("A");
+        while (status.getCompletedTasks() < 3) {
+            Thread.sleep(10L);
+            status = getStatuses().get("A");
+        }
+
+        assertEquals(0, status.getActiveThreads());
+        assertEquals(0, status.getQueuedTasks());
+        assertTrue(status.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(30L));
+        // the second and third tasks waited for the first, and the third for the second
+        assertTrue(status.getQueuedNanos() >= TimeUnit.MILLISECONDS.toNanos(30L));
+    }
+
+    @Test(timeout = 10000)
+    public void testUnusedPoolRemoved() throws InterruptedException {
+        executor = new FairShareExecutor(1, "Test");
+        executor.setWeight("Configured", 2);
+        executor.addComponent("Configured");
+        executor.addComponent("A");
+        executor.addComponent("A");
+
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        executor.execute("A", new RecordingTask("A", started, finished));
+
+        executor.removeComponent("A");
+        assertTrue(getStatuses().containsKey("A"));
+
+        // the last component is removed while its task may still be running; the pool goes once the task is done
+        executor.removeComponent("A");
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        while (getStatuses().containsKey("A")) {
+            Thread.sleep(10L);
+        }
+
+        // a pool that was given a weight is kept
+        executor.removeComponent("Configured");
+        assertEquals(2, getStatuses().get("Configured").getWeight());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectedAfterShutdown() {
+        executor = new FairShareExecutor(1, "Test");
+        executor.shutdown();
+        executor.execute("A", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    private Map<String, PoolStatus> getStatuses() {
+        final Map<String, PoolStatus> statuses = new HashMap<>();
+        for (final PoolStatus status : executor.getPoolStatus()) {
+            statuses.put(status.getName(), status);
+        }
+        return statuses;
+    }
+
+    private static class RecordingTask implements Runnable {
+
+        private final String name;
+        private final List<String> started;
+        private final CountDownLatch finished;
+
+        RecordingTask(final String name, final List<String> started, final CountDownLatch finished) {
+            this.name = name;
+            this.started = started;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run() {
+            started.add(name);
+            try {
+                Thread.sleep(10L);
+            } catch (final InterruptedException e) {
+            }
+            finished.countDown();
+        }
+    }
+
+    private class ResubmittingTask implements Runnable {
+
+        private final String poolName;
+        private final AtomicBoolean running;
+
+        ResubmittingTask(final String poolName, final AtomicBoolean running) {
+            this.poolName = poolName;
+            this.running = running;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(2L);
+            } catch (final InterruptedException e) {
+            }
+
+            if (running.get()) {
+                executor.execute(poolName, this);
+            }
+        }
+    }
+}
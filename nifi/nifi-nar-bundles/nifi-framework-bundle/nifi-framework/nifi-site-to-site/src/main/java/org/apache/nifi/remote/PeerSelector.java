@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.remote;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.connectable.ConnectableType;
+
+/**
+ * Chooses which peer of a remote instance the next site-to-site transaction
+ * should go to. Each peer is weighted by:
+ *
+ * <ul>
+ * <li>the number of FlowFiles queued on it, as last reported by the remote
+ * instance. Peers with less than the average get more of the data that is
+ * sent, and peers with more than the average are pulled from more often.</li>
+ * <li>how quickly recent transactions with the peer completed and how many
+ * bytes per second they moved. This reacts to a burst on a node long before
+ * the reported queue sizes are refreshed.</li>
+ * <li>the number of transactions that are currently in progress with the
+ * peer.</li>
+ * <li>an error penalty that grows each time the peer is penalized and halves
+ * every half-life.</li>
+ * </ul>
+ *
+ * A peer is chosen at random in proportion to its weight, so that the many
+ * nodes of a cluster that share the same view of the remote instance do not
+ * all pick the same peer. A penalized peer is not chosen at all until its
+ * penalization expires.
+ *
+ * This class is thread-safe.
+ */
+public class PeerSelector {
+
+    public static final long DEFAULT_ERROR_HALF_LIFE_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+
+    // the weight given to the samples of the most recent transaction when updating the averages
+    private static final double SAMPLE_WEIGHT = 0.2D;
+
+    // transactions smaller than this are dominated by round trips, so their transfer rate says little about the peer
+    private static final long MIN_RATE_SAMPLE_BYTES = 64 * 1024L;
+
+    // bounds how far a peer's transfer statistics can move its weight away from that of an average peer
+    private static final double MIN_SPEED_FACTOR = 0.1D;
+    private static final double MAX_SPEED_FACTOR = 10D;
+
+    private static final double ERROR_PENALTY_FACTOR = 4D;
+    private static final double MIN_WEIGHT = 0.001D;
+
+    private final ConnectableType connectableType;
+    private final long errorHalfLifeMillis;
+    private final Map<PeerStatus, PeerStats> peerStats = new HashMap<>();
+
+    public PeerSelector(final ConnectableType connectableType) {
+        this(connectableType, DEFAULT_ERROR_HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * @param connectableType {@link ConnectableType#REMOTE_INPUT_PORT} if
+     * FlowFiles are sent to the peers, {@link ConnectableType#REMOTE_OUTPUT_PORT}
+     * if they are pulled from them
+     * @param errorHalfLifeMillis the number of milliseconds after which half of
+     * a peer's error penalty is forgiven
+     */
+    public PeerSelector(final ConnectableType connectableType, final long errorHalfLifeMillis) {
+        this.connectableType = connectableType;
+        this.errorHalfLifeMillis = errorHalfLifeMillis;
+    }
+
+    /**
+     * Replaces the set of peers to choose from. Statistics are kept for peers
+     * that were already known, and their queue sizes are updated to those given.
+     *
+     * @param statuses the peers of the remote instance
+     */
+    public synchronized void setPeers(final Collection<PeerStatus> statuses) {
+        final Map<PeerStatus, PeerStats> updated = new HashMap<>(statuses.size());
+        for (final PeerStatus status : statuses) {
+            PeerStats stats = peerStats.get(status);
+            if (stats == null) {
+                stats = new PeerStats();
+            }
+            stats.status = status;
+            updated.put(status, stats);
+        }
+
+        peerStats.clear();
+        peerStats.putAll(updated);
+    }
+
+    /**
+     * @return the peers that can currently be chosen from
+     */
+    public synchronized List<PeerStatus> getPeers() {
+        final List<PeerStatus> peers = new ArrayList<>(peerStats.size());
+        for (final PeerStats stats : peerStats.values()) {
+            peers.add(stats.status);
+        }
+        return peers;
+    }
+
+    /**
+     * @return the peer that the next transaction should be performed with, or
+     * <code>null</code> if there are no peers or all of them are penalized
+     */
+    public synchronized PeerStatus select() {
+        final long now = System.currentTimeMillis();
+
+        long totalFlowFiles = 0L;
+        double totalLatency = 0D;
+        int latencySamples = 0;
+        double totalRate = 0D;
+        int rateSamples = 0;
+        for (final PeerStats stats : peerStats.values()) {
+            totalFlowFiles += stats.status.getFlowFileCount();
+            if (stats.averageLatencyMillis > 0D) {
+                totalLatency += stats.averageLatencyMillis;
+                latencySamples++;
+            }
+            if (stats.averageBytesPerSecond > 0D) {
+                totalRate += stats.averageBytesPerSecond;
+                rateSamples++;
+            }
+        }
+
+        final double meanFlowFiles = peerStats.isEmpty() ? 0D : (double) totalFlowFiles / peerStats.size();
+        final double meanLatency = latencySamples == 0 ? 0D : totalLatency / latencySamples;
+        final double meanRate = rateSamples == 0 ? 0D : totalRate / rateSamples;
+
+        final List<PeerStats> candidates = new ArrayList<>(peerStats.size());
+        final double[] weights = new double[peerStats.size()];
+        double totalWeight = 0D;
+        for (final PeerStats stats : peerStats.values()) {
+            if (stats.penalizationExpiration > now) {
+                continue;
+            }
+
+            final double weight = calculateWeight(stats, meanFlowFiles, meanLatency, meanRate, now);
+            weights[candidates.size()] = weight;
+            candidates.add(stats);
+            totalWeight += weight;
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        double target = ThreadLocalRandom.current().nextDouble() * totalWeight;
+        for (int i = 0; i < candidates.size(); i++) {
+            target -= weights[i];
+            if (target < 0D) {
+                return candidates.get(i).status;
+            }
+        }
+
+        return candidates.get(candidates.size() - 1).status;
+    }
+
+    private double calculateWeight(final PeerStats stats, final double meanFlowFiles, final double meanLatency, final double meanRate, final long now) {
+        // relative to the average peer: 0.5 for an average peer, approaching 1 for an idle one when sending and for a busy one when pulling
+        final double relativeLoad = meanFlowFiles <= 0D ? 1D : stats.status.getFlowFileCount() / meanFlowFiles;
+        final double loadFactor = (connectableType == ConnectableType.REMOTE_INPUT_PORT) ? 1D / (1D + relativeLoad) : relativeLoad / (1D + relativeLoad);
+
+        // peers that we know nothing about yet are treated as average so that they are given a chance
+        final double latencyRatio = (stats.averageLatencyMillis > 0D && meanLatency > 0D) ? meanLatency / stats.averageLatencyMillis : 1D;
+        final double rateRatio = (stats.averageBytesPerSecond > 0D && meanRate > 0D) ? stats.averageBytesPerSecond / meanRate : 1D;
+        final double speedFactor = Math.min(MAX_SPEED_FACTOR, Math.max(MIN_SPEED_FACTOR, Math.sqrt(latencyRatio * rateRatio)));
+
+        final double errorFactor = 1D + ERROR_PENALTY_FACTOR * stats.getErrorPenalty(now, errorHalfLifeMillis);
+
+        return Math.max(MIN_WEIGHT, loadFactor * speedFactor / ((1 + stats.activeTransactions) * errorFactor));
+    }
+
+    /**
+     * Indicates that a transaction with the given peer has begun. Each call
+     * must be followed by a call to either
+     * {@link #transactionCompleted(PeerStatus, long, long)} or
+     * {@link #transactionAborted(PeerStatus)}.
+     *
+     * @param status the peer
+     */
+    public synchronized void transactionStarted(final PeerStatus status) {
+        final PeerStats stats = peerStats.get(status);
+        if (stats != null) {
+            stats.activeTransactions++;
+        }
+    }
+
+    /**
+     * Indicates that a transaction with the given peer completed successfully
+     *
+     * @param status the peer
+     * @param bytesTransferred the number of bytes sent and received during the transaction
+     * @param nanos the duration of the transaction
+     */
+    public synchronized void transactionCompleted(final PeerStatus status, final long bytesTransferred, final long nanos) {
+        final PeerStats stats = peerStats.get(status);
+        if (stats == null) {
+            return;
+        }
+
+        stats.activeTransactions = Math.max(0, stats.activeTransactions - 1);
+
+        final double millis = Math.max(0.001D, nanos / 1000000D);
+        stats.averageLatencyMillis = average(stats.averageLatencyMillis, millis);
+        if (bytesTransferred >= MIN_RATE_SAMPLE_BYTES) {
+            stats.averageBytesPerSecond = average(stats.averageBytesPerSecond, bytesTransferred * 1000D / millis);
+        }
+    }
+
+    /**
+     * Indicates that a transaction with the given peer did not complete
+     *
+     * @param status the peer
+     */
+    public synchronized void transactionAborted(final PeerStatus status) {
+        final PeerStats stats = peerStats.get(status);
+        if (stats != null) {
+            stats.activeTransactions = Math.max(0, stats.activeTransactions - 1);
+        }
+    }
+
+    /**
+     * Prevents the given peer from being selected for the given amount of time
+     * and increases its error penalty, so that it is given less of the data
+     * for a while after the penalization expires.
+     *
+     * @param status the peer
+     * @param penalizationMillis the number of milliseconds during which the peer is not to be selected
+     */
+    public synchronized void penalize(final PeerStatus status, final long penalizationMillis) {
+        final PeerStats stats = peerStats.get(status);
+        if (stats == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        stats.penalizationExpiration = Math.max(stats.penalizationExpiration, now + penalizationMillis);
+        stats.errorPenalty = stats.getErrorPenalty(now, errorHalfLifeMillis) + 1D;
+        stats.errorPenaltyTimestamp = now;
+    }
+
+    /**
+     * Removes all penalizations and statistics
+     */
+    public synchronized void reset() {
+        for (final PeerStats stats : peerStats.values()) {
+            stats.reset();
+        }
+    }
+
+    private static double average(final double currentAverage, final double sample) {
+        if (currentAverage <= 0D) {
+            return sample;
+        }
+        return currentAverage + SAMPLE_WEIGHT * (sample - currentAverage);
+    }
+
+    private static class PeerStats {
+
+        private PeerStatus status;
+        private int activeTransactions;
+        private double averageLatencyMillis;
+        private double averageBytesPerSecond;
+        private double errorPenalty;
+        private long errorPenaltyTimestamp;
+        private long penalizationExpiration;
+
+        private double getErrorPenalty(final long now, final long halfLifeMillis) {
+            if (errorPenalty <= 0D) {
+                return 0D;
+            }
+            final long elapsed = Math.max(0L, now - errorPenaltyTimestamp);
+            return errorPenalty * Math.pow(0.5D, (double) elapsed / halfLifeMillis);
+        }
+
+        private void reset() {
+            averageLatencyMillis = 0D;
+            averageBytesPerSecond = 0D;
+            errorPenalty = 0D;
+            penalizationExpiration = 0L;
+        }
+    }
+}
@@ -30,7 +30,13 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.SSLContext;
@@ -38,6 +44,9 @@ import javax.net.ssl.SSLContext;
 import org.apache.nifi.cluster.NodeInformant;
 import org.apache.nifi.groups.ProcessGroup;
 import org.apache.nifi.remote.exception.HandshakeException;
+import org.apache.nifi.remote.io.multiplex.MultiplexedChannel;
+import org.apache.nifi.remote.io.multiplex.MultiplexedConnection;
+import org.apache.nifi.remote.io.multiplex.MultiplexedConnection.ChannelAcceptor;
 import org.apache.nifi.remote.io.socket.SocketChannelCommunicationsSession;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannel;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannelCommunicationsSession;
@@ -50,12 +59,21 @@ import org.slf4j.LoggerFactory;
 public class SocketRemoteSiteListener implements RemoteSiteListener {
     public static final String DEFAULT_FLOWFILE_PATH = "./";
 
+    /**
+     * The most threads that may be serving multiplexed channels at once,
+     * across all connections. A channel that is opened while all of them are
+     * busy is refused.
+     */
+    private static final int MAX_CHANNEL_THREADS = 16 * MultiplexedConnection.MAX_CHANNELS;
+
     private final int socketPort;
     private final SSLContext sslContext;
     private final NodeInformant nodeInformant;
     private final AtomicReference<ProcessGroup> rootGroup = new AtomicReference<>();
     
     private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final AtomicInteger channelThreadCount = new AtomicInteger(0);
+    private volatile ThreadPoolExecutor channelExecutor;
     
     private static final Logger LOG = LoggerFactory.getLogger(SocketRemoteSiteListener.class);
 
@@ -84,6 +102,16 @@ public class SocketRemoteSiteListener implements RemoteSiteListener {
         serverSocketChannel.configureBlocking(true);
         serverSocketChannel.bind(new InetSocketAddress(socketPort));
         stopped.set(false);
+
+        // threads are created only as channels are opened and go away once they have been idle for a while
+        channelExecutor = new ThreadPoolExecutor(0, MAX_CHANNEL_THREADS, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Site-to-Site Channel Worker Thread-" + channelThreadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         
         final Thread listenerThread = new Thread(new Runnable() {
             private int threadCount = 0;
@@ -103,7 +131,7 @@ public class SocketRemoteSiteListener implements RemoteSiteListener {
                     LOG.trace("Accepting Connection...");
                     Socket acceptedSocket = null;
                     try {
-                        serverSocketChannel.configureBlocking(false);
+                        // the channel stays in blocking mode, as its socket's accept() requires; the timeout keeps it checking for stop()
                         final ServerSocket serverSocket = serverSocketChannel.socket();
                         serverSocket.setSoTimeout(2000);
                         while ( !stopped.get() && acceptedSocket == null ) {
@@ -168,147 +196,205 @@ public class SocketRemoteSiteListener implements RemoteSiteListener {
                             
                             LOG.info("Received connection from {}, User DN: {}", socket.getInetAddress(), dn);
                             
-                            final InputStream socketIn;
-                            final OutputStream socketOut;
+                            communicate(commsSession, peerUri);
+                        }
+                    });
+                    thread.setName("Site-to-Site Worker Thread-" + (threadCount++));
+                    thread.start();
+                }
+            }
+        });
+        listenerThread.setName("Site-to-Site Listener");
+        listenerThread.start();
+    }
+    
+    /**
+     * Verifies that the peer is another NiFi, negotiates a protocol and then
+     * services the peer's requests until the peer shuts down the protocol or
+     * the connection fails, after which the connection is closed.
+     *
+     * @param commsSession the connection to communicate over; either a
+     * socket or a channel of a multiplexed socket
+     * @param peerUri the URI of the peer
+     */
+    private void communicate(final CommunicationsSession commsSession, final String peerUri) {
+        final InputStream socketIn;
+        final OutputStream socketOut;
                             
-                            try {
-                                socketIn = commsSession.getInput().getInputStream();
-                                socketOut = commsSession.getOutput().getOutputStream();
-                            } catch (final IOException e) {
-                            	LOG.error("Connection dropped from {} before any data was transmitted", peerUri);
-                            	try {
-                            		commsSession.close();
-                            	} catch (final IOException ioe) {}
+        try {
+            socketIn = commsSession.getInput().getInputStream();
+            socketOut = commsSession.getOutput().getOutputStream();
+        } catch (final IOException e) {
+        	LOG.error("Connection dropped from {} before any data was transmitted", peerUri);
+        	try {
+        		commsSession.close();
+        	} catch (final IOException ioe) {}
                             	
-                            	return;
-                            }
+        	return;
+        }
                             
-                            final DataInputStream dis = new DataInputStream(socketIn);
-                        	final DataOutputStream dos = new DataOutputStream(socketOut);
+        final DataInputStream dis = new DataInputStream(socketIn);
+    	final DataOutputStream dos = new DataOutputStream(socketOut);
                         	
-                        	ServerProtocol protocol = null;
-                        	Peer peer = null;
-                            try {
-                            	// ensure that we are communicating with another NiFi
-                                LOG.debug("Verifying magic bytes...");
-                            	verifyMagicBytes(dis, peerUri);
+    	ServerProtocol protocol = null;
+    	Peer peer = null;
+        try {
+        	// ensure that we are communicating with another NiFi
+            LOG.debug("Verifying magic bytes...");
+        	verifyMagicBytes(dis, peerUri);
 
-                            	LOG.debug("Receiving Server Protocol Negotiation");
-                            	protocol = RemoteResourceFactory.receiveServerProtocolNegotiation(dis, dos);
-                            	protocol.setRootProcessGroup(rootGroup.get());
-                          	    protocol.setNodeInformant(nodeInformant);
+        	LOG.debug("Receiving Server Protocol Negotiation");
+        	protocol = RemoteResourceFactory.receiveServerProtocolNegotiation(dis, dos);
+        	protocol.setRootProcessGroup(rootGroup.get());
+      	    protocol.setNodeInformant(nodeInformant);
                             	
-                            	peer = new Peer(commsSession, peerUri);
-                            	LOG.debug("Handshaking....");
-                            	protocol.handshake(peer);
+        	peer = new Peer(commsSession, peerUri);
+        	LOG.debug("Handshaking....");
+        	protocol.handshake(peer);
                             	
-                            	if (!protocol.isHandshakeSuccessful()) {
-                            	    LOG.error("Handshake failed with {}; closing connection", peer);
-                            	    try {
-                            	        peer.close();
-                            	    } catch (final IOException e) {
-                            	        LOG.warn("Failed to close {} due to {}", peer, e);
-                            	    }
+        	if (!protocol.isHandshakeSuccessful()) {
+        	    LOG.error("Handshake failed with {}; closing connection", peer);
+        	    try {
+        	        peer.close();
+        	    } catch (final IOException e) {
+        	        LOG.warn("Failed to close {} due to {}", peer, e);
+        	    }
                             	    
-                            	    // no need to shutdown protocol because we failed to perform handshake
-                            	    return;
-                            	}
+        	    // no need to shutdown protocol because we failed to perform handshake
+        	    return;
+        	}
                             	
-                            	commsSession.setTimeout((int) protocol.getRequestExpiration());
+        	commsSession.setTimeout((int) protocol.getRequestExpiration());
                             	
-                            	LOG.info("Successfully negotiated ServerProtocol {} Version {} with {}", new Object[] {
-                            	    protocol.getResourceName(), protocol.getVersionNegotiator().getVersion(), peer});
+        	LOG.info("Successfully negotiated ServerProtocol {} Version {} with {}", new Object[] {
+        	    protocol.getResourceName(), protocol.getVersionNegotiator().getVersion(), peer});
                             	
-                        	    try {
-                        	        while (!protocol.isShutdown()) {
-                        	            LOG.trace("Getting Protocol Request Type...");
+    	    try {
+    	        while (!protocol.isShutdown()) {
+    	            LOG.trace("Getting Protocol Request Type...");
                         	            
-                                        int timeoutCount = 0;
-                                        RequestType requestType = null;
+                    int timeoutCount = 0;
+                    RequestType requestType = null;
                                         
-                                        while ( requestType == null ) {
-                                            try {
-                                                requestType = protocol.getRequestType(peer);
-                                            } catch (final SocketTimeoutException e) {
-                                                // Give the timeout a bit longer (twice as long) to receive the Request Type,
-                                                // in order to attempt to receive more data without shutting down the socket if we don't
-                                                // have to.
-                                                LOG.debug("{} Timed out waiting to receive RequestType using {} with {}", new Object[] {this, protocol, peer});
-                                                timeoutCount++;
-                                                requestType = null;
+                    while ( requestType == null ) {
+                        try {
+                            requestType = protocol.getRequestType(peer);
+                        } catch (final SocketTimeoutException e) {
+                            // Give the timeout a bit longer (twice as long) to receive the Request Type,
+                            // in order to attempt to receive more data without shutting down the socket if we don't
+                            // have to.
+                            LOG.debug("{} Timed out waiting to receive RequestType using {} with {}", new Object[] {this, protocol, peer});
+                            timeoutCount++;
+                            requestType = null;
                                                 
-                                                if ( timeoutCount >= 2 ) {
-                                                    throw e;
-                                                }
-                                            }
-                                        }
+                            if ( timeoutCount >= 2 ) {
+                                throw e;
+                            }
+                        }
+                    }
                                         
-                                        LOG.debug("Request type from {} is {}", protocol, requestType);
-                                	    switch (requestType) {
-                                	        case NEGOTIATE_FLOWFILE_CODEC:
-                                	            protocol.negotiateCodec(peer);
-                                	            break;
-                                	        case RECEIVE_FLOWFILES:
-                                	            // peer wants to receive FlowFiles, so we will transfer FlowFiles.
-                                	            protocol.getPort().transferFlowFiles(peer, protocol, new HashMap<String, String>());
-                                	            break;
-                                	        case SEND_FLOWFILES:
-                                	            // Peer wants to send FlowFiles, so we will receive.
-                                                protocol.getPort().receiveFlowFiles(peer, protocol, new HashMap<String, String>());
-                                	            break;
-                                	        case REQUEST_PEER_LIST:
-                                	            protocol.sendPeerList(peer);
-                                	            break;
-                                	        case SHUTDOWN:
-                                	            protocol.shutdown(peer);
-                                	            break;
-                                	    }
-                        	        }
-                        	        LOG.debug("Finished communicating with {} ({})", peer, protocol);
-                        	    } catch (final Exception e) {
-                        	        LOG.error("Unable to communicate with remote instance {} ({}) due to {}; closing connection", peer, protocol, e.toString());
-                        	        if ( LOG.isDebugEnabled() ) {
-                        	            LOG.error("", e);
-                        	        }
-                        	    }
-                            } catch (final IOException e) {
-                                LOG.error("Unable to communicate with remote instance {} due to {}; closing connection", peer, e.toString());
-                                if ( LOG.isDebugEnabled() ) {
-                                    LOG.error("", e);
-                                }
-                            } catch (final Throwable t) {
-                                LOG.error("Handshake failed when communicating with {}; closing connection. Reason for failure: {}", peerUri, t.toString());
-                                if ( LOG.isDebugEnabled() ) {
-                                    LOG.error("", t);
-                                }
-                            } finally {
-                                LOG.trace("Cleaning up");
-                                try {
-                                    if ( protocol != null && peer != null ) {
-                                        protocol.shutdown(peer);
-                                    }
-                                } catch (final Exception protocolException) {
-                                    LOG.warn("Failed to shutdown protocol due to {}", protocolException.toString());
-                                }
+                    LOG.debug("Request type from {} is {}", protocol, requestType);
+            	    switch (requestType) {
+            	        case NEGOTIATE_FLOWFILE_CODEC:
+            	            protocol.negotiateCodec(peer);
+            	            break;
+            	        case RECEIVE_FLOWFILES:
+            	            // peer wants to receive FlowFiles, so we will transfer FlowFiles.
+            	            protocol.getPort().transferFlowFiles(peer, protocol, new HashMap<String, String>());
+            	            break;
+            	        case SEND_FLOWFILES:
+            	            // Peer wants to send FlowFiles, so we will receive.
+                            protocol.getPort().receiveFlowFiles(peer, protocol, new HashMap<String, String>());
+            	            break;
+            	        case REQUEST_PEER_LIST:
+            	            protocol.sendPeerList(peer);
+            	            break;
+            	        case SHUTDOWN:
+            	            protocol.shutdown(peer);
+            	            break;
+            	        case MULTIPLEX:
+            	            // the peer will now open channels over this connection, each of which we communicate
+            	            // with as if it were a connection of its own; this connection is done once they are.
+            	            serveChannels(commsSession, peerUri);
+            	            protocol.shutdown(peer);
+            	            break;
+            	    }
+    	        }
+    	        LOG.debug("Finished communicating with {} ({})", peer, protocol);
+    	    } catch (final Exception e) {
+    	        LOG.error("Unable to communicate with remote instance {} ({}) due to {}; closing connection", peer, protocol, e.toString());
+    	        if ( LOG.isDebugEnabled() ) {
+    	            LOG.error("", e);
+    	        }
+    	    }
+        } catch (final IOException e) {
+            LOG.error("Unable to communicate with remote instance {} due to {}; closing connection", peer, e.toString());
+            if ( LOG.isDebugEnabled() ) {
+                LOG.error("", e);
+            }
+        } catch (final Throwable t) {
+            LOG.error("Handshake failed when communicating with {}; closing connection. Reason for failure: {}", peerUri, t.toString());
+            if ( LOG.isDebugEnabled() ) {
+                LOG.error("", t);
+            }
+        } finally {
+            LOG.trace("Cleaning up");
+            try {
+                if ( protocol != null && peer != null ) {
+                    protocol.shutdown(peer);
+                }
+            } catch (final Exception protocolException) {
+                LOG.warn("Failed to shutdown protocol due to {}", protocolException.toString());
+            }
                                 
-                                try {
-                                    if ( peer != null ) {
-                                        peer.close();
-                                    }
-                                } catch (final Exception peerException) {
-                                    LOG.warn("Failed to close peer due to {}; some resources may not be appropriately cleaned up", peerException.toString());
-                                }
-                                LOG.trace("Finished cleaning up");
-                            }
+            try {
+                if ( peer != null ) {
+                    peer.close();
+                }
+            } catch (final Exception peerException) {
+                LOG.warn("Failed to close peer due to {}; some resources may not be appropriately cleaned up", peerException.toString());
+            }
+            LOG.trace("Finished cleaning up");
+        }
+    }
+
+    /**
+     * Services each channel that the peer opens over the given connection,
+     * each on a thread of its own, until the connection is closed. The
+     * connection limits the number of channels that the peer may have open;
+     * if no thread is available for a channel, the channel is closed.
+     */
+    private void serveChannels(final CommunicationsSession commsSession, final String peerUri) throws IOException, InterruptedException {
+        final ThreadPoolExecutor executor = channelExecutor;
+        final MultiplexedConnection connection = new MultiplexedConnection(commsSession, new ChannelAcceptor() {
+            @Override
+            public void channelOpened(final MultiplexedChannel channel) {
+                LOG.debug("Peer {} opened {}", peerUri, channel);
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            communicate(channel, peerUri);
                         }
                     });
-                    thread.setName("Site-to-Site Worker Thread-" + (threadCount++));
-                    thread.start();
+                } catch (final RejectedExecutionException ree) {
+                    LOG.warn("Refusing {} from {} because {} channels are already being served", channel, peerUri, MAX_CHANNEL_THREADS);
+                    try {
+                        channel.close();
+                    } catch (final IOException ioe) {
+                        LOG.debug("Failed to close {} due to {}", channel, ioe.toString());
+                    }
                 }
             }
         });
-        listenerThread.setName("Site-to-Site Listener");
-        listenerThread.start();
+
+        LOG.info("Multiplexing Site-to-Site channels over connection with {}", peerUri);
+        connection.start();
+        try {
+            connection.awaitClosed();
+        } finally {
+            connection.close();
+        }
     }
     
     @Override
@@ -319,6 +405,12 @@ public class SocketRemoteSiteListener implements RemoteSiteListener {
     @Override
     public void stop() {
         stopped.set(true);
+
+        // channels that are being served are allowed to finish
+        final ThreadPoolExecutor executor = channelExecutor;
+        if ( executor != null ) {
+            executor.shutdown();
+        }
     }
     
     private void verifyMagicBytes(final InputStream in, final String peerDescription) throws IOException, HandshakeException {
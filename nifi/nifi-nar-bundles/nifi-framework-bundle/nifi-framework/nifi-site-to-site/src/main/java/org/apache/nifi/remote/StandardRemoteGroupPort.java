@@ -20,12 +20,10 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -36,7 +34,6 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -44,8 +41,6 @@ import javax.net.ssl.SSLContext;
 import javax.security.cert.CertificateExpiredException;
 import javax.security.cert.CertificateNotYetValidException;
 
-import org.apache.nifi.cluster.ClusterNodeInformation;
-import org.apache.nifi.cluster.NodeInformation;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.connectable.ConnectableType;
 import org.apache.nifi.connectable.Connection;
@@ -57,12 +52,11 @@ import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.remote.codec.FlowFileCodec;
-import org.apache.nifi.remote.exception.BadRequestException;
 import org.apache.nifi.remote.exception.HandshakeException;
-import org.apache.nifi.remote.exception.PortNotRunningException;
 import org.apache.nifi.remote.exception.ProtocolException;
 import org.apache.nifi.remote.exception.TransmissionDisabledException;
-import org.apache.nifi.remote.exception.UnknownPortException;
+import org.apache.nifi.remote.io.multiplex.MultiplexedChannel;
+import org.apache.nifi.remote.io.multiplex.MultiplexedConnection;
 import org.apache.nifi.remote.io.socket.SocketChannelCommunicationsSession;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannel;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannelCommunicationsSession;
@@ -75,8 +69,6 @@ import org.apache.nifi.scheduling.SchedulingStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.jersey.api.client.ClientHandlerException;
-
 public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroupPort {
     public static final String USER_AGENT = "NiFi-Site-to-Site";
     public static final String CONTENT_TYPE = "application/octet-stream";
@@ -92,14 +84,16 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
     private final AtomicBoolean useCompression = new AtomicBoolean(false);
     private final AtomicBoolean targetExists = new AtomicBoolean(true);
     private final AtomicBoolean targetRunning = new AtomicBoolean(true);
-    private final AtomicLong peerIndex = new AtomicLong(0L);
     
-    private volatile List<PeerStatus> peerStatuses;
+    private final PeerSelector peerSelector;
     private volatile long peerRefreshTime = 0L;
     private final ReentrantLock peerRefreshLock = new ReentrantLock();
     
     private final ConcurrentMap<String, BlockingQueue<EndpointConnectionState>> endpointConnectionMap = new ConcurrentHashMap<>();
-    private final ConcurrentMap<PeerStatus, Long> peerTimeoutExpirations = new ConcurrentHashMap<>();
+    
+    // connections over which the channels to each peer are multiplexed, and the URLs of peers that cannot multiplex
+    private final ConcurrentMap<String, MultiplexedConnection> multiplexedConnections = new ConcurrentHashMap<>();
+    private final Set<String> multiplexingUnsupported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     
     private final Set<CommunicationsSession> activeCommsChannels = new HashSet<>();
     private final Lock interruptLock = new ReentrantLock();
@@ -114,6 +108,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
         
         this.remoteGroup = remoteGroup;
         this.sslContext = sslContext;
+        this.peerSelector = new PeerSelector(type);
         setScheduldingPeriod(MINIMUM_SCHEDULING_NANOS + " nanos");
     }
     
@@ -135,7 +130,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
     public void shutdown() {
         super.shutdown();
         
-        peerTimeoutExpirations.clear();
+        peerSelector.reset();
         interruptLock.lock();
         try {
             this.shutdown = true;
@@ -152,6 +147,12 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
             }
             
             endpointConnectionMap.clear();
+            
+            for ( final MultiplexedConnection connection : multiplexedConnections.values() ) {
+                closeQuietly(connection);
+            }
+            multiplexedConnections.clear();
+            multiplexingUnsupported.clear();
         } finally {
             interruptLock.unlock();
         }
@@ -196,6 +197,15 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
             
             queue.addAll(states);
         }
+        
+        // close the connections that no longer carry any channels
+        for ( final Map.Entry<String, MultiplexedConnection> entry : multiplexedConnections.entrySet() ) {
+            final MultiplexedConnection connection = entry.getValue();
+            if ( connection.isClosed() || (connection.getOpenChannelCount() == 0 && connection.getLastTimeUsed() < System.currentTimeMillis() - 10000L) ) {
+                multiplexedConnections.remove(entry.getKey(), connection);
+                closeQuietly(connection);
+            }
+        }
     }
     
     
@@ -249,7 +259,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
                 protocol.setPort(this);
     
                 try {
-                    commsSession = establishSiteToSiteConnection(peerStatus);
+                    commsSession = openCommunicationsSession(peerStatus, url);
                     final DataInputStream dis = new DataInputStream(commsSession.getInput().getInputStream());
                     final DataOutputStream dos = new DataOutputStream(commsSession.getOutput().getOutputStream());
                     try {
@@ -285,11 +295,11 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
                     // handle error cases
                     if ( protocol.isDestinationFull() ) {
                         logger.warn("{} {} indicates that port's destination is full; penalizing peer", this, peer);
-                        penalize(peer);
+                        penalize(peerStatus);
                         cleanup(protocol, peer);
                         return;
                     } else if ( protocol.isPortInvalid() ) {
-                        penalize(peer);
+                        penalize(peerStatus);
                         context.yield();
                         cleanup(protocol, peer);
                         this.targetRunning.set(false);
@@ -298,7 +308,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
                         remoteGroup.getEventReporter().reportEvent(Severity.ERROR, CATEGORY, message);
                         return;
                     } else if ( protocol.isPortUnknown() ) {
-                        penalize(peer);
+                        penalize(peerStatus);
                         context.yield();
                         cleanup(protocol, peer);
                         this.targetExists.set(false);
@@ -311,7 +321,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
                     // negotiate the FlowFileCodec to use
                     codec = protocol.negotiateCodec(peer);
                 } catch (final Exception e) {
-                    penalize(peer);
+                    penalize(peerStatus);
                     cleanup(protocol, peer);
                     
                     final String message = String.format("%s failed to communicate with %s due to %s", this, peer == null ? url : peer, e.toString());
@@ -343,6 +353,9 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
         } while ( connectionState == null || codec == null || commsSession == null || protocol == null );
         
             
+        final long bytesBefore = commsSession.getBytesRead() + commsSession.getBytesWritten();
+        final long startNanos = System.nanoTime();
+        peerSelector.transactionStarted(peerStatus);
         try {
             interruptLock.lock();
             try {
@@ -363,7 +376,7 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
 
             if ( peer.isPenalized() ) {
                 logger.debug("{} {} was penalized", this, peer);
-                penalize(peer);
+                penalize(peerStatus);
             }
             
             interruptLock.lock();
@@ -379,13 +392,18 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
 
             session.commit();
             
+            final long bytesTransferred = commsSession.getBytesRead() + commsSession.getBytesWritten() - bytesBefore;
+            peerSelector.transactionCompleted(peerStatus, bytesTransferred, System.nanoTime() - startNanos);
+            
             connectionState.setLastTimeUsed();
             connectionStateQueue.add(connectionState);
         } catch (final TransmissionDisabledException e) {
+            peerSelector.transactionAborted(peerStatus);
             cleanup(protocol, peer);
             session.rollback();
         } catch (final Exception e) {
-            penalize(peer);
+            peerSelector.transactionAborted(peerStatus);
+            penalize(peerStatus);
 
             final String message = String.format("%s failed to communicate with %s (%s) due to %s", this, peer == null ? url : peer, protocol, e.toString());
             logger.error(message);
@@ -402,30 +420,11 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
 
     
     /**
-     * Updates internal state map to penalize a PeerStatus that points to the specified peer
-     * @param peer
+     * Prevents the given peer from being chosen for the yield period and reduces its share of the data for a while afterward
+     * @param peerStatus
      */
-    private void penalize(final Peer peer) {
-        String host;
-        int port;
-        try {
-            final URI uri = new URI(peer.getUrl());
-            host = uri.getHost();
-            port = uri.getPort();
-        } catch (final URISyntaxException e) {
-            host = peer.getHost();
-            port = -1;
-        }
-        
-        final PeerStatus status = new PeerStatus(host, port, true, 1);
-        Long expiration = peerTimeoutExpirations.get(status);
-        if ( expiration == null ) {
-            expiration = Long.valueOf(0L);
-        }
-        
-        final long penalizationMillis = getYieldPeriod(TimeUnit.MILLISECONDS);
-        final long newExpiration = Math.max(expiration, System.currentTimeMillis() + penalizationMillis);
-        peerTimeoutExpirations.put(status, Long.valueOf(newExpiration));
+    private void penalize(final PeerStatus peerStatus) {
+        peerSelector.penalize(peerStatus, getYieldPeriod(TimeUnit.MILLISECONDS));
     }
     
     
@@ -457,6 +456,92 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
         return remoteGroup.getYieldDuration();
     }
     
+    /**
+     * Opens a session with the given peer. If the peer supports it, the session
+     * is a channel of a connection that is shared by all sessions with that
+     * peer, so that many transactions can be in progress with the peer
+     * without each needing a socket of its own. Otherwise, or if the shared
+     * connection already carries as many channels as it can, the session has
+     * a socket of its own.
+     */
+    private CommunicationsSession openCommunicationsSession(final PeerStatus peerStatus, final String url) throws IOException {
+        if ( !multiplexingUnsupported.contains(url) ) {
+            final MultiplexedConnection connection = getMultiplexedConnection(peerStatus, url);
+            if ( connection != null ) {
+                try {
+                    final MultiplexedChannel channel = connection.openChannel();
+                    if ( channel != null ) {
+                        channel.getOutput().getOutputStream().write(CommunicationsSession.MAGIC_BYTES);
+                        return channel;
+                    }
+                } catch (final IOException e) {
+                    multiplexedConnections.remove(url, connection);
+                    throw e;
+                }
+                
+                logger.debug("{} {} already carries as many channels as it can; will use a separate connection for this transaction", this, connection);
+            }
+        }
+        
+        return establishSiteToSiteConnection(peerStatus);
+    }
+    
+    /**
+     * Returns the connection over which channels to the given peer are
+     * multiplexed, establishing it if necessary, or <code>null</code> if the
+     * peer does not support multiplexing
+     */
+    private MultiplexedConnection getMultiplexedConnection(final PeerStatus peerStatus, final String url) throws IOException {
+        final MultiplexedConnection existing = multiplexedConnections.get(url);
+        if ( existing != null && !existing.isClosed() ) {
+            return existing;
+        }
+        
+        final CommunicationsSession commsSession = establishSiteToSiteConnection(peerStatus);
+        final Peer peer = new Peer(commsSession, url);
+        final SocketClientProtocol protocol = new SocketClientProtocol();
+        protocol.setPort(this);
+        
+        try {
+            final DataInputStream dis = new DataInputStream(commsSession.getInput().getInputStream());
+            final DataOutputStream dos = new DataOutputStream(commsSession.getOutput().getOutputStream());
+            RemoteResourceFactory.initiateResourceNegotiation(protocol, dis, dos);
+            protocol.handshake(peer);
+            
+            if ( !protocol.isMultiplexingSupported() ) {
+                logger.info("{} {} does not support multiplexing; will use a separate connection for each concurrent transaction", this, peer);
+                multiplexingUnsupported.add(url);
+                cleanup(protocol, peer);
+                return null;
+            }
+            
+            protocol.startMultiplexing(peer);
+        } catch (final IOException | HandshakeException | RuntimeException e) {
+            cleanup(protocol, peer);
+            throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+        }
+        
+        final MultiplexedConnection connection = new MultiplexedConnection(commsSession);
+        connection.start();
+        
+        // if another thread established a connection at the same time, use that one instead
+        if ( existing == null ? multiplexedConnections.putIfAbsent(url, connection) != null : !multiplexedConnections.replace(url, existing, connection) ) {
+            closeQuietly(connection);
+            return getMultiplexedConnection(peerStatus, url);
+        }
+        
+        logger.debug("{} Established {}", this, connection);
+        return connection;
+    }
+    
+    private void closeQuietly(final MultiplexedConnection connection) {
+        try {
+            connection.close();
+        } catch (final IOException e) {
+            logger.debug("{} Failed to close {} due to {}", this, connection, e.toString());
+        }
+    }
+    
     public CommunicationsSession establishSiteToSiteConnection(final PeerStatus peerStatus) throws IOException {
         final String destinationUri = "nifi://" + peerStatus.getHostname() + ":" + peerStatus.getPort();
 
@@ -497,67 +582,25 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
     }
     
     private PeerStatus getNextPeerStatus() {
-        List<PeerStatus> peerList = peerStatuses;
-        if ( (peerList == null || peerList.isEmpty() || System.currentTimeMillis() > peerRefreshTime + PEER_REFRESH_PERIOD) && peerRefreshLock.tryLock() ) {
+        if ( System.currentTimeMillis() > peerRefreshTime + PEER_REFRESH_PERIOD && peerRefreshLock.tryLock() ) {
             try {
-                try {
-                    peerList = createPeerStatusList();
-                } catch (final IOException | BadRequestException | HandshakeException | UnknownPortException | PortNotRunningException | ClientHandlerException e) {
-                    final String message = String.format("%s Failed to update list of peers due to %s", this, e.toString());
-                    logger.warn(message);
-                    if ( logger.isDebugEnabled() ) {
-                        logger.warn("", e);
-                    }
-                    remoteGroup.getEventReporter().reportEvent(Severity.WARNING, CATEGORY, message);
+                // the Remote Process Group only hands out its cached (or persisted) view of the peers, so this never blocks on the remote instance
+                final Set<PeerStatus> statuses = remoteGroup.getPeerStatuses();
+                if ( statuses != null && !statuses.isEmpty() ) {
+                    peerSelector.setPeers(statuses);
+                    peerRefreshTime = System.currentTimeMillis();
+                    logger.debug("{} Updated list of peers to {}", this, statuses);
                 }
-                
-                this.peerStatuses = peerList;
-                peerRefreshTime = System.currentTimeMillis();
             } finally {
                 peerRefreshLock.unlock();
             }
         }
 
-        if ( peerList == null || peerList.isEmpty() ) {
-            return null;
-        }
-
-        PeerStatus peerStatus;
-        for (int i=0; i < peerList.size(); i++) {
-            final long idx = peerIndex.getAndIncrement();
-            final int listIndex = (int) (idx % peerList.size());
-            peerStatus = peerList.get(listIndex);
-            
-            if ( isPenalized(peerStatus) ) {
-                logger.debug("{} {} is penalized; will not communicate with this peer", this, peerStatus);
-            } else {
-                return peerStatus;
-            }
-        }
-        
-        logger.debug("{} All peers appear to be penalized; returning null", this);
-        return null;
-    }
-    
-    private boolean isPenalized(final PeerStatus peerStatus) {
-        final Long expirationEnd = peerTimeoutExpirations.get(peerStatus);
-        return (expirationEnd == null ? false : expirationEnd > System.currentTimeMillis() );
-    }
-    
-    private List<PeerStatus> createPeerStatusList() throws IOException, BadRequestException, HandshakeException, UnknownPortException, PortNotRunningException {
-        final Set<PeerStatus> statuses = remoteGroup.getPeerStatuses();
-        if ( statuses == null ) {
-            return new ArrayList<>();
-        }
-        
-        final ClusterNodeInformation clusterNodeInfo = new ClusterNodeInformation();
-        final List<NodeInformation> nodeInfos = new ArrayList<>();
-        for ( final PeerStatus peerStatus : statuses ) {
-            final NodeInformation nodeInfo = new NodeInformation(peerStatus.getHostname(), peerStatus.getPort(), 0, peerStatus.isSecure(), peerStatus.getFlowFileCount());
-            nodeInfos.add(nodeInfo);
+        final PeerStatus peerStatus = peerSelector.select();
+        if ( peerStatus == null ) {
+            logger.debug("{} No peers are known or all peers appear to be penalized; returning null", this);
         }
-        clusterNodeInfo.setNodeInformation(nodeInfos);
-        return formulateDestinationList(clusterNodeInfo);
+        return peerStatus;
     }
     
     private void transferFlowFiles(final Peer peer, final ClientProtocol protocol, final ProcessContext context, final ProcessSession session, final FlowFileCodec codec) throws IOException, ProtocolException {
@@ -568,70 +611,6 @@ public class StandardRemoteGroupPort extends AbstractPort implements RemoteGroup
         protocol.receiveFlowFiles(peer, context, session, codec);
     }
 
-    private List<PeerStatus> formulateDestinationList(final ClusterNodeInformation clusterNodeInfo) throws IOException {
-        return formulateDestinationList(clusterNodeInfo, getConnectableType());
-    }
-    
-    static List<PeerStatus> formulateDestinationList(final ClusterNodeInformation clusterNodeInfo, final ConnectableType connectableType) {
-        final Collection<NodeInformation> nodeInfoSet = clusterNodeInfo.getNodeInformation();
-        final int numDestinations = Math.max(128, nodeInfoSet.size());
-        final Map<NodeInformation, Integer> entryCountMap = new HashMap<>();
-
-        long totalFlowFileCount = 0L;
-        for (final NodeInformation nodeInfo : nodeInfoSet) {
-            totalFlowFileCount += nodeInfo.getTotalFlowFiles();
-        }
-
-        int totalEntries = 0;
-        for (final NodeInformation nodeInfo : nodeInfoSet) {
-            final int flowFileCount = nodeInfo.getTotalFlowFiles();
-            // don't allow any node to get more than 80% of the data
-            final double percentageOfFlowFiles = Math.min(0.8D, ((double) flowFileCount / (double) totalFlowFileCount));
-            final double relativeWeighting = (connectableType == ConnectableType.REMOTE_INPUT_PORT) ? (1 - percentageOfFlowFiles) : percentageOfFlowFiles;
-            final int entries = Math.max(1, (int) (numDestinations * relativeWeighting));
-            
-            entryCountMap.put(nodeInfo, Math.max(1, entries));
-            totalEntries += entries;
-        }
-        
-        final List<PeerStatus> destinations = new ArrayList<>(totalEntries);
-        for (int i=0; i < totalEntries; i++) {
-            destinations.add(null);
-        }
-        for ( final Map.Entry<NodeInformation, Integer> entry : entryCountMap.entrySet() ) {
-            final NodeInformation nodeInfo = entry.getKey();
-            final int numEntries = entry.getValue();
-            
-            int skipIndex = numEntries;
-            for (int i=0; i < numEntries; i++) {
-                int n = (skipIndex * i);
-                while (true) {
-                    final int index = n % destinations.size();
-                    PeerStatus status = destinations.get(index);
-                    if ( status == null ) {
-                        status = new PeerStatus(nodeInfo.getHostname(), nodeInfo.getSiteToSitePort(), nodeInfo.isSiteToSiteSecure(), nodeInfo.getTotalFlowFiles());
-                        destinations.set(index, status);
-                        break;
-                    } else {
-                        n++;
-                    }
-                }
-            }
-        }
-
-        final StringBuilder distributionDescription = new StringBuilder();
-        distributionDescription.append("New Weighted Distribution of Nodes:");
-        for ( final Map.Entry<NodeInformation, Integer> entry : entryCountMap.entrySet() ) {
-            final double percentage = entry.getValue() * 100D / (double) destinations.size();
-            distributionDescription.append("\n").append(entry.getKey()).append(" will receive ").append(percentage).append("% of FlowFiles");
-        }
-        logger.info(distributionDescription.toString());
-
-        // Jumble the list of destinations.
-        return destinations;
-    }
-    
-    
     @Override
     public boolean getTargetExists() {
         return targetExists.get();
@@ -0,0 +1,463 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.remote.io.multiplex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.remote.AbstractCommunicationsSession;
+import org.apache.nifi.remote.exception.TransmissionDisabledException;
+import org.apache.nifi.remote.io.InterruptableInputStream;
+import org.apache.nifi.remote.io.InterruptableOutputStream;
+import org.apache.nifi.remote.protocol.CommunicationsInput;
+import org.apache.nifi.remote.protocol.CommunicationsOutput;
+import org.apache.nifi.stream.io.BufferedInputStream;
+import org.apache.nifi.stream.io.BufferedOutputStream;
+import org.apache.nifi.stream.io.ByteCountingInputStream;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
+
+/**
+ * A logical connection that is carried over a {@link MultiplexedConnection}.
+ * A channel can be used anywhere that a socket-based CommunicationsSession
+ * can: closing it closes only this channel, not the connection that carries
+ * it.
+ */
+public class MultiplexedChannel extends AbstractCommunicationsSession {
+
+    // credit is returned to the sender in batches rather than after every read
+    private static final int CREDIT_THRESHOLD = MultiplexedConnection.CHANNEL_WINDOW_BYTES / 4;
+
+    private final MultiplexedConnection connection;
+    private final int channelId;
+    private final ChannelInput input;
+    private final ChannelOutput output;
+    private volatile int timeoutMillis = 30000;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+
+    // all guarded by lock
+    private final Deque<byte[]> receivedFrames = new ArrayDeque<>();
+    private int frameOffset = 0;
+    private int bytesAvailable = 0;
+    private int bytesUncredited = 0;
+    private int sendCredit = MultiplexedConnection.CHANNEL_WINDOW_BYTES;
+    private boolean localClosed = false;
+    private boolean remoteClosed = false;
+    private boolean connectionLost = false;
+    private boolean interrupted = false;
+
+    MultiplexedChannel(final MultiplexedConnection connection, final int channelId, final String uri) {
+        super(uri);
+        this.connection = connection;
+        this.channelId = channelId;
+        this.input = new ChannelInput(new ChannelInputStream());
+        this.output = new ChannelOutput(new ChannelOutputStream());
+    }
+
+    public int getChannelId() {
+        return channelId;
+    }
+
+    @Override
+    public CommunicationsInput getInput() {
+        return input;
+    }
+
+    @Override
+    public CommunicationsOutput getOutput() {
+        return output;
+    }
+
+    @Override
+    public void setTimeout(final int millis) {
+        this.timeoutMillis = millis;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public boolean isDataAvailable() {
+        return input.isDataAvailable();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return output.getBytesWritten();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return input.getBytesRead();
+    }
+
+    @Override
+    public void interrupt() {
+        input.interrupt();
+        output.interrupt();
+
+        lock.lock();
+        try {
+            interrupted = true;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return localClosed || remoteClosed || connectionLost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this channel, notifying the other side. The connection that
+     * carries the channel remains open.
+     *
+     * @throws IOException if unable to notify the other side
+     */
+    @Override
+    public void close() throws IOException {
+        final boolean notifyPeer;
+        final boolean closedOnBothSides;
+        lock.lock();
+        try {
+            if (localClosed) {
+                return;
+            }
+
+            localClosed = true;
+            notifyPeer = !connectionLost;
+            closedOnBothSides = remoteClosed;
+            receivedFrames.clear();
+            bytesAvailable = 0;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (closedOnBothSides) {
+            connection.channelClosed(this);
+        }
+        if (notifyPeer) {
+            connection.writeFrame(MultiplexedConnection.FRAME_CLOSE, channelId, 0, null, 0, 0);
+        }
+    }
+
+    void dataReceived(final byte[] data) throws IOException {
+        lock.lock();
+        try {
+            if (localClosed) {
+                return;
+            }
+
+            if (bytesAvailable + bytesUncredited + data.length > MultiplexedConnection.CHANNEL_WINDOW_BYTES) {
+                throw new IOException("Peer sent more data on " + this + " than it was granted credit for");
+            }
+
+            receivedFrames.addLast(data);
+            bytesAvailable += data.length;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void creditReceived(final int credit) {
+        lock.lock();
+        try {
+            sendCredit += credit;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remoteClosed() {
+        final boolean closedOnBothSides;
+        lock.lock();
+        try {
+            remoteClosed = true;
+            closedOnBothSides = localClosed;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (closedOnBothSides) {
+            connection.channelClosed(this);
+        }
+    }
+
+    void connectionClosed() {
+        lock.lock();
+        try {
+            connectionLost = true;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits, with the lock held, for the state of the channel to change
+     */
+    private void awaitStateChange(final long deadlineNanos) throws IOException {
+        final long nanosLeft = deadlineNanos - System.nanoTime();
+        if (nanosLeft <= 0L) {
+            throw new SocketTimeoutException("Timed out communicating over " + this);
+        }
+
+        try {
+            stateChanged.awaitNanos(nanosLeft);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while communicating over " + this);
+        }
+    }
+
+    private void verifyUsable() throws IOException {
+        if (interrupted) {
+            throw new TransmissionDisabledException();
+        }
+        if (localClosed) {
+            throw new IOException(this + " is closed");
+        }
+        if (connectionLost) {
+            throw new IOException("Connection carrying " + this + " was closed");
+        }
+    }
+
+    private void verifyWritable() throws IOException {
+        verifyUsable();
+        if (remoteClosed) {
+            throw new IOException(this + " was closed by peer");
+        }
+    }
+
+    private int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int bytesRead = 0;
+        int creditToGrant = 0;
+        lock.lock();
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (bytesAvailable == 0) {
+                verifyUsable();
+                if (remoteClosed) {
+                    return -1;
+                }
+                awaitStateChange(deadline);
+            }
+
+            while (bytesRead < len && !receivedFrames.isEmpty()) {
+                final byte[] frame = receivedFrames.peekFirst();
+                final int bytesToCopy = Math.min(len - bytesRead, frame.length - frameOffset);
+                System.arraycopy(frame, frameOffset, b, off + bytesRead, bytesToCopy);
+                bytesRead += bytesToCopy;
+                frameOffset += bytesToCopy;
+
+                if (frameOffset >= frame.length) {
+                    receivedFrames.removeFirst();
+                    frameOffset = 0;
+                }
+            }
+
+            bytesAvailable -= bytesRead;
+            bytesUncredited += bytesRead;
+            if (bytesUncredited >= CREDIT_THRESHOLD) {
+                creditToGrant = bytesUncredited;
+                bytesUncredited = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // do not hold the lock while writing to the connection, as the connection may be busy with other channels
+        if (creditToGrant > 0) {
+            connection.writeFrame(MultiplexedConnection.FRAME_CREDIT, channelId, creditToGrant, null, 0, 0);
+        }
+
+        return bytesRead;
+    }
+
+    private int available() {
+        lock.lock();
+        try {
+            return bytesAvailable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(final byte[] b, final int off, final int len) throws IOException {
+        int bytesWritten = 0;
+        while (bytesWritten < len) {
+            final int bytesToWrite;
+            lock.lock();
+            try {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                verifyWritable();
+                while (sendCredit == 0) {
+                    awaitStateChange(deadline);
+                    verifyWritable();
+                }
+
+                bytesToWrite = Math.min(len - bytesWritten, Math.min(sendCredit, MultiplexedConnection.MAX_FRAME_BYTES));
+                sendCredit -= bytesToWrite;
+            } finally {
+                lock.unlock();
+            }
+
+            connection.writeFrame(MultiplexedConnection.FRAME_DATA, channelId, bytesToWrite, b, off + bytesWritten, bytesToWrite);
+            bytesWritten += bytesToWrite;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MultiplexedChannel[id=" + channelId + ", uri=" + getUri() + "]";
+    }
+
+    private class ChannelInputStream extends InputStream {
+
+        private final byte[] oneByteBuffer = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            final int bytesRead = read(oneByteBuffer, 0, 1);
+            return (bytesRead < 0) ? -1 : oneByteBuffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return MultiplexedChannel.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return MultiplexedChannel.this.available();
+        }
+
+        /**
+         * Does nothing; the channel is closed by closing the
+         * MultiplexedChannel
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            MultiplexedChannel.this.write(b, off, len);
+        }
+
+        /**
+         * Does nothing; the channel is closed by closing the
+         * MultiplexedChannel
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ChannelInput implements CommunicationsInput {
+
+        private final ByteCountingInputStream countingIn;
+        private final InterruptableInputStream interruptableIn;
+
+        public ChannelInput(final InputStream channelIn) {
+            countingIn = new ByteCountingInputStream(channelIn);
+            interruptableIn = new InterruptableInputStream(new BufferedInputStream(countingIn));
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return interruptableIn;
+        }
+
+        @Override
+        public long getBytesRead() {
+            return countingIn.getBytesRead();
+        }
+
+        public boolean isDataAvailable() {
+            try {
+                return interruptableIn.available() > 0;
+            } catch (final Exception e) {
+                return false;
+            }
+        }
+
+        public void interrupt() {
+            interruptableIn.interrupt();
+        }
+    }
+
+    private static class ChannelOutput implements CommunicationsOutput {
+
+        private final ByteCountingOutputStream countingOut;
+        private final InterruptableOutputStream interruptableOut;
+
+        public ChannelOutput(final OutputStream channelOut) {
+            countingOut = new ByteCountingOutputStream(channelOut);
+            interruptableOut = new InterruptableOutputStream(new BufferedOutputStream(countingOut, MultiplexedConnection.MAX_FRAME_BYTES));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return interruptableOut;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return countingOut.getBytesWritten();
+        }
+
+        public void interrupt() {
+            interruptableOut.interrupt();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.remote.io.multiplex;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.remote.protocol.CommunicationsSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries many {@link MultiplexedChannel}s over a single
+ * {@link CommunicationsSession}, so that many Site-to-Site transactions can be
+ * in progress with a peer at the same time without each of them needing a
+ * socket of its own. Each channel behaves as a connection in its own right:
+ * whatever is written to a channel is read from the channel with the same
+ * identifier on the other side.
+ *
+ * <p>
+ * Data is sent in frames that identify the channel that they belong to. A
+ * single thread reads the frames from the session and hands each one to its
+ * channel, so a channel that is waiting for its peer never holds up another
+ * channel. A channel may send only as many bytes as the other side has granted
+ * it credit for, and credit is granted again as those bytes are consumed. This
+ * bounds the memory that each channel can hold and means that the reading
+ * thread never has to wait for a slow channel.
+ * </p>
+ *
+ * <p>
+ * Only one side of the connection opens channels; the other side is given an
+ * {@link ChannelAcceptor} that is notified of each channel that is opened. A
+ * channel counts towards {@link #MAX_CHANNELS} until it has been closed on
+ * both sides, so that the two sides always agree on whether another channel
+ * may be opened.
+ * </p>
+ */
+public class MultiplexedConnection implements Closeable {
+
+    static final int FRAME_OPEN = 1;
+    static final int FRAME_DATA = 2;
+    static final int FRAME_CREDIT = 3;
+    static final int FRAME_CLOSE = 4;
+
+    /**
+     * The number of bytes that may be sent on a channel before the other side
+     * consumes any of them
+     */
+    public static final int CHANNEL_WINDOW_BYTES = 256 * 1024;
+
+    /**
+     * The largest number of bytes that are sent in a single frame, so that a
+     * channel sending a lot of data cannot keep other channels waiting for long
+     */
+    public static final int MAX_FRAME_BYTES = 32 * 1024;
+
+    /**
+     * The most channels that may be open on a connection at once. A channel
+     * may hold up to {@link #CHANNEL_WINDOW_BYTES} that have not yet been
+     * consumed, so this bounds that memory at 16 MB per connection, as well as
+     * the number of threads that the accepting side needs to serve them.
+     * Channels that the other side opens beyond this are refused.
+     */
+    public static final int MAX_CHANNELS = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+    private final CommunicationsSession session;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ChannelAcceptor acceptor;
+    private final ConcurrentMap<Integer, MultiplexedChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger nextChannelId = new AtomicInteger(1);
+    private final Object writeLock = new Object();
+    private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+    private volatile boolean closed = false;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    /**
+     * Creates a connection on which channels are opened by calling
+     * {@link #openChannel()}
+     *
+     * @param session the session to send the frames over
+     * @throws IOException if unable to obtain the session's streams
+     */
+    public MultiplexedConnection(final CommunicationsSession session) throws IOException {
+        this(session, null);
+    }
+
+    /**
+     * Creates a connection on which channels are opened by the other side
+     *
+     * @param session the session to send the frames over
+     * @param acceptor notified of each channel that the other side opens
+     * @throws IOException if unable to obtain the session's streams
+     */
+    public MultiplexedConnection(final CommunicationsSession session, final ChannelAcceptor acceptor) throws IOException {
+        this.session = session;
+        this.acceptor = acceptor;
+        this.in = new DataInputStream(session.getInput().getInputStream());
+        this.out = new DataOutputStream(session.getOutput().getOutputStream());
+    }
+
+    /**
+     * Starts the thread that reads frames from the session. No data is
+     * delivered to any channel until this method is called.
+     */
+    public void start() {
+        final Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        });
+        readerThread.setName("Site-to-Site Multiplexer for " + session.getUri());
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Opens a new channel. Data may be written to the channel immediately; the
+     * other side learns of the channel before it receives any of that data.
+     *
+     * @return the new channel, or <code>null</code> if {@link #MAX_CHANNELS}
+     * channels are already open on this connection
+     * @throws IOException if the connection is closed or fails
+     */
+    public MultiplexedChannel openChannel() throws IOException {
+        if (acceptor != null) {
+            throw new IllegalStateException("Channels are opened by the other side of " + this);
+        }
+
+        final int channelId;
+        final MultiplexedChannel channel;
+        synchronized (this) {
+            if (channels.size() >= MAX_CHANNELS) {
+                return null;
+            }
+
+            channelId = nextChannelId.getAndIncrement();
+            channel = createChannel(channelId);
+            channels.put(channelId, channel);
+        }
+
+        try {
+            writeFrame(FRAME_OPEN, channelId, 0, null, 0, 0);
+        } catch (final IOException e) {
+            channels.remove(channelId);
+            throw e;
+        }
+
+        return channel;
+    }
+
+    private MultiplexedChannel createChannel(final int channelId) throws IOException {
+        final MultiplexedChannel channel = new MultiplexedChannel(this, channelId, session.getUri());
+        channel.setUserDn(session.getUserDn());
+        channel.setTimeout(session.getTimeout());
+        return channel;
+    }
+
+    private void readFrames() {
+        try {
+            while (!closed) {
+                final int frameType;
+                try {
+                    frameType = in.read();
+                } catch (final SocketTimeoutException ste) {
+                    // none of the channels has anything to send; keep waiting
+                    continue;
+                }
+
+                if (frameType < 0) {
+                    throw new EOFException("Peer closed the connection");
+                }
+
+                final int channelId = in.readInt();
+                final int value = in.readInt();
+                final MultiplexedChannel channel = channels.get(channelId);
+
+                switch (frameType) {
+                    case FRAME_OPEN:
+                        acceptChannel(channelId, channel);
+                        break;
+                    case FRAME_DATA:
+                        if (value < 0 || value > MAX_FRAME_BYTES) {
+                            throw new IOException("Received frame of " + value + " bytes for channel " + channelId + " but frames may not exceed " + MAX_FRAME_BYTES + " bytes");
+                        }
+
+                        final byte[] data = new byte[value];
+                        in.readFully(data);
+
+                        // if the channel is not known, it has already been closed on this side, so the data is of no use
+                        if (channel != null) {
+                            channel.dataReceived(data);
+                        }
+                        break;
+                    case FRAME_CREDIT:
+                        if (channel != null) {
+                            channel.creditReceived(value);
+                        }
+                        break;
+                    case FRAME_CLOSE:
+                        if (channel != null) {
+                            channel.remoteClosed();
+                        }
+                        break;
+                    default:
+                        throw new IOException("Received unknown frame type " + frameType + " from " + session.getUri());
+                }
+
+                lastUsed = System.currentTimeMillis();
+            }
+        } catch (final Exception e) {
+            if (!closed) {
+                logger.warn("{} failed to read from {} due to {}; closing connection", this, session.getUri(), e.toString());
+                if (logger.isDebugEnabled()) {
+                    logger.warn("", e);
+                }
+            }
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void acceptChannel(final int channelId, final MultiplexedChannel existing) throws IOException {
+        if (acceptor == null) {
+            throw new IOException("Peer attempted to open channel " + channelId + " but channels are opened only by this side of " + this);
+        }
+        if (existing != null) {
+            throw new IOException("Peer attempted to open channel " + channelId + " but that channel is already open");
+        }
+
+        final MultiplexedChannel channel;
+        synchronized (this) {
+            if (channels.size() >= MAX_CHANNELS) {
+                channel = null;
+            } else {
+                channel = createChannel(channelId);
+                channels.put(channelId, channel);
+            }
+        }
+
+        if (channel == null) {
+            // the peer learns of this as it would of any channel that is closed; anything it sends on the channel is discarded
+            logger.warn("{} refused channel {} because the peer already has {} channels open", this, channelId, MAX_CHANNELS);
+            writeFrame(FRAME_CLOSE, channelId, 0, null, 0, 0);
+            return;
+        }
+
+        acceptor.channelOpened(channel);
+    }
+
+    /**
+     * Writes a single frame to the session. Frames from different channels
+     * are never interleaved.
+     */
+    void writeFrame(final int frameType, final int channelId, final int value, final byte[] data, final int offset, final int length) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException(this + " is closed");
+            }
+
+            try {
+                out.write(frameType);
+                out.writeInt(channelId);
+                out.writeInt(value);
+                if (length > 0) {
+                    out.write(data, offset, length);
+                }
+                out.flush();
+            } catch (final IOException | RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Called once a channel has been closed on both sides
+     */
+    void channelClosed(final MultiplexedChannel channel) {
+        channels.remove(channel.getChannelId(), channel);
+    }
+
+    /**
+     * @return the number of channels that have not yet been closed on both
+     * sides
+     */
+    public int getOpenChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which a frame was
+     * last sent or received
+     */
+    public long getLastTimeUsed() {
+        return lastUsed;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Blocks until the connection has been closed, either by calling
+     * {@link #close()} or because the connection failed
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitClosed() throws InterruptedException {
+        closedLatch.await();
+    }
+
+    /**
+     * Closes the underlying session. Any channel that is still open fails
+     * the next time that it is read from or written to.
+     *
+     * @throws IOException if unable to close the session
+     */
+    @Override
+    public void close() throws IOException {
+        final List<MultiplexedChannel> openChannels;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openChannels = new ArrayList<>(channels.values());
+            channels.clear();
+        }
+
+        try {
+            for (final MultiplexedChannel channel : openChannels) {
+                channel.connectionClosed();
+            }
+
+            session.close();
+        } finally {
+            closedLatch.countDown();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (final IOException e) {
+            logger.debug("{} failed to close {} due to {}", this, session, e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MultiplexedConnection[" + session.getUri() + "]";
+    }
+
+    /**
+     * Notified of each channel that is opened by the other side of a
+     * connection
+     */
+    public static interface ChannelAcceptor {
+
+        /**
+         * Called by the thread that reads from the connection, so
+         * implementations must hand the channel off to another thread rather
+         * than communicate over it directly
+         *
+         * @param channel the channel that was opened
+         */
+        void channelOpened(MultiplexedChannel channel);
+    }
+}
@@ -30,6 +30,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
@@ -51,6 +53,7 @@ import org.apache.nifi.remote.io.CompressionOutputStream;
 import org.apache.nifi.remote.protocol.ClientProtocol;
 import org.apache.nifi.remote.protocol.CommunicationsSession;
 import org.apache.nifi.remote.protocol.RequestType;
+import org.apache.nifi.stream.io.NonFlushableOutputStream;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.StopWatch;
 
@@ -58,12 +61,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SocketClientProtocol implements ClientProtocol {
-    private final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(4, 3, 2, 1);
+    private final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(6, 5, 4, 3, 2, 1);
 
     
     private RemoteGroupPort port;
     private boolean useCompression;
     
+    // created on first use and reused for every transaction on this connection; ended on shutdown
+    private Deflater deflater;
+    private Inflater inflater;
+    
     private String commsIdentifier;
     private boolean handshakeComplete = false;
     
@@ -146,6 +153,40 @@ public class SocketClientProtocol implements ClientProtocol {
         handshakeComplete = true;
     }
     
+    /**
+     * @return <code>true</code> if the negotiated version of the protocol
+     * allows channels to be multiplexed over the connection
+     */
+    public boolean isMultiplexingSupported() {
+        return versionNegotiator.getVersion() >= SocketFlowFileServerProtocol.MULTIPLEXING_VERSION;
+    }
+    
+    /**
+     * Asks the peer to treat the connection as one over which many channels
+     * will be multiplexed. Once this method returns, the connection must be
+     * used only through a MultiplexedConnection, and this protocol can no
+     * longer be used to communicate over it.
+     *
+     * @param peer the peer to communicate with
+     * @throws IOException if unable to communicate with the peer
+     */
+    public void startMultiplexing(final Peer peer) throws IOException {
+        if ( !handshakeComplete ) {
+            throw new IllegalStateException("Handshake has not been performed");
+        }
+        if ( !isMultiplexingSupported() ) {
+            throw new IllegalStateException("Multiplexing is not supported by version " + versionNegotiator.getVersion() + " of the protocol");
+        }
+        
+        logger.debug("{} Requesting that {} multiplex channels over {}", this, peer, peer.getCommunicationsSession());
+        final DataOutputStream dos = new DataOutputStream(peer.getCommunicationsSession().getOutput().getOutputStream());
+        RequestType.MULTIPLEX.writeRequestType(dos);
+        dos.flush();
+        
+        // nothing more will be sent through this protocol, so the compressors will never be used
+        releaseCompressors();
+    }
+    
     public boolean isReadyForFileTransfer() {
         return readyForFileTransfer;
     }
@@ -263,11 +304,21 @@ public class SocketClientProtocol implements ClientProtocol {
         long bytesReceived = 0L;
         final CRC32 crc = new CRC32();
         
+        // As of version 5, the entire transaction is compressed as a single stream, including the transaction codes.
+        // Before that, each FlowFile is compressed separately and the transaction codes are not compressed.
+        final boolean compressTransaction = useCompression && versionNegotiator.getVersion() >= 5;
+        final DataInputStream transactionIn = compressTransaction ? new DataInputStream(new CompressionInputStream(dis, getInflater())) : dis;
+        
         // Peer has data. Decode the bytes into FlowFiles until peer says he's finished sending data.
         boolean continueTransaction = true;
         String calculatedCRC = "";
         while (continueTransaction) {
-            final InputStream flowFileInputStream = useCompression ? new CompressionInputStream(dis) : dis;
+            final InputStream flowFileInputStream;
+            if ( compressTransaction ) {
+                flowFileInputStream = transactionIn;
+            } else {
+                flowFileInputStream = useCompression ? new CompressionInputStream(dis, getInflater()) : dis;
+            }
             final CheckedInputStream checkedIn = new CheckedInputStream(flowFileInputStream, crc);
             
             final long startNanos = System.nanoTime();
@@ -286,7 +337,7 @@ public class SocketClientProtocol implements ClientProtocol {
             flowFilesReceived.add(flowFile);
             logger.debug("{} Received {} from {}", this, flowFile, peer);
             
-            final Response transactionCode = Response.read(dis);
+            final Response transactionCode = Response.read(transactionIn);
             switch (transactionCode.getCode()) {
                 case CONTINUE_TRANSACTION:
                     logger.trace("{} Received ContinueTransaction indicator from {}", this, peer);
@@ -382,8 +433,18 @@ public class SocketClientProtocol implements ClientProtocol {
         boolean continueTransaction = true;
         String calculatedCRC = "";
         final long startSendingNanos = System.nanoTime();
+        
+        // As of version 5, the entire transaction is compressed as a single stream, including the transaction codes.
+        // The codec flushes after each FlowFile, which would otherwise end a compressed chunk, so we don't let it flush.
+        final boolean compressTransaction = useCompression && versionNegotiator.getVersion() >= 5;
+        final CompressionOutputStream transactionOut = compressTransaction ? new CompressionOutputStream(dos, getDeflater()) : null;
         while (continueTransaction) {
-            final OutputStream flowFileOutputStream = useCompression ? new CompressionOutputStream(dos) : dos;
+            final OutputStream flowFileOutputStream;
+            if ( compressTransaction ) {
+                flowFileOutputStream = new NonFlushableOutputStream(transactionOut);
+            } else {
+                flowFileOutputStream = useCompression ? new CompressionOutputStream(dos, getDeflater()) : dos;
+            }
             logger.debug("{} Sending {} to {}", this, flowFile, peer);
             
             final CheckedOutputStream checkedOutStream = new CheckedOutputStream(flowFileOutputStream, crc);
@@ -396,7 +457,7 @@ public class SocketClientProtocol implements ClientProtocol {
             // need to close the CompressionOutputStream in order to force it write out any remaining bytes.
             // Otherwise, do NOT close it because we don't want to close the underlying stream
             // (CompressionOutputStream will not close the underlying stream when it's closed)
-            if ( useCompression ) {
+            if ( useCompression && !compressTransaction ) {
                 checkedOutStream.close();
             }
             
@@ -418,10 +479,21 @@ public class SocketClientProtocol implements ClientProtocol {
             continueTransaction = (flowFile != null);
             if ( continueTransaction ) {
                 logger.debug("{} Sent CONTINUE_TRANSACTION indicator to {}", this, peer);
-                ResponseCode.CONTINUE_TRANSACTION.writeResponse(dos);
+                if ( compressTransaction ) {
+                    // writeResponse would flush, ending the compressed chunk
+                    transactionOut.write(ResponseCode.CONTINUE_TRANSACTION.getCodeSequence());
+                } else {
+                    ResponseCode.CONTINUE_TRANSACTION.writeResponse(dos);
+                }
             } else {
                 logger.debug("{} Sent FINISH_TRANSACTION indicator to {}", this, peer);
-                ResponseCode.FINISH_TRANSACTION.writeResponse(dos);
+                if ( compressTransaction ) {
+                    transactionOut.write(ResponseCode.FINISH_TRANSACTION.getCodeSequence());
+                    // writes out the final chunk and the end-of-stream marker but does not close the underlying stream
+                    transactionOut.close();
+                } else {
+                    ResponseCode.FINISH_TRANSACTION.writeResponse(dos);
+                }
                 
                 calculatedCRC = String.valueOf( checkedOutStream.getChecksum().getValue() );
             }
@@ -493,9 +565,38 @@ public class SocketClientProtocol implements ClientProtocol {
         final DataOutputStream dos = new DataOutputStream(commsSession.getOutput().getOutputStream());
         
         logger.debug("{} Shutting down with {}", this, peer);
-        // Indicate that we would like to have some data
-        RequestType.SHUTDOWN.writeRequestType(dos);
-        dos.flush();
+        try {
+            // Indicate that we would like to have some data
+            RequestType.SHUTDOWN.writeRequestType(dos);
+            dos.flush();
+        } finally {
+            releaseCompressors();
+        }
+    }
+    
+    private Deflater getDeflater() {
+        if ( deflater == null ) {
+            deflater = new Deflater(CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL);
+        }
+        return deflater;
+    }
+    
+    private Inflater getInflater() {
+        if ( inflater == null ) {
+            inflater = new Inflater();
+        }
+        return inflater;
+    }
+    
+    private void releaseCompressors() {
+        if ( deflater != null ) {
+            deflater.end();
+            deflater = null;
+        }
+        if ( inflater != null ) {
+            inflater.end();
+            inflater = null;
+        }
     }
 
     @Override
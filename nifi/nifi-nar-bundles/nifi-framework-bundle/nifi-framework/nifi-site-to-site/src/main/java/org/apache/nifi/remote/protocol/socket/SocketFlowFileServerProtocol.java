@@ -31,6 +31,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.apache.nifi.cluster.NodeInformant;
 import org.apache.nifi.connectable.Connection;
@@ -55,6 +57,7 @@ import org.apache.nifi.remote.io.CompressionOutputStream;
 import org.apache.nifi.remote.protocol.CommunicationsSession;
 import org.apache.nifi.remote.protocol.RequestType;
 import org.apache.nifi.remote.protocol.ServerProtocol;
+import org.apache.nifi.stream.io.NonFlushableOutputStream;
 import org.apache.nifi.util.FormatUtils;
 import org.apache.nifi.util.NiFiProperties;
 import org.apache.nifi.util.StopWatch;
@@ -65,6 +68,9 @@ import org.slf4j.LoggerFactory;
 public class SocketFlowFileServerProtocol implements ServerProtocol {
     public static final String RESOURCE_NAME = "SocketFlowFileProtocol";
     
+    // the first version in which the peer may ask for channels to be multiplexed over the connection
+    public static final int MULTIPLEXING_VERSION = 6;
+    
     private ProcessGroup rootGroup;
     private String commsIdentifier;
     private boolean handshakeCompleted;
@@ -76,7 +82,11 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
     private FlowFileCodec negotiatedFlowFileCodec = null;
     private String transitUriPrefix = null;
     
-    private final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(4, 3, 2, 1);
+    // created on first use and reused for every transaction on this connection; ended on shutdown
+    private Deflater deflater;
+    private Inflater inflater;
+    
+    private final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(6, 5, 4, 3, 2, 1);
     private final Logger logger = LoggerFactory.getLogger(SocketFlowFileServerProtocol.class);
     
     private static final long BATCH_NANOS = TimeUnit.SECONDS.toNanos(5L); // send batches of up to 5 seconds
@@ -299,8 +309,18 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
         boolean continueTransaction = true;
         final long startNanos = System.nanoTime();
         String calculatedCRC = "";
+        
+        // As of version 5, the entire transaction is compressed as a single stream, including the transaction codes.
+        // The codec flushes after each FlowFile, which would otherwise end a compressed chunk, so we don't let it flush.
+        final boolean compressTransaction = useGzip && versionNegotiator.getVersion() >= 5;
+        final CompressionOutputStream transactionOut = compressTransaction ? new CompressionOutputStream(dos, getDeflater()) : null;
         while (continueTransaction) {
-            final OutputStream flowFileOutputStream = useGzip ? new CompressionOutputStream(dos) : dos;
+            final OutputStream flowFileOutputStream;
+            if ( compressTransaction ) {
+                flowFileOutputStream = new NonFlushableOutputStream(transactionOut);
+            } else {
+                flowFileOutputStream = useGzip ? new CompressionOutputStream(dos, getDeflater()) : dos;
+            }
             logger.debug("{} Sending {} to {}", new Object[] {this, flowFile, peer});
             
             final CheckedOutputStream checkedOutputStream = new CheckedOutputStream(flowFileOutputStream, crc);
@@ -312,7 +332,7 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
             // need to close the CompressionOutputStream in order to force it write out any remaining bytes.
             // Otherwise, do NOT close it because we don't want to close the underlying stream
             // (CompressionOutputStream will not close the underlying stream when it's closed)
-            if ( useGzip ) {
+            if ( useGzip && !compressTransaction ) {
                 checkedOutputStream.close();
             }
 
@@ -333,10 +353,21 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
             continueTransaction = (flowFile != null);
             if ( continueTransaction ) {
                 logger.debug("{} Sending ContinueTransaction indicator to {}", this, peer);
-                ResponseCode.CONTINUE_TRANSACTION.writeResponse(dos);
+                if ( compressTransaction ) {
+                    // writeResponse would flush, ending the compressed chunk
+                    transactionOut.write(ResponseCode.CONTINUE_TRANSACTION.getCodeSequence());
+                } else {
+                    ResponseCode.CONTINUE_TRANSACTION.writeResponse(dos);
+                }
             } else {
                 logger.debug("{} Sending FinishTransaction indicator to {}", this, peer);
-                ResponseCode.FINISH_TRANSACTION.writeResponse(dos);
+                if ( compressTransaction ) {
+                    transactionOut.write(ResponseCode.FINISH_TRANSACTION.getCodeSequence());
+                    // writes out the final chunk and the end-of-stream marker but does not close the underlying stream
+                    transactionOut.close();
+                } else {
+                    ResponseCode.FINISH_TRANSACTION.writeResponse(dos);
+                }
                 calculatedCRC = String.valueOf(checkedOutputStream.getChecksum().getValue());
             }
         }
@@ -424,9 +455,19 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
         long bytesReceived = 0L;
         boolean continueTransaction = true;
         String calculatedCRC = "";
+        
+        // As of version 5, the entire transaction is compressed as a single stream, including the transaction codes.
+        // Before that, each FlowFile is compressed separately and the transaction codes are not compressed.
+        final boolean compressTransaction = useGzip && versionNegotiator.getVersion() >= 5;
+        final DataInputStream transactionIn = compressTransaction ? new DataInputStream(new CompressionInputStream(dis, getInflater())) : dis;
         while (continueTransaction) {
             final long startNanos = System.nanoTime();
-            final InputStream flowFileInputStream = useGzip ? new CompressionInputStream(dis) : dis;
+            final InputStream flowFileInputStream;
+            if ( compressTransaction ) {
+                flowFileInputStream = transactionIn;
+            } else {
+                flowFileInputStream = useGzip ? new CompressionInputStream(dis, getInflater()) : dis;
+            }
             final CheckedInputStream checkedInputStream = new CheckedInputStream(flowFileInputStream, crc);
 
             FlowFile flowFile = codec.decode(checkedInputStream, session);
@@ -441,7 +482,7 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
             flowFilesReceived.add(flowFile);
             bytesReceived += flowFile.getSize();
             
-            final Response transactionResponse = Response.read(dis);
+            final Response transactionResponse = Response.read(transactionIn);
             switch (transactionResponse.getCode()) {
                 case CONTINUE_TRANSACTION:
                     logger.debug("{} Received ContinueTransaction indicator from {}", this, peer);
@@ -516,6 +557,10 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
         logger.debug("{} Reading Request Type from {} using {}", new Object[] {this, peer, peer.getCommunicationsSession()});
         final RequestType requestType = RequestType.readRequestType(new DataInputStream(peer.getCommunicationsSession().getInput().getInputStream()));
         logger.debug("{} Got Request Type {} from {}", new Object[] {this, requestType, peer});
+        
+        if ( requestType == RequestType.MULTIPLEX && versionNegotiator.getVersion() < MULTIPLEXING_VERSION ) {
+            throw new IOException("Peer " + peer + " requested multiplexing, which is not supported in version " + versionNegotiator.getVersion() + " of the protocol");
+        }
 
         return requestType;
     }
@@ -529,6 +574,29 @@ public class SocketFlowFileServerProtocol implements ServerProtocol {
     public void shutdown(final Peer peer) {
         logger.debug("{} Shutting down with {}", this, peer);
         shutdown = true;
+        
+        if ( deflater != null ) {
+            deflater.end();
+            deflater = null;
+        }
+        if ( inflater != null ) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+    
+    private Deflater getDeflater() {
+        if ( deflater == null ) {
+            deflater = new Deflater(CompressionOutputStream.DEFAULT_COMPRESSION_LEVEL);
+        }
+        return deflater;
+    }
+    
+    private Inflater getInflater() {
+        if ( inflater == null ) {
+            inflater = new Inflater();
+        }
+        return inflater;
     }
 
     @Override
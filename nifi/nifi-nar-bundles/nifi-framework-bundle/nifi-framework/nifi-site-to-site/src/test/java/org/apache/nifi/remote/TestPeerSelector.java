@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.connectable.ConnectableType;
+import org.junit.Test;
+
+public class TestPeerSelector {
+
+    private static final int SELECTIONS = 20000;
+
+    @Test
+    public void testInputPortsFavorPeersWithLessData() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(new PeerStatus("ShouldGetMedium", 1111, true, 4096));
+        peers.add(new PeerStatus("ShouldGetLittle", 2222, true, 10240));
+        peers.add(new PeerStatus("ShouldGetLots", 3333, true, 1024));
+        peers.add(new PeerStatus("ShouldGetMedium", 4444, true, 4096));
+        selector.setPeers(peers);
+
+        final Map<PeerStatus, Integer> counts = select(selector, SELECTIONS);
+        assertTrue(counts.get(peers.get(2)) > counts.get(peers.get(0)));
+        assertTrue(counts.get(peers.get(0)) > counts.get(peers.get(1)));
+        assertTrue(counts.get(peers.get(3)) > counts.get(peers.get(1)));
+    }
+
+    @Test
+    public void testOutputPortsFavorPeersWithMoreData() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_OUTPUT_PORT);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(new PeerStatus("ShouldGetLittle", 1111, true, 500));
+        peers.add(new PeerStatus("ShouldGetLots", 2222, true, 50000));
+        selector.setPeers(peers);
+
+        final Map<PeerStatus, Integer> counts = select(selector, SELECTIONS);
+        assertTrue(counts.get(peers.get(1)) > 10 * counts.get(peers.get(0)));
+    }
+
+    @Test
+    public void testSlowPeerIsGivenLessData() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT);
+        final PeerStatus slow = new PeerStatus("slow", 1111, true, 1);
+        final PeerStatus fast1 = new PeerStatus("fast", 2222, true, 1);
+        final PeerStatus fast2 = new PeerStatus("fast", 3333, true, 1);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(slow);
+        peers.add(fast1);
+        peers.add(fast2);
+        selector.setPeers(peers);
+
+        // the reported queue sizes are the same, but the slow peer takes 10 times as long to accept the same amount of data
+        for (int i = 0; i < 10; i++) {
+            complete(selector, slow, 1024 * 1024, 1000L);
+            complete(selector, fast1, 1024 * 1024, 100L);
+            complete(selector, fast2, 1024 * 1024, 100L);
+        }
+
+        final Map<PeerStatus, Integer> counts = select(selector, SELECTIONS);
+        assertTrue(counts.get(slow) < SELECTIONS / 10);
+    }
+
+    @Test
+    public void testActiveTransactionsSpreadLoad() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT);
+        final PeerStatus busy = new PeerStatus("busy", 1111, true, 1);
+        final PeerStatus idle = new PeerStatus("idle", 2222, true, 1);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(busy);
+        peers.add(idle);
+        selector.setPeers(peers);
+
+        for (int i = 0; i < 3; i++) {
+            selector.transactionStarted(busy);
+        }
+
+        Map<PeerStatus, Integer> counts = select(selector, SELECTIONS);
+        assertTrue(counts.get(idle) > 3 * counts.get(busy));
+
+        for (int i = 0; i < 3; i++) {
+            selector.transactionAborted(busy);
+        }
+
+        counts = select(selector, SELECTIONS);
+        assertTrue(Math.abs(counts.get(idle) - counts.get(busy)) < SELECTIONS / 10);
+    }
+
+    @Test
+    public void testPenalizedPeersAreNotSelected() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT);
+        final PeerStatus peer1 = new PeerStatus("host", 1111, true, 1);
+        final PeerStatus peer2 = new PeerStatus("host", 2222, true, 1);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(peer1);
+        peers.add(peer2);
+        selector.setPeers(peers);
+
+        selector.penalize(peer1, 60000L);
+        final Map<PeerStatus, Integer> counts = select(selector, 1000);
+        assertEquals(Integer.valueOf(1000), counts.get(peer2));
+        assertNull(counts.get(peer1));
+
+        selector.penalize(peer2, 60000L);
+        assertNull(selector.select());
+
+        selector.reset();
+        assertEquals(2, select(selector, 1000).size());
+    }
+
+    @Test
+    public void testErrorPenaltyDecays() throws InterruptedException {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT, 100L);
+        final PeerStatus peer1 = new PeerStatus("host", 1111, true, 1);
+        final PeerStatus peer2 = new PeerStatus("host", 2222, true, 1);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(peer1);
+        peers.add(peer2);
+        selector.setPeers(peers);
+
+        // penalized, but only until now
+        selector.penalize(peer1, 0L);
+        selector.penalize(peer1, 0L);
+        Map<PeerStatus, Integer> counts = select(selector, SELECTIONS);
+        assertTrue(counts.get(peer2) > 4 * counts.get(peer1));
+
+        Thread.sleep(1500L);
+        counts = select(selector, SELECTIONS);
+        assertTrue(Math.abs(counts.get(peer1) - counts.get(peer2)) < SELECTIONS / 10);
+    }
+
+    @Test
+    public void testStatisticsSurvivePeerRefresh() {
+        final PeerSelector selector = new PeerSelector(ConnectableType.REMOTE_INPUT_PORT);
+        final PeerStatus peer1 = new PeerStatus("host", 1111, true, 1);
+        final PeerStatus peer2 = new PeerStatus("host", 2222, true, 1);
+        final List<PeerStatus> peers = new ArrayList<>();
+        peers.add(peer1);
+        peers.add(peer2);
+        selector.setPeers(peers);
+        selector.penalize(peer1, 60000L);
+
+        // the refreshed list reports a different queue size, but refers to the same peer
+        final List<PeerStatus> refreshed = new ArrayList<>();
+        refreshed.add(new PeerStatus("host", 1111, true, 50));
+        refreshed.add(new PeerStatus("host", 2222, true, 50));
+        refreshed.add(new PeerStatus("host", 3333, true, 50));
+        selector.setPeers(refreshed);
+
+        assertEquals(3, selector.getPeers().size());
+        final Map<PeerStatus, Integer> counts = select(selector, 1000);
+        assertNull(counts.get(peer1));
+        assertEquals(2, counts.size());
+    }
+
+    private void complete(final PeerSelector selector, final PeerStatus peer, final long bytes, final long millis) {
+        selector.transactionStarted(peer);
+        selector.transactionCompleted(peer, bytes, millis * 1000000L);
+    }
+
+    private Map<PeerStatus, Integer> select(final PeerSelector selector, final int iterations) {
+        final Map<PeerStatus, Integer> counts = new HashMap<>();
+        for (int i = 0; i < iterations; i++) {
+            final PeerStatus status = selector.select();
+            final Integer count = counts.get(status);
+            counts.put(status, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,852 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.remote.io.multiplex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.apache.nifi.connectable.Port;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.groups.ProcessGroup;
+import org.apache.nifi.groups.RemoteProcessGroup;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.provenance.ProvenanceReporter;
+import org.apache.nifi.remote.Peer;
+import org.apache.nifi.remote.PortAuthorizationResult;
+import org.apache.nifi.remote.RemoteGroupPort;
+import org.apache.nifi.remote.RemoteResourceFactory;
+import org.apache.nifi.remote.RemoteResourceManager;
+import org.apache.nifi.remote.RootGroupPort;
+import org.apache.nifi.remote.SocketRemoteSiteListener;
+import org.apache.nifi.remote.codec.FlowFileCodec;
+import org.apache.nifi.remote.exception.HandshakeException;
+import org.apache.nifi.remote.io.multiplex.MultiplexedConnection.ChannelAcceptor;
+import org.apache.nifi.remote.io.socket.SocketChannelCommunicationsSession;
+import org.apache.nifi.remote.protocol.CommunicationsSession;
+import org.apache.nifi.remote.protocol.ServerProtocol;
+import org.apache.nifi.remote.protocol.socket.SocketClientProtocol;
+import org.apache.nifi.remote.protocol.socket.SocketFlowFileServerProtocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestMultiplexedConnection {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestMultiplexedConnection.class);
+    private static final String PORT_ID = "input-port";
+
+    private ServerSocketChannel serverSocketChannel;
+    private final List<Closeable> closeables = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void cleanup() {
+        for (final Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (final IOException ioe) {
+            }
+        }
+        try {
+            serverSocketChannel.close();
+        } catch (final IOException ioe) {
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testChannelsAreIndependent() throws Exception {
+        startServer(true);
+        final MultiplexedConnection connection = connect(serverSocketChannel.socket().getLocalPort());
+        assertEquals(0, connection.getOpenChannelCount());
+
+        // send several times the channel window on each channel at once so that credit has to be granted repeatedly
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final int seed = i;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        final MultiplexedChannel channel = connection.openChannel();
+                        try {
+                            final byte[] data = new byte[MultiplexedConnection.CHANNEL_WINDOW_BYTES * 3 + seed];
+                            Arrays.fill(data, (byte) seed);
+                            final CRC32 crc = new CRC32();
+                            crc.update(data);
+                            return crc.getValue() == exchange(channel, data);
+                        } finally {
+                            closeSession(channel);
+                        }
+                    }
+                }));
+            }
+
+            for (final Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // each channel is forgotten once the server has closed its side as well
+        awaitOpenChannelCount(connection, 0);
+    }
+
+    @Test(timeout = 30000)
+    public void testClosingConnectionFailsChannels() throws Exception {
+        startServer(true);
+        final MultiplexedConnection connection = connect(serverSocketChannel.socket().getLocalPort());
+        final MultiplexedChannel channel = connection.openChannel();
+        assertTrue(exchange(channel, new byte[10]) != 0L);
+
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertTrue(channel.isClosed());
+        try {
+            exchange(channel, new byte[10]);
+            fail("Was able to use a channel after its connection was closed");
+        } catch (final IOException expected) {
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testNoChannelOpenedBeyondLimit() throws Exception {
+        startServer(true);
+        final MultiplexedConnection connection = connect(serverSocketChannel.socket().getLocalPort());
+
+        final List<MultiplexedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < MultiplexedConnection.MAX_CHANNELS; i++) {
+            final MultiplexedChannel channel = connection.openChannel();
+            assertNotNull(channel);
+            channels.add(channel);
+        }
+        assertNull(connection.openChannel());
+
+        // once a channel has been closed on both sides, another may be opened in its place
+        closeSession(channels.get(0));
+        awaitOpenChannelCount(connection, MultiplexedConnection.MAX_CHANNELS - 1);
+        final MultiplexedChannel channel = connection.openChannel();
+        assertNotNull(channel);
+        assertTrue(exchange(channel, new byte[10]) != 0L);
+    }
+
+    @Test(timeout = 30000)
+    public void testChannelsBeyondLimitAreRefused() throws Exception {
+        startServer(true);
+
+        // a peer that does not respect the limit, which MultiplexedConnection would not allow us to be
+        final CommunicationsSession session = openSocket(serverSocketChannel.socket().getLocalPort());
+        final DataOutputStream dos = new DataOutputStream(session.getOutput().getOutputStream());
+        for (int channelId = 1; channelId <= MultiplexedConnection.MAX_CHANNELS + 1; channelId++) {
+            dos.write(MultiplexedConnection.FRAME_OPEN);
+            dos.writeInt(channelId);
+            dos.writeInt(0);
+        }
+        dos.flush();
+
+        // the channels that were accepted are waiting for data, so the only frame sent is the refusal
+        final DataInputStream dis = new DataInputStream(session.getInput().getInputStream());
+        assertEquals(MultiplexedConnection.FRAME_CLOSE, dis.read());
+        assertEquals(MultiplexedConnection.MAX_CHANNELS + 1, dis.readInt());
+        assertEquals(0, dis.readInt());
+    }
+
+    /**
+     * Sends FlowFiles from a SocketClientProtocol to the
+     * SocketFlowFileServerProtocol of a site-to-site listener in concurrent
+     * transactions, each over a channel of a single shared connection, as a
+     * remote group port does
+     */
+    @Test(timeout = 30000)
+    public void testConcurrentTransactionsOverSharedConnection() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final SocketRemoteSiteListener listener = startListener(received);
+        try {
+            final String url = "nifi://localhost:" + listener.getPort();
+            final RemoteGroupPort remotePort = createRemoteGroupPort();
+            final MultiplexedConnection connection = connectAndMultiplex(url, listener.getPort(), remotePort);
+
+            final Set<String> sent = createContents("FlowFile", 8);
+            sendConcurrently(connection, url, remotePort, sent, 4);
+
+            // every transaction was committed by the server, and all of them shared the one connection
+            assertEquals(sent.size(), received.size());
+            assertEquals(sent, new HashSet<>(received));
+            assertFalse(connection.isClosed());
+        } finally {
+            listener.stop();
+        }
+    }
+
+    /**
+     * Over a link with a 50 ms round trip, sends FlowFiles to a site-to-site
+     * listener in transactions one after another over a single socket, as a
+     * remote group port does with a peer that cannot multiplex, and then
+     * concurrently over channels of a single multiplexed connection
+     */
+    @Test(timeout = 60000)
+    public void testMultiplexingIsFasterOverSlowLink() throws Exception {
+        final int transactions = 16;
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final SocketRemoteSiteListener listener = startListener(received);
+        try {
+            final DelayingProxy proxy = new DelayingProxy(listener.getPort(), 25L);
+            closeables.add(proxy);
+            final String url = "nifi://localhost:" + proxy.getPort();
+            final RemoteGroupPort remotePort = createRemoteGroupPort();
+
+            // so that neither run pays for loading the classes involved
+            sendSequentially(url, proxy.getPort(), remotePort, createContents("Warm-up FlowFile", 1));
+
+            long startNanos = System.nanoTime();
+            sendSequentially(url, proxy.getPort(), remotePort, createContents("Sequential FlowFile", transactions));
+            final long sequentialMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            // establishing the connection is timed, as it is done on demand by a remote group port
+            startNanos = System.nanoTime();
+            final MultiplexedConnection connection = connectAndMultiplex(url, proxy.getPort(), remotePort);
+            sendConcurrently(connection, url, remotePort, createContents("Multiplexed FlowFile", transactions), transactions);
+            final long multiplexedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            logger.info("Sent {} FlowFiles over a 50 ms round trip in {} millis sequentially and in {} millis multiplexed",
+                    new Object[] {transactions, sequentialMillis, multiplexedMillis});
+            assertEquals(2 * transactions + 1, received.size());
+            assertTrue("Multiplexed transactions took " + multiplexedMillis + " millis but sequential transactions took only " + sequentialMillis + " millis",
+                    multiplexedMillis * 2 < sequentialMillis);
+        } finally {
+            listener.stop();
+        }
+    }
+
+    private static Set<String> createContents(final String prefix, final int count) {
+        final Set<String> contents = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            contents.add(prefix + " " + i);
+        }
+        return contents;
+    }
+
+    private void awaitOpenChannelCount(final MultiplexedConnection connection, final int expected) throws InterruptedException {
+        while (connection.getOpenChannelCount() != expected) {
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * Starts a site-to-site listener whose root group has a single input port,
+     * which records the content of the FlowFiles that it receives once the
+     * transaction that they were received in is committed
+     */
+    private SocketRemoteSiteListener startListener(final List<String> received) throws Exception {
+        final PortAuthorizationResult authorized = stub(PortAuthorizationResult.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                return methodName.equals("isAuthorized") ? Boolean.TRUE : UNSTUBBED;
+            }
+        });
+
+        final ProcessContext context = stub(ProcessContext.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                return methodName.equals("getAvailableRelationships") ? Collections.singleton(Relationship.ANONYMOUS) : UNSTUBBED;
+            }
+        });
+
+        final RootGroupPort port = stub(RootGroupPort.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) throws Exception {
+                switch (methodName) {
+                    case "getIdentifier":
+                        return PORT_ID;
+                    case "isValid":
+                    case "isRunning":
+                        return Boolean.TRUE;
+                    case "checkUserAuthorization":
+                        return authorized;
+                    case "receiveFlowFiles":
+                        final Peer peer = (Peer) args[0];
+                        final ServerProtocol protocol = (ServerProtocol) args[1];
+                        return protocol.receiveFlowFiles(peer, context, createReceivingSession(received), protocol.getPreNegotiatedCodec());
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+
+        final ProcessGroup rootGroup = stub(ProcessGroup.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                switch (methodName) {
+                    case "isRootGroup":
+                        return Boolean.TRUE;
+                    case "getInputPorts":
+                        return Collections.<Port>singleton(port);
+                    case "getInputPort":
+                        return PORT_ID.equals(args[0]) ? port : null;
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+
+        final int listeningPort;
+        try (final ServerSocket serverSocket = new ServerSocket(0)) {
+            listeningPort = serverSocket.getLocalPort();
+        }
+
+        // as a standalone instance does, rather than the cluster manager's protocol of the same name
+        RemoteResourceManager.setServerProtocolImplementation(SocketFlowFileServerProtocol.RESOURCE_NAME, SocketFlowFileServerProtocol.class);
+        final SocketRemoteSiteListener listener = new SocketRemoteSiteListener(listeningPort, null);
+        listener.setRootGroup(rootGroup);
+        listener.start();
+        return listener;
+    }
+
+    private RemoteGroupPort createRemoteGroupPort() {
+        final RemoteProcessGroup remoteGroup = stub(RemoteProcessGroup.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                return methodName.equals("getCommunicationsTimeout") ? 30000 : UNSTUBBED;
+            }
+        });
+
+        return stub(RemoteGroupPort.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                switch (methodName) {
+                    case "getIdentifier":
+                        return PORT_ID;
+                    case "getRemoteProcessGroup":
+                        return remoteGroup;
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+    }
+
+    /**
+     * Negotiates the protocol over a new socket and asks the listener to
+     * multiplex channels over it
+     */
+    private MultiplexedConnection connectAndMultiplex(final String url, final int port, final RemoteGroupPort remotePort) throws IOException, HandshakeException {
+        final CommunicationsSession session = openSocket(port);
+        session.getOutput().getOutputStream().write(CommunicationsSession.MAGIC_BYTES);
+
+        final Peer peer = new Peer(session, url);
+        final SocketClientProtocol protocol = negotiate(peer, remotePort);
+        assertTrue(protocol.isMultiplexingSupported());
+        protocol.startMultiplexing(peer);
+
+        final MultiplexedConnection connection = new MultiplexedConnection(session);
+        closeables.add(connection);
+        connection.start();
+        return connection;
+    }
+
+    private SocketClientProtocol negotiate(final Peer peer, final RemoteGroupPort remotePort) throws IOException, HandshakeException {
+        final CommunicationsSession session = peer.getCommunicationsSession();
+        final SocketClientProtocol protocol = new SocketClientProtocol();
+        protocol.setPort(remotePort);
+        RemoteResourceFactory.initiateResourceNegotiation(protocol, new DataInputStream(session.getInput().getInputStream()),
+                new DataOutputStream(session.getOutput().getOutputStream()));
+        protocol.handshake(peer);
+        assertTrue(protocol.isReadyForFileTransfer());
+        return protocol;
+    }
+
+    /**
+     * Sends a FlowFile with each of the given contents, each in a transaction
+     * of its own, one after another over a single new socket
+     */
+    private void sendSequentially(final String url, final int port, final RemoteGroupPort remotePort, final Collection<String> contents) throws Exception {
+        final CommunicationsSession session = openSocket(port);
+        final Peer peer = new Peer(session, url);
+        try {
+            session.getOutput().getOutputStream().write(CommunicationsSession.MAGIC_BYTES);
+            final SocketClientProtocol protocol = negotiate(peer, remotePort);
+            final FlowFileCodec codec = protocol.negotiateCodec(peer);
+            for (final String content : contents) {
+                protocol.transferFlowFiles(peer, stub(ProcessContext.class, null), createSendingSession(content), codec);
+            }
+            protocol.shutdown(peer);
+        } finally {
+            peer.close();
+        }
+    }
+
+    /**
+     * Sends a FlowFile with each of the given contents, each in a transaction
+     * of its own over a new channel of the given connection, on the given
+     * number of threads at once
+     */
+    private void sendConcurrently(final MultiplexedConnection connection, final String url, final RemoteGroupPort remotePort, final Collection<String> contents,
+            final int threads) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (final String content : contents) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        sendFlowFile(connection, url, remotePort, content);
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends a FlowFile with the given content in a transaction of its own,
+     * over a new channel of the given connection
+     */
+    private void sendFlowFile(final MultiplexedConnection connection, final String url, final RemoteGroupPort remotePort, final String content) throws Exception {
+        final MultiplexedChannel channel = connection.openChannel();
+        final Peer peer = new Peer(channel, url);
+        try {
+            channel.getOutput().getOutputStream().write(CommunicationsSession.MAGIC_BYTES);
+            final SocketClientProtocol protocol = negotiate(peer, remotePort);
+            final FlowFileCodec codec = protocol.negotiateCodec(peer);
+            protocol.transferFlowFiles(peer, stub(ProcessContext.class, null), createSendingSession(content), codec);
+            protocol.shutdown(peer);
+        } finally {
+            peer.close();
+        }
+    }
+
+    private ProcessSession createSendingSession(final String content) {
+        final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        final Map<String, String> attributes = Collections.singletonMap(CoreAttributes.UUID.key(), UUID.randomUUID().toString());
+        final FlowFile flowFile = stub(FlowFile.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) {
+                switch (methodName) {
+                    case "getAttributes":
+                        return attributes;
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "getSize":
+                        return (long) data.length;
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+
+        final ProvenanceReporter provenanceReporter = stub(ProvenanceReporter.class, null);
+        final AtomicBoolean flowFileTaken = new AtomicBoolean(false);
+        return stub(ProcessSession.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) throws Exception {
+                switch (methodName) {
+                    case "get":
+                        return (args == null && flowFileTaken.compareAndSet(false, true)) ? flowFile : UNSTUBBED;
+                    case "getProvenanceReporter":
+                        return provenanceReporter;
+                    case "read":
+                        ((InputStreamCallback) args[1]).process(new ByteArrayInputStream(data));
+                        return null;
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+    }
+
+    private ProcessSession createReceivingSession(final List<String> received) {
+        final FlowFile flowFile = stub(FlowFile.class, null);
+        final ProvenanceReporter provenanceReporter = stub(ProvenanceReporter.class, null);
+        final List<String> uncommitted = new ArrayList<>();
+
+        return stub(ProcessSession.class, new StubAnswer() {
+            @Override
+            public Object answer(final String methodName, final Object[] args) throws Exception {
+                switch (methodName) {
+                    case "create":
+                    case "putAllAttributes":
+                    case "putAttribute":
+                        return flowFile;
+                    case "getProvenanceReporter":
+                        return provenanceReporter;
+                    case "write":
+                        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        ((OutputStreamCallback) args[1]).process(out);
+                        uncommitted.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+                        return flowFile;
+                    case "commit":
+                        received.addAll(uncommitted);
+                        uncommitted.clear();
+                        return null;
+                    default:
+                        return UNSTUBBED;
+                }
+            }
+        });
+    }
+
+    /**
+     * Answers the calls made to a stub, by method name
+     */
+    private static abstract class StubAnswer {
+
+        /**
+         * Returned for any method that the stub does not implement, which then
+         * does nothing and returns the default value of its return type, or an
+         * empty collection
+         */
+        static final Object UNSTUBBED = new Object();
+
+        abstract Object answer(String methodName, Object[] args) throws Exception;
+    }
+
+    /**
+     * Creates an implementation of the given interface whose methods are
+     * answered by the given answer, or that does nothing if the answer is
+     * <code>null</code>
+     */
+    private static <T> T stub(final Class<T> type, final StubAnswer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                // stubs are kept in sets and used as map keys, so they must be equal only to themselves
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Stub " + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+
+                final Object result = (answer == null) ? StubAnswer.UNSTUBBED : answer.answer(method.getName(), args);
+                return (result == StubAnswer.UNSTUBBED) ? defaultValue(method.getReturnType()) : result;
+            }
+        }));
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type.isPrimitive()) {
+            return (type == void.class) ? null : Array.get(Array.newInstance(type, 1), 0);
+        }
+        if (type == Set.class) {
+            return Collections.emptySet();
+        }
+        if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        }
+        if (type == Map.class) {
+            return Collections.emptyMap();
+        }
+        return null;
+    }
+
+    private CommunicationsSession openSocket(final int port) throws IOException {
+        final SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        final CommunicationsSession session = new SocketChannelCommunicationsSession(socketChannel, "nifi://localhost:" + port);
+        closeables.add(session);
+        return session;
+    }
+
+    private MultiplexedConnection connect(final int port) throws IOException {
+        final MultiplexedConnection connection = new MultiplexedConnection(openSocket(port));
+        closeables.add(connection);
+        connection.start();
+        return connection;
+    }
+
+    /**
+     * Starts a thread that accepts a single socket and serves it, either
+     * directly or by serving each channel that is opened over it
+     */
+    private void startServer(final boolean multiplexed) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SocketChannel socketChannel = serverSocketChannel.accept();
+                    final CommunicationsSession session = new SocketChannelCommunicationsSession(socketChannel, "nifi://client");
+                    closeables.add(session);
+
+                    if (!multiplexed) {
+                        serve(session);
+                        return;
+                    }
+
+                    final MultiplexedConnection connection = new MultiplexedConnection(session, new ChannelAcceptor() {
+                        @Override
+                        public void channelOpened(final MultiplexedChannel channel) {
+                            final Thread channelThread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    serve(channel);
+                                }
+                            });
+                            channelThread.setDaemon(true);
+                            channelThread.start();
+                        }
+                    });
+                    closeables.add(connection);
+                    connection.start();
+                } catch (final IOException ioe) {
+                    logger.error("Failed to serve connection", ioe);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reads messages, each preceded by its length, and responds to each with
+     * its CRC32 checksum until a negative length is received
+     */
+    private void serve(final CommunicationsSession session) {
+        try {
+            final DataInputStream dis = new DataInputStream(session.getInput().getInputStream());
+            final DataOutputStream dos = new DataOutputStream(session.getOutput().getOutputStream());
+
+            int length;
+            while ((length = dis.readInt()) >= 0) {
+                final byte[] data = new byte[length];
+                dis.readFully(data);
+
+                final CRC32 crc = new CRC32();
+                crc.update(data);
+                dos.writeLong(crc.getValue());
+                dos.flush();
+            }
+        } catch (final IOException ioe) {
+            // the client went away
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    private long exchange(final CommunicationsSession session, final byte[] data) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(session.getOutput().getOutputStream());
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+
+        return new DataInputStream(session.getInput().getInputStream()).readLong();
+    }
+
+    private void closeSession(final CommunicationsSession session) {
+        try {
+            if (session instanceof MultiplexedChannel) {
+                new DataOutputStream(session.getOutput().getOutputStream()).writeInt(-1);
+                session.getOutput().getOutputStream().flush();
+            }
+        } catch (final IOException ioe) {
+            // the other side has already closed the channel
+        }
+
+        try {
+            session.close();
+        } catch (final IOException ioe) {
+        }
+    }
+
+    /**
+     * Relays each connection that it accepts to the given port on this host,
+     * delaying whatever is sent in either direction by the same amount of
+     * time, as a link with that latency would. Data keeps flowing while it is
+     * delayed, so the link's throughput is not limited.
+     */
+    private static class DelayingProxy implements Closeable {
+
+        private static final Chunk END_OF_STREAM = new Chunk(0L, null, 0);
+
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final long delayNanos;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+        DelayingProxy(final int targetPort, final long delayMillis) throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+            this.targetPort = targetPort;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+
+            startDaemon("Delaying Proxy Acceptor", new Runnable() {
+                @Override
+                public void run() {
+                    acceptConnections();
+                }
+            });
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void acceptConnections() {
+            try {
+                while (!serverSocket.isClosed()) {
+                    final Socket client = serverSocket.accept();
+                    final Socket server = new Socket("localhost", targetPort);
+                    sockets.add(client);
+                    sockets.add(server);
+
+                    // the delay is the only one that the link should add
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    relay(client, server);
+                    relay(server, client);
+                }
+            } catch (final IOException ioe) {
+                // the proxy was closed
+            }
+        }
+
+        /**
+         * Starts forwarding whatever is read from one socket to the other,
+         * each chunk once it has been delayed
+         */
+        private void relay(final Socket from, final Socket to) throws IOException {
+            final InputStream in = from.getInputStream();
+            final OutputStream out = to.getOutputStream();
+            final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+
+            startDaemon("Delaying Proxy Reader", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final byte[] buffer = new byte[8192];
+                        int len;
+                        while ((len = in.read(buffer)) > 0) {
+                            chunks.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, len), len));
+                        }
+                    } catch (final IOException ioe) {
+                        // the socket was closed
+                    } finally {
+                        chunks.add(END_OF_STREAM);
+                    }
+                }
+            });
+
+            startDaemon("Delaying Proxy Writer", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Chunk chunk;
+                        while ((chunk = chunks.take()) != END_OF_STREAM) {
+                            final long nanosToWait = chunk.dueNanos - System.nanoTime();
+                            if (nanosToWait > 0L) {
+                                TimeUnit.NANOSECONDS.sleep(nanosToWait);
+                            }
+                            out.write(chunk.data, 0, chunk.length);
+                            out.flush();
+                        }
+                        to.shutdownOutput();
+                    } catch (final IOException | InterruptedException e) {
+                        // the socket was closed
+                    }
+                }
+            });
+        }
+
+        private static void startDaemon(final String name, final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            for (final Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        private static class Chunk {
+
+            private final long dueNanos;
+            private final byte[] data;
+            private final int length;
+
+            Chunk(final long dueNanos, final byte[] data, final int length) {
+                this.dueNanos = dueNanos;
+                this.data = data;
+                this.length = length;
+            }
+        }
+    }
+}
@@ -1559,11 +1559,13 @@ public final class DtoFactory {
         defaultConcurrentTasks.put(SchedulingStrategy.TIMER_DRIVEN.name(), String.valueOf(SchedulingStrategy.TIMER_DRIVEN.getDefaultConcurrentTasks()));
         defaultConcurrentTasks.put(SchedulingStrategy.EVENT_DRIVEN.name(), String.valueOf(SchedulingStrategy.EVENT_DRIVEN.getDefaultConcurrentTasks()));
         defaultConcurrentTasks.put(SchedulingStrategy.CRON_DRIVEN.name(), String.valueOf(SchedulingStrategy.CRON_DRIVEN.getDefaultConcurrentTasks()));
+        defaultConcurrentTasks.put(SchedulingStrategy.BLOCKING_IO.name(), String.valueOf(SchedulingStrategy.BLOCKING_IO.getDefaultConcurrentTasks()));
         dto.setDefaultConcurrentTasks(defaultConcurrentTasks);
 
         final Map<String, String> defaultSchedulingPeriod = new HashMap<>();
         defaultSchedulingPeriod.put(SchedulingStrategy.TIMER_DRIVEN.name(), SchedulingStrategy.TIMER_DRIVEN.getDefaultSchedulingPeriod());
         defaultSchedulingPeriod.put(SchedulingStrategy.CRON_DRIVEN.name(), SchedulingStrategy.CRON_DRIVEN.getDefaultSchedulingPeriod());
+        defaultSchedulingPeriod.put(SchedulingStrategy.BLOCKING_IO.name(), SchedulingStrategy.BLOCKING_IO.getDefaultSchedulingPeriod());
         dto.setDefaultSchedulingPeriod(defaultSchedulingPeriod);
 
         return dto;
@@ -1165,6 +1165,8 @@ public class ControllerFacade implements ControllerServiceProvider {
             matches.add("Scheduling strategy: Timer driven");
         } else if (SchedulingStrategy.PRIMARY_NODE_ONLY.equals(procNode.getSchedulingStrategy()) && StringUtils.containsIgnoreCase("primary", searchStr)) {
             matches.add("Scheduling strategy: On primary node");
+        } else if (SchedulingStrategy.BLOCKING_IO.equals(procNode.getSchedulingStrategy()) && StringUtils.containsIgnoreCase("blocking", searchStr)) {
+            matches.add("Scheduling strategy: Blocking I/O");
         }
 
         // consider scheduled state
@@ -65,6 +65,13 @@ nf.ProcessorConfiguration = (function () {
             });
         }
 
+        // add an option for blocking i/o
+        strategies.push({
+            text: 'Blocking I/O',
+            value: 'BLOCKING_IO',
+            description: 'Processor will be scheduled to run on an interval defined by the run schedule, with each concurrent task on a thread of its own rather than one from the timer driven thread pool. Intended for processors that spend most of their time waiting on the network.'
+        });
+
         // add an option for cron driven
         strategies.push({
             text: 'CRON driven',
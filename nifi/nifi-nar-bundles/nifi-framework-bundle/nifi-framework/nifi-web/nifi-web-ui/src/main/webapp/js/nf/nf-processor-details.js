@@ -446,6 +446,8 @@ nf.ProcessorDetails = (function () {
                         schedulingStrategy = 'CRON driven';
                     } else if (schedulingStrategy === 'TIMER_DRIVEN') {
                         schedulingStrategy = "Timer driven";
+                    } else if (schedulingStrategy === 'BLOCKING_IO') {
+                        schedulingStrategy = "Blocking I/O";
                     } else {
                         schedulingStrategy = "On primary node";
                     }
@@ -122,12 +122,29 @@ public class IndexConfiguration {
     }
 
     public File getWritableIndexDirectory(final File provenanceLogFile) {
+        return getWritableIndexDirectory(provenanceLogFile.getParentFile(), provenanceLogFile, null);
+    }
+
+    /**
+     * Returns the index directory to which events should be written if they
+     * are to be stored in the given storage directory, for use when the events
+     * are indexed before the Provenance Log File that holds them exists
+     *
+     * @param storageDirectory the storage directory that the events will be
+     * stored in
+     * @param firstEventTime the time of the first event to be indexed
+     * @return
+     */
+    public File getWritableIndexDirectory(final File storageDirectory, final long firstEventTime) {
+        return getWritableIndexDirectory(storageDirectory, null, firstEventTime);
+    }
+
+    private File getWritableIndexDirectory(final File storageDirectory, final File provenanceLogFile, final Long firstEventTime) {
         lock.lock();
         try {
-            final File storageDirectory = provenanceLogFile.getParentFile();
             List<File> indexDirectories = this.indexDirectoryMap.get(storageDirectory);
             if (indexDirectories == null) {
-                final File newDir = addNewIndex(storageDirectory, provenanceLogFile);
+                final File newDir = addNewIndex(storageDirectory, provenanceLogFile, firstEventTime);
                 indexDirectories = new ArrayList<>();
                 indexDirectories.add(newDir);
                 indexDirectoryMap.put(storageDirectory, indexDirectories);
@@ -135,7 +152,7 @@ public class IndexConfiguration {
             }
 
             if (indexDirectories.isEmpty()) {
-                final File newDir = addNewIndex(storageDirectory, provenanceLogFile);
+                final File newDir = addNewIndex(storageDirectory, provenanceLogFile, firstEventTime);
                 indexDirectories.add(newDir);
                 return newDir;
             }
@@ -143,7 +160,7 @@ public class IndexConfiguration {
             final File lastDir = indexDirectories.get(indexDirectories.size() - 1);
             final long size = getSize(lastDir);
             if (size > repoConfig.getDesiredIndexSize()) {
-                final File newDir = addNewIndex(storageDirectory, provenanceLogFile);
+                final File newDir = addNewIndex(storageDirectory, provenanceLogFile, firstEventTime);
                 indexDirectories.add(newDir);
                 return newDir;
             } else {
@@ -154,12 +171,15 @@ public class IndexConfiguration {
         }
     }
 
-    private File addNewIndex(final File storageDirectory, final File provenanceLogFile) {
+    private File addNewIndex(final File storageDirectory, final File provenanceLogFile, final Long firstEventTime) {
         // Build the event time of the first record into the index's filename so that we can determine
         // which index files to look at when we perform a search. We use the timestamp of the first record
         // in the Provenance Log file, rather than the current time, because we may perform the Indexing
         // retroactively.
-        Long firstEntryTime = getFirstEntryTime(provenanceLogFile);
+        Long firstEntryTime = firstEventTime;
+        if (firstEntryTime == null) {
+            firstEntryTime = getFirstEntryTime(provenanceLogFile);
+        }
         if (firstEntryTime == null) {
             firstEntryTime = System.currentTimeMillis();
         }
@@ -54,8 +54,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.apache.nifi.events.EventReporter;
@@ -67,8 +66,11 @@ import org.apache.nifi.provenance.lineage.Lineage;
 import org.apache.nifi.provenance.lineage.LineageComputationType;
 import org.apache.nifi.provenance.lucene.DeleteIndexAction;
 import org.apache.nifi.provenance.lucene.FieldNames;
+import org.apache.nifi.provenance.lucene.EventTimeThreshold;
+import org.apache.nifi.provenance.lucene.IndexManager;
 import org.apache.nifi.provenance.lucene.IndexSearch;
 import org.apache.nifi.provenance.lucene.IndexingAction;
+import org.apache.nifi.provenance.lucene.JournalIndexer;
 import org.apache.nifi.provenance.lucene.LineageQuery;
 import org.apache.nifi.provenance.lucene.LuceneUtil;
 import org.apache.nifi.provenance.rollover.CompressionAction;
@@ -101,7 +103,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
     public static final String DEPRECATED_CLASS_NAME = "nifi.controller.repository.provenance.PersistentProvenanceRepository";
     public static final String EVENT_CATEGORY = "Provenance Repository";
     private static final String FILE_EXTENSION = ".prov";
-    private static final String TEMP_FILE_SUFFIX = ".prov.part";
+    private static final String TEMP_FILE_SUFFIX = ".part";
     public static final int SERIALIZATION_VERSION = 7;
     public static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
     public static final Pattern INDEX_PATTERN = Pattern.compile("index-\\d+");
@@ -119,12 +121,10 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
 
     private volatile boolean closed = false;
 
-    // the following are all protected by the lock
-    private final ReadWriteLock rwLock = new ReentrantReadWriteLock(true);
-    private final Lock writeLock = rwLock.writeLock();
-    private final Lock readLock = rwLock.readLock();
+    // held to roll over, expire or close the repository; events are written without it (see JournalEpoch)
+    private final Lock writeLock = new ReentrantLock(true);
 
-    private RecordWriter[] writers; // guarded by readLock/writeLock
+    private final AtomicReference<JournalEpoch> journalEpoch = new AtomicReference<>();
 
     private final AtomicLong streamStartTime = new AtomicLong(System.currentTimeMillis());
     private final RepositoryConfiguration configuration;
@@ -138,14 +138,19 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
     private final List<RolloverAction> rolloverActions = new ArrayList<>();
     private final List<ExpirationAction> expirationActions = new ArrayList<>();
 
+    private final IndexManager indexManager = new IndexManager();
     private final IndexingAction indexingAction;
     private final ConcurrentMap<String, AsyncQuerySubmission> querySubmissionMap = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, AsyncLineageSubmission> lineageSubmissionMap = new ConcurrentHashMap<>();
 
-    private final AtomicLong writerIndex = new AtomicLong(0L);
+    private final AtomicInteger journalAssignments = new AtomicInteger(0);
+    private final ThreadLocal<Integer> assignedJournal = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return journalAssignments.getAndIncrement() & Integer.MAX_VALUE;
+        }
+    };
     private final AtomicLong storageDirectoryIndex = new AtomicLong(0L);
-    private final AtomicLong bytesWrittenSinceRollover = new AtomicLong(0L);
-    private final AtomicInteger recordsWrittenSinceRollover = new AtomicInteger(0);
     private final AtomicInteger rolloverCompletions = new AtomicInteger(0);
     private final AtomicBoolean initialized = new AtomicBoolean(false);
 
@@ -182,6 +187,12 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         this.indexConfig = new IndexConfiguration(configuration);
         this.alwaysSync = configuration.isAlwaysSync();
 
+        // Journals are merged directly into compressed files, so the CompressionAction is needed only for files that were
+        // merged without compression. It runs before the IndexingAction so that the index refers to the compressed blocks.
+        if (configuration.isCompressOnRollover()) {
+            rolloverActions.add(new CompressionAction());
+        }
+
         final List<SearchableField> fields = configuration.getSearchableFields();
         if (fields != null && !fields.isEmpty()) {
             indexingAction = new IndexingAction(this, indexConfig);
@@ -190,10 +201,6 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             indexingAction = null;
         }
 
-        if (configuration.isCompressOnRollover()) {
-            rolloverActions.add(new CompressionAction());
-        }
-
         scheduledExecService = Executors.newScheduledThreadPool(3);
         queryExecService = Executors.newFixedThreadPool(configuration.getQueryThreadPoolSize(), new NamedThreadFactory("Provenance Query Thread"));
 
@@ -216,7 +223,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         recover();
 
         if (configuration.isAllowRollover()) {
-            writers = createWriters(configuration, idGenerator.get());
+            journalEpoch.set(createJournalEpoch());
         }
 
         if (configuration.isAllowRollover()) {
@@ -339,6 +346,42 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         return writers;
     }
 
+    private File nextStorageDirectory() {
+        final long storageDirIdx = storageDirectoryIndex.getAndIncrement();
+        final List<File> storageDirs = configuration.getStorageDirectories();
+        return storageDirs.get((int) (storageDirIdx % storageDirs.size()));
+    }
+
+    /**
+     * Creates the indexer for the journals that begin with the given Event ID,
+     * which will be merged into the given storage directory
+     *
+     * @return the indexer, or <code>null</code> if no fields are searchable
+     */
+    private JournalIndexer createJournalIndexer(final File storageDirectory, final long initialRecordId) {
+        if (indexingAction == null) {
+            return null;
+        }
+
+        return new JournalIndexer(indexingAction, indexManager, indexConfig, storageDirectory, String.valueOf(initialRecordId));
+    }
+
+    /**
+     * Creates the journals for the events that are written from now on. Must
+     * be called before any thread can write to the journals, so that the Event
+     * ID from which they are named is that of their first event.
+     */
+    private JournalEpoch createJournalEpoch() throws IOException {
+        final long firstEventId = idGenerator.get();
+        final RecordWriter[] writers = createWriters(configuration, firstEventId);
+        final File storageDirectory = nextStorageDirectory();
+        return new JournalEpoch(writers, storageDirectory, createJournalIndexer(storageDirectory, firstEventId), firstEventId);
+    }
+
+    public IndexManager getIndexManager() {
+        return indexManager;
+    }
+
     @Override
     public StandardProvenanceEventRecord.Builder eventBuilder() {
         return new StandardProvenanceEventRecord.Builder();
@@ -365,11 +408,11 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
 
         for (final Path path : paths) {
             try (RecordReader reader = RecordReaders.newRecordReader(path.toFile(), getAllLogFiles())) {
-                StandardProvenanceEventRecord record;
-                while (records.size() < maxRecords && ((record = reader.nextRecord()) != null)) {
-                    if (record.getEventId() >= firstRecordId) {
-                        records.add(record);
-                    }
+                // the file is sorted by Event ID, and if it has a Table of Contents, only the blocks that we need are read
+                StandardProvenanceEventRecord record = reader.skipToEvent(firstRecordId);
+                while (records.size() < maxRecords && record != null) {
+                    records.add(record);
+                    record = reader.nextRecord();
                 }
             } catch (final EOFException | FileNotFoundException fnfe) {
                 // assume file aged off (or there's no data in file, in case of EOFException, which indicates that data was cached
@@ -453,7 +496,16 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
                 @Override
                 public boolean accept(final File pathname) {
                     final String filename = pathname.getName();
-                    if (!filename.contains(FILE_EXTENSION) || filename.endsWith(TEMP_FILE_SUFFIX)) {
+                    if (filename.contains(FILE_EXTENSION) && filename.endsWith(TEMP_FILE_SUFFIX)) {
+                        // A merge was interrupted before the merged file was renamed. Its journals were not removed, so they
+                        // are merged again below, possibly into another storage directory or with different compression.
+                        if (!pathname.delete() && pathname.exists()) {
+                            logger.warn("Failed to remove incomplete merged Provenance Event file {}; this file should be cleaned up manually", pathname);
+                        }
+                        return false;
+                    }
+
+                    if (!filename.contains(FILE_EXTENSION)) {
                         return false;
                     }
 
@@ -646,9 +698,24 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             rolloverExecutor.shutdownNow();
             queryExecService.shutdownNow();
 
-            for (final RecordWriter writer : writers) {
-                writer.close();
+            final JournalEpoch epoch = journalEpoch.get();
+            if (epoch != null) {
+                epoch.lockAll();
+                try {
+                    epoch.closed = true;
+                } finally {
+                    epoch.unlockAll();
+                }
+
+                for (final RecordWriter writer : epoch.writers) {
+                    writer.close();
+                }
+
+                if (epoch.indexer != null) {
+                    epoch.indexer.close();
+                }
             }
+            indexManager.close();
         } finally {
             writeLock.unlock();
         }
@@ -659,91 +726,110 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
     }
 
     private void persistRecord(final Iterable<ProvenanceEventRecord> records) {
-        final long totalJournalSize;
-        readLock.lock();
-        try {
+        final Collection<ProvenanceEventRecord> batch;
+        if (records instanceof Collection) {
+            batch = (Collection<ProvenanceEventRecord>) records;
+        } else {
+            batch = new ArrayList<>();
+            for (final ProvenanceEventRecord record : records) {
+                batch.add(record);
+            }
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        JournalEpoch epoch;
+        int journalIndex;
+        while (true) {
             if (repoDirty.get()) {
                 logger.debug("Cannot persist provenance record because there was an IOException last time a record persistence was attempted. Will not attempt to persist more records until the repo has been rolled over.");
                 return;
             }
 
-            final RecordWriter[] recordWriters = this.writers;
-            long bytesWritten = 0L;
+            epoch = journalEpoch.get();
+            journalIndex = lockJournal(epoch);
+            if (!epoch.closed) {
+                break;
+            }
 
-            // obtain a lock on one of the RecordWriter's so that no other thread is able to write to this writer until we're finished.
-            // Although the writer itself is thread-safe, we need to generate an event id and then write the event
-            // atomically, so we need to do this with a lock.
-            boolean locked = false;
-            RecordWriter writer;
-            do {
-                final long idx = writerIndex.getAndIncrement();
-                writer = recordWriters[(int) (idx % recordWriters.length)];
-                locked = writer.tryLock();
-            } while (!locked);
+            // The journals were rolled over while we were waiting for the lock, so we write to the next epoch. If
+            // there is no next epoch, the repository has been closed.
+            epoch.writers[journalIndex].unlock();
+            if (journalEpoch.get() == epoch) {
+                logger.debug("Cannot persist provenance record because the repository has been closed");
+                return;
+            }
+        }
 
+        final RecordWriter writer = epoch.writers[journalIndex];
+        final JournalIndexer indexer = epoch.indexer;
+        final long journalBytes;
+        try {
             try {
-                try {
-                    for (final ProvenanceEventRecord nextRecord : records) {
-                        final long eventId = idGenerator.getAndIncrement();
-                        bytesWritten += writer.writeRecord(nextRecord, eventId);
-                        logger.trace("Wrote record with ID {} to {}", eventId, writer);
-                    }
-
-                    if (alwaysSync) {
-                        writer.sync();
+                // Reserve the IDs for the entire batch at once. Because we hold the lock for the journal, the events in
+                // each journal are still in ascending order of Event ID, which is what merging the journals relies on.
+                long eventId = idGenerator.getAndAdd(batch.size());
+                long bytesWritten = 0L;
+                for (final ProvenanceEventRecord nextRecord : batch) {
+                    final long journalOffset = writer.getNextRecordOffset();
+                    bytesWritten += writer.writeRecord(nextRecord, eventId);
+                    if (indexer != null) {
+                        indexer.index(nextRecord, eventId, journalIndex, journalOffset);
                     }
-
-                    totalJournalSize = bytesWrittenSinceRollover.addAndGet(bytesWritten);
-                    recordsWrittenSinceRollover.getAndIncrement();
-                } catch (final IOException ioe) {
-                    // We need to set the repoDirty flag before we release the lock for this journal.
-                    // Otherwise, another thread may write to this journal -- this is a problem because
-                    // the journal contains part of our record but not all of it. Writing to the end of this
-                    // journal will result in corruption!
-                    repoDirty.set(true);
-                    streamStartTime.set(0L);    // force rollover to happen soon.
-                    throw ioe;
-                } finally {
-                    writer.unlock();
+                    logger.trace("Wrote record with ID {} to {}", eventId, writer);
+                    eventId++;
                 }
-            } catch (final IOException ioe) {
-                logger.error("Failed to persist Provenance Event due to {}. Will not attempt to write to the Provenance Repository again until the repository has rolled over.", ioe.toString());
-                logger.error("", ioe);
-                eventReporter.reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to persist Provenance Event due to " + ioe.toString() + ". Will not attempt to write to the Provenance Repository again until the repository has rolled over");
 
-                // Switch from readLock to writeLock so that we can perform rollover
-                readLock.unlock();
-                try {
-                    writeLock.lock();
-                    try {
-                        logger.debug("Obtained write lock to rollover due to IOException on write");
-                        rollover(true);
-                    } finally {
-                        writeLock.unlock();
-                    }
-                } catch (final Exception e) {
-                    logger.error("Failed to Rollover Provenance Event Repository file due to {}", e.toString());
-                    logger.error("", e);
-                    eventReporter.reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to Rollover Provenance Event Repository file due to " + e.toString());
-                } finally {
-                    readLock.lock();
+                if (alwaysSync) {
+                    writer.sync();
                 }
 
-                return;
+                journalBytes = epoch.recordWritten(journalIndex, batch.size(), bytesWritten);
+            } catch (final IOException ioe) {
+                // We need to set the repoDirty flag before we release the lock for this journal.
+                // Otherwise, another thread may write to this journal -- this is a problem because
+                // the journal contains part of our record but not all of it. Writing to the end of this
+                // journal will result in corruption!
+                repoDirty.set(true);
+                streamStartTime.set(0L);    // force rollover to happen soon.
+                throw ioe;
+            } finally {
+                writer.unlock();
             }
-        } finally {
-            readLock.unlock();
+        } catch (final IOException ioe) {
+            logger.error("Failed to persist Provenance Event due to {}. Will not attempt to write to the Provenance Repository again until the repository has rolled over.", ioe.toString());
+            logger.error("", ioe);
+            eventReporter.reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to persist Provenance Event due to " + ioe.toString() + ". Will not attempt to write to the Provenance Repository again until the repository has rolled over");
+
+            writeLock.lock();
+            try {
+                logger.debug("Obtained write lock to rollover due to IOException on write");
+                rollover(true);
+            } catch (final Exception e) {
+                logger.error("Failed to Rollover Provenance Event Repository file due to {}", e.toString());
+                logger.error("", e);
+                eventReporter.reportEvent(Severity.ERROR, EVENT_CATEGORY, "Failed to Rollover Provenance Event Repository file due to " + e.toString());
+            } finally {
+                writeLock.unlock();
+            }
+
+            return;
         }
 
-        // If the total number of bytes written to the Journals is >= configured max, we need to roll over
-        if (totalJournalSize >= configuration.getMaxEventFileCapacity()) {
+        // If the total number of bytes written to the Journals is >= configured max, we need to roll over. Summing the
+        // journals' counters on every write would have every thread read every counter, so we only do so once this
+        // journal holds its share of the max; the periodic rollover check catches any journal that stops being written.
+        final long maxCapacity = configuration.getMaxEventFileCapacity();
+        if (journalBytes * epoch.writers.length >= maxCapacity && epoch.getBytesWritten() >= maxCapacity) {
             writeLock.lock();
             try {
                 logger.debug("Obtained write lock to perform rollover based on file size");
 
                 // now that we've obtained the lock, we need to verify that we still need to do the rollover, as
                 // another thread may have just done it.
-                if (bytesWrittenSinceRollover.get() >= configuration.getMaxEventFileCapacity()) {
+                if (journalEpoch.get() == epoch) {
                     try {
                         rollover(false);
                     } catch (IOException e) {
@@ -758,6 +844,28 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         }
     }
 
+    /**
+     * Locks the journal of the given epoch that is assigned to the current
+     * thread. If another thread that shares the journal holds its lock, any
+     * other journal that is free is used instead; the current thread waits
+     * only if every journal is in use.
+     *
+     * @return the index of the journal that was locked
+     */
+    private int lockJournal(final JournalEpoch epoch) {
+        final RecordWriter[] writers = epoch.writers;
+        final int assigned = assignedJournal.get() % writers.length;
+        for (int i = 0; i < writers.length; i++) {
+            final int journalIndex = (assigned + i) % writers.length;
+            if (writers[journalIndex].tryLock()) {
+                return journalIndex;
+            }
+        }
+
+        writers[assigned].lock();
+        return assigned;
+    }
+
     private List<File> getLogFiles() {
         final List<File> files = new ArrayList<>();
         for (final Path path : idToPathMap.get().values()) {
@@ -956,31 +1064,54 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
 
         // If this is the first time we're creating the out stream, or if we
         // have written something to the stream, then roll over
-        if (recordsWrittenSinceRollover.get() > 0L || repoDirty.get() || force) {
+        final JournalEpoch epoch = journalEpoch.get();
+        if (epoch.getRecordsWritten() > 0L || repoDirty.get() || force) {
+            // Lock every journal so that no event is being written, then swap in the next epoch before releasing the
+            // locks. A thread that was waiting for one of these journals will find the epoch closed and use the next one.
+            final JournalEpoch nextEpoch;
+            epoch.lockAll();
+            try {
+                nextEpoch = createJournalEpoch();
+                epoch.closed = true;
+                journalEpoch.set(nextEpoch);
+            } finally {
+                epoch.unlockAll();
+            }
+
             final List<File> journalsToMerge = new ArrayList<>();
-            for (final RecordWriter writer : writers) {
+            for (final RecordWriter writer : epoch.writers) {
                 final File writerFile = writer.getFile();
                 journalsToMerge.add(writerFile);
                 writer.close();
             }
 
-            writers = createWriters(configuration, idGenerator.get());
+            // If every event in the journals was indexed as it was written, the documents need only be committed
+            // once the journals have been merged; otherwise the merged file is indexed by the IndexingAction.
+            final File storageDir = epoch.storageDirectory;
+            final JournalIndexer indexer = epoch.indexer;
+            final boolean indexedInRealTime = indexer != null && indexer.isComplete() && !repoDirty.get();
+            final long maxEventId = nextEpoch.firstEventId - 1;
             streamStartTime.set(System.currentTimeMillis());
-            recordsWrittenSinceRollover.getAndSet(0);
-
-            final long storageDirIdx = storageDirectoryIndex.getAndIncrement();
-            final List<File> storageDirs = configuration.getStorageDirectories();
-            final File storageDir = storageDirs.get((int) (storageDirIdx % storageDirs.size()));
 
             final List<RolloverAction> actions = rolloverActions;
-            final int recordsWritten = recordsWrittenSinceRollover.getAndSet(0);
+            final long recordsWritten = epoch.getRecordsWritten();
             final Runnable rolloverRunnable = new Runnable() {
                 @Override
                 public void run() {
+                    try {
+                        performRollover();
+                    } finally {
+                        if (indexer != null) {
+                            indexer.close();
+                        }
+                    }
+                }
+
+                private void performRollover() {
                     final File fileRolledOver;
 
                     try {
-                        fileRolledOver = mergeJournals(journalsToMerge, storageDir, getMergeFile(journalsToMerge, storageDir), eventReporter, latestRecords);
+                        fileRolledOver = mergeJournals(journalsToMerge, storageDir, getMergeFile(journalsToMerge, storageDir, configuration.isCompressOnRollover()), eventReporter, latestRecords);
                         repoDirty.set(false);
                     } catch (final IOException ioe) {
                         repoDirty.set(true);
@@ -994,28 +1125,28 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
                     }
                     File file = fileRolledOver;
 
+                    if (indexedInRealTime) {
+                        try {
+                            file = indexer.commit(fileRolledOver, maxEventId);
+                        } catch (final IOException ioe) {
+                            logger.warn("Failed to commit the index for {} due to {}; the file will be indexed again", fileRolledOver, ioe.toString());
+                            if (logger.isDebugEnabled()) {
+                                logger.warn("", ioe);
+                            }
+                        }
+                    }
+
                     for (final RolloverAction action : actions) {
+                        if (action.hasBeenPerformed(file)) {
+                            continue;
+                        }
+
                         try {
                             final StopWatch stopWatch = new StopWatch(true);
                             file = action.execute(file);
                             stopWatch.stop();
                             logger.info("Successfully performed Rollover Action {} for {} in {}", action, file, stopWatch.getDuration());
-
-                            // update our map of id to Path
-                            // need lock to update the map, even though it's an AtomicReference, AtomicReference allows those doing a
-                            // get() to obtain the most up-to-date version but we use a writeLock to prevent multiple threads modifying
-                            // it at one time
-                            writeLock.lock();
-                            try {
-                                final Long fileFirstEventId = Long.valueOf(LuceneUtil.substringBefore(fileRolledOver.getName(), "."));
-                                SortedMap<Long, Path> newIdToPathMap = new TreeMap<>(new PathMapComparator());
-                                newIdToPathMap.putAll(idToPathMap.get());
-                                newIdToPathMap.put(fileFirstEventId, file.toPath());
-                                idToPathMap.set(newIdToPathMap);
-                                logger.trace("After rollover action {}, path map: {}", action, newIdToPathMap);
-                            } finally {
-                                writeLock.unlock();
-                            }
+                            updatePathMap(fileRolledOver, file);
                         } catch (final Throwable t) {
                             logger.error("Failed to perform Rollover Action {} for {}: got Exception {}",
                                     action, fileRolledOver, t.toString());
@@ -1025,22 +1156,8 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
                         }
                     }
 
-                    if (actions.isEmpty()) {
-                        // update our map of id to Path
-                        // need lock to update the map, even though it's an AtomicReference, AtomicReference allows those doing a
-                        // get() to obtain the most up-to-date version but we use a writeLock to prevent multiple threads modifying
-                        // it at one time
-                        writeLock.lock();
-                        try {
-                            final Long fileFirstEventId = Long.valueOf(LuceneUtil.substringBefore(fileRolledOver.getName(), "."));
-                            SortedMap<Long, Path> newIdToPathMap = new TreeMap<>(new PathMapComparator());
-                            newIdToPathMap.putAll(idToPathMap.get());
-                            newIdToPathMap.put(fileFirstEventId, file.toPath());
-                            idToPathMap.set(newIdToPathMap);
-                        } finally {
-                            writeLock.unlock();
-                        }
-                    }
+                    // the file may have been renamed when its index was committed, in which case no action may have updated the map
+                    updatePathMap(fileRolledOver, file);
 
                     logger.info("Successfully Rolled over Provenance Event file containing {} records", recordsWritten);
                     rolloverCompletions.getAndIncrement();
@@ -1050,7 +1167,28 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             rolloverExecutor.submit(rolloverRunnable);
 
             streamStartTime.set(System.currentTimeMillis());
-            bytesWrittenSinceRollover.set(0);
+        }
+    }
+
+    /**
+     * Updates our map of id to Path so that it points to the given file, which
+     * is the rolled over file after any rollover actions have been performed on
+     * it
+     */
+    private void updatePathMap(final File fileRolledOver, final File file) {
+        // need lock to update the map, even though it's an AtomicReference, AtomicReference allows those doing a
+        // get() to obtain the most up-to-date version but we use a writeLock to prevent multiple threads modifying
+        // it at one time
+        writeLock.lock();
+        try {
+            final Long fileFirstEventId = Long.valueOf(LuceneUtil.substringBefore(fileRolledOver.getName(), "."));
+            final SortedMap<Long, Path> newIdToPathMap = new TreeMap<>(new PathMapComparator());
+            newIdToPathMap.putAll(idToPathMap.get());
+            newIdToPathMap.put(fileFirstEventId, file.toPath());
+            idToPathMap.set(newIdToPathMap);
+            logger.trace("After rollover of {}, path map: {}", fileRolledOver, newIdToPathMap);
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -1106,7 +1244,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         for (final List<File> journalFileSet : journalMap.values()) {
             final long storageDirIdx = storageDirectoryIndex.getAndIncrement();
             final File storageDir = storageDirs.get((int) (storageDirIdx % storageDirs.size()));
-            final File mergedFile = mergeJournals(journalFileSet, storageDir, getMergeFile(journalFileSet, storageDir), eventReporter, latestRecords);
+            final File mergedFile = mergeJournals(journalFileSet, storageDir, getMergeFile(journalFileSet, storageDir, configuration.isCompressOnRollover()), eventReporter, latestRecords);
             if (mergedFile != null) {
                 mergedFiles.add(mergedFile);
             }
@@ -1115,7 +1253,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         return mergedFiles;
     }
 
-    static File getMergeFile(final List<File> journalFiles, final File storageDir) {
+    static File getMergeFile(final List<File> journalFiles, final File storageDir, final boolean compressed) {
         // verify that all Journal files have the same basename
         String canonicalBaseName = null;
         for (final File journal : journalFiles) {
@@ -1129,7 +1267,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             }
         }
 
-        final File mergedFile = new File(storageDir, canonicalBaseName + ".prov");
+        final File mergedFile = new File(storageDir, canonicalBaseName + (compressed ? ".prov.gz" : ".prov"));
         return mergedFile;
     }
 
@@ -1143,7 +1281,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             throw new FileAlreadyExistsException("Cannot Merge " + journalFiles.size() + " Journal Files into Merged Provenance Log File " + mergedFile.getAbsolutePath() + " because the Merged File already exists");
         }
 
-        final File tempMergedFile = new File(mergedFile.getParentFile(), mergedFile.getName() + ".part");
+        final File tempMergedFile = new File(mergedFile.getParentFile(), mergedFile.getName() + TEMP_FILE_SUFFIX);
 
         // Map each journal to a RecordReader
         final List<RecordReader> readers = new ArrayList<>();
@@ -1201,7 +1339,10 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
 
             // loop over each entry in the map, persisting the records to the merged file in order, and populating the map
             // with the next entry from the journal file from which the previous record was written.
-            try (final RecordWriter writer = RecordWriters.newRecordWriter(tempMergedFile)) {
+            // If the merged file is to be compressed, the events are written in compressed blocks along with a Table of
+            // Contents, so that an event can be read without decompressing the entire file.
+            final boolean compressed = mergedFile.getName().endsWith(".gz");
+            try (final RecordWriter writer = RecordWriters.newRecordWriter(tempMergedFile, compressed, compressed)) {
                 writer.writeHeader();
 
                 while (!recordToReaderMap.isEmpty()) {
@@ -1353,10 +1494,25 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             return result;
         }
 
-        final AtomicInteger retrievalCount = new AtomicInteger(0);
-        final List<File> indexDirectories = indexConfig.getIndexDirectories(
+        final EventTimeThreshold eventTimeThreshold = new EventTimeThreshold(query.getMaxResults());
+        final List<File> indexDirectories = getIndexDirectories(
                 query.getStartDate() == null ? null : query.getStartDate().getTime(),
                 query.getEndDate() == null ? null : query.getEndDate().getTime());
+
+        // Search the newest indices first. Once they have provided enough hits, the hits from older indices are older
+        // than all of those, so the older indices do not have to read any events from disk.
+        final Set<File> openDirectories = indexManager.getOpenIndexDirectories();
+        Collections.sort(indexDirectories, new Comparator<File>() {
+            @Override
+            public int compare(final File o1, final File o2) {
+                final boolean open1 = openDirectories.contains(o1);
+                final boolean open2 = openDirectories.contains(o2);
+                if (open1 != open2) {
+                    return open1 ? -1 : 1;
+                }
+                return Long.compare(o2.lastModified(), o1.lastModified());
+            }
+        });
         final AsyncQuerySubmission result = new AsyncQuerySubmission(query, indexDirectories.size());
         querySubmissionMap.put(query.getIdentifier(), result);
 
@@ -1364,13 +1520,30 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
             result.getResult().update(Collections.<ProvenanceEventRecord>emptyList(), 0L);
         } else {
             for (final File indexDir : indexDirectories) {
-                queryExecService.submit(new QueryRunnable(query, result, indexDir, retrievalCount));
+                queryExecService.submit(new QueryRunnable(query, result, indexDir, eventTimeThreshold));
             }
         }
 
         return result;
     }
 
+    /**
+     * Returns the index directories that may contain events in the given time
+     * range. Directories that are currently being written to are always
+     * included, as they may contain events that are newer than the time at
+     * which the directory was last modified.
+     */
+    private List<File> getIndexDirectories(final Long startTime, final Long endTime) {
+        final List<File> indexDirectories = new ArrayList<>(indexConfig.getIndexDirectories(startTime, endTime));
+        for (final File openDirectory : indexManager.getOpenIndexDirectories()) {
+            if (!indexDirectories.contains(openDirectory)) {
+                indexDirectories.add(openDirectory);
+            }
+        }
+
+        return indexDirectories;
+    }
+
     /**
      * REMOVE-ME: This is for testing only and can be removed.
      *
@@ -1564,7 +1737,7 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
     }
 
     private AsyncLineageSubmission submitLineageComputation(final Collection<String> flowFileUuids, final LineageComputationType computationType, final Long eventId, final long startTimestamp, final long endTimestamp) {
-        final List<File> indexDirs = indexConfig.getIndexDirectories(startTimestamp, endTimestamp);
+        final List<File> indexDirs = getIndexDirectories(startTimestamp, endTimestamp);
         final AsyncLineageSubmission result = new AsyncLineageSubmission(computationType, eventId, flowFileUuids, indexDirs.size());
         lineageSubmissionMap.put(result.getLineageIdentifier(), result);
 
@@ -1674,7 +1847,8 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
     }
 
     private boolean needToRollover() {
-        final long writtenSinceRollover = bytesWrittenSinceRollover.get();
+        final JournalEpoch epoch = journalEpoch.get();
+        final long writtenSinceRollover = epoch == null ? 0L : epoch.getBytesWritten();
 
         if (writtenSinceRollover >= maxPartitionBytes) {
             return true;
@@ -1765,20 +1939,20 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         private final Query query;
         private final AsyncQuerySubmission submission;
         private final File indexDir;
-        private final AtomicInteger retrievalCount;
+        private final EventTimeThreshold eventTimeThreshold;
 
-        public QueryRunnable(final Query query, final AsyncQuerySubmission submission, final File indexDir, final AtomicInteger retrievalCount) {
+        public QueryRunnable(final Query query, final AsyncQuerySubmission submission, final File indexDir, final EventTimeThreshold eventTimeThreshold) {
             this.query = query;
             this.submission = submission;
             this.indexDir = indexDir;
-            this.retrievalCount = retrievalCount;
+            this.eventTimeThreshold = eventTimeThreshold;
         }
 
         @Override
         public void run() {
             try {
                 final IndexSearch search = new IndexSearch(PersistentProvenanceRepository.this, indexDir);
-                final StandardQueryResult queryResult = search.search(query, retrievalCount);
+                final StandardQueryResult queryResult = search.search(query, eventTimeThreshold);
                 submission.getResult().update(queryResult.getMatchingEvents(), queryResult.getTotalHitCount());
                 if (queryResult.isFinished()) {
                     logger.info("Successfully executed Query[{}] against Index {}; Search took {} milliseconds; Total Hits = {}",
@@ -1872,6 +2046,77 @@ public class PersistentProvenanceRepository implements ProvenanceEventRepository
         }
     }
 
+    /**
+     * The journals that events are written to between two rollovers. A thread
+     * writes to one journal at a time, holding only that journal's lock. To
+     * roll over, the write lock's holder locks every journal of the epoch,
+     * marks it closed and swaps in the next epoch, so writing an event never
+     * needs a lock that is shared by all threads.
+     */
+    private static class JournalEpoch {
+
+        private final RecordWriter[] writers;
+        private final File storageDirectory;
+        private final JournalIndexer indexer;
+        private final long firstEventId;
+        private final AtomicLong[] bytesWritten;
+        private final AtomicLong[] recordsWritten;
+
+        // modified only while holding the lock of every journal
+        private volatile boolean closed = false;
+
+        public JournalEpoch(final RecordWriter[] writers, final File storageDirectory, final JournalIndexer indexer, final long firstEventId) {
+            this.writers = writers;
+            this.storageDirectory = storageDirectory;
+            this.indexer = indexer;
+            this.firstEventId = firstEventId;
+            this.bytesWritten = new AtomicLong[writers.length];
+            this.recordsWritten = new AtomicLong[writers.length];
+            for (int i = 0; i < writers.length; i++) {
+                bytesWritten[i] = new AtomicLong(0L);
+                recordsWritten[i] = new AtomicLong(0L);
+            }
+        }
+
+        /**
+         * Must be called while holding the lock of the given journal
+         *
+         * @return the number of bytes written to the journal
+         */
+        public long recordWritten(final int journalIndex, final int records, final long bytes) {
+            recordsWritten[journalIndex].addAndGet(records);
+            return bytesWritten[journalIndex].addAndGet(bytes);
+        }
+
+        public long getBytesWritten() {
+            long total = 0L;
+            for (final AtomicLong count : bytesWritten) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        public long getRecordsWritten() {
+            long total = 0L;
+            for (final AtomicLong count : recordsWritten) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        public void lockAll() {
+            for (final RecordWriter writer : writers) {
+                writer.lock();
+            }
+        }
+
+        public void unlockAll() {
+            for (final RecordWriter writer : writers) {
+                writer.unlock();
+            }
+        }
+    }
+
     private static class NamedThreadFactory implements ThreadFactory {
 
         private final AtomicInteger counter = new AtomicInteger(0);
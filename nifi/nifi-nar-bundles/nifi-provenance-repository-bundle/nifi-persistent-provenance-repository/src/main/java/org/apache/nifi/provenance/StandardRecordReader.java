@@ -17,6 +17,7 @@
 package org.apache.nifi.provenance;
 
 import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
@@ -25,36 +26,71 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.nifi.stream.io.BufferedInputStream;
+import org.apache.nifi.stream.io.ByteArrayInputStream;
 import org.apache.nifi.stream.io.ByteCountingInputStream;
 import org.apache.nifi.stream.io.StreamUtils;
 import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.toc.TocReader;
 
 public class StandardRecordReader implements RecordReader {
 
-    private final DataInputStream dis;
-    private final ByteCountingInputStream byteCountingIn;
     private final String filename;
     private final int serializationVersion;
+    private final FileInputStream rawInputStream;
+    private final TocReader tocReader;
+
+    private DataInputStream dis;
+    private ByteCountingInputStream byteCountingIn;
+    private int blockIndex = -1;
+    private long lastEventId = -1L;
 
     public StandardRecordReader(final InputStream in, final int serializationVersion, final String filename) {
-        if (serializationVersion < 1 || serializationVersion > 7) {
-            throw new IllegalArgumentException("Unable to deserialize record because the version is " + serializationVersion + " and supported versions are 1-6");
-        }
+        checkSerializationVersion(serializationVersion);
 
         byteCountingIn = new ByteCountingInputStream(in);
         this.dis = new DataInputStream(byteCountingIn);
         this.serializationVersion = serializationVersion;
         this.filename = filename;
+        this.rawInputStream = null;
+        this.tocReader = null;
     }
 
-    private StandardProvenanceEventRecord readPreVersion6Record() throws IOException {
-        final long startOffset = byteCountingIn.getBytesConsumed();
+    /**
+     * Creates a reader for a block-compressed file whose blocks are described
+     * by the given Table of Contents. Blocks are read from the given stream as
+     * they are needed.
+     *
+     * @param rawInputStream the stream for the file, which this reader will
+     * close
+     * @param tocReader the Table of Contents for the file
+     * @param serializationVersion the serialization version of the file
+     * @param filename the name of the file
+     */
+    public StandardRecordReader(final FileInputStream rawInputStream, final TocReader tocReader, final int serializationVersion, final String filename) {
+        checkSerializationVersion(serializationVersion);
+
+        this.rawInputStream = rawInputStream;
+        this.tocReader = tocReader;
+        this.serializationVersion = serializationVersion;
+        this.filename = filename;
+    }
 
-        if (!isData(byteCountingIn)) {
+    private static void checkSerializationVersion(final int serializationVersion) {
+        if (serializationVersion < 1 || serializationVersion > 7) {
+            throw new IllegalArgumentException("Unable to deserialize record because the version is " + serializationVersion + " and supported versions are 1-6");
+        }
+    }
+
+    private StandardProvenanceEventRecord readPreVersion6Record() throws IOException {
+        if (!hasMoreData()) {
             return null;
         }
 
+        final long startOffset = byteCountingIn.getBytesConsumed();
+
         final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
 
         final long eventId = dis.readLong();
@@ -125,6 +161,7 @@ public class StandardRecordReader implements RecordReader {
 
         final StandardProvenanceEventRecord record = builder.build();
         record.setEventId(eventId);
+        lastEventId = eventId;
         return record;
     }
 
@@ -135,12 +172,12 @@ public class StandardRecordReader implements RecordReader {
             return readPreVersion6Record();
         }
 
-        final long startOffset = byteCountingIn.getBytesConsumed();
-
-        if (!isData(byteCountingIn)) {
+        if (!hasMoreData()) {
             return null;
         }
 
+        final long startOffset = byteCountingIn.getBytesConsumed();
+
         final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
 
         final long eventId = dis.readLong();
@@ -226,6 +263,7 @@ public class StandardRecordReader implements RecordReader {
 
         final StandardProvenanceEventRecord record = builder.build();
         record.setEventId(eventId);
+        lastEventId = eventId;
         return record;
     }
 
@@ -272,6 +310,29 @@ public class StandardRecordReader implements RecordReader {
         return new String(strBytes, "UTF-8");
     }
 
+    /**
+     * Determines whether or not there is another record to read, moving on to
+     * the next block if the current block has been exhausted
+     */
+    private boolean hasMoreData() throws IOException {
+        if (byteCountingIn != null && isData(byteCountingIn)) {
+            return true;
+        }
+
+        if (tocReader == null) {
+            return false;
+        }
+
+        while (blockIndex + 1 < tocReader.getBlockCount()) {
+            skipToBlock(blockIndex + 1);
+            if (isData(byteCountingIn)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private boolean isData(final InputStream in) throws IOException {
         in.mark(1);
         final int nextByte = in.read();
@@ -281,16 +342,22 @@ public class StandardRecordReader implements RecordReader {
 
     @Override
     public void close() throws IOException {
-        dis.close();
+        if (rawInputStream != null) {
+            rawInputStream.close();
+        } else {
+            dis.close();
+        }
     }
 
     @Override
     public void skip(final long bytesToSkip) throws IOException {
+        ensureBlockOpen();
         StreamUtils.skip(dis, bytesToSkip);
     }
 
     @Override
     public void skipTo(final long position) throws IOException {
+        ensureBlockOpen();
         final long currentPosition = byteCountingIn.getBytesConsumed();
         if (currentPosition == position) {
             return;
@@ -302,4 +369,67 @@ public class StandardRecordReader implements RecordReader {
         final long toSkip = position - currentPosition;
         StreamUtils.skip(dis, toSkip);
     }
+
+    private void ensureBlockOpen() throws IOException {
+        if (byteCountingIn == null && tocReader.getBlockCount() > 0) {
+            skipToBlock(0);
+        }
+    }
+
+    @Override
+    public void skipToBlock(final int blockIndex) throws IOException {
+        if (tocReader == null) {
+            throw new IllegalStateException("Cannot skip to block " + blockIndex + " of " + filename + " because it has no Table of Contents");
+        }
+        if (blockIndex < 0 || blockIndex >= tocReader.getBlockCount()) {
+            throw new IllegalArgumentException("Cannot skip to block " + blockIndex + " of " + filename + " because it has only "
+                    + tocReader.getBlockCount() + " blocks");
+        }
+
+        final long blockStart = tocReader.getBlockOffset(blockIndex);
+        final long blockEnd = blockIndex + 1 < tocReader.getBlockCount() ? tocReader.getBlockOffset(blockIndex + 1) : rawInputStream.getChannel().size();
+
+        // Read the entire compressed block so that the GZIP stream cannot read into the next block
+        final byte[] compressedBlock = new byte[(int) (blockEnd - blockStart)];
+        rawInputStream.getChannel().position(blockStart);
+        StreamUtils.fillBuffer(rawInputStream, compressedBlock);
+
+        final InputStream blockIn = tocReader.isCompressed() ? new GZIPInputStream(new ByteArrayInputStream(compressedBlock)) : new ByteArrayInputStream(compressedBlock);
+        byteCountingIn = new ByteCountingInputStream(new BufferedInputStream(blockIn));
+        dis = new DataInputStream(byteCountingIn);
+        this.blockIndex = blockIndex;
+        lastEventId = -1L;
+    }
+
+    @Override
+    public StandardProvenanceEventRecord skipToEvent(final long eventId) throws IOException {
+        if (tocReader != null) {
+            if (tocReader.getBlockCount() == 0) {
+                return null;
+            }
+
+            final int eventBlockIndex = tocReader.getBlockIndexForEventId(eventId);
+            if (eventBlockIndex != blockIndex || lastEventId >= eventId) {
+                skipToBlock(eventBlockIndex);
+            }
+        } else if (lastEventId >= eventId) {
+            throw new IOException("Cannot skip to Event ID " + eventId + " in " + filename + " because already at Event ID " + lastEventId);
+        }
+
+        StandardProvenanceEventRecord record;
+        while ((record = nextRecord()) != null && record.getEventId() < eventId) {
+        }
+
+        return record;
+    }
+
+    @Override
+    public int getBlockIndex() {
+        return blockIndex;
+    }
+
+    @Override
+    public TocReader getTocReader() {
+        return tocReader;
+    }
 }
@@ -28,23 +28,59 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.nifi.stream.io.BufferedOutputStream;
 import org.apache.nifi.stream.io.ByteCountingOutputStream;
 import org.apache.nifi.stream.io.DataOutputStream;
+import org.apache.nifi.stream.io.GZIPOutputStream;
+import org.apache.nifi.stream.io.NonCloseableOutputStream;
 import org.apache.nifi.provenance.serialization.RecordWriter;
-
+import org.apache.nifi.provenance.toc.TocWriter;
+
+/**
+ * Writes Provenance Events to a file. If the writer is compressed, the header
+ * is written uncompressed and the events are written in independently
+ * GZIP'ed blocks; a new block is started once the current block holds at
+ * least the configured number of uncompressed bytes. The location of each
+ * block is recorded by the {@link TocWriter}, if one is given, so that a
+ * reader can decompress only the block that holds the event it is looking
+ * for.
+ */
 public class StandardRecordWriter implements RecordWriter {
 
     private final File file;
-    private final DataOutputStream out;
-    private final ByteCountingOutputStream byteCountingOut;
     private final FileOutputStream fos;
+    private final ByteCountingOutputStream rawOutStream;
+    private final TocWriter tocWriter;
+    private final boolean compressed;
+    private final int uncompressedBlockSize;
+
+    private DataOutputStream out;
+    private ByteCountingOutputStream byteCountingOut;
     private int recordCount = 0;
+    private long headerLength = 0L;
 
     private final Lock lock = new ReentrantLock();
 
     public StandardRecordWriter(final File file) throws IOException {
+        this(file, null, false, 0);
+    }
+
+    /**
+     * @param file the file to write to
+     * @param tocWriter the writer for the file's Table of Contents, or
+     * <code>null</code> if no Table of Contents is to be written
+     * @param compressed whether or not to compress the events
+     * @param uncompressedBlockSize the number of uncompressed bytes after which
+     * a new compressed block is started
+     * @throws IOException if unable to create the file
+     */
+    public StandardRecordWriter(final File file, final TocWriter tocWriter, final boolean compressed, final int uncompressedBlockSize) throws IOException {
         this.file = file;
         this.fos = new FileOutputStream(file);
-        this.byteCountingOut = new ByteCountingOutputStream(new BufferedOutputStream(fos, 65536));
-        this.out = new DataOutputStream(byteCountingOut);
+        this.rawOutStream = new ByteCountingOutputStream(new BufferedOutputStream(fos, 65536));
+        this.tocWriter = tocWriter;
+        this.compressed = compressed;
+        this.uncompressedBlockSize = uncompressedBlockSize;
+
+        this.byteCountingOut = rawOutStream;
+        this.out = new DataOutputStream(rawOutStream);
     }
 
     static void writeUUID(final DataOutputStream out, final String uuid) throws IOException {
@@ -74,11 +110,53 @@ public class StandardRecordWriter implements RecordWriter {
         out.writeUTF(PersistentProvenanceRepository.class.getName());
         out.writeInt(PersistentProvenanceRepository.SERIALIZATION_VERSION);
         out.flush();
+        headerLength = byteCountingOut.getBytesWritten();
+
+        if (compressed) {
+            // the events are written to blocks, which are started as the events are written
+            out = null;
+            byteCountingOut = null;
+        }
+    }
+
+    @Override
+    public synchronized long getNextRecordOffset() {
+        if (compressed) {
+            return byteCountingOut == null ? 0L : byteCountingOut.getBytesWritten();
+        }
+
+        return byteCountingOut.getBytesWritten() - headerLength;
+    }
+
+    /**
+     * Starts a new compressed block, whose first event will have the given ID
+     */
+    private void startBlock(final long firstEventId) throws IOException {
+        if (tocWriter != null) {
+            tocWriter.addBlockOffset(rawOutStream.getBytesWritten(), firstEventId);
+        }
+
+        // The block is written to a separate GZIP stream so that it can be decompressed on its own. The raw stream
+        // must not be closed when the block is finished.
+        final GZIPOutputStream gzipOut = new GZIPOutputStream(new NonCloseableOutputStream(rawOutStream), 1);
+        byteCountingOut = new ByteCountingOutputStream(new BufferedOutputStream(gzipOut, 65536));
+        out = new DataOutputStream(byteCountingOut);
+    }
+
+    private void finishBlock() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            byteCountingOut = null;
+        }
     }
 
     @Override
     public synchronized long writeRecord(final ProvenanceEventRecord record, long recordIdentifier) throws IOException {
         final ProvenanceEventType recordType = record.getEventType();
+        if (compressed && out == null) {
+            startBlock(recordIdentifier);
+        }
         final long startBytes = byteCountingOut.getBytesWritten();
 
         out.writeLong(recordIdentifier);
@@ -167,7 +245,13 @@ public class StandardRecordWriter implements RecordWriter {
 
         out.flush();
         recordCount++;
-        return byteCountingOut.getBytesWritten() - startBytes;
+        final long bytesWritten = byteCountingOut.getBytesWritten() - startBytes;
+
+        if (compressed && byteCountingOut.getBytesWritten() >= uncompressedBlockSize) {
+            finishBlock();
+        }
+
+        return bytesWritten;
     }
 
     private void writeNullableString(final DataOutputStream out, final String toWrite) throws IOException {
@@ -198,8 +282,15 @@ public class StandardRecordWriter implements RecordWriter {
     public synchronized void close() throws IOException {
         lock();
         try {
-            out.flush();
-            out.close();
+            try {
+                finishBlock();
+                rawOutStream.flush();
+                rawOutStream.close();
+            } finally {
+                if (tocWriter != null) {
+                    tocWriter.close();
+                }
+            }
         } finally {
             unlock();
         }
@@ -232,6 +323,9 @@ public class StandardRecordWriter implements RecordWriter {
 
     @Override
     public void sync() throws IOException {
+        if (tocWriter != null) {
+            tocWriter.sync();
+        }
         fos.getFD().sync();
     }
 }
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 
 import org.apache.nifi.provenance.lucene.DeleteIndexAction;
+import org.apache.nifi.provenance.toc.TocUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,7 @@ public class FileRemovalAction implements ExpirationAction {
         for (int i = 0; i < 10 && !removed; i++) {
             if ((removed = expiredFile.delete())) {
                 logger.info("Removed expired Provenance Event file {}", expiredFile);
+                removeTableOfContents(expiredFile);
                 return null;
             }
         }
@@ -42,6 +44,13 @@ public class FileRemovalAction implements ExpirationAction {
         return expiredFile;
     }
 
+    private void removeTableOfContents(final File expiredFile) {
+        final File tocFile = TocUtil.getTocFile(expiredFile);
+        if (tocFile.exists() && !tocFile.delete()) {
+            logger.warn("Failed to remove Table of Contents {} for expired Provenance Event file {}", tocFile, expiredFile);
+        }
+    }
+
     @Override
     public boolean hasBeenPerformed(final File expiredFile) throws IOException {
         return !expiredFile.exists();
@@ -16,6 +16,7 @@
  */
 package org.apache.nifi.provenance.lucene;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -23,8 +24,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -35,12 +38,16 @@ import org.apache.nifi.provenance.serialization.RecordReaders;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
 public class DocsReader {
 
+    private final List<File> storageDirectories;
+
     public DocsReader(final List<File> storageDirectories) {
+        this.storageDirectories = storageDirectories;
     }
 
     public Set<ProvenanceEventRecord> read(final TopDocs topDocs, final IndexReader indexReader, final Collection<Path> allProvenanceLogFiles, final AtomicInteger retrievalCount, final int maxResults) throws IOException {
@@ -62,63 +69,25 @@ public class DocsReader {
     public Set<ProvenanceEventRecord> read(final List<Document> docs, final Collection<Path> allProvenanceLogFiles, final AtomicInteger retrievalCount, final int maxResults) throws IOException {
         LuceneUtil.sortDocsForRetrieval(docs);
 
-        RecordReader reader = null;
-        String lastStorageFilename = null;
-        long lastByteOffset = 0L;
+        StorageFileReader reader = null;
         final Set<ProvenanceEventRecord> matchingRecords = new LinkedHashSet<>();
 
         try {
             for (final Document d : docs) {
                 final String storageFilename = d.getField(FieldNames.STORAGE_FILENAME).stringValue();
-                final long byteOffset = d.getField(FieldNames.STORAGE_FILE_OFFSET).numericValue().longValue();
+                if (reader == null || !storageFilename.equals(reader.getStorageFilename())) {
+                    if (reader != null) {
+                        reader.close();
+                    }
+                    reader = new StorageFileReader(storageFilename, allProvenanceLogFiles);
+                }
 
-                try {
-                    if (reader != null && storageFilename.equals(lastStorageFilename) && byteOffset > lastByteOffset) {
-                        // Still the same file and the offset is downstream.
-                        try {
-                            reader.skipTo(byteOffset);
-                            final StandardProvenanceEventRecord record = reader.nextRecord();
-                            matchingRecords.add(record);
-                            if (retrievalCount.incrementAndGet() >= maxResults) {
-                                break;
-                            }
-                        } catch (final IOException e) {
-                            throw new FileNotFoundException("Could not find Provenance Log File with basename " + storageFilename + " in the Provenance Repository");
-                        }
-
-                    } else {
-                        if (reader != null) {
-                            reader.close();
-                        }
-
-                        final List<File> potentialFiles = LuceneUtil.getProvenanceLogFiles(storageFilename, allProvenanceLogFiles);
-                        if (potentialFiles.isEmpty()) {
-                            throw new FileNotFoundException("Could not find Provenance Log File with basename " + storageFilename + " in the Provenance Repository");
-                        }
-
-                        if (potentialFiles.size() > 1) {
-                            throw new FileNotFoundException("Found multiple Provenance Log Files with basename " + storageFilename + " in the Provenance Repository");
-                        }
-
-                        for (final File file : potentialFiles) {
-                            reader = RecordReaders.newRecordReader(file, allProvenanceLogFiles);
-
-                            try {
-                                reader.skip(byteOffset);
-
-                                final StandardProvenanceEventRecord record = reader.nextRecord();
-                                matchingRecords.add(record);
-                                if (retrievalCount.incrementAndGet() >= maxResults) {
-                                    break;
-                                }
-                            } catch (final IOException e) {
-                                throw new IOException("Failed to retrieve record from Provenance File " + file + " due to " + e, e);
-                            }
-                        }
+                final StandardProvenanceEventRecord record = reader.read(d);
+                if (record != null) {
+                    matchingRecords.add(record);
+                    if (retrievalCount.incrementAndGet() >= maxResults) {
+                        break;
                     }
-                } finally {
-                    lastStorageFilename = storageFilename;
-                    lastByteOffset = byteOffset;
                 }
             }
         } finally {
@@ -130,4 +99,174 @@ public class DocsReader {
         return matchingRecords;
     }
 
+    private File getJournalFile(final String storageFilename, final int journalIndex) {
+        final String journalFilename = storageFilename + ".journal." + journalIndex;
+        for (final File storageDirectory : storageDirectories) {
+            final File journalFile = new File(new File(storageDirectory, "journals"), journalFilename);
+            if (journalFile.exists()) {
+                return journalFile;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the events that have a given storage filename. An event that was
+     * indexed from a Provenance Log File is read at the offset that was indexed.
+     * An event that was indexed as it was written to a journal is read from that
+     * journal if the journal still exists; otherwise, the journal has been
+     * merged into a Provenance Log File, and the event is found in that file by
+     * its Event ID. The documents must be read in the order given by
+     * {@link LuceneUtil#sortDocsForRetrieval(List)}.
+     */
+    private class StorageFileReader implements Closeable {
+
+        private final String storageFilename;
+        private final Collection<Path> allProvenanceLogFiles;
+        private final Map<Integer, RecordReader> journalReaders = new HashMap<>();
+        private final Map<Integer, Long> journalOffsets = new HashMap<>();
+
+        private RecordReader logFileReader;
+        private long lastByteOffset = -1L;
+        private StandardProvenanceEventRecord lastRecord;
+
+        public StorageFileReader(final String storageFilename, final Collection<Path> allProvenanceLogFiles) {
+            this.storageFilename = storageFilename;
+            this.allProvenanceLogFiles = allProvenanceLogFiles;
+        }
+
+        public String getStorageFilename() {
+            return storageFilename;
+        }
+
+        public StandardProvenanceEventRecord read(final Document d) throws IOException {
+            final long byteOffset = d.getField(FieldNames.STORAGE_FILE_OFFSET).numericValue().longValue();
+            final IndexableField journalField = d.getField(FieldNames.STORAGE_FILE_JOURNAL);
+            if (journalField != null) {
+                final int journalIndex = journalField.numericValue().intValue();
+                final StandardProvenanceEventRecord record = readFromJournal(journalIndex, byteOffset);
+                if (record != null) {
+                    return record;
+                }
+
+                final IndexableField eventIdField = d.getField(FieldNames.EVENT_IDENTIFIER);
+                return readFromLogFile(eventIdField.numericValue().longValue());
+            }
+
+            final IndexableField blockField = d.getField(FieldNames.BLOCK_INDEX);
+            if (blockField == null && byteOffset <= lastByteOffset) {
+                resetLogFileReader();
+            }
+
+            final RecordReader reader = getLogFileReader();
+            try {
+                if (blockField != null) {
+                    // the offset is within the block, so only that block needs to be decompressed
+                    final int blockIndex = blockField.numericValue().intValue();
+                    if (blockIndex != reader.getBlockIndex() || byteOffset <= lastByteOffset) {
+                        reader.skipToBlock(blockIndex);
+                    }
+                }
+
+                reader.skipTo(byteOffset);
+                lastRecord = reader.nextRecord();
+                lastByteOffset = byteOffset;
+                return lastRecord;
+            } catch (final IOException e) {
+                throw new IOException("Failed to retrieve record from Provenance File with basename " + storageFilename + " due to " + e, e);
+            }
+        }
+
+        /**
+         * @return the record at the given offset of the given journal, or
+         * <code>null</code> if the journal no longer exists
+         */
+        private StandardProvenanceEventRecord readFromJournal(final int journalIndex, final long byteOffset) throws IOException {
+            RecordReader reader = journalReaders.get(journalIndex);
+            final Long lastOffset = journalOffsets.get(journalIndex);
+            if (reader == null || lastOffset == null || byteOffset <= lastOffset) {
+                if (reader != null) {
+                    reader.close();
+                    journalReaders.remove(journalIndex);
+                }
+
+                final File journalFile = getJournalFile(storageFilename, journalIndex);
+                if (journalFile == null) {
+                    return null;
+                }
+
+                try {
+                    reader = RecordReaders.newRecordReader(journalFile, null);
+                } catch (final FileNotFoundException fnfe) {
+                    // the journal was merged after we checked for its existence
+                    return null;
+                }
+                journalReaders.put(journalIndex, reader);
+            }
+
+            reader.skipTo(byteOffset);
+            journalOffsets.put(journalIndex, byteOffset);
+            return reader.nextRecord();
+        }
+
+        private StandardProvenanceEventRecord readFromLogFile(final long eventId) throws IOException {
+            if (lastRecord != null && lastRecord.getEventId() > eventId) {
+                resetLogFileReader();
+            }
+
+            final RecordReader reader = getLogFileReader();
+
+            // The Provenance Log File is sorted by Event ID, so the reader can scan forward for the record, or go
+            // directly to the block that holds it if the file has a Table of Contents.
+            if (lastRecord == null || lastRecord.getEventId() < eventId) {
+                lastRecord = reader.skipToEvent(eventId);
+                if (lastRecord == null) {
+                    return null;
+                }
+                lastByteOffset = lastRecord.getStorageByteOffset();
+            }
+
+            return lastRecord.getEventId() == eventId ? lastRecord : null;
+        }
+
+        private void resetLogFileReader() throws IOException {
+            if (logFileReader != null) {
+                logFileReader.close();
+                logFileReader = null;
+            }
+            lastByteOffset = -1L;
+            lastRecord = null;
+        }
+
+        private RecordReader getLogFileReader() throws IOException {
+            if (logFileReader != null) {
+                return logFileReader;
+            }
+
+            final List<File> potentialFiles = LuceneUtil.getProvenanceLogFiles(storageFilename, allProvenanceLogFiles);
+            if (potentialFiles.isEmpty()) {
+                throw new FileNotFoundException("Could not find Provenance Log File with basename " + storageFilename + " in the Provenance Repository");
+            }
+
+            if (potentialFiles.size() > 1) {
+                throw new FileNotFoundException("Found multiple Provenance Log Files with basename " + storageFilename + " in the Provenance Repository");
+            }
+
+            logFileReader = RecordReaders.newRecordReader(potentialFiles.get(0), allProvenanceLogFiles);
+            return logFileReader;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (final RecordReader reader : journalReaders.values()) {
+                reader.close();
+            }
+            journalReaders.clear();
+
+            if (logFileReader != null) {
+                logFileReader.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.lucene;
+
+import java.util.PriorityQueue;
+
+/**
+ * Tracks the event times of the newest hits that a query has found across all
+ * of the index directories that it searches. A query returns only its newest
+ * <code>maxResults</code> events, so once that many hits have been found, a
+ * hit that is older than all of them cannot be part of the result and does not
+ * need to be read from the repository.
+ */
+public class EventTimeThreshold {
+
+    private final int maxResults;
+    private final PriorityQueue<Long> newestTimes;  // guarded by this; the head is the oldest of the newest times
+
+    public EventTimeThreshold(final int maxResults) {
+        this.maxResults = Math.max(1, maxResults);
+        this.newestTimes = new PriorityQueue<>(Math.min(this.maxResults, 1024));
+    }
+
+    /**
+     * Records the event times of hits that were found by a search
+     *
+     * @param eventTimes the event times of the hits
+     * @return the threshold after the given hits have been recorded
+     */
+    public synchronized long offer(final long[] eventTimes) {
+        for (final long eventTime : eventTimes) {
+            if (newestTimes.size() < maxResults) {
+                newestTimes.add(eventTime);
+            } else if (eventTime > newestTimes.peek()) {
+                newestTimes.poll();
+                newestTimes.add(eventTime);
+            }
+        }
+
+        return getThreshold();
+    }
+
+    /**
+     * @return the minimum event time that a hit must have in order to be among
+     * the newest hits found so far, or {@link Long#MIN_VALUE} if fewer than
+     * <code>maxResults</code> hits have been found
+     */
+    public synchronized long getThreshold() {
+        if (newestTimes.size() < maxResults) {
+            return Long.MIN_VALUE;
+        }
+        return newestTimes.peek();
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.lucene;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares a single IndexWriter per index directory among everything that needs
+ * to update that index. Lucene allows only one writer per directory, and events
+ * are now added to the index while other actions (indexing a recovered file,
+ * deleting expired events) may need to update the same directory. A writer is
+ * closed, and therefore committed, once the last party that borrowed it returns
+ * it.
+ *
+ * Searchers are cached per index directory and reference-counted, so that
+ * queries do not pay to open a reader for every directory that they search.
+ * Searchers that are borrowed for a directory that has an open writer are
+ * obtained from that writer, so that they see the documents that have not yet
+ * been committed.
+ */
+public class IndexManager implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
+
+    private final Lock lock = new ReentrantLock();
+    private final Map<File, IndexWriterCount> writerCounts = new HashMap<>();   // guarded by lock
+    private final Map<File, CachedSearcherManager> searcherManagers = new HashMap<>();  // guarded by lock
+    private final Map<IndexSearcher, BorrowedSearcher> borrowedSearchers = new IdentityHashMap<>();    // guarded by lock
+
+    @SuppressWarnings("deprecation")
+    public IndexWriter borrowIndexWriter(final File indexingDirectory) throws IOException {
+        lock.lock();
+        try {
+            final IndexWriterCount writerCount = writerCounts.get(indexingDirectory);
+            if (writerCount != null) {
+                writerCount.count++;
+                return writerCount.writer;
+            }
+
+            final Directory directory = FSDirectory.open(indexingDirectory);
+            final Analyzer analyzer = new StandardAnalyzer(LuceneUtil.LUCENE_VERSION);
+            try {
+                final IndexWriterConfig config = new IndexWriterConfig(LuceneUtil.LUCENE_VERSION, analyzer);
+                config.setWriteLockTimeout(300000L);
+
+                final IndexWriter writer = new IndexWriter(directory, config);
+                writerCounts.put(indexingDirectory, new IndexWriterCount(writer, analyzer, directory));
+                logger.debug("Opened Index Writer for {}", indexingDirectory);
+                return writer;
+            } catch (final IOException ioe) {
+                analyzer.close();
+                directory.close();
+                throw ioe;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void returnIndexWriter(final File indexingDirectory, final IndexWriter writer) {
+        lock.lock();
+        try {
+            final IndexWriterCount writerCount = writerCounts.get(indexingDirectory);
+            if (writerCount == null || writerCount.writer != writer) {
+                logger.warn("Index Writer {} was returned for {} but was not borrowed from this Index Manager", writer, indexingDirectory);
+                return;
+            }
+
+            if (--writerCount.count > 0) {
+                return;
+            }
+
+            writerCounts.remove(indexingDirectory);
+
+            // no near-real-time searcher is borrowed, as each one holds onto the writer, so the manager can be closed now
+            final CachedSearcherManager cached = searcherManagers.get(indexingDirectory);
+            if (cached != null && cached.writer == writer) {
+                retire(indexingDirectory, cached);
+            }
+
+            writerCount.close();
+            logger.debug("Closed Index Writer for {}", indexingDirectory);
+        } catch (final IOException ioe) {
+            logger.warn("Failed to close Index Writer for {} due to {}", indexingDirectory, ioe.toString());
+            if (logger.isDebugEnabled()) {
+                logger.warn("", ioe);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a searcher for the given index directory. If a writer is open for
+     * the directory, the searcher also sees the documents that it has not yet
+     * committed. The searcher must be returned via
+     * {@link #returnIndexSearcher(File, IndexSearcher)}.
+     *
+     * Searchers are obtained from a {@link SearcherManager} that is kept for
+     * each directory, so the underlying reader is shared by all concurrent
+     * queries and is only reopened, incrementally, when the index has changed.
+     *
+     * @param indexDirectory the index directory to search
+     * @return a searcher for the directory
+     * @throws IOException if unable to open the index
+     */
+    public IndexSearcher borrowIndexSearcher(final File indexDirectory) throws IOException {
+        while (true) {
+            final CachedSearcherManager cached;
+            lock.lock();
+            try {
+                cached = getSearcherManager(indexDirectory);
+                cached.borrowCount++;
+                if (cached.writer != null) {
+                    // hold onto the writer until the searcher is returned
+                    writerCounts.get(indexDirectory).count++;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            final IndexSearcher searcher;
+            try {
+                cached.manager.maybeRefresh();
+                searcher = cached.manager.acquire();
+            } catch (final AlreadyClosedException ace) {
+                // the manager was replaced or removed by another thread; use the current one instead
+                release(indexDirectory, cached);
+                continue;
+            } catch (final IOException | RuntimeException e) {
+                release(indexDirectory, cached);
+                throw e;
+            }
+
+            lock.lock();
+            try {
+                BorrowedSearcher borrowed = borrowedSearchers.get(searcher);
+                if (borrowed == null) {
+                    borrowed = new BorrowedSearcher(cached);
+                    borrowedSearchers.put(searcher, borrowed);
+                } else {
+                    borrowed.count++;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            return searcher;
+        }
+    }
+
+    public void returnIndexSearcher(final File indexDirectory, final IndexSearcher searcher) {
+        final CachedSearcherManager cached;
+        lock.lock();
+        try {
+            final BorrowedSearcher borrowed = borrowedSearchers.get(searcher);
+            if (borrowed == null) {
+                logger.warn("Index Searcher {} was returned for {} but was not borrowed from this Index Manager", searcher, indexDirectory);
+                return;
+            }
+
+            if (--borrowed.count == 0) {
+                borrowedSearchers.remove(searcher);
+            }
+            cached = borrowed.cached;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            cached.manager.release(searcher);
+        } catch (final IOException ioe) {
+            logger.warn("Failed to close Index Reader for {} due to {}", indexDirectory, ioe.toString());
+            if (logger.isDebugEnabled()) {
+                logger.warn("", ioe);
+            }
+        }
+
+        release(indexDirectory, cached);
+    }
+
+    /**
+     * Closes the searchers that are cached for the given directory. Searchers
+     * that are currently borrowed remain usable until they are returned. This
+     * must be called before an index directory is deleted.
+     *
+     * @param indexDirectory the index directory that is being removed
+     */
+    public void removeIndex(final File indexDirectory) {
+        lock.lock();
+        try {
+            final CachedSearcherManager cached = searcherManagers.get(indexDirectory);
+            if (cached != null) {
+                retire(indexDirectory, cached);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the SearcherManager to use for the given directory, creating one
+     * if none exists or if the existing one does not use the writer that is
+     * currently open for the directory. Must be called while holding the lock.
+     */
+    private CachedSearcherManager getSearcherManager(final File indexDirectory) throws IOException {
+        final IndexWriterCount writerCount = writerCounts.get(indexDirectory);
+        final IndexWriter writer = writerCount == null ? null : writerCount.writer;
+
+        CachedSearcherManager cached = searcherManagers.get(indexDirectory);
+        if (cached != null) {
+            if (cached.writer == writer) {
+                return cached;
+            }
+
+            // a writer has been opened for the directory since the manager was created; switch to near-real-time searches
+            retire(indexDirectory, cached);
+        }
+
+        if (writer == null) {
+            final Directory directory = FSDirectory.open(indexDirectory);
+            try {
+                cached = new CachedSearcherManager(new SearcherManager(directory, null), null, directory);
+            } catch (final IOException ioe) {
+                directory.close();
+                throw ioe;
+            }
+        } else {
+            cached = new CachedSearcherManager(new SearcherManager(writer, true, null), writer, null);
+        }
+
+        searcherManagers.put(indexDirectory, cached);
+        logger.debug("Created Searcher Manager for {}", indexDirectory);
+        return cached;
+    }
+
+    /**
+     * Stops handing out searchers from the given manager. Its directory is
+     * closed once all of its searchers have been returned. Must be called while
+     * holding the lock.
+     */
+    private void retire(final File indexDirectory, final CachedSearcherManager cached) {
+        if (searcherManagers.get(indexDirectory) == cached) {
+            searcherManagers.remove(indexDirectory);
+        }
+
+        if (cached.retired) {
+            return;
+        }
+        cached.retired = true;
+
+        try {
+            cached.manager.close();
+        } catch (final IOException ioe) {
+            logger.warn("Failed to close Searcher Manager for {} due to {}", indexDirectory, ioe.toString());
+        }
+
+        if (cached.borrowCount == 0) {
+            cached.closeDirectory();
+        }
+    }
+
+    private void release(final File indexDirectory, final CachedSearcherManager cached) {
+        lock.lock();
+        try {
+            if (--cached.borrowCount == 0 && cached.retired) {
+                cached.closeDirectory();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (cached.writer != null) {
+            returnIndexWriter(indexDirectory, cached.writer);
+        }
+    }
+
+    /**
+     * @return the index directories for which a writer is currently open. These
+     * may contain documents that are newer than the directories' last
+     * modification time
+     */
+    public Set<File> getOpenIndexDirectories() {
+        lock.lock();
+        try {
+            return new HashSet<>(writerCounts.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all writers without committing them. Any document that has not
+     * been committed belongs to a file that has not yet been marked as indexed,
+     * so it will be indexed again when the repository is recovered.
+     *
+     * @throws IOException if unable to close a writer
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (final Map.Entry<File, CachedSearcherManager> entry : new HashMap<>(searcherManagers).entrySet()) {
+                retire(entry.getKey(), entry.getValue());
+            }
+
+            IOException suppressed = null;
+            for (final Map.Entry<File, IndexWriterCount> entry : writerCounts.entrySet()) {
+                try {
+                    entry.getValue().rollback();
+                } catch (final IOException ioe) {
+                    logger.warn("Failed to close Index Writer for {} due to {}", entry.getKey(), ioe.toString());
+                    suppressed = ioe;
+                }
+            }
+            writerCounts.clear();
+
+            if (suppressed != null) {
+                throw suppressed;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class CachedSearcherManager {
+
+        private final SearcherManager manager;
+        private final IndexWriter writer;       // null unless the manager provides near-real-time searchers
+        private final Directory directory;      // null if the directory belongs to the writer
+        private int borrowCount = 0;
+        private boolean retired = false;
+
+        public CachedSearcherManager(final SearcherManager manager, final IndexWriter writer, final Directory directory) {
+            this.manager = manager;
+            this.writer = writer;
+            this.directory = directory;
+        }
+
+        public void closeDirectory() {
+            if (directory == null) {
+                return;
+            }
+
+            try {
+                directory.close();
+            } catch (final IOException ioe) {
+                logger.warn("Failed to close Index Directory {} due to {}", directory, ioe.toString());
+            }
+        }
+    }
+
+    private static class BorrowedSearcher {
+
+        private final CachedSearcherManager cached;
+        private int count = 1;
+
+        public BorrowedSearcher(final CachedSearcherManager cached) {
+            this.cached = cached;
+        }
+    }
+
+    private static class IndexWriterCount {
+
+        private final IndexWriter writer;
+        private final Analyzer analyzer;
+        private final Directory directory;
+        private int count = 1;
+
+        public IndexWriterCount(final IndexWriter writer, final Analyzer analyzer, final Directory directory) {
+            this.writer = writer;
+            this.analyzer = analyzer;
+            this.directory = directory;
+        }
+
+        public void close() throws IOException {
+            try {
+                writer.close();
+            } finally {
+                analyzer.close();
+                directory.close();
+            }
+        }
+
+        public void rollback() throws IOException {
+            try {
+                writer.rollback();
+            } finally {
+                analyzer.close();
+                directory.close();
+            }
+        }
+    }
+}
@@ -18,21 +18,29 @@ package org.apache.nifi.provenance.lucene;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.nifi.provenance.PersistentProvenanceRepository;
 import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.SearchableFields;
 import org.apache.nifi.provenance.StandardQueryResult;
 
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldDocs;
 
 public class IndexSearch {
 
@@ -44,7 +52,7 @@ public class IndexSearch {
         this.indexDirectory = indexDirectory;
     }
 
-    public StandardQueryResult search(final org.apache.nifi.provenance.search.Query provenanceQuery, final AtomicInteger retrievedCount) throws IOException {
+    public StandardQueryResult search(final org.apache.nifi.provenance.search.Query provenanceQuery, final EventTimeThreshold eventTimeThreshold) throws IOException {
         if (!indexDirectory.exists() && !indexDirectory.mkdirs()) {
             throw new IOException("Unable to create Indexing Directory " + indexDirectory);
         }
@@ -55,29 +63,52 @@ public class IndexSearch {
         final StandardQueryResult sqr = new StandardQueryResult(provenanceQuery, 1);
         final Set<ProvenanceEventRecord> matchingRecords;
 
-        try (final DirectoryReader directoryReader = DirectoryReader.open(FSDirectory.open(indexDirectory))) {
-            final IndexSearcher searcher = new IndexSearcher(directoryReader);
+        final IndexManager indexManager = repository.getIndexManager();
+        final IndexSearcher searcher;
+        try {
+            searcher = indexManager.borrowIndexSearcher(indexDirectory);
+        } catch (final IndexNotFoundException e) {
+            // nothing has been indexed yet.
+            sqr.update(Collections.<ProvenanceEventRecord>emptyList(), 0);
+            return sqr;
+        }
 
+        try {
             if (provenanceQuery.getEndDate() == null) {
                 provenanceQuery.setEndDate(new Date());
             }
             final Query luceneQuery = LuceneUtil.convertQuery(provenanceQuery);
 
-            TopDocs topDocs = searcher.search(luceneQuery, provenanceQuery.getMaxResults());
+            // sort the hits by event time so that the newest hits of this index are found without scoring every document
+            final Sort sort = new Sort(new SortField(SearchableFields.EventTime.getSearchableFieldName(), FieldCache.NUMERIC_UTILS_LONG_PARSER, true));
+            final TopFieldDocs topDocs = searcher.search(luceneQuery, null, provenanceQuery.getMaxResults(), sort);
             if (topDocs.totalHits == 0) {
                 sqr.update(Collections.<ProvenanceEventRecord>emptyList(), 0);
                 return sqr;
             }
 
+            final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            final long[] eventTimes = new long[scoreDocs.length];
+            for (int i = 0; i < scoreDocs.length; i++) {
+                eventTimes[i] = (Long) ((FieldDoc) scoreDocs[i]).fields[0];
+            }
+            final long threshold = eventTimeThreshold.offer(eventTimes);
+
+            // Only the hits that are among the newest hits found so far, across all indices, can be part of the result.
+            // The hits are sorted newest first, so we stop at the first one that is older than that.
+            final IndexReader indexReader = searcher.getIndexReader();
+            final List<Document> docs = new ArrayList<>();
+            for (int i = 0; i < scoreDocs.length && eventTimes[i] >= threshold; i++) {
+                docs.add(indexReader.document(scoreDocs[i].doc));
+            }
+
             final DocsReader docsReader = new DocsReader(repository.getConfiguration().getStorageDirectories());
-            matchingRecords = docsReader.read(topDocs, directoryReader, repository.getAllLogFiles(), retrievedCount, provenanceQuery.getMaxResults());
+            matchingRecords = docsReader.read(docs, repository.getAllLogFiles(), new AtomicInteger(0), provenanceQuery.getMaxResults());
 
             sqr.update(matchingRecords, topDocs.totalHits);
             return sqr;
-        } catch (final IndexNotFoundException e) {
-            // nothing has been indexed yet.
-            sqr.update(Collections.<ProvenanceEventRecord>emptyList(), 0);
-            return sqr;
+        } finally {
+            indexManager.returnIndexSearcher(indexDirectory, searcher);
         }
     }
 
@@ -27,6 +27,7 @@ import java.util.Set;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.provenance.IndexConfiguration;
 import org.apache.nifi.provenance.PersistentProvenanceRepository;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
 import org.apache.nifi.provenance.ProvenanceEventType;
 import org.apache.nifi.provenance.SearchableFields;
 import org.apache.nifi.provenance.StandardProvenanceEventRecord;
@@ -35,16 +36,13 @@ import org.apache.nifi.provenance.search.SearchableField;
 import org.apache.nifi.provenance.serialization.RecordReader;
 import org.apache.nifi.provenance.serialization.RecordReaders;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.index.Term;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,11 +52,13 @@ public class IndexingAction implements RolloverAction {
     private final Set<SearchableField> nonAttributeSearchableFields;
     private final Set<SearchableField> attributeSearchableFields;
     private final IndexConfiguration indexConfiguration;
+    private final IndexManager indexManager;
     private static final Logger logger = LoggerFactory.getLogger(IndexingAction.class);
 
     public IndexingAction(final PersistentProvenanceRepository repo, final IndexConfiguration indexConfig) {
         repository = repo;
         indexConfiguration = indexConfig;
+        indexManager = repo.getIndexManager();
 
         attributeSearchableFields = Collections.unmodifiableSet(new HashSet<>(repo.getConfiguration().getSearchableAttributes()));
         nonAttributeSearchableFields = Collections.unmodifiableSet(new HashSet<>(repo.getConfiguration().getSearchableFields()));
@@ -72,21 +72,141 @@ public class IndexingAction implements RolloverAction {
         doc.add(new StringField(field.getSearchableFieldName(), value.toLowerCase(), store));
     }
 
+    /**
+     * Creates the Document that is used to index the given event, without the
+     * fields that indicate where the event is stored
+     *
+     * @param record the event
+     * @param eventId the identifier of the event
+     * @return the Document, or <code>null</code> if the event has none of the
+     * fields that are to be indexed
+     */
+    private Document createDocument(final ProvenanceEventRecord record, final long eventId) {
+        final Map<String, String> attributes = record.getAttributes();
+
+        final Document doc = new Document();
+        addField(doc, SearchableFields.FlowFileUUID, record.getFlowFileUuid(), Store.NO);
+        addField(doc, SearchableFields.Filename, attributes.get(CoreAttributes.FILENAME.key()), Store.NO);
+        addField(doc, SearchableFields.ComponentID, record.getComponentId(), Store.NO);
+        addField(doc, SearchableFields.AlternateIdentifierURI, record.getAlternateIdentifierUri(), Store.NO);
+        addField(doc, SearchableFields.EventType, record.getEventType().name(), Store.NO);
+        addField(doc, SearchableFields.Relationship, record.getRelationship(), Store.NO);
+        addField(doc, SearchableFields.Details, record.getDetails(), Store.NO);
+        addField(doc, SearchableFields.ContentClaimSection, record.getContentClaimSection(), Store.NO);
+        addField(doc, SearchableFields.ContentClaimContainer, record.getContentClaimContainer(), Store.NO);
+        addField(doc, SearchableFields.ContentClaimIdentifier, record.getContentClaimIdentifier(), Store.NO);
+        addField(doc, SearchableFields.SourceQueueIdentifier, record.getSourceQueueIdentifier(), Store.NO);
+
+        if (nonAttributeSearchableFields.contains(SearchableFields.TransitURI)) {
+            addField(doc, SearchableFields.TransitURI, record.getTransitUri(), Store.NO);
+        }
+
+        for (final SearchableField searchableField : attributeSearchableFields) {
+            addField(doc, searchableField, attributes.get(searchableField.getSearchableFieldName()), Store.NO);
+        }
+
+        // Index the fields that we always index (unless there's nothing else to index at all)
+        if (doc.getFields().isEmpty()) {
+            return null;
+        }
+
+        doc.add(new LongField(SearchableFields.LineageStartDate.getSearchableFieldName(), record.getLineageStartDate(), Store.NO));
+        doc.add(new LongField(SearchableFields.EventTime.getSearchableFieldName(), record.getEventTime(), Store.NO));
+        doc.add(new LongField(SearchableFields.FileSize.getSearchableFieldName(), record.getFileSize(), Store.NO));
+        doc.add(new LongField(FieldNames.EVENT_IDENTIFIER, eventId, Store.YES));
+
+        for (final String lineageIdentifier : record.getLineageIdentifiers()) {
+            addField(doc, SearchableFields.LineageIdentifier, lineageIdentifier, Store.NO);
+        }
+
+        // If it's event is a FORK, or JOIN, add the FlowFileUUID for all child/parent UUIDs.
+        if (record.getEventType() == ProvenanceEventType.FORK || record.getEventType() == ProvenanceEventType.CLONE || record.getEventType() == ProvenanceEventType.REPLAY) {
+            for (final String uuid : record.getChildUuids()) {
+                if (!uuid.equals(record.getFlowFileUuid())) {
+                    addField(doc, SearchableFields.FlowFileUUID, uuid, Store.NO);
+                }
+            }
+        } else if (record.getEventType() == ProvenanceEventType.JOIN) {
+            for (final String uuid : record.getParentUuids()) {
+                if (!uuid.equals(record.getFlowFileUuid())) {
+                    addField(doc, SearchableFields.FlowFileUUID, uuid, Store.NO);
+                }
+            }
+        } else if (record.getEventType() == ProvenanceEventType.RECEIVE && record.getSourceSystemFlowFileIdentifier() != null) {
+            // If we get a receive with a Source System FlowFile Identifier, we add another Document that shows the UUID
+            // that the Source System uses to refer to the data.
+            final String sourceIdentifier = record.getSourceSystemFlowFileIdentifier();
+            final String sourceFlowFileUUID;
+            final int lastColon = sourceIdentifier.lastIndexOf(":");
+            if (lastColon > -1 && lastColon < sourceIdentifier.length() - 2) {
+                sourceFlowFileUUID = sourceIdentifier.substring(lastColon + 1);
+            } else {
+                sourceFlowFileUUID = null;
+            }
+
+            if (sourceFlowFileUUID != null) {
+                addField(doc, SearchableFields.FlowFileUUID, sourceFlowFileUUID, Store.NO);
+            }
+        }
+
+        return doc;
+    }
+
+    /**
+     * Adds the given event to the index
+     *
+     * @param record the event to index
+     * @param eventId the identifier of the event
+     * @param storageFilename the basename of the file that the event is stored
+     * in
+     * @param journalIndex if the event is stored in a journal that has not yet
+     * been merged, the index of that journal; otherwise, <code>null</code>
+     * @param blockIndex if the event is stored in a block-compressed
+     * Provenance Log File, the index of the block that holds it; otherwise,
+     * <code>null</code>
+     * @param byteOffset the offset of the event within the journal, the block,
+     * or the Provenance Log File
+     * @param indexWriter the writer to add the event to
+     * @return <code>true</code> if the event was indexed, <code>false</code> if
+     * it has none of the fields that are to be indexed
+     * @throws IOException if unable to update the index
+     */
+    public boolean index(final ProvenanceEventRecord record, final long eventId, final String storageFilename, final Integer journalIndex,
+            final Integer blockIndex, final long byteOffset, final IndexWriter indexWriter) throws IOException {
+        final Document doc = createDocument(record, eventId);
+        if (doc == null) {
+            return false;
+        }
+
+        doc.add(new StringField(FieldNames.STORAGE_FILENAME, storageFilename, Store.YES));
+        doc.add(new LongField(FieldNames.STORAGE_FILE_OFFSET, byteOffset, Store.YES));
+        if (journalIndex != null) {
+            doc.add(new IntField(FieldNames.STORAGE_FILE_JOURNAL, journalIndex, Store.YES));
+        }
+        if (blockIndex != null) {
+            doc.add(new IntField(FieldNames.BLOCK_INDEX, blockIndex, Store.YES));
+        }
+
+        indexWriter.addDocument(doc);
+        return true;
+    }
+
     @Override
-    @SuppressWarnings("deprecation")
     public File execute(final File fileRolledOver) throws IOException {
         final File indexingDirectory = indexConfiguration.getWritableIndexDirectory(fileRolledOver);
+        final String storageFilename = LuceneUtil.substringBefore(fileRolledOver.getName(), ".");
         int indexCount = 0;
         long maxId = -1L;
 
-        try (final Directory directory = FSDirectory.open(indexingDirectory);
-                final Analyzer analyzer = new StandardAnalyzer(LuceneUtil.LUCENE_VERSION)) {
-
-            final IndexWriterConfig config = new IndexWriterConfig(LuceneUtil.LUCENE_VERSION, analyzer);
-            config.setWriteLockTimeout(300000L);
+        final IndexWriter indexWriter = indexManager.borrowIndexWriter(indexingDirectory);
+        try {
+            // Some of the events may have been indexed as they were written to the journals, if the repository was
+            // restarted or failed to index one of them before the journals were merged. Remove those so that the
+            // events are not indexed twice.
+            indexWriter.deleteDocuments(new Term(FieldNames.STORAGE_FILENAME, storageFilename));
 
-            try (final IndexWriter indexWriter = new IndexWriter(directory, config);
-                    final RecordReader reader = RecordReaders.newRecordReader(fileRolledOver, repository.getAllLogFiles())) {
+            try (final RecordReader reader = RecordReaders.newRecordReader(fileRolledOver, repository.getAllLogFiles())) {
+                final boolean blockIndexed = reader.getTocReader() != null;
                 StandardProvenanceEventRecord record;
                 while (true) {
                     try {
@@ -103,93 +223,40 @@ public class IndexingAction implements RolloverAction {
                     }
 
                     maxId = record.getEventId();
-
-                    final Map<String, String> attributes = record.getAttributes();
-
-                    final Document doc = new Document();
-                    addField(doc, SearchableFields.FlowFileUUID, record.getFlowFileUuid(), Store.NO);
-                    addField(doc, SearchableFields.Filename, attributes.get(CoreAttributes.FILENAME.key()), Store.NO);
-                    addField(doc, SearchableFields.ComponentID, record.getComponentId(), Store.NO);
-                    addField(doc, SearchableFields.AlternateIdentifierURI, record.getAlternateIdentifierUri(), Store.NO);
-                    addField(doc, SearchableFields.EventType, record.getEventType().name(), Store.NO);
-                    addField(doc, SearchableFields.Relationship, record.getRelationship(), Store.NO);
-                    addField(doc, SearchableFields.Details, record.getDetails(), Store.NO);
-                    addField(doc, SearchableFields.ContentClaimSection, record.getContentClaimSection(), Store.NO);
-                    addField(doc, SearchableFields.ContentClaimContainer, record.getContentClaimContainer(), Store.NO);
-                    addField(doc, SearchableFields.ContentClaimIdentifier, record.getContentClaimIdentifier(), Store.NO);
-                    addField(doc, SearchableFields.SourceQueueIdentifier, record.getSourceQueueIdentifier(), Store.NO);
-
-                    if (nonAttributeSearchableFields.contains(SearchableFields.TransitURI)) {
-                        addField(doc, SearchableFields.TransitURI, record.getTransitUri(), Store.NO);
-                    }
-
-                    for (final SearchableField searchableField : attributeSearchableFields) {
-                        addField(doc, searchableField, attributes.get(searchableField.getSearchableFieldName()), Store.NO);
-                    }
-
-                    final String storageFilename = LuceneUtil.substringBefore(record.getStorageFilename(), ".");
-
-                    // Index the fields that we always index (unless there's nothing else to index at all)
-                    if (!doc.getFields().isEmpty()) {
-                        doc.add(new LongField(SearchableFields.LineageStartDate.getSearchableFieldName(), record.getLineageStartDate(), Store.NO));
-                        doc.add(new LongField(SearchableFields.EventTime.getSearchableFieldName(), record.getEventTime(), Store.NO));
-                        doc.add(new LongField(SearchableFields.FileSize.getSearchableFieldName(), record.getFileSize(), Store.NO));
-                        doc.add(new StringField(FieldNames.STORAGE_FILENAME, storageFilename, Store.YES));
-                        doc.add(new LongField(FieldNames.STORAGE_FILE_OFFSET, record.getStorageByteOffset(), Store.YES));
-
-                        for (final String lineageIdentifier : record.getLineageIdentifiers()) {
-                            addField(doc, SearchableFields.LineageIdentifier, lineageIdentifier, Store.NO);
-                        }
-
-                        // If it's event is a FORK, or JOIN, add the FlowFileUUID for all child/parent UUIDs.
-                        if (record.getEventType() == ProvenanceEventType.FORK || record.getEventType() == ProvenanceEventType.CLONE || record.getEventType() == ProvenanceEventType.REPLAY) {
-                            for (final String uuid : record.getChildUuids()) {
-                                if (!uuid.equals(record.getFlowFileUuid())) {
-                                    addField(doc, SearchableFields.FlowFileUUID, uuid, Store.NO);
-                                }
-                            }
-                        } else if (record.getEventType() == ProvenanceEventType.JOIN) {
-                            for (final String uuid : record.getParentUuids()) {
-                                if (!uuid.equals(record.getFlowFileUuid())) {
-                                    addField(doc, SearchableFields.FlowFileUUID, uuid, Store.NO);
-                                }
-                            }
-                        } else if (record.getEventType() == ProvenanceEventType.RECEIVE && record.getSourceSystemFlowFileIdentifier() != null) {
-                            // If we get a receive with a Source System FlowFile Identifier, we add another Document that shows the UUID
-                            // that the Source System uses to refer to the data.
-                            final String sourceIdentifier = record.getSourceSystemFlowFileIdentifier();
-                            final String sourceFlowFileUUID;
-                            final int lastColon = sourceIdentifier.lastIndexOf(":");
-                            if (lastColon > -1 && lastColon < sourceIdentifier.length() - 2) {
-                                sourceFlowFileUUID = sourceIdentifier.substring(lastColon + 1);
-                            } else {
-                                sourceFlowFileUUID = null;
-                            }
-
-                            if (sourceFlowFileUUID != null) {
-                                addField(doc, SearchableFields.FlowFileUUID, sourceFlowFileUUID, Store.NO);
-                            }
-                        }
-
-                        indexWriter.addDocument(doc);
+                    final Integer blockIndex = blockIndexed ? reader.getBlockIndex() : null;
+                    if (index(record, record.getEventId(), storageFilename, null, blockIndex, record.getStorageByteOffset(), indexWriter)) {
                         indexCount++;
                     }
                 }
-
-                indexWriter.commit();
             } catch (final EOFException eof) {
                 // nothing in the file. Move on.
             }
+
+            indexWriter.commit();
         } finally {
+            indexManager.returnIndexWriter(indexingDirectory, indexWriter);
             if (maxId >= -1) {
                 indexConfiguration.setMaxIdIndexed(maxId);
             }
         }
 
+        return markIndexed(fileRolledOver, indexingDirectory, indexCount);
+    }
+
+    /**
+     * Renames the given file to indicate that its events have been indexed
+     *
+     * @param fileRolledOver the file whose events have been indexed
+     * @param indexingDirectory the directory the events were indexed into
+     * @param indexCount the number of events that were indexed
+     * @return the renamed file, or the given file if it could not be renamed
+     */
+    public File markIndexed(final File fileRolledOver, final File indexingDirectory, final int indexCount) {
+        // insert the marker after the basename so that any extensions, such as .prov.gz, are preserved
         final File newFile = new File(fileRolledOver.getParent(),
-                LuceneUtil.substringBeforeLast(fileRolledOver.getName(), ".")
+                LuceneUtil.substringBefore(fileRolledOver.getName(), ".")
                 + ".indexed."
-                + LuceneUtil.substringAfterLast(fileRolledOver.getName(), "."));
+                + LuceneUtil.substringAfter(fileRolledOver.getName(), "."));
 
         boolean renamed = false;
         for (int i = 0; i < 10 && !renamed; i++) {
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.provenance.IndexConfiguration;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the events of a single set of journals as they are written, so that
+ * they can be searched for before the journals are rolled over. The documents
+ * refer to the journals; once the journals have been merged, they are resolved
+ * against the merged Provenance Log File by their Event ID.
+ *
+ * If any event cannot be indexed, no further events are indexed and the merged
+ * file is indexed by the {@link IndexingAction} instead.
+ */
+public class JournalIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalIndexer.class);
+
+    private final IndexingAction indexingAction;
+    private final IndexManager indexManager;
+    private final IndexConfiguration indexConfiguration;
+    private final File storageDirectory;
+    private final String storageFilename;
+    private final AtomicInteger indexCount = new AtomicInteger(0);
+
+    private File indexingDirectory;             // guarded by synchronizing on this
+    private volatile IndexWriter indexWriter;   // set while synchronized on this
+    private volatile boolean complete = true;
+
+    /**
+     * @param indexingAction the action used to create the documents
+     * @param indexManager the manager from which to borrow the index writer
+     * @param indexConfig the index configuration
+     * @param storageDirectory the directory into which the journals will be
+     * merged
+     * @param storageFilename the basename of the journals
+     */
+    public JournalIndexer(final IndexingAction indexingAction, final IndexManager indexManager, final IndexConfiguration indexConfig,
+            final File storageDirectory, final String storageFilename) {
+        this.indexingAction = indexingAction;
+        this.indexManager = indexManager;
+        this.indexConfiguration = indexConfig;
+        this.storageDirectory = storageDirectory;
+        this.storageFilename = storageFilename;
+    }
+
+    private IndexWriter getIndexWriter(final long firstEventTime) throws IOException {
+        final IndexWriter writer = indexWriter;
+        if (writer != null) {
+            return writer;
+        }
+
+        synchronized (this) {
+            if (indexWriter == null) {
+                indexingDirectory = indexConfiguration.getWritableIndexDirectory(storageDirectory, firstEventTime);
+                indexWriter = indexManager.borrowIndexWriter(indexingDirectory);
+            }
+
+            return indexWriter;
+        }
+    }
+
+    /**
+     * Indexes the given event, which has just been written to a journal
+     *
+     * @param record the event
+     * @param eventId the identifier that was assigned to the event
+     * @param journalIndex the index of the journal that the event was written
+     * to
+     * @param journalOffset the offset of the event within the journal
+     */
+    public void index(final ProvenanceEventRecord record, final long eventId, final int journalIndex, final long journalOffset) {
+        if (!complete) {
+            return;
+        }
+
+        try {
+            final IndexWriter writer = getIndexWriter(record.getEventTime());
+            if (indexingAction.index(record, eventId, storageFilename, journalIndex, null, journalOffset, writer)) {
+                indexCount.incrementAndGet();
+            }
+        } catch (final IOException ioe) {
+            complete = false;
+            logger.warn("Failed to index Provenance Event {} due to {}; events in journals {} will be indexed when the journals are rolled over",
+                    eventId, ioe.toString(), storageFilename);
+            if (logger.isDebugEnabled()) {
+                logger.warn("", ioe);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if every event that was written to the
+     * journals has been indexed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Commits the documents for the journals, which have been merged into the
+     * given file, and marks the file as indexed
+     *
+     * @param mergedFile the file that the journals were merged into
+     * @param maxEventId the largest Event ID in the file
+     * @return the file, renamed to indicate that it has been indexed
+     * @throws IOException if unable to commit the index
+     */
+    public synchronized File commit(final File mergedFile, final long maxEventId) throws IOException {
+        if (indexWriter != null) {
+            indexWriter.commit();
+        }
+
+        indexConfiguration.setMaxIdIndexed(maxEventId);
+        return indexingAction.markIndexed(mergedFile, indexingDirectory, indexCount.get());
+    }
+
+    /**
+     * Releases the index writer. This must be called once the journals have
+     * been rolled over, whether or not they were committed.
+     */
+    public synchronized void close() {
+        if (indexWriter != null) {
+            indexManager.returnIndexWriter(indexingDirectory, indexWriter);
+            indexWriter = null;
+        }
+    }
+}
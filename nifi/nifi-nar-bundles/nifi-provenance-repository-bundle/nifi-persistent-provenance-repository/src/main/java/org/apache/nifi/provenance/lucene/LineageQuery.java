@@ -29,7 +29,6 @@ import org.apache.nifi.provenance.PersistentProvenanceRepository;
 import org.apache.nifi.provenance.ProvenanceEventRecord;
 import org.apache.nifi.provenance.SearchableFields;
 
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -37,8 +36,6 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,10 +54,10 @@ public class LineageQuery {
             throw new IllegalArgumentException("Must specify either Lineage Identifier or FlowFile UUIDs to compute lineage");
         }
 
-        try (final Directory fsDir = FSDirectory.open(indexDirectory);
-                final IndexReader indexReader = DirectoryReader.open(fsDir)) {
-
-            final IndexSearcher searcher = new IndexSearcher(indexReader);
+        final IndexManager indexManager = repo.getIndexManager();
+        final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDirectory);
+        try {
+            final IndexReader indexReader = searcher.getIndexReader();
 
             // Create a query for all Events related to the FlowFiles of interest. We do this by adding all ID's as
             // "SHOULD" clauses and then setting the minimum required to 1.
@@ -102,6 +99,8 @@ public class LineageQuery {
             logger.debug("Finished Lineage Query; Lucene search took {} millis, reading records took {} millis", TimeUnit.NANOSECONDS.toMillis(searchEnd - searchStart), TimeUnit.NANOSECONDS.toMillis(readDocsEnd - searchEnd));
 
             return recs;
+        } finally {
+            indexManager.returnIndexSearcher(indexDirectory, searcher);
         }
     }
 
@@ -29,6 +29,7 @@ import org.apache.nifi.provenance.SearchableFields;
 import org.apache.nifi.provenance.search.SearchTerm;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -132,6 +133,14 @@ public class LuceneUtil {
                     return filenameComp;
                 }
 
+                // events that were indexed as they were written to the journals do not have a meaningful offset
+                // within the file, but the file is ordered by Event ID.
+                final IndexableField eventId1 = o1.getField(FieldNames.EVENT_IDENTIFIER);
+                final IndexableField eventId2 = o2.getField(FieldNames.EVENT_IDENTIFIER);
+                if (eventId1 != null && eventId2 != null) {
+                    return Long.compare(eventId1.numericValue().longValue(), eventId2.numericValue().longValue());
+                }
+
                 final long offset1 = o1.getField(FieldNames.STORAGE_FILE_OFFSET).numericValue().longValue();
                 final long offset2 = o2.getField(FieldNames.STORAGE_FILE_OFFSET).numericValue().longValue();
                 return Long.compare(offset1, offset2);
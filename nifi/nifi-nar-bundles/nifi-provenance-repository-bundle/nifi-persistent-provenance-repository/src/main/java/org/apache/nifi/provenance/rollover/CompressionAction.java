@@ -16,18 +16,28 @@
  */
 package org.apache.nifi.provenance.rollover;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 
-import org.apache.nifi.stream.io.GZIPOutputStream;
-import org.apache.nifi.stream.io.StreamUtils;
+import org.apache.nifi.provenance.StandardProvenanceEventRecord;
 import org.apache.nifi.provenance.lucene.IndexingAction;
+import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.serialization.RecordReaders;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.serialization.RecordWriters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Compresses a Provenance Log File that was not compressed when its journals
+ * were merged, such as a file that was written before block compression was
+ * enabled. The events are written in compressed blocks. Unless the file has
+ * already been indexed, a Table of Contents is written for the blocks, so that
+ * the index can refer to them; the index of a file that has already been
+ * indexed refers to uncompressed offsets, so such a file must be read as a
+ * single stream.
+ */
 public class CompressionAction implements RolloverAction {
 
     private static final Logger logger = LoggerFactory.getLogger(IndexingAction.class);
@@ -35,11 +45,31 @@ public class CompressionAction implements RolloverAction {
     @Override
     public File execute(final File fileRolledOver) throws IOException {
         final File gzFile = new File(fileRolledOver.getParent(), fileRolledOver.getName() + ".gz");
-        try (final FileInputStream in = new FileInputStream(fileRolledOver);
-                final OutputStream fos = new FileOutputStream(gzFile);
-                final GZIPOutputStream gzipOut = new GZIPOutputStream(fos, 1)) {
-            StreamUtils.copy(in, gzipOut);
-            in.getFD().sync();
+        final boolean createToc = !fileRolledOver.getName().contains(".indexed.");
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(fileRolledOver, null);
+                final RecordWriter writer = RecordWriters.newRecordWriter(gzFile, true, createToc)) {
+            writer.writeHeader();
+
+            StandardProvenanceEventRecord record;
+            while (true) {
+                try {
+                    record = reader.nextRecord();
+                } catch (final EOFException eof) {
+                    // the system was stopped while the file was being written; the partial record cannot be recovered
+                    break;
+                }
+
+                if (record == null) {
+                    break;
+                }
+
+                writer.writeRecord(record, record.getEventId());
+            }
+        } catch (final EOFException eof) {
+            // there is nothing in the file, not even a header, so there is nothing to compress
+            gzFile.delete();
+            return fileRolledOver;
         }
 
         boolean deleted = false;
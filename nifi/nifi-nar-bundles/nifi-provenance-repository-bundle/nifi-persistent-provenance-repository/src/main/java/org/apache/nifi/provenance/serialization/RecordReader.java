@@ -20,12 +20,65 @@ import java.io.Closeable;
 import java.io.IOException;
 
 import org.apache.nifi.provenance.StandardProvenanceEventRecord;
+import org.apache.nifi.provenance.toc.TocReader;
 
 public interface RecordReader extends Closeable {
 
+    /**
+     * Returns the next record in the file. If the file is block-compressed,
+     * the storage byte offset of the record is relative to the start of the
+     * block that holds it, which is given by {@link #getBlockIndex()}.
+     *
+     * @return the next record, or <code>null</code> if there are no more
+     * records
+     * @throws IOException if unable to read the record
+     */
     StandardProvenanceEventRecord nextRecord() throws IOException;
 
     void skip(long bytesToSkip) throws IOException;
 
+    /**
+     * Skips to the given byte offset, which is relative to the start of the
+     * current block if the file is block-compressed
+     *
+     * @param position the offset to skip to
+     * @throws IOException if unable to skip, or if the reader is already past
+     * the given offset
+     */
     void skipTo(long position) throws IOException;
+
+    /**
+     * Positions the reader at the start of the given block, decompressing only
+     * that block
+     *
+     * @param blockIndex the index of the block
+     * @throws IOException if unable to read the block
+     * @throws IllegalStateException if the file has no Table of Contents
+     */
+    void skipToBlock(int blockIndex) throws IOException;
+
+    /**
+     * Returns the first record whose Event ID is greater than or equal to the
+     * given ID, consuming it. If the file has a Table of Contents, only the
+     * block that holds the event is read; otherwise, the file is read from the
+     * current position.
+     *
+     * @param eventId the ID of the event to find
+     * @return the record, or <code>null</code> if there is no such record
+     * @throws IOException if unable to read the file, or if the reader has no
+     * Table of Contents and is already past the given event
+     */
+    StandardProvenanceEventRecord skipToEvent(long eventId) throws IOException;
+
+    /**
+     * @return the index of the block that is currently being read, or -1 if
+     * the file has no Table of Contents or no block has been read yet
+     */
+    int getBlockIndex();
+
+    /**
+     * @return the Table of Contents of the file, or <code>null</code> if the
+     * file has none
+     */
+    TocReader getTocReader();
 }
@@ -29,6 +29,8 @@ import java.util.zip.GZIPInputStream;
 import org.apache.nifi.stream.io.BufferedInputStream;
 import org.apache.nifi.provenance.StandardRecordReader;
 import org.apache.nifi.provenance.lucene.LuceneUtil;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.provenance.toc.TocUtil;
 
 public class RecordReaders {
 
@@ -51,10 +53,27 @@ public class RecordReaders {
             throw new FileNotFoundException(file.toString());
         }
 
+        final File tocFile = TocUtil.getTocFile(file);
+        if (file.getName().endsWith(".gz") && tocFile.exists()) {
+            return newBlockRecordReader(file, tocFile);
+        }
+
         final InputStream fis = new FileInputStream(file);
         final InputStream readableStream;
         if (file.getName().endsWith(".gz")) {
-            readableStream = new BufferedInputStream(new GZIPInputStream(fis));
+            final InputStream bufferedIn = new BufferedInputStream(fis);
+            if (!isGzipStream(bufferedIn)) {
+                // the file is block-compressed but its Table of Contents is missing. The blocks are GZIP streams that
+                // follow the uncompressed header, so they can still be read in sequence as a single stream.
+                final DataInputStream headerIn = new DataInputStream(bufferedIn);
+                @SuppressWarnings("unused")
+                final String repoClassName = headerIn.readUTF();
+                final int serializationVersion = headerIn.readInt();
+                final InputStream blocksIn = new BufferedInputStream(new GZIPInputStream(bufferedIn));
+                return new StandardRecordReader(new DataInputStream(blocksIn), serializationVersion, file.getName());
+            }
+
+            readableStream = new BufferedInputStream(new GZIPInputStream(bufferedIn));
         } else {
             readableStream = new BufferedInputStream(fis);
         }
@@ -67,4 +86,33 @@ public class RecordReaders {
         return new StandardRecordReader(dis, serializationVersion, file.getName());
     }
 
+    private static boolean isGzipStream(final InputStream in) throws IOException {
+        in.mark(2);
+        final int first = in.read();
+        final int second = in.read();
+        in.reset();
+        return first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Creates a reader for a file whose events are written in compressed
+     * blocks. The header precedes the first block and is not compressed.
+     */
+    private static RecordReader newBlockRecordReader(final File file, final File tocFile) throws IOException {
+        final TocReader tocReader = new TocReader(tocFile);
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            final DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
+            @SuppressWarnings("unused")
+            final String repoClassName = dis.readUTF();
+            final int serializationVersion = dis.readInt();
+
+            // the reader repositions the file for each block that it reads, so it does not matter how much the header buffer read
+            return new StandardRecordReader(fis, tocReader, serializationVersion, file.getName());
+        } catch (final IOException | RuntimeException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
 }
@@ -41,6 +41,17 @@ public interface RecordWriter extends Closeable {
      */
     long writeRecord(ProvenanceEventRecord record, long recordIdentifier) throws IOException;
 
+    /**
+     * Returns the byte offset at which the next record will be written. The
+     * offset does not include the header, so it is the same offset that a
+     * RecordReader reports as the storage byte offset of that record. If the
+     * writer is compressed, the offset is relative to the start of the block
+     * to which the record will be written.
+     *
+     * @return
+     */
+    long getNextRecordOffset();
+
     /**
      * Returns the number of Records that have been written to this RecordWriter
      *
@@ -20,11 +20,35 @@ import java.io.File;
 import java.io.IOException;
 
 import org.apache.nifi.provenance.StandardRecordWriter;
+import org.apache.nifi.provenance.toc.TocUtil;
+import org.apache.nifi.provenance.toc.TocWriter;
 
 public class RecordWriters {
 
+    /**
+     * The number of uncompressed bytes that are written to each block of a
+     * compressed Provenance Log File
+     */
+    public static final int DEFAULT_UNCOMPRESSED_BLOCK_SIZE = 65536;
+
     public static RecordWriter newRecordWriter(final File file) throws IOException {
         return new StandardRecordWriter(file);
     }
 
+    /**
+     * Creates a writer for a Provenance Log File
+     *
+     * @param file the file to write to
+     * @param compressed whether or not the events are to be written in
+     * compressed blocks
+     * @param createToc whether or not to write a Table of Contents for the
+     * blocks, which allows readers to decompress only the blocks that they need
+     * @return the writer
+     * @throws IOException if unable to create the file
+     */
+    public static RecordWriter newRecordWriter(final File file, final boolean compressed, final boolean createToc) throws IOException {
+        final TocWriter tocWriter = createToc ? new TocWriter(TocUtil.getTocFile(file), compressed) : null;
+        return new StandardRecordWriter(file, tocWriter, compressed, DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+    }
+
 }
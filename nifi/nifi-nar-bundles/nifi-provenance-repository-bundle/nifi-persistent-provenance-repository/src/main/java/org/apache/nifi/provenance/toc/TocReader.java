@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.toc;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.nifi.stream.io.BufferedInputStream;
+
+/**
+ * Reads a Table of Contents that was written by a {@link TocWriter}. The
+ * entire TOC is read into memory when it is constructed; a TOC holds 16 bytes
+ * per block, so even a very large Provenance Log File has a small TOC.
+ */
+public class TocReader {
+
+    private final File file;
+    private final boolean compressed;
+    private final long[] blockOffsets;
+    private final long[] firstEventIds;
+
+    public TocReader(final File file) throws IOException {
+        this.file = file;
+
+        final long fileLength = file.length();
+        if (fileLength < 2) {
+            throw new EOFException("Table of Contents " + file + " does not contain a header");
+        }
+
+        // the last entry may be incomplete if the system was stopped while the file was being written, so we ignore it
+        final int blockCount = (int) ((fileLength - 2) / 16);
+        blockOffsets = new long[blockCount];
+        firstEventIds = new long[blockCount];
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final int version = in.readByte();
+            if (version > TocWriter.VERSION) {
+                throw new IOException("Cannot read Table of Contents " + file + " because its version is " + version
+                        + " and the maximum supported version is " + TocWriter.VERSION);
+            }
+
+            compressed = in.readByte() == 1;
+
+            for (int i = 0; i < blockCount; i++) {
+                blockOffsets[i] = in.readLong();
+                firstEventIds[i] = in.readLong();
+            }
+        }
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * @param blockIndex the index of the block
+     * @return the offset of the given block within the Provenance Log File
+     */
+    public long getBlockOffset(final int blockIndex) {
+        return blockOffsets[blockIndex];
+    }
+
+    /**
+     * @param blockIndex the index of the block
+     * @return the Event ID of the first event in the given block
+     */
+    public long getFirstEventId(final int blockIndex) {
+        return firstEventIds[blockIndex];
+    }
+
+    /**
+     * Returns the index of the block that contains the event with the given ID,
+     * if the event exists in the file
+     *
+     * @param eventId the ID of the event
+     * @return the index of the last block whose first event has an ID that is
+     * less than or equal to the given ID, or 0 if there is no such block
+     */
+    public int getBlockIndexForEventId(final long eventId) {
+        int low = 0;
+        int high = firstEventIds.length - 1;
+        int blockIndex = 0;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (firstEventIds[mid] <= eventId) {
+                blockIndex = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return blockIndex;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "TocReader[" + file + "]";
+    }
+}
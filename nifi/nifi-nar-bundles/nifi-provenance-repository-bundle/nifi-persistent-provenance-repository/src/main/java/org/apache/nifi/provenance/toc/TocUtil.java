@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.toc;
+
+import java.io.File;
+
+import org.apache.nifi.provenance.lucene.LuceneUtil;
+
+public class TocUtil {
+
+    /**
+     * Returns the file that holds the Table of Contents for the given
+     * Provenance Log File. The TOC is named after the basename of the log file,
+     * so it remains valid when the log file is renamed.
+     *
+     * @param provenanceLogFile the Provenance Log File
+     * @return the TOC file, which may or may not exist
+     */
+    public static File getTocFile(final File provenanceLogFile) {
+        final File tocDirectory = new File(provenanceLogFile.getParentFile(), "toc");
+        final String basename = LuceneUtil.substringBefore(provenanceLogFile.getName(), ".");
+        return new File(tocDirectory, basename + ".toc");
+    }
+}
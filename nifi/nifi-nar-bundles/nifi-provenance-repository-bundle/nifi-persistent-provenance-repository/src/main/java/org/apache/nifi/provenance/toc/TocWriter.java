@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.toc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.nifi.stream.io.BufferedOutputStream;
+import org.apache.nifi.stream.io.DataOutputStream;
+
+/**
+ * <p>
+ * Writes the Table of Contents (TOC) of a block-compressed Provenance Log File.
+ * The TOC has the following format:
+ * </p>
+ *
+ * <pre>
+ * byte    version
+ * byte    compression flag (1 if the blocks are compressed, 0 otherwise)
+ * then, for each block:
+ *   long  offset of the block within the Provenance Log File
+ *   long  Event ID of the first event in the block
+ * </pre>
+ *
+ * <p>
+ * Blocks begin on event boundaries, so any block can be read without reading
+ * the blocks that precede it.
+ * </p>
+ */
+public class TocWriter implements Closeable {
+
+    public static final byte VERSION = 1;
+
+    private final File file;
+    private final FileOutputStream fos;
+    private final DataOutputStream out;
+    private int blockCount = 0;
+
+    /**
+     * @param file the TOC file to create
+     * @param compressedBlocks whether or not the blocks of the Provenance Log
+     * File are compressed
+     * @throws IOException if unable to create the file
+     */
+    public TocWriter(final File file, final boolean compressedBlocks) throws IOException {
+        final File tocDir = file.getParentFile();
+        if (!tocDir.exists()) {
+            Files.createDirectories(tocDir.toPath());
+        }
+
+        this.file = file;
+        this.fos = new FileOutputStream(file);
+        this.out = new DataOutputStream(new BufferedOutputStream(fos));
+
+        out.writeByte(VERSION);
+        out.writeByte(compressedBlocks ? 1 : 0);
+    }
+
+    /**
+     * Records that a new block begins at the given offset
+     *
+     * @param offset the offset of the block within the Provenance Log File
+     * @param firstEventId the Event ID of the first event in the block
+     * @throws IOException if unable to write to the TOC
+     */
+    public void addBlockOffset(final long offset, final long firstEventId) throws IOException {
+        out.writeLong(offset);
+        out.writeLong(firstEventId);
+        blockCount++;
+    }
+
+    /**
+     * @return the index of the block that was most recently added, or -1 if no
+     * block has been added
+     */
+    public int getCurrentBlockIndex() {
+        return blockCount - 1;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void sync() throws IOException {
+        out.flush();
+        fos.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TocWriter[" + file + "]";
+    }
+}
@@ -17,12 +17,15 @@
 package org.apache.nifi.provenance;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -276,6 +279,64 @@ public class TestPersistentProvenanceRepository {
         }
     }
 
+    @Test
+    public void testConcurrentWritersWithRolloverAndRecover() throws IOException, InterruptedException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileCapacity(16 * 1024L);
+        config.setMaxEventFileLife(1, TimeUnit.SECONDS);
+        config.setJournalCount(4);
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", UUID.randomUUID().toString());
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        final ProvenanceEventRecord record = builder.build();
+        final List<ProvenanceEventRecord> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(record);
+        }
+
+        // more threads than journals, and enough data that the journals are rolled over while the threads are writing
+        final Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    repo.registerEvents(batch);
+                }
+            }
+        };
+
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(r);
+            threads[i].start();
+        }
+        for (final Thread t : threads) {
+            t.join();
+        }
+
+        repo.close();
+        Thread.sleep(500L); // Give the repo time to shutdown (i.e., close all file handles, etc.)
+
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+        final List<ProvenanceEventRecord> recoveredRecords = repo.getEvents(0L, 5000);
+
+        // every event is recovered exactly once, and the batches left no gaps in the Event IDs
+        assertEquals(4000, recoveredRecords.size());
+        for (int i = 0; i < recoveredRecords.size(); i++) {
+            assertEquals((long) i, recoveredRecords.get(i).getEventId());
+        }
+    }
+
     @Test
     public void testAddToMultipleLogsAndRecover() throws IOException, InterruptedException {
         final List<SearchableField> searchableFields = new ArrayList<>();
@@ -378,6 +439,115 @@ public class TestPersistentProvenanceRepository {
         }
     }
 
+    @Test
+    public void testSearchBeforeRollover() throws IOException, InterruptedException, ParseException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(1, TimeUnit.HOURS);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        config.setSearchableAttributes(SearchableFieldParser.extractSearchableFields("abc", false));
+
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("abc", "xyz");
+        attributes.put("filename", "file-unnamed");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        for (int i = 0; i < 10; i++) {
+            attributes.put("uuid", "00000000-0000-0000-0000-00000000000" + i);
+            attributes.put("abc", i % 2 == 0 ? "even" : "odd");
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+        }
+
+        // the events have not been rolled over, but they should already be searchable
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.newSearchableAttribute("abc"), "even"));
+        query.setMaxResults(100);
+
+        QueryResult result = repo.queryEvents(query);
+        assertEquals(5, result.getMatchingEvents().size());
+        for (final ProvenanceEventRecord match : result.getMatchingEvents()) {
+            assertEquals("even", match.getAttributes().get("abc"));
+            assertEquals(0, match.getEventId() % 2);
+        }
+
+        // once the journals have been merged, the same documents must be resolved against the merged file
+        config.setMaxEventFileCapacity(1L);
+        attributes.put("uuid", "00000000-0000-0000-0000-000000000010");
+        attributes.put("abc", "odd");
+        builder.fromFlowFile(createFlowFile(10L, 3000L, attributes));
+        repo.registerEvent(builder.build());
+        repo.waitForRollover();
+
+        result = repo.queryEvents(query);
+        assertEquals(5, result.getMatchingEvents().size());
+        for (final ProvenanceEventRecord match : result.getMatchingEvents()) {
+            assertEquals("even", match.getAttributes().get("abc"));
+            assertEquals(0, match.getEventId() % 2);
+        }
+    }
+
+    @Test
+    public void testSearchReturnsNewestEventsAcrossIndices() throws IOException, InterruptedException, ParseException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setMaxEventFileLife(500, TimeUnit.MILLISECONDS);
+        config.setDesiredIndexSize(1L);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-unnamed");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        // write three files, each of which is indexed into its own index directory
+        final long baseTime = System.currentTimeMillis() - 100000L;
+        for (int file = 0; file < 3; file++) {
+            for (int i = 0; i < 10; i++) {
+                final int eventIndex = file * 10 + i;
+                attributes.put("uuid", UUID.randomUUID().toString());
+                builder.setEventTime(baseTime + eventIndex * 1000L);
+                builder.fromFlowFile(createFlowFile(eventIndex, 3000L, attributes));
+                repo.registerEvent(builder.build());
+            }
+            repo.waitForRollover();
+        }
+
+        final FileFilter indexFileFilter = new FileFilter() {
+            @Override
+            public boolean accept(final File pathname) {
+                return pathname.getName().startsWith("index");
+            }
+        };
+        assertTrue(config.getStorageDirectories().get(0).listFiles(indexFileFilter).length > 1);
+
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.ComponentID, "1234"));
+        query.setMaxResults(5);
+
+        final QueryResult result = repo.queryEvents(query);
+        assertEquals(30, result.getTotalHitCount());
+
+        final List<ProvenanceEventRecord> matches = result.getMatchingEvents();
+        assertEquals(5, matches.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(baseTime + (29 - i) * 1000L, matches.get(i).getEventTime());
+        }
+    }
+
     @Test
     public void testCompressOnRollover() throws IOException, InterruptedException, ParseException {
         final RepositoryConfiguration config = createConfiguration();
@@ -410,6 +580,107 @@ public class TestPersistentProvenanceRepository {
         final File storageDir = config.getStorageDirectories().get(0);
         final File compressedLogFile = new File(storageDir, "0.prov.gz");
         assertTrue(compressedLogFile.exists());
+        assertTrue(new File(new File(storageDir, "toc"), "0.toc").exists());
+
+        for (long i = 0; i < 10; i++) {
+            assertEquals(i, repo.getEvent(i).getEventId());
+        }
+    }
+
+    @Test
+    public void testSearchCompressedBlocksAfterRecovery() throws IOException, InterruptedException, ParseException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setCompressOnRollover(true);
+        config.setSearchableFields(new ArrayList<>(SearchableFields.getStandardFields()));
+        config.setSearchableAttributes(SearchableFieldParser.extractSearchableFields("abc", false));
+
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-unnamed");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        for (int i = 0; i < 10; i++) {
+            attributes.put("uuid", "00000000-0000-0000-0000-00000000000" + i);
+            attributes.put("abc", i % 2 == 0 ? "even" : "odd");
+            builder.fromFlowFile(createFlowFile(i, 3000L, attributes));
+            repo.registerEvent(builder.build());
+        }
+
+        // The events have not been committed to the index, so when the repository is restarted the journals are merged
+        // into a compressed file, which is then indexed by block.
+        repo.close();
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final File indexedFile = new File(config.getStorageDirectories().get(0), "0.indexed.prov.gz");
+        for (int i = 0; i < 100 && !indexedFile.exists(); i++) {
+            Thread.sleep(100L);
+        }
+        assertTrue(indexedFile.exists());
+
+        final Query query = new Query(UUID.randomUUID().toString());
+        query.addSearchTerm(SearchTerms.newSearchTerm(SearchableFields.newSearchableAttribute("abc"), "even"));
+        query.setMaxResults(100);
+
+        final QueryResult result = repo.queryEvents(query);
+        assertEquals(5, result.getMatchingEvents().size());
+        for (final ProvenanceEventRecord match : result.getMatchingEvents()) {
+            assertEquals("even", match.getAttributes().get("abc"));
+            assertEquals(0, match.getEventId() % 2);
+        }
+    }
+
+    @Test
+    public void testIncompleteMergedFilesRemovedOnRecovery() throws IOException {
+        final RepositoryConfiguration config = createConfiguration();
+        config.setCompressOnRollover(true);
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("uuid", "00000000-0000-0000-0000-000000000000");
+
+        final ProvenanceEventBuilder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.fromFlowFile(createFlowFile(3L, 3000L, attributes));
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+
+        for (int i = 0; i < 10; i++) {
+            repo.registerEvent(builder.build());
+        }
+        repo.close();
+
+        // Simulate merges that were interrupted before the merged file was renamed: one into the file that the journals
+        // are merged into again, and one that was uncompressed, as it would be if compression has been enabled since.
+        final File storageDir = config.getStorageDirectories().get(0);
+        final File partialMergedFile = new File(storageDir, "0.prov.gz.part");
+        final File staleMergedFile = new File(storageDir, "1000.prov.part");
+        Files.write(partialMergedFile.toPath(), "incomplete".getBytes(StandardCharsets.UTF_8));
+        Files.write(staleMergedFile.toPath(), "incomplete".getBytes(StandardCharsets.UTF_8));
+
+        repo = new PersistentProvenanceRepository(config);
+        repo.initialize(getEventReporter());
+
+        assertFalse(partialMergedFile.exists());
+        assertFalse(staleMergedFile.exists());
+        assertTrue(new File(storageDir, "0.prov.gz").exists());
+
+        final List<ProvenanceEventRecord> recoveredRecords = repo.getEvents(0L, 12);
+        assertEquals(10, recoveredRecords.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals((long) i, recoveredRecords.get(i).getEventId());
+        }
     }
 
     @Test
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.nifi.provenance.serialization.RecordReader;
+import org.apache.nifi.provenance.serialization.RecordReaders;
+import org.apache.nifi.provenance.serialization.RecordWriter;
+import org.apache.nifi.provenance.toc.TocReader;
+import org.apache.nifi.provenance.toc.TocUtil;
+import org.apache.nifi.provenance.toc.TocWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStandardRecordReaderWriter {
+
+    private File dataFile;
+
+    @Before
+    public void setup() {
+        final File storageDir = new File("target/storage/" + UUID.randomUUID().toString());
+        storageDir.mkdirs();
+        dataFile = new File(storageDir, "0.prov.gz");
+    }
+
+    private ProvenanceEventRecord createEvent(final long id) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("filename", "file-" + id);
+
+        final StandardProvenanceEventRecord.Builder builder = new StandardProvenanceEventRecord.Builder();
+        builder.setEventTime(System.currentTimeMillis());
+        builder.setEventType(ProvenanceEventType.RECEIVE);
+        builder.setTransitUri("nifi://unit-test");
+        builder.setFlowFileUUID(UUID.randomUUID().toString());
+        builder.setAttributes(Collections.<String, String>emptyMap(), attributes);
+        builder.setLineageIdentifiers(Collections.<String>emptySet());
+        builder.setCurrentContentClaim(null, null, null, null, 1024L);
+        builder.setComponentId("1234");
+        builder.setComponentType("dummy processor");
+        return builder.build();
+    }
+
+    private void writeEvents(final int eventCount, final int blockSize) throws IOException {
+        final TocWriter tocWriter = new TocWriter(TocUtil.getTocFile(dataFile), true);
+        try (final RecordWriter writer = new StandardRecordWriter(dataFile, tocWriter, true, blockSize)) {
+            writer.writeHeader();
+            for (int i = 0; i < eventCount; i++) {
+                writer.writeRecord(createEvent(i), i);
+            }
+        }
+    }
+
+    @Test
+    public void testReadBlocksSequentially() throws IOException {
+        writeEvents(1000, 1024);
+
+        final TocReader tocReader = new TocReader(TocUtil.getTocFile(dataFile));
+        assertTrue(tocReader.isCompressed());
+        assertTrue(tocReader.getBlockCount() > 10);
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(dataFile, null)) {
+            assertNotNull(reader.getTocReader());
+            for (int i = 0; i < 1000; i++) {
+                final StandardProvenanceEventRecord record = reader.nextRecord();
+                assertNotNull(record);
+                assertEquals(i, record.getEventId());
+                assertEquals("file-" + i, record.getAttributes().get("filename"));
+                assertTrue(record.getEventId() >= tocReader.getFirstEventId(reader.getBlockIndex()));
+            }
+            assertNull(reader.nextRecord());
+        }
+    }
+
+    @Test
+    public void testSkipToBlockAndOffset() throws IOException {
+        writeEvents(1000, 1024);
+
+        // find the location of an event and then go directly to it with a new reader
+        int blockIndex = -1;
+        long offset = -1L;
+        try (final RecordReader reader = RecordReaders.newRecordReader(dataFile, null)) {
+            StandardProvenanceEventRecord record;
+            while ((record = reader.nextRecord()) != null) {
+                if (record.getEventId() == 777L) {
+                    blockIndex = reader.getBlockIndex();
+                    offset = record.getStorageByteOffset();
+                    break;
+                }
+            }
+        }
+
+        assertTrue(blockIndex > 0);
+        try (final RecordReader reader = RecordReaders.newRecordReader(dataFile, null)) {
+            reader.skipToBlock(blockIndex);
+            reader.skipTo(offset);
+            assertEquals(777L, reader.nextRecord().getEventId());
+
+            // blocks can be read in any order
+            reader.skipToBlock(0);
+            assertEquals(0L, reader.nextRecord().getEventId());
+        }
+    }
+
+    @Test
+    public void testSkipToEvent() throws IOException {
+        writeEvents(1000, 1024);
+
+        try (final RecordReader reader = RecordReaders.newRecordReader(dataFile, null)) {
+            assertEquals(500L, reader.skipToEvent(500L).getEventId());
+            assertEquals(501L, reader.nextRecord().getEventId());
+            assertEquals(999L, reader.skipToEvent(999L).getEventId());
+            assertEquals(20L, reader.skipToEvent(20L).getEventId());
+            assertNull(reader.skipToEvent(1000L));
+        }
+    }
+
+    @Test
+    public void testReadWithoutTableOfContents() throws IOException {
+        writeEvents(100, 1024);
+        assertTrue(TocUtil.getTocFile(dataFile).delete());
+
+        // the blocks are concatenated GZIP streams, so the file can still be read as a single stream
+        try (final RecordReader reader = RecordReaders.newRecordReader(dataFile, null)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, reader.nextRecord().getEventId());
+            }
+            assertNull(reader.nextRecord());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.provenance.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestIndexManager {
+
+    private File indexDir;
+    private IndexManager indexManager;
+
+    @Before
+    public void setup() {
+        indexDir = new File("target/indices/" + UUID.randomUUID().toString());
+        indexManager = new IndexManager();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        indexManager.close();
+    }
+
+    private void addDocument(final IndexWriter writer, final String value) throws IOException {
+        final Document doc = new Document();
+        doc.add(new StringField("value", value, Store.YES));
+        writer.addDocument(doc);
+    }
+
+    private void addCommittedDocument(final String value) throws IOException {
+        final IndexWriter writer = indexManager.borrowIndexWriter(indexDir);
+        try {
+            addDocument(writer, value);
+            writer.commit();
+        } finally {
+            indexManager.returnIndexWriter(indexDir, writer);
+        }
+    }
+
+    @Test
+    public void testSearcherIsReusedUntilIndexChanges() throws IOException {
+        addCommittedDocument("a");
+
+        final IndexSearcher first = indexManager.borrowIndexSearcher(indexDir);
+        final IndexSearcher second = indexManager.borrowIndexSearcher(indexDir);
+        assertSame(first, second);
+        assertEquals(1, first.getIndexReader().numDocs());
+        indexManager.returnIndexSearcher(indexDir, first);
+        indexManager.returnIndexSearcher(indexDir, second);
+
+        addCommittedDocument("b");
+
+        final IndexSearcher refreshed = indexManager.borrowIndexSearcher(indexDir);
+        try {
+            assertNotSame(first, refreshed);
+            assertEquals(2, refreshed.getIndexReader().numDocs());
+        } finally {
+            indexManager.returnIndexSearcher(indexDir, refreshed);
+        }
+    }
+
+    @Test
+    public void testSearcherSeesUncommittedDocuments() throws IOException {
+        addCommittedDocument("a");
+
+        final IndexWriter writer = indexManager.borrowIndexWriter(indexDir);
+        try {
+            addDocument(writer, "b");
+
+            final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDir);
+            try {
+                assertEquals(1, searcher.search(new TermQuery(new Term("value", "b")), 10).totalHits);
+            } finally {
+                indexManager.returnIndexSearcher(indexDir, searcher);
+            }
+
+            // the searcher holds onto the writer, so the writer must remain open after the searcher is returned
+            assertTrue(indexManager.getOpenIndexDirectories().contains(indexDir));
+            writer.commit();
+        } finally {
+            indexManager.returnIndexWriter(indexDir, writer);
+        }
+
+        assertTrue(indexManager.getOpenIndexDirectories().isEmpty());
+        final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDir);
+        try {
+            assertEquals(2, searcher.getIndexReader().numDocs());
+        } finally {
+            indexManager.returnIndexSearcher(indexDir, searcher);
+        }
+    }
+
+    @Test
+    public void testRemoveIndexWhileSearcherBorrowed() throws IOException {
+        addCommittedDocument("a");
+
+        final IndexSearcher searcher = indexManager.borrowIndexSearcher(indexDir);
+        indexManager.removeIndex(indexDir);
+
+        // a borrowed searcher remains usable until it is returned
+        assertEquals(1, searcher.search(new TermQuery(new Term("value", "a")), 10).totalHits);
+        indexManager.returnIndexSearcher(indexDir, searcher);
+
+        final IndexSearcher reopened = indexManager.borrowIndexSearcher(indexDir);
+        try {
+            assertNotSame(searcher, reopened);
+            assertEquals(1, reopened.getIndexReader().numDocs());
+        } finally {
+            indexManager.returnIndexSearcher(indexDir, reopened);
+        }
+    }
+}
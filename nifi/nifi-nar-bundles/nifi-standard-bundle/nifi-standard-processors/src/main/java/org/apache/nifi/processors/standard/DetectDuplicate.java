@@ -21,12 +21,16 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.distributed.cache.client.BatchedDistributedMapCacheClient;
 import org.apache.nifi.distributed.cache.client.Deserializer;
 import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
 import org.apache.nifi.distributed.cache.client.Serializer;
@@ -130,51 +134,114 @@ public class DetectDuplicate extends AbstractProcessor {
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        FlowFile flowFile = session.get();
-        if (flowFile == null) {
+        final List<FlowFile> flowFiles = session.get(50);
+        if (flowFiles.isEmpty()) {
             return;
         }
 
         final ProcessorLog logger = getLogger();
-        final String cacheKey = context.getProperty(CACHE_ENTRY_IDENTIFIER).evaluateAttributeExpressions(flowFile).getValue();
-        if (StringUtils.isBlank(cacheKey)) {
-            logger.error("FlowFile {} has no attribute for given Cache Entry Identifier", new Object[]{flowFile});
-            flowFile = session.penalize(flowFile);
-            session.transfer(flowFile, REL_FAILURE);
+
+        // Only the first FlowFile with each key is checked against the cache. Any others in this batch
+        // with the same key are duplicates of that first one.
+        final Map<String, CacheValue> cacheValues = new LinkedHashMap<>();
+        final Map<String, List<FlowFile>> flowFilesByKey = new LinkedHashMap<>();
+        final long now = System.currentTimeMillis();
+        for (final FlowFile flowFile : flowFiles) {
+            final String cacheKey = context.getProperty(CACHE_ENTRY_IDENTIFIER).evaluateAttributeExpressions(flowFile).getValue();
+            if (StringUtils.isBlank(cacheKey)) {
+                logger.error("FlowFile {} has no attribute for given Cache Entry Identifier", new Object[]{flowFile});
+                session.transfer(session.penalize(flowFile), REL_FAILURE);
+                continue;
+            }
+
+            List<FlowFile> flowFilesWithKey = flowFilesByKey.get(cacheKey);
+            if (flowFilesWithKey == null) {
+                flowFilesWithKey = new ArrayList<>();
+                flowFilesByKey.put(cacheKey, flowFilesWithKey);
+
+                final String flowFileDescription = context.getProperty(FLOWFILE_DESCRIPTION).evaluateAttributeExpressions(flowFile).getValue();
+                cacheValues.put(cacheKey, new CacheValue(flowFileDescription, now));
+            }
+            flowFilesWithKey.add(flowFile);
+        }
+
+        if (cacheValues.isEmpty()) {
             return;
         }
+
         final DistributedMapCacheClient cache = context.getProperty(DISTRIBUTED_CACHE_SERVICE).asControllerService(DistributedMapCacheClient.class);
         final Long durationMS = context.getProperty(AGE_OFF_DURATION).asTimePeriod(TimeUnit.MILLISECONDS);
-        final long now = System.currentTimeMillis();
 
+        final Map<String, CacheValue> originalCacheValues;
         try {
-            final String flowFileDescription = context.getProperty(FLOWFILE_DESCRIPTION).evaluateAttributeExpressions(flowFile).getValue();
-            final CacheValue cacheValue = new CacheValue(flowFileDescription, now);
-            final CacheValue originalCacheValue = cache.getAndPutIfAbsent(cacheKey, cacheValue, keySerializer, valueSerializer, valueDeserializer);
+            originalCacheValues = getAndPutAllIfAbsent(cache, cacheValues);
+        } catch (final IOException e) {
+            for (final List<FlowFile> flowFilesWithKey : flowFilesByKey.values()) {
+                transferToFailure(session, flowFilesWithKey, e);
+            }
+            return;
+        }
+
+        for (final Map.Entry<String, List<FlowFile>> entry : flowFilesByKey.entrySet()) {
+            final String cacheKey = entry.getKey();
+            final CacheValue cacheValue = cacheValues.get(cacheKey);
+            CacheValue originalCacheValue = originalCacheValues.get(cacheKey);
+
             boolean duplicate = originalCacheValue != null;
             if (duplicate && durationMS != null && (now >= originalCacheValue.getEntryTimeMS() + durationMS)) {
-                boolean status = cache.remove(cacheKey, keySerializer);
-                logger.debug("Removal of expired cached entry with key {} returned {}", new Object[]{cacheKey, status});
-                // this should typically result in duplicate being false...but, better safe than sorry
-                duplicate = !cache.putIfAbsent(cacheKey, cacheValue, keySerializer, valueSerializer);
+                try {
+                    boolean status = cache.remove(cacheKey, keySerializer);
+                    logger.debug("Removal of expired cached entry with key {} returned {}", new Object[]{cacheKey, status});
+                    // this should typically result in duplicate being false...but, better safe than sorry
+                    duplicate = !cache.putIfAbsent(cacheKey, cacheValue, keySerializer, valueSerializer);
+                } catch (final IOException e) {
+                    transferToFailure(session, entry.getValue(), e);
+                    continue;
+                }
             }
-            if (duplicate) {
-                session.getProvenanceReporter().route(flowFile, REL_DUPLICATE, "Duplicate of: " + ORIGINAL_DESCRIPTION_ATTRIBUTE_NAME);
-                String originalFlowFileDescription = originalCacheValue.getDescription();
-                flowFile = session.putAttribute(flowFile, ORIGINAL_DESCRIPTION_ATTRIBUTE_NAME, originalFlowFileDescription);
-                session.transfer(flowFile, REL_DUPLICATE);
-                logger.info("Found {} to be a duplicate of FlowFile with description {}", new Object[]{flowFile, originalFlowFileDescription});
-                session.adjustCounter("Duplicates Detected", 1L, false);
-            } else {
-                session.getProvenanceReporter().route(flowFile, REL_NON_DUPLICATE);
-                session.transfer(flowFile, REL_NON_DUPLICATE);
-                logger.info("Could not find a duplicate entry in cache for {}; routing to non-duplicate", new Object[]{flowFile});
-                session.adjustCounter("Non-Duplicate Files Processed", 1L, false);
+
+            for (FlowFile flowFile : entry.getValue()) {
+                if (duplicate) {
+                    session.getProvenanceReporter().route(flowFile, REL_DUPLICATE, "Duplicate of: " + ORIGINAL_DESCRIPTION_ATTRIBUTE_NAME);
+                    String originalFlowFileDescription = originalCacheValue.getDescription();
+                    flowFile = session.putAttribute(flowFile, ORIGINAL_DESCRIPTION_ATTRIBUTE_NAME, originalFlowFileDescription);
+                    session.transfer(flowFile, REL_DUPLICATE);
+                    logger.info("Found {} to be a duplicate of FlowFile with description {}", new Object[]{flowFile, originalFlowFileDescription});
+                    session.adjustCounter("Duplicates Detected", 1L, false);
+                } else {
+                    session.getProvenanceReporter().route(flowFile, REL_NON_DUPLICATE);
+                    session.transfer(flowFile, REL_NON_DUPLICATE);
+                    logger.info("Could not find a duplicate entry in cache for {}; routing to non-duplicate", new Object[]{flowFile});
+                    session.adjustCounter("Non-Duplicate Files Processed", 1L, false);
+
+                    // the rest of the FlowFiles with this key are duplicates of this one
+                    duplicate = true;
+                    originalCacheValue = cacheValue;
+                }
             }
-        } catch (final IOException e) {
-            flowFile = session.penalize(flowFile);
-            session.transfer(flowFile, REL_FAILURE);
-            logger.error("Unable to communicate with cache when processing {} due to {}", new Object[]{flowFile, e});
+        }
+    }
+
+    /**
+     * Looks up all of the keys in one round trip if the client supports it, or
+     * one key at a time otherwise
+     */
+    private Map<String, CacheValue> getAndPutAllIfAbsent(final DistributedMapCacheClient cache, final Map<String, CacheValue> cacheValues) throws IOException {
+        if (cache instanceof BatchedDistributedMapCacheClient) {
+            return ((BatchedDistributedMapCacheClient) cache).getAndPutAllIfAbsent(cacheValues, keySerializer, valueSerializer, valueDeserializer);
+        }
+
+        final Map<String, CacheValue> originalCacheValues = new HashMap<>();
+        for (final Map.Entry<String, CacheValue> entry : cacheValues.entrySet()) {
+            originalCacheValues.put(entry.getKey(), cache.getAndPutIfAbsent(entry.getKey(), entry.getValue(), keySerializer, valueSerializer, valueDeserializer));
+        }
+        return originalCacheValues;
+    }
+
+    private void transferToFailure(final ProcessSession session, final List<FlowFile> flowFiles, final IOException e) {
+        for (final FlowFile flowFile : flowFiles) {
+            session.transfer(session.penalize(flowFile), REL_FAILURE);
+            getLogger().error("Unable to communicate with cache when processing {} due to {}", new Object[]{flowFile, e});
         }
     }
 
@@ -16,24 +16,30 @@
  */
 package org.apache.nifi.processors.standard;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.SerializationException;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.distributed.cache.client.BatchedDistributedMapCacheClient;
 import org.apache.nifi.distributed.cache.client.Deserializer;
 import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
 import org.apache.nifi.distributed.cache.client.DistributedMapCacheClientService;
 import org.apache.nifi.distributed.cache.client.Serializer;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.util.MockControllerServiceInitializationContext;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Test;
@@ -108,6 +114,46 @@ public class TestDetectDuplicate {
         runner.assertTransferCount(DetectDuplicate.REL_FAILURE, 0);
     }
 
+    @Test
+    public void testDuplicatesWithinBatch() throws InitializationException {
+        final BatchedDistributedMapCacheClientImpl client = new BatchedDistributedMapCacheClientImpl();
+        client.initialize(new MockControllerServiceInitializationContext(client, "client"));
+        verifyDuplicatesWithinBatch(client);
+        assertEquals(1, client.batchesRequested);
+    }
+
+    @Test
+    public void testDuplicatesWithinBatchWithoutBatchedClient() throws InitializationException {
+        verifyDuplicatesWithinBatch(createClient());
+    }
+
+    private void verifyDuplicatesWithinBatch(final DistributedMapCacheClientImpl client) throws InitializationException {
+        TestRunner runner = TestRunners.newTestRunner(DetectDuplicate.class);
+        final Map<String, String> clientProperties = new HashMap<>();
+        clientProperties.put(DistributedMapCacheClientService.HOSTNAME.getName(), "localhost");
+        runner.addControllerService("client", client, clientProperties);
+        runner.setProperty(DetectDuplicate.DISTRIBUTED_CACHE_SERVICE, "client");
+        runner.setProperty(DetectDuplicate.FLOWFILE_DESCRIPTION, "${description}");
+        runner.enableControllerService(client);
+
+        for (int i = 0; i < 3; i++) {
+            Map<String, String> props = new HashMap<>();
+            props.put("hash.value", "1000");
+            props.put("description", "flow file " + i);
+            runner.enqueue(new byte[]{}, props);
+        }
+        runner.enqueue(new byte[]{}, new HashMap<String, String>());
+
+        runner.run();
+        runner.assertTransferCount(DetectDuplicate.REL_NON_DUPLICATE, 1);
+        runner.assertTransferCount(DetectDuplicate.REL_DUPLICATE, 2);
+        runner.assertTransferCount(DetectDuplicate.REL_FAILURE, 1);
+        runner.getFlowFilesForRelationship(DetectDuplicate.REL_NON_DUPLICATE).get(0).assertAttributeEquals("description", "flow file 0");
+        for (final MockFlowFile flowFile : runner.getFlowFilesForRelationship(DetectDuplicate.REL_DUPLICATE)) {
+            flowFile.assertAttributeEquals(DetectDuplicate.ORIGINAL_DESCRIPTION_ATTRIBUTE_NAME, "flow file 0");
+        }
+    }
+
     private DistributedMapCacheClientImpl createClient() throws InitializationException {
 
         final DistributedMapCacheClientImpl client = new DistributedMapCacheClientImpl();
@@ -117,7 +163,7 @@ public class TestDetectDuplicate {
         return client;
     }
 
-    static final class DistributedMapCacheClientImpl extends AbstractControllerService implements DistributedMapCacheClient {
+    static class DistributedMapCacheClientImpl extends AbstractControllerService implements DistributedMapCacheClient {
 
         boolean exists = false;
         private Object cacheValue;
@@ -177,6 +223,44 @@ public class TestDetectDuplicate {
         }
     }
 
+    /**
+     * A client that performs the batched operations one key at a time, and
+     * counts how often it was asked to
+     */
+    static final class BatchedDistributedMapCacheClientImpl extends DistributedMapCacheClientImpl implements BatchedDistributedMapCacheClient {
+
+        int batchesRequested = 0;
+
+        @Override
+        public <K, V> Map<K, Boolean> putAllIfAbsent(Map<K, V> keysAndValues, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+            final Map<K, Boolean> results = new LinkedHashMap<>();
+            for (final Map.Entry<K, V> entry : keysAndValues.entrySet()) {
+                results.put(entry.getKey(), putIfAbsent(entry.getKey(), entry.getValue(), keySerializer, valueSerializer));
+            }
+            return results;
+        }
+
+        @Override
+        public <K, V> Map<K, V> getAndPutAllIfAbsent(Map<K, V> keysAndValues, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                Deserializer<V> valueDeserializer) throws IOException {
+            batchesRequested++;
+            final Map<K, V> results = new LinkedHashMap<>();
+            for (final Map.Entry<K, V> entry : keysAndValues.entrySet()) {
+                results.put(entry.getKey(), getAndPutIfAbsent(entry.getKey(), entry.getValue(), keySerializer, valueSerializer, valueDeserializer));
+            }
+            return results;
+        }
+
+        @Override
+        public <K> Map<K, Boolean> containsKeys(Collection<K> keys, Serializer<K> keySerializer) throws IOException {
+            final Map<K, Boolean> results = new LinkedHashMap<>();
+            for (final K key : keys) {
+                results.put(key, containsKey(key, keySerializer));
+            }
+            return results;
+        }
+    }
+
     private static class StringSerializer implements Serializer<String> {
 
         @Override
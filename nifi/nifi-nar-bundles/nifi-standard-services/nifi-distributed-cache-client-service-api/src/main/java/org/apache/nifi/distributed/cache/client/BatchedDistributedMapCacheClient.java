@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.client;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link DistributedMapCacheClient} that can send the operations for many
+ * keys to the server at once, rather than waiting for the result of each
+ * before sending the next. These operations are kept out of
+ * DistributedMapCacheClient so that existing implementations of it need not
+ * provide them; callers can check whether a client implements this interface
+ * and otherwise perform the operations one key at a time.
+ */
+public interface BatchedDistributedMapCacheClient extends DistributedMapCacheClient {
+
+    /**
+     * Performs {@link DistributedMapCacheClient#putIfAbsent(Object, Object, Serializer, Serializer)}
+     * for each of the given entries, sending them to the server together
+     * rather than waiting for the result of each before sending the next.
+     *
+     * @param <K>
+     * @param <V>
+     * @param keysAndValues the entries to add to the cache
+     * @param keySerializer
+     * @param valueSerializer
+     * @return for each key, in the iteration order of the given map,
+     * <code>true</code> if the value was added to the cache or
+     * <code>false</code> if the key was already present
+     *
+     * @throws IOException if unable to communicate with the remote instance
+     */
+    <K, V> Map<K, Boolean> putAllIfAbsent(Map<K, V> keysAndValues, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException;
+
+    /**
+     * Performs
+     * {@link DistributedMapCacheClient#getAndPutIfAbsent(Object, Object, Serializer, Serializer, Deserializer)}
+     * for each of the given entries, sending them to the server together
+     * rather than waiting for the result of each before sending the next.
+     *
+     * @param <K>
+     * @param <V>
+     * @param keysAndValues the entries to add to the cache
+     * @param keySerializer
+     * @param valueSerializer
+     * @param valueDeserializer
+     * @return for each key, in the iteration order of the given map, the
+     * value that was already in the cache, as returned by the valueDeserializer
+     * for an empty value if the key was absent and the given value was added
+     *
+     * @throws IOException if unable to communicate with the remote instance
+     */
+    <K, V> Map<K, V> getAndPutAllIfAbsent(Map<K, V> keysAndValues, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+            Deserializer<V> valueDeserializer) throws IOException;
+
+    /**
+     * Performs {@link DistributedMapCacheClient#containsKey(Object, Serializer)} for each of the given
+     * keys, sending them to the server together rather than waiting for the
+     * result of each before sending the next.
+     *
+     * @param <K>
+     * @param keys
+     * @param keySerializer
+     * @return for each key, in the iteration order of the given collection,
+     * whether or not it is present in the cache
+     *
+     * @throws IOException if unable to communicate with the remote instance
+     */
+    <K> Map<K, Boolean> containsKeys(Collection<K> keys, Serializer<K> keySerializer) throws IOException;
+}
@@ -43,4 +43,12 @@ public interface CommsSession extends Closeable {
     long getTimeout(TimeUnit timeUnit);
     
     SSLContext getSSLContext();
+    
+    /**
+     * @return the version of the Distributed Cache Protocol that was agreed
+     * upon with the server; 1 until the handshake has completed
+     */
+    int getProtocolVersion();
+    
+    void setProtocolVersion(int protocolVersion);
 }
@@ -18,8 +18,12 @@ package org.apache.nifi.distributed.cache.client;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -40,7 +44,7 @@ import org.apache.nifi.stream.io.DataOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DistributedMapCacheClientService extends AbstractControllerService implements DistributedMapCacheClient {
+public class DistributedMapCacheClientService extends AbstractControllerService implements BatchedDistributedMapCacheClient {
 
     private static final Logger logger = LoggerFactory.getLogger(DistributedMapCacheClientService.class);
 
@@ -96,10 +100,15 @@ public class DistributedMapCacheClientService extends AbstractControllerService
     @Override
     public <K, V> boolean putIfAbsent(final K key, final V value, final Serializer<K> keySerializer, final Serializer<V> valueSerializer)
             throws IOException {
-        return withCommsSession(new CommsAction<Boolean>() {
+        return withCommsSession(createPutIfAbsentAction(key, value, keySerializer, valueSerializer));
+    }
+
+    private <K, V> CommsAction<Boolean> createPutIfAbsentAction(final K key, final V value, final Serializer<K> keySerializer,
+            final Serializer<V> valueSerializer) {
+        return new CommsAction<Boolean>() {
             @Override
             public Boolean execute(final CommsSession session) throws IOException {
-                final DataOutputStream dos = new DataOutputStream(session.getOutputStream());
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
                 dos.writeUTF("putIfAbsent");
 
                 serialize(key, keySerializer, dos);
@@ -110,15 +119,19 @@ public class DistributedMapCacheClientService extends AbstractControllerService
                 final DataInputStream dis = new DataInputStream(session.getInputStream());
                 return dis.readBoolean();
             }
-        });
+        };
     }
 
     @Override
     public <K> boolean containsKey(final K key, final Serializer<K> keySerializer) throws IOException {
-        return withCommsSession(new CommsAction<Boolean>() {
+        return withCommsSession(createContainsKeyAction(key, keySerializer));
+    }
+
+    private <K> CommsAction<Boolean> createContainsKeyAction(final K key, final Serializer<K> keySerializer) {
+        return new CommsAction<Boolean>() {
             @Override
             public Boolean execute(final CommsSession session) throws IOException {
-                final DataOutputStream dos = new DataOutputStream(session.getOutputStream());
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
                 dos.writeUTF("containsKey");
 
                 serialize(key, keySerializer, dos);
@@ -127,16 +140,21 @@ public class DistributedMapCacheClientService extends AbstractControllerService
                 final DataInputStream dis = new DataInputStream(session.getInputStream());
                 return dis.readBoolean();
             }
-        });
+        };
     }
 
     @Override
     public <K, V> V getAndPutIfAbsent(final K key, final V value, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
             final Deserializer<V> valueDeserializer) throws IOException {
-        return withCommsSession(new CommsAction<V>() {
+        return withCommsSession(createGetAndPutIfAbsentAction(key, value, keySerializer, valueSerializer, valueDeserializer));
+    }
+
+    private <K, V> CommsAction<V> createGetAndPutIfAbsentAction(final K key, final V value, final Serializer<K> keySerializer,
+            final Serializer<V> valueSerializer, final Deserializer<V> valueDeserializer) {
+        return new CommsAction<V>() {
             @Override
             public V execute(final CommsSession session) throws IOException {
-                final DataOutputStream dos = new DataOutputStream(session.getOutputStream());
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
                 dos.writeUTF("getAndPutIfAbsent");
 
                 serialize(key, keySerializer, dos);
@@ -148,7 +166,7 @@ public class DistributedMapCacheClientService extends AbstractControllerService
                 final byte[] responseBuffer = readLengthDelimitedResponse(dis);
                 return valueDeserializer.deserialize(responseBuffer);
             }
-        });
+        };
     }
 
     @Override
@@ -156,7 +174,7 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         return withCommsSession(new CommsAction<V>() {
             @Override
             public V execute(final CommsSession session) throws IOException {
-                final DataOutputStream dos = new DataOutputStream(session.getOutputStream());
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
                 dos.writeUTF("get");
 
                 serialize(key, keySerializer, dos);
@@ -175,7 +193,7 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         return withCommsSession(new CommsAction<Boolean>() {
             @Override
             public Boolean execute(final CommsSession session) throws IOException {
-                final DataOutputStream dos = new DataOutputStream(session.getOutputStream());
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
                 dos.writeUTF("remove");
 
                 serialize(key, serializer, dos);
@@ -188,6 +206,93 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         });
     }
 
+    @Override
+    public <K, V> Map<K, Boolean> putAllIfAbsent(final Map<K, V> keysAndValues, final Serializer<K> keySerializer, final Serializer<V> valueSerializer)
+            throws IOException {
+        return withCommsSession(new CommsAction<Map<K, Boolean>>() {
+            @Override
+            public Map<K, Boolean> execute(final CommsSession session) throws IOException {
+                final Map<K, Boolean> results = new LinkedHashMap<>();
+                if (session.getProtocolVersion() < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+                    for (final Map.Entry<K, V> entry : keysAndValues.entrySet()) {
+                        results.put(entry.getKey(), createPutIfAbsentAction(entry.getKey(), entry.getValue(), keySerializer, valueSerializer).execute(session));
+                    }
+                    return results;
+                }
+
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
+                dos.writeUTF("putIfAbsentAll");
+                serialize(keysAndValues, keySerializer, valueSerializer, dos);
+                dos.flush();
+
+                final DataInputStream dis = new DataInputStream(session.getInputStream());
+                for (final K key : keysAndValues.keySet()) {
+                    results.put(key, dis.readBoolean());
+                }
+                return results;
+            }
+        });
+    }
+
+    @Override
+    public <K> Map<K, Boolean> containsKeys(final Collection<K> keys, final Serializer<K> keySerializer) throws IOException {
+        return withCommsSession(new CommsAction<Map<K, Boolean>>() {
+            @Override
+            public Map<K, Boolean> execute(final CommsSession session) throws IOException {
+                final Map<K, Boolean> results = new LinkedHashMap<>();
+                if (session.getProtocolVersion() < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+                    for (final K key : keys) {
+                        results.put(key, createContainsKeyAction(key, keySerializer).execute(session));
+                    }
+                    return results;
+                }
+
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
+                dos.writeUTF("containsKeys");
+                dos.writeInt(keys.size());
+                for (final K key : keys) {
+                    serialize(key, keySerializer, dos);
+                }
+                dos.flush();
+
+                final DataInputStream dis = new DataInputStream(session.getInputStream());
+                for (final K key : keys) {
+                    results.put(key, dis.readBoolean());
+                }
+                return results;
+            }
+        });
+    }
+
+    @Override
+    public <K, V> Map<K, V> getAndPutAllIfAbsent(final Map<K, V> keysAndValues, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+            final Deserializer<V> valueDeserializer) throws IOException {
+        return withCommsSession(new CommsAction<Map<K, V>>() {
+            @Override
+            public Map<K, V> execute(final CommsSession session) throws IOException {
+                final Map<K, V> results = new LinkedHashMap<>();
+                if (session.getProtocolVersion() < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+                    for (final Map.Entry<K, V> entry : keysAndValues.entrySet()) {
+                        final CommsAction<V> action = createGetAndPutIfAbsentAction(entry.getKey(), entry.getValue(), keySerializer, valueSerializer, valueDeserializer);
+                        results.put(entry.getKey(), action.execute(session));
+                    }
+                    return results;
+                }
+
+                final DataOutputStream dos = new DataOutputStream(getRequestStream(session));
+                dos.writeUTF("getAndPutIfAbsentAll");
+                serialize(keysAndValues, keySerializer, valueSerializer, dos);
+                dos.flush();
+
+                final DataInputStream dis = new DataInputStream(session.getInputStream());
+                for (final K key : keysAndValues.keySet()) {
+                    results.put(key, valueDeserializer.deserialize(readLengthDelimitedResponse(dis)));
+                }
+                return results;
+            }
+        });
+    }
+
     private byte[] readLengthDelimitedResponse(final DataInputStream dis) throws IOException {
         final int responseLength = dis.readInt();
         final byte[] responseBuffer = new byte[responseLength];
@@ -219,9 +324,10 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         }
 
         session = createCommsSession(configContext);
-        final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(1);
+        final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(ProtocolHandshake.FRAMED_REQUESTS_VERSION, 1);
         try {
             ProtocolHandshake.initiateHandshake(session.getInputStream(), session.getOutputStream(), versionNegotiator);
+            session.setProtocolVersion(versionNegotiator.getVersion());
         } catch (final HandshakeException e) {
             try {
                 session.close();
@@ -240,7 +346,7 @@ public class DistributedMapCacheClientService extends AbstractControllerService
 
         CommsSession commsSession;
         while ((commsSession = queue.poll()) != null) {
-            try (final DataOutputStream dos = new DataOutputStream(commsSession.getOutputStream())) {
+            try (final DataOutputStream dos = new DataOutputStream(getRequestStream(commsSession))) {
                 dos.writeUTF("close");
                 dos.flush();
                 commsSession.close();
@@ -267,6 +373,28 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         baos.writeTo(dos);
     }
 
+    private <K, V> void serialize(final Map<K, V> keysAndValues, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+            final DataOutputStream dos) throws IOException {
+        dos.writeInt(keysAndValues.size());
+        for (final Map.Entry<K, V> entry : keysAndValues.entrySet()) {
+            serialize(entry.getKey(), keySerializer, dos);
+            serialize(entry.getValue(), valueSerializer, dos);
+        }
+    }
+
+    /**
+     * @return the stream to write a request to; for servers that expect each
+     * request to be preceded by its length, the request is buffered until the
+     * stream is flushed
+     */
+    private OutputStream getRequestStream(final CommsSession session) throws IOException {
+        final OutputStream out = session.getOutputStream();
+        if (session.getProtocolVersion() < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+            return out;
+        }
+        return new FramedRequestOutputStream(out);
+    }
+
     private <T> T withCommsSession(final CommsAction<T> action) throws IOException {
         if (closed) {
             throw new IllegalStateException("Client is closed");
@@ -301,4 +429,44 @@ public class DistributedMapCacheClientService extends AbstractControllerService
         T execute(CommsSession commsSession) throws IOException;
     }
 
+    private static class FramedRequestOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+        public FramedRequestOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            request.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            request.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (request.size() > 0) {
+                final int length = request.size();
+                out.write(length >>> 24);
+                out.write(length >>> 16);
+                out.write(length >>> 8);
+                out.write(length);
+                request.writeTo(out);
+                request.reset();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            out.close();
+        }
+    }
+
 }
@@ -34,6 +34,7 @@ public class SSLCommsSession implements CommsSession {
     private final SSLContext sslContext;
     private final String hostname;
     private final int port;
+    private volatile int protocolVersion = 1;
     
     private final SSLSocketChannelInputStream in;
     private final BufferedInputStream bufferedIn;
@@ -102,5 +103,12 @@ public class SSLCommsSession implements CommsSession {
     public long getTimeout(final TimeUnit timeUnit) {
         return timeUnit.convert(sslSocketChannel.getTimeout(), TimeUnit.MILLISECONDS);
     }
-    
+    @Override
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+    @Override
+    public void setProtocolVersion(final int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
 }
@@ -33,6 +33,14 @@ public class ProtocolHandshake {
     public static final int DIFFERENT_RESOURCE_VERSION = 21;
     public static final int ABORT = 255;
 
+    /**
+     * The first version of the protocol in which each request is preceded by
+     * its length in bytes, as a 4-byte integer. Knowing the length lets the
+     * server wait for a whole request without blocking a thread, and to answer
+     * pipelined requests in the order in which they were received.
+     */
+    public static final int FRAMED_REQUESTS_VERSION = 2;
+
     
     public static void initiateHandshake(final InputStream in, final OutputStream out, final VersionNegotiator versionNegotiator) throws IOException, HandshakeException {
         final DataInputStream dis = new DataInputStream(in);
@@ -88,6 +96,7 @@ public class ProtocolHandshake {
                 
                 // Attempt negotiation of resource based on our new preferred version.
                 initiateVersionNegotiation(negotiator, dis, dos);
+                return;
             case ABORT:
                 throw new HandshakeException("Remote destination aborted connection with message: " + dis.readUTF());
             default:
@@ -16,15 +16,29 @@
  */
 package org.apache.nifi.distributed.cache.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 
@@ -32,10 +46,10 @@ import org.apache.nifi.distributed.cache.protocol.ProtocolHandshake;
 import org.apache.nifi.distributed.cache.protocol.exception.HandshakeException;
 import org.apache.nifi.stream.io.BufferedInputStream;
 import org.apache.nifi.stream.io.BufferedOutputStream;
+import org.apache.nifi.stream.io.ByteArrayOutputStream;
+import org.apache.nifi.stream.io.DataOutputStream;
 import org.apache.nifi.remote.StandardVersionNegotiator;
 import org.apache.nifi.remote.VersionNegotiator;
-import org.apache.nifi.remote.io.socket.SocketChannelInputStream;
-import org.apache.nifi.remote.io.socket.SocketChannelOutputStream;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannel;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannelInputStream;
 import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannelOutputStream;
@@ -43,10 +57,38 @@ import org.apache.nifi.remote.io.socket.ssl.SSLSocketChannelOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Base class for the cache servers. Clients that do not use SSL are all
+ * served by a single thread that waits on a Selector, reading requests as they
+ * arrive and writing responses as the sockets can take them. The requests are
+ * handed to a small pool of threads to be processed, so that a request that
+ * is slow to process, such as one that has to wait for a persistent cache to
+ * update its log, does not hold up the other clients. SSL connections are
+ * served by a thread apiece, as the SSLSocketChannel performs blocking I/O.
+ */
 public abstract class AbstractCacheServer implements CacheServer {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractCacheServer.class);
 
+    // the versions of the protocol that are supported, in order of preference
+    private static final int[] SUPPORTED_VERSIONS = new int[] {ProtocolHandshake.FRAMED_REQUESTS_VERSION, 1};
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // the most bytes that are read from a client before its requests are processed, so that a client that sends
+    // faster than its requests can be processed is not buffered without limit
+    private static final int MAX_BYTES_PER_READ = READ_BUFFER_SIZE;
+
+    // the largest request that is accepted. A client that sends a larger one is disconnected, rather than the
+    // server buffering whatever it claims to be sending
+    private static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+    // the number of threads that process the requests of the clients that the event loop serves
+    private static final int REQUEST_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // stop reading requests from a client while it has this many bytes of responses waiting to be sent to it
+    private static final int MAX_PENDING_RESPONSE_BYTES = 1024 * 1024;
+
     private final String identifier;
     private final int port;
     private final SSLContext sslContext;
@@ -54,6 +96,12 @@ public abstract class AbstractCacheServer implements CacheServer {
     private final Set<Thread> processInputThreads = new CopyOnWriteArraySet<>();;
 
     private volatile ServerSocketChannel serverSocketChannel;
+    private volatile Selector selector;
+    private volatile Thread eventLoopThread;
+    private volatile ExecutorService requestExecutor;
+
+    // the connections whose requests the request threads have finished processing, for the event loop to resume serving
+    private final Queue<ClientConnection> processedConnections = new ConcurrentLinkedQueue<>();
 
     public AbstractCacheServer(final String identifier, final SSLContext sslContext, final int port) {
         this.identifier = identifier;
@@ -64,9 +112,121 @@ public abstract class AbstractCacheServer implements CacheServer {
     @Override
     public void start() throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(true);
         serverSocketChannel.bind(new InetSocketAddress(port));
 
+        if (sslContext == null) {
+            startEventLoop();
+        } else {
+            startConnectionThreads();
+        }
+    }
+
+    private void startEventLoop() throws IOException {
+        selector = Selector.open();
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        requestExecutor = Executors.newFixedThreadPool(REQUEST_THREADS, new ThreadFactory() {
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Distributed Cache Server Request Thread-" + threadIndex.incrementAndGet() + ": " + identifier);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runEventLoop();
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("Distributed Cache Server: " + identifier);
+        eventLoopThread = thread;
+        thread.start();
+    }
+
+    private void runEventLoop() {
+        try {
+            while (!stopped) {
+                selector.select();
+
+                ClientConnection processed;
+                while ((processed = processedConnections.poll()) != null) {
+                    service(processed, true, false);
+                }
+
+                final Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+                while (itr.hasNext()) {
+                    final SelectionKey key = itr.next();
+                    itr.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    service((ClientConnection) key.attachment(), false, key.isReadable());
+                }
+            }
+        } catch (final IOException | ClosedSelectorException e) {
+            if (!stopped) {
+                logger.error("{} unable to accept connections or communicate with remote peers due to {}", this, e.toString());
+                if (logger.isDebugEnabled()) {
+                    logger.error("", e);
+                }
+            }
+        } finally {
+            try {
+                for (final SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof ClientConnection) {
+                        ((ClientConnection) key.attachment()).close();
+                    }
+                }
+                selector.close();
+            } catch (final IOException | ClosedSelectorException e) {
+            }
+        }
+    }
+
+    private void service(final ClientConnection connection, final boolean processed, final boolean readable) {
+        try {
+            if (processed) {
+                connection.onRequestsProcessed();
+            } else {
+                connection.service(readable);
+            }
+        } catch (final Exception e) {
+            if (!stopped) {
+                logger.error("{} unable to communicate with remote peer {} due to {}", new Object[] { this, connection, e.toString() });
+                if (logger.isDebugEnabled()) {
+                    logger.error("", e);
+                }
+            }
+            connection.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            logger.debug("Connected to {}", new Object[] { socketChannel });
+            socketChannel.configureBlocking(false);
+            final SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+            key.attach(new ClientConnection(socketChannel, key));
+        }
+    }
+
+    private void startConnectionThreads() throws IOException {
+        serverSocketChannel.configureBlocking(true);
+
         final Runnable runnable = new Runnable() {
 
             @Override
@@ -94,15 +254,10 @@ public abstract class AbstractCacheServer implements CacheServer {
                             final String peer = socketChannel.socket().getInetAddress().getHostName();
 
                             try {
-                                if (sslContext == null) {
-                                    rawInputStream = new SocketChannelInputStream(socketChannel);
-                                    rawOutputStream = new SocketChannelOutputStream(socketChannel);
-                                } else {
-                                    final SSLSocketChannel sslSocketChannel = new SSLSocketChannel(sslContext, socketChannel, false);
-                                    sslSocketChannel.connect();
-                                    rawInputStream = new SSLSocketChannelInputStream(sslSocketChannel);
-                                    rawOutputStream = new SSLSocketChannelOutputStream(sslSocketChannel);
-                                }
+                                final SSLSocketChannel sslSocketChannel = new SSLSocketChannel(sslContext, socketChannel, false);
+                                sslSocketChannel.connect();
+                                rawInputStream = new SSLSocketChannelInputStream(sslSocketChannel);
+                                rawOutputStream = new SSLSocketChannelOutputStream(sslSocketChannel);
                             } catch (IOException e) {
                                 logger.error("Cannot create input and/or output streams for {}", new Object[] { identifier }, e);
                                 if (logger.isDebugEnabled()) {
@@ -118,13 +273,14 @@ public abstract class AbstractCacheServer implements CacheServer {
                             try (final InputStream in = new BufferedInputStream(rawInputStream);
                                     final OutputStream out = new BufferedOutputStream(rawOutputStream)) {
 
-                                final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(1);
+                                final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(SUPPORTED_VERSIONS);
 
                                 ProtocolHandshake.receiveHandshake(in, out, versionNegotiator);
 
+                                final int version = versionNegotiator.getVersion();
                                 boolean continueComms = true;
                                 while (continueComms) {
-                                    continueComms = listen(in, out, versionNegotiator.getVersion());
+                                    continueComms = listen(readRequest(in, version), out, version);
                                 }
                                 // client has issued 'close'
                                 logger.debug("Client issued close on {}", new Object[] { socketChannel });
@@ -158,6 +314,27 @@ public abstract class AbstractCacheServer implements CacheServer {
         thread.start();
     }
 
+    private InputStream readRequest(final InputStream in, final int version) throws IOException {
+        if (version < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+            return in;
+        }
+
+        final DataInputStream dis = new DataInputStream(in);
+        final byte[] request = new byte[checkRequestLength(dis.readInt())];
+        dis.readFully(request);
+        return new ByteArrayInputStream(request);
+    }
+
+    private static int checkRequestLength(final int requestLength) throws IOException {
+        if (requestLength < 0) {
+            throw new IOException("Received request with invalid length of " + requestLength + " bytes");
+        }
+        if (requestLength > MAX_REQUEST_BYTES) {
+            throw new IOException("Received request of " + requestLength + " bytes, which is more than the maximum of " + MAX_REQUEST_BYTES + " bytes");
+        }
+        return requestLength;
+    }
+
     @Override
     public void stop() throws IOException {
         stopped = true;
@@ -166,6 +343,24 @@ public abstract class AbstractCacheServer implements CacheServer {
         if (serverSocketChannel != null) {
             serverSocketChannel.close();
         }
+
+        // the event loop closes the connections that it serves once it notices that we have stopped
+        final Thread loopThread = eventLoopThread;
+        if (loopThread != null) {
+            selector.wakeup();
+            try {
+                loopThread.join(5000L);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // requests that are being processed are allowed to finish, so that a persistent cache is not interrupted mid-update
+        final ExecutorService executor = requestExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
+
         // need to close out the created SocketChannels...this is done by interrupting
         // the created threads that loop on listen().
         for (Thread processInputThread : processInputThreads) {
@@ -187,7 +382,18 @@ public abstract class AbstractCacheServer implements CacheServer {
     }
 
     /**
-     * Listens for incoming data and communicates with remote peer
+     * @return the number of changes after which a persistent cache's log is
+     * checkpointed. Checkpointing at least once per cache-full of changes
+     * keeps the journals that must be replayed on restart no larger than the
+     * cache itself.
+     */
+    protected static long getCheckpointInterval(final int maxSize) {
+        return Math.max(1000, maxSize);
+    }
+
+    /**
+     * Listens for incoming data and communicates with remote peer. May be
+     * called by several threads at once, for different connections.
      * 
      * @param in
      * @param out
@@ -196,4 +402,319 @@ public abstract class AbstractCacheServer implements CacheServer {
      * @throws IOException
      */
     protected abstract boolean listen(InputStream in, OutputStream out, int version) throws IOException;
+
+    /**
+     * The state of a connection that is served by the event loop. Bytes are
+     * read into a buffer until it holds the handshake or a whole request,
+     * which is then handed to {@link #listen(InputStream, OutputStream, int)}.
+     * The responses are collected and written as the socket can accept them,
+     * so a client may send any number of requests before reading the
+     * responses.
+     *
+     * Requests are processed by a request thread, while the event loop leaves
+     * the connection alone; it neither reads from nor writes to the connection
+     * until the request thread hands it back. Each connection's requests are
+     * therefore processed, and answered, in the order in which they arrived.
+     */
+    private class ClientConnection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final VersionNegotiator versionNegotiator = new StandardVersionNegotiator(SUPPORTED_VERSIONS);
+
+        private boolean magicHeaderReceived = false;
+        private boolean handshakeComplete = false;
+        private boolean endOfStream = false;
+        private boolean closeRequested = false;
+
+        // whether bytes have been read that may complete a request, and whether a request thread is processing them
+        private boolean unprocessedInput = false;
+        private boolean processing = false;
+        private Exception processingFailure = null;
+
+        // the bytes that have been received but not yet processed are input[inputStart, inputEnd)
+        private byte[] input = new byte[READ_BUFFER_SIZE];
+        private int inputStart = 0;
+        private int inputEnd = 0;
+
+        private final ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream unframedResponse = new ByteArrayOutputStream();
+        private ByteBuffer responseBuffer;
+
+        public ClientConnection(final SocketChannel channel, final SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private final Runnable processTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processRequests();
+                } catch (final Exception e) {
+                    processingFailure = e;
+                } finally {
+                    processedConnections.add(ClientConnection.this);
+                    selector.wakeup();
+                }
+            }
+        };
+
+        /**
+         * Called by the event loop when the connection is ready for I/O
+         */
+        public void service(final boolean readable) throws IOException {
+            if (processing) {
+                return;
+            }
+
+            if (readable) {
+                read();
+            }
+
+            if (unprocessedInput && !closeRequested && getPendingResponseBytes() < MAX_PENDING_RESPONSE_BYTES) {
+                // stop watching the connection until the requests have been processed
+                processing = true;
+                key.interestOps(0);
+                requestExecutor.execute(processTask);
+                return;
+            }
+
+            writeAndWatch();
+        }
+
+        /**
+         * Called by the event loop once a request thread has processed the
+         * requests that had been received
+         */
+        public void onRequestsProcessed() throws Exception {
+            processing = false;
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (processingFailure != null) {
+                throw processingFailure;
+            }
+
+            writeAndWatch();
+        }
+
+        private void writeAndWatch() throws IOException {
+            if (endOfStream) {
+                closeRequested = true;
+            }
+
+            final boolean allWritten = writeResponses();
+            if (closeRequested && allWritten) {
+                close();
+                return;
+            }
+
+            int interestOps = 0;
+            if (!allWritten) {
+                interestOps |= SelectionKey.OP_WRITE;
+            }
+            if (!closeRequested && getPendingResponseBytes() < MAX_PENDING_RESPONSE_BYTES) {
+                interestOps |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interestOps);
+        }
+
+        private void read() throws IOException {
+            int bytesReadThisPass = 0;
+            while (bytesReadThisPass < MAX_BYTES_PER_READ) {
+                ensureCapacity(READ_BUFFER_SIZE / 4);
+                final int maxBytes = Math.min(input.length - inputEnd, MAX_BYTES_PER_READ - bytesReadThisPass);
+                final int bytesRead = channel.read(ByteBuffer.wrap(input, inputEnd, maxBytes));
+                if (bytesRead < 0) {
+                    endOfStream = true;
+                    return;
+                }
+                if (bytesRead == 0) {
+                    return;
+                }
+                inputEnd += bytesRead;
+                bytesReadThisPass += bytesRead;
+                unprocessedInput = true;
+            }
+
+            // anything more that the client has sent is left in the socket until the requests read so far are processed
+        }
+
+        private void processRequests() throws IOException {
+            while (!closeRequested && getPendingResponseBytes() < MAX_PENDING_RESPONSE_BYTES) {
+                final boolean processed = handshakeComplete ? processRequest() : processHandshake();
+                if (!processed) {
+                    // nothing more can be processed until more bytes are read
+                    unprocessedInput = false;
+                    break;
+                }
+            }
+
+            compact();
+        }
+
+        private boolean processHandshake() throws IOException {
+            if (!magicHeaderReceived) {
+                if (available() < ProtocolHandshake.MAGIC_HEADER.length) {
+                    return false;
+                }
+                inputStart += ProtocolHandshake.MAGIC_HEADER.length;
+                magicHeaderReceived = true;
+            }
+
+            if (available() < 4) {
+                return false;
+            }
+            final int version = readInt();
+
+            final DataOutputStream dos = new DataOutputStream(responses);
+            if (versionNegotiator.isVersionSupported(version)) {
+                dos.write(ProtocolHandshake.RESOURCE_OK);
+                versionNegotiator.setVersion(version);
+                handshakeComplete = true;
+                return true;
+            }
+
+            final Integer preferred = versionNegotiator.getPreferredVersion(version);
+            if (preferred == null) {
+                logger.warn("{} Unable to negotiate an acceptable version of the Distributed Cache Protocol with {}", AbstractCacheServer.this, this);
+                dos.write(ProtocolHandshake.ABORT);
+                closeRequested = true;
+            } else {
+                dos.write(ProtocolHandshake.DIFFERENT_RESOURCE_VERSION);
+                dos.writeInt(preferred);
+            }
+            return true;
+        }
+
+        private boolean processRequest() throws IOException {
+            final int version = versionNegotiator.getVersion();
+            final boolean continueComms;
+
+            if (version >= ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+                if (available() < 4) {
+                    return false;
+                }
+
+                final int requestLength = checkRequestLength(peekInt());
+                if (available() < 4 + requestLength) {
+                    ensureCapacity(4 + requestLength - available());
+                    return false;
+                }
+
+                final int requestStart = inputStart + 4;
+                inputStart = requestStart + requestLength;
+                continueComms = listen(new ByteArrayInputStream(input, requestStart, requestLength), responses, version);
+            } else {
+                // without a length, the only way to know if the whole request has arrived is to try to read it.
+                // The servers read the entire request before acting upon it, so this is safe to retry.
+                final ByteArrayInputStream in = new ByteArrayInputStream(input, inputStart, available());
+                unframedResponse.reset();
+                try {
+                    continueComms = listen(in, unframedResponse, version);
+                } catch (final EOFException eof) {
+                    if (available() > MAX_REQUEST_BYTES) {
+                        throw new IOException("Received more than the maximum of " + MAX_REQUEST_BYTES + " bytes without receiving a complete request");
+                    }
+                    return false;
+                }
+
+                inputStart = inputEnd - in.available();
+                unframedResponse.writeTo(responses);
+            }
+
+            if (!continueComms) {
+                logger.debug("Client issued close on {}", new Object[] { channel });
+                closeRequested = true;
+            }
+            return true;
+        }
+
+        /**
+         * @return <code>true</code> if all responses have been written to the socket
+         */
+        private boolean writeResponses() throws IOException {
+            while (true) {
+                if (responseBuffer == null || !responseBuffer.hasRemaining()) {
+                    if (responses.size() == 0) {
+                        responseBuffer = null;
+                        return true;
+                    }
+
+                    responseBuffer = ByteBuffer.wrap(responses.toByteArray());
+                    responses.reset();
+                }
+
+                channel.write(responseBuffer);
+                if (responseBuffer.hasRemaining()) {
+                    return false;
+                }
+            }
+        }
+
+        private int getPendingResponseBytes() {
+            return responses.size() + (responseBuffer == null ? 0 : responseBuffer.remaining());
+        }
+
+        private int available() {
+            return inputEnd - inputStart;
+        }
+
+        private int peekInt() {
+            return ((input[inputStart] & 0xFF) << 24)
+                    | ((input[inputStart + 1] & 0xFF) << 16)
+                    | ((input[inputStart + 2] & 0xFF) << 8)
+                    | (input[inputStart + 3] & 0xFF);
+        }
+
+        private int readInt() {
+            final int value = peekInt();
+            inputStart += 4;
+            return value;
+        }
+
+        private void compact() {
+            if (inputStart == inputEnd) {
+                inputStart = 0;
+                inputEnd = 0;
+
+                // don't hold on to the memory needed by an unusually large request
+                if (input.length > 4 * READ_BUFFER_SIZE) {
+                    input = new byte[READ_BUFFER_SIZE];
+                }
+            } else if (inputStart > 0) {
+                System.arraycopy(input, inputStart, input, 0, available());
+                inputEnd -= inputStart;
+                inputStart = 0;
+            }
+        }
+
+        private void ensureCapacity(final int additionalBytes) {
+            if (input.length - inputEnd >= additionalBytes) {
+                return;
+            }
+
+            compact();
+            if (input.length - inputEnd < additionalBytes) {
+                final byte[] expanded = new byte[Math.max(input.length * 2, inputEnd + additionalBytes)];
+                System.arraycopy(input, 0, expanded, 0, inputEnd);
+                input = expanded;
+            }
+        }
+
+        public void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (final IOException e) {
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+    }
 }
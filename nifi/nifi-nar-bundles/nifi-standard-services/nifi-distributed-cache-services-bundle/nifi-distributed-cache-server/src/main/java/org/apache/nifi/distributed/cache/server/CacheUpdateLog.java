@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wali.MinimalLockingWriteAheadLog;
+import org.wali.SerDe;
+import org.wali.WriteAheadRepository;
+
+/**
+ * Records the changes made to a persistent cache in a Write-Ahead Log, writing
+ * them as dictated by a {@link PersistenceMode}. A background thread
+ * checkpoints the log after every <code>checkpointInterval</code> changes, so
+ * that the journals that must be replayed on restart stay small and no
+ * request has to wait for a checkpoint. In
+ * {@link PersistenceMode#WRITE_BEHIND} mode, the same thread writes the
+ * queued changes.
+ *
+ * @param <T> the type of record that is written to the log
+ */
+public class CacheUpdateLog<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheUpdateLog.class);
+
+    // how long a SYNCHRONOUS update may wait for others to share its sync
+    private static final long GROUP_COMMIT_MILLIS = 2L;
+
+    // the number of queued updates at which callers must wait for the background thread to catch up
+    static final int MAX_QUEUED_UPDATES = 10000;
+    private static final int MAX_UPDATES_PER_BATCH = 1000;
+
+    private final String identifier;
+    private final WriteAheadRepository<T> wali;
+    private final PersistenceMode persistenceMode;
+    private final long checkpointInterval;
+
+    private final BlockingQueue<Collection<T>> queuedUpdates = new ArrayBlockingQueue<>(MAX_QUEUED_UPDATES);
+    private final AtomicLong updatesSinceCheckpoint = new AtomicLong(0L);
+    private final Thread backgroundThread;
+
+    private volatile IOException writeFailure;
+    private volatile boolean shutdown = false;
+
+    public CacheUpdateLog(final String identifier, final Path path, final SerDe<T> serde, final PersistenceMode persistenceMode,
+            final long checkpointInterval) throws IOException {
+        this.identifier = identifier;
+        this.persistenceMode = persistenceMode;
+        this.checkpointInterval = checkpointInterval;
+
+        if (persistenceMode == PersistenceMode.SYNCHRONOUS) {
+            wali = new MinimalLockingWriteAheadLog<>(path, 1, serde, null, GROUP_COMMIT_MILLIS, TimeUnit.MILLISECONDS, 0L);
+        } else {
+            wali = new MinimalLockingWriteAheadLog<>(path, 1, serde, null);
+        }
+
+        backgroundThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeInBackground();
+            }
+        });
+        backgroundThread.setName("Distributed Cache Persistence: " + identifier);
+        backgroundThread.setDaemon(true);
+    }
+
+    /**
+     * Recovers the records from the log. This must be called before the log
+     * is updated.
+     *
+     * @return the records that were recovered
+     * @throws IOException if unable to read the log
+     */
+    public synchronized Collection<T> recoverRecords() throws IOException {
+        final Collection<T> recovered = wali.recoverRecords();
+        if (!backgroundThread.isAlive()) {
+            backgroundThread.start();
+        }
+        return recovered;
+    }
+
+    /**
+     * Records a change that has been made to the cache.
+     *
+     * @param records the records that make up the change
+     * @throws IOException if the change could not be written, or if an earlier
+     * change that was queued could not be written
+     */
+    public void update(final Collection<T> records) throws IOException {
+        final IOException failure = writeFailure;
+        if (failure != null) {
+            throw new IOException("Unable to persist changes to cache " + identifier + " because an earlier write failed", failure);
+        }
+
+        if (persistenceMode == PersistenceMode.WRITE_BEHIND) {
+            try {
+                queuedUpdates.put(records);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to queue change to cache " + identifier);
+            }
+            return;
+        }
+
+        wali.update(records, persistenceMode == PersistenceMode.SYNCHRONOUS);
+        updatesSinceCheckpoint.incrementAndGet();
+    }
+
+    private void writeInBackground() {
+        while (true) {
+            final Collection<T> firstUpdate;
+            try {
+                firstUpdate = queuedUpdates.poll(100L, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            if (firstUpdate == null) {
+                if (shutdown) {
+                    return;
+                }
+            } else {
+                final List<Collection<T>> updates = new ArrayList<>();
+                updates.add(firstUpdate);
+                queuedUpdates.drainTo(updates, MAX_UPDATES_PER_BATCH - 1);
+
+                final List<T> records = new ArrayList<>();
+                for (final Collection<T> update : updates) {
+                    records.addAll(update);
+                }
+
+                try {
+                    wali.update(records, true);
+                    updatesSinceCheckpoint.addAndGet(updates.size());
+                } catch (final IOException e) {
+                    // the changes are lost; make sure that clients find out rather than carrying on as if they had been saved
+                    logger.error("{} failed to persist {} changes to the cache due to {}", new Object[] { this, updates.size(), e.toString() });
+                    if (logger.isDebugEnabled()) {
+                        logger.error("", e);
+                    }
+                    writeFailure = e;
+                    queuedUpdates.clear();
+                }
+            }
+
+            if (updatesSinceCheckpoint.get() >= checkpointInterval) {
+                updatesSinceCheckpoint.set(0L);
+                try {
+                    wali.checkpoint();
+                } catch (final IOException e) {
+                    logger.error("{} failed to checkpoint due to {}", this, e.toString());
+                    if (logger.isDebugEnabled()) {
+                        logger.error("", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes any changes that are still queued and closes the log
+     *
+     * @throws IOException if unable to close the log
+     */
+    public void shutdown() throws IOException {
+        shutdown = true;
+        if (backgroundThread.isAlive()) {
+            try {
+                backgroundThread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        wali.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheUpdateLog[id=" + identifier + ", mode=" + persistenceMode + "]";
+    }
+}
@@ -33,6 +33,10 @@ public abstract class DistributedCacheServer extends AbstractControllerService {
     public static final String EVICTION_STRATEGY_LRU = "Least Recently Used";
     public static final String EVICTION_STRATEGY_FIFO = "First In, First Out";
 
+    public static final String PERSISTENCE_MODE_SYNCHRONOUS = "Synchronous";
+    public static final String PERSISTENCE_MODE_WRITE_THROUGH = "Write-Through";
+    public static final String PERSISTENCE_MODE_WRITE_BEHIND = "Write-Behind";
+
     public static final PropertyDescriptor PORT = new PropertyDescriptor.Builder()
             .name("Port")
             .description("The port to listen on for incoming connections")
@@ -67,6 +71,17 @@ public abstract class DistributedCacheServer extends AbstractControllerService {
             .required(false)
             .addValidator(StandardValidators.createDirectoryExistsValidator(true, true))
             .build();
+    public static final PropertyDescriptor PERSISTENCE_MODE = new PropertyDescriptor.Builder()
+            .name("Persistence Mode")
+            .description("If the cache is persisted, determines when changes are written to disk. " + PERSISTENCE_MODE_SYNCHRONOUS
+                    + " forces each change to disk before responding to the client. " + PERSISTENCE_MODE_WRITE_THROUGH
+                    + " writes each change before responding but leaves it to the operating system to force it to disk, so changes may be lost if the "
+                    + "machine fails. " + PERSISTENCE_MODE_WRITE_BEHIND + " responds as soon as the change is queued in memory and writes queued changes "
+                    + "in the background, so the most recent changes may also be lost if NiFi fails, but changes are made much faster")
+            .required(true)
+            .allowableValues(PERSISTENCE_MODE_SYNCHRONOUS, PERSISTENCE_MODE_WRITE_THROUGH, PERSISTENCE_MODE_WRITE_BEHIND)
+            .defaultValue(PERSISTENCE_MODE_WRITE_THROUGH)
+            .build();
 
     private volatile CacheServer cacheServer;
 
@@ -77,6 +92,7 @@ public abstract class DistributedCacheServer extends AbstractControllerService {
         properties.add(MAX_CACHE_ENTRIES);
         properties.add(EVICTION_POLICY);
         properties.add(PERSISTENCE_PATH);
+        properties.add(PERSISTENCE_MODE);
         properties.add(new PropertyDescriptor.Builder().fromPropertyDescriptor(SSL_CONTEXT_SERVICE).allowableValues(
                 getControllerServiceLookup().getControllerServiceIdentifiers(SSLContextService.class)).build());
         return properties;
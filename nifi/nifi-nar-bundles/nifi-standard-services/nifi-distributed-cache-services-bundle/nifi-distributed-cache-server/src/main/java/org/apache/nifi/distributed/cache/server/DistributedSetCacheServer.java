@@ -37,6 +37,7 @@ public class DistributedSetCacheServer extends DistributedCacheServer {
         final SSLContextService sslContextService = context.getProperty(SSL_CONTEXT_SERVICE).asControllerService(SSLContextService.class);
         final int maxSize = context.getProperty(MAX_CACHE_ENTRIES).asInteger();
         final String evictionPolicyName = context.getProperty(EVICTION_POLICY).getValue();
+        final String persistenceModeName = context.getProperty(PERSISTENCE_MODE).getValue();
         
         final SSLContext sslContext;
         if ( sslContextService == null ) {
@@ -60,10 +61,25 @@ public class DistributedSetCacheServer extends DistributedCacheServer {
                 throw new IllegalArgumentException("Illegal Eviction Policy: " + evictionPolicyName);
         }
         
+        final PersistenceMode persistenceMode;
+        switch (persistenceModeName) {
+            case PERSISTENCE_MODE_SYNCHRONOUS:
+                persistenceMode = PersistenceMode.SYNCHRONOUS;
+                break;
+            case PERSISTENCE_MODE_WRITE_THROUGH:
+                persistenceMode = PersistenceMode.WRITE_THROUGH;
+                break;
+            case PERSISTENCE_MODE_WRITE_BEHIND:
+                persistenceMode = PersistenceMode.WRITE_BEHIND;
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal Persistence Mode: " + persistenceModeName);
+        }
+        
         try {
             final File persistenceDir = persistencePath == null ? null : new File(persistencePath);
             
-            return new SetCacheServer(getIdentifier(), sslContext, port, maxSize, evictionPolicy, persistenceDir);
+            return new SetCacheServer(getIdentifier(), sslContext, port, maxSize, evictionPolicy, persistenceDir, persistenceMode);
         } catch (final Exception e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.server;
+
+/**
+ * Determines when a change to a persistent cache is written to disk, relative
+ * to when the client that made the change is answered.
+ */
+public enum PersistenceMode {
+
+    /**
+     * Each change is forced to disk before the client is answered. Changes
+     * that are made at about the same time share a single sync.
+     */
+    SYNCHRONOUS,
+
+    /**
+     * Each change is written to the log before the client is answered, but
+     * it is left to the operating system to decide when to force it to disk.
+     */
+    WRITE_THROUGH,
+
+    /**
+     * Each change is queued in memory and the client is answered at once. A
+     * background thread writes the queued changes to the log in batches,
+     * forcing each batch to disk with a single sync. Changes that are still
+     * queued are lost if the process dies.
+     */
+    WRITE_BEHIND;
+}
@@ -37,6 +37,11 @@ public class SetCacheServer extends AbstractCacheServer {
 
     public SetCacheServer(final String identifier, final SSLContext sslContext, final int port, final int maxSize,
             final EvictionPolicy evictionPolicy, final File persistencePath) throws IOException {
+        this(identifier, sslContext, port, maxSize, evictionPolicy, persistencePath, PersistenceMode.WRITE_THROUGH);
+    }
+
+    public SetCacheServer(final String identifier, final SSLContext sslContext, final int port, final int maxSize,
+            final EvictionPolicy evictionPolicy, final File persistencePath, final PersistenceMode persistenceMode) throws IOException {
         super(identifier, sslContext, port);
 
         final SetCache simpleCache = new SimpleSetCache(identifier, maxSize, evictionPolicy);
@@ -44,7 +49,8 @@ public class SetCacheServer extends AbstractCacheServer {
         if (persistencePath == null) {
             this.cache = simpleCache;
         } else {
-            final PersistentSetCache persistentCache = new PersistentSetCache(identifier, persistencePath, simpleCache);
+            final PersistentSetCache persistentCache = new PersistentSetCache(identifier, persistencePath, simpleCache, persistenceMode,
+                    getCheckpointInterval(maxSize));
             persistentCache.restore();
             this.cache = persistentCache;
         }
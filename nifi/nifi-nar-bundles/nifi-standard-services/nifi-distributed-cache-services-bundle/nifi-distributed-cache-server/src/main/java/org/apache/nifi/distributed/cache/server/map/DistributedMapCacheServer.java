@@ -17,15 +17,19 @@
 package org.apache.nifi.distributed.cache.server.map;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.net.ssl.SSLContext;
 
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.ConfigurationContext;
 import org.apache.nifi.distributed.cache.server.CacheServer;
 import org.apache.nifi.distributed.cache.server.DistributedCacheServer;
 import org.apache.nifi.distributed.cache.server.EvictionPolicy;
+import org.apache.nifi.distributed.cache.server.PersistenceMode;
 import org.apache.nifi.ssl.SSLContextService;
 import org.apache.nifi.ssl.SSLContextService.ClientAuth;
 
@@ -34,6 +38,22 @@ import org.apache.nifi.ssl.SSLContextService.ClientAuth;
         + " is typically accomplished via a DistributedMapCacheClient service.")
 public class DistributedMapCacheServer extends DistributedCacheServer {
 
+    public static final PropertyDescriptor OFF_HEAP_STORAGE = new PropertyDescriptor.Builder()
+            .name("Off-Heap Storage")
+            .description("If true, cached keys and values are held in memory outside of the Java heap, which keeps large caches from "
+                    + "lengthening garbage collection pauses. This memory is limited by the JVM's -XX:MaxDirectMemorySize setting")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        final List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.add(OFF_HEAP_STORAGE);
+        return properties;
+    }
+
     @Override
     protected CacheServer createCacheServer(final ConfigurationContext context) {
         final int port = context.getProperty(PORT).asInteger();
@@ -41,6 +61,8 @@ public class DistributedMapCacheServer extends DistributedCacheServer {
         final SSLContextService sslContextService = context.getProperty(SSL_CONTEXT_SERVICE).asControllerService(SSLContextService.class);
         final int maxSize = context.getProperty(MAX_CACHE_ENTRIES).asInteger();
         final String evictionPolicyName = context.getProperty(EVICTION_POLICY).getValue();
+        final String persistenceModeName = context.getProperty(PERSISTENCE_MODE).getValue();
+        final boolean offHeap = context.getProperty(OFF_HEAP_STORAGE).asBoolean();
         
         final SSLContext sslContext;
         if ( sslContextService == null ) {
@@ -64,10 +86,25 @@ public class DistributedMapCacheServer extends DistributedCacheServer {
                 throw new IllegalArgumentException("Illegal Eviction Policy: " + evictionPolicyName);
         }
         
+        final PersistenceMode persistenceMode;
+        switch (persistenceModeName) {
+            case PERSISTENCE_MODE_SYNCHRONOUS:
+                persistenceMode = PersistenceMode.SYNCHRONOUS;
+                break;
+            case PERSISTENCE_MODE_WRITE_THROUGH:
+                persistenceMode = PersistenceMode.WRITE_THROUGH;
+                break;
+            case PERSISTENCE_MODE_WRITE_BEHIND:
+                persistenceMode = PersistenceMode.WRITE_BEHIND;
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal Persistence Mode: " + persistenceModeName);
+        }
+        
         try {
             final File persistenceDir = persistencePath == null ? null : new File(persistencePath);
             
-            return new MapCacheServer(getIdentifier(), sslContext, port, maxSize, evictionPolicy, persistenceDir);
+            return new MapCacheServer(getIdentifier(), sslContext, port, maxSize, evictionPolicy, persistenceDir, offHeap, persistenceMode);
         } catch (final Exception e) {
             throw new RuntimeException(e);
         }
@@ -25,8 +25,10 @@ import java.nio.ByteBuffer;
 
 import javax.net.ssl.SSLContext;
 
+import org.apache.nifi.distributed.cache.protocol.ProtocolHandshake;
 import org.apache.nifi.distributed.cache.server.AbstractCacheServer;
 import org.apache.nifi.distributed.cache.server.EvictionPolicy;
+import org.apache.nifi.distributed.cache.server.PersistenceMode;
 import org.apache.nifi.stream.io.DataOutputStream;
 
 public class MapCacheServer extends AbstractCacheServer {
@@ -35,14 +37,26 @@ public class MapCacheServer extends AbstractCacheServer {
 
     public MapCacheServer(final String identifier, final SSLContext sslContext, final int port, final int maxSize,
             final EvictionPolicy evictionPolicy, final File persistencePath) throws IOException {
+        this(identifier, sslContext, port, maxSize, evictionPolicy, persistencePath, false);
+    }
+
+    public MapCacheServer(final String identifier, final SSLContext sslContext, final int port, final int maxSize,
+            final EvictionPolicy evictionPolicy, final File persistencePath, final boolean offHeap) throws IOException {
+        this(identifier, sslContext, port, maxSize, evictionPolicy, persistencePath, offHeap, PersistenceMode.WRITE_THROUGH);
+    }
+
+    public MapCacheServer(final String identifier, final SSLContext sslContext, final int port, final int maxSize,
+            final EvictionPolicy evictionPolicy, final File persistencePath, final boolean offHeap,
+            final PersistenceMode persistenceMode) throws IOException {
         super(identifier, sslContext, port);
 
-        final MapCache simpleCache = new SimpleMapCache(identifier, maxSize, evictionPolicy);
+        final MapCache simpleCache = new SegmentedMapCache(identifier, maxSize, evictionPolicy, offHeap);
 
         if (persistencePath == null) {
             this.cache = simpleCache;
         } else {
-            final PersistentMapCache persistentCache = new PersistentMapCache(identifier, persistencePath, simpleCache);
+            final PersistentMapCache persistentCache = new PersistentMapCache(identifier, persistencePath, simpleCache, persistenceMode,
+                    getCheckpointInterval(maxSize));
             persistentCache.restore();
             this.cache = persistentCache;
         }
@@ -81,9 +95,7 @@ public class MapCacheServer extends AbstractCacheServer {
                     dos.writeInt(0);
                 } else {
                     // we didn't put. Write back the previous value
-                    final byte[] byteArray = putResult.getExistingValue().array();
-                    dos.writeInt(byteArray.length);
-                    dos.write(byteArray);
+                    writeValue(dos, putResult.getExistingValue());
                 }
 
                 break;
@@ -96,9 +108,7 @@ public class MapCacheServer extends AbstractCacheServer {
                     dos.writeInt(0);
                 } else {
                     // a value already existed. we did not update the map
-                    final byte[] byteArray = existingValue.array();
-                    dos.writeInt(byteArray.length);
-                    dos.write(byteArray);
+                    writeValue(dos, existingValue);
                 }
 
                 break;
@@ -110,6 +120,9 @@ public class MapCacheServer extends AbstractCacheServer {
                 break;
             }
             default: {
+                if (version >= ProtocolHandshake.FRAMED_REQUESTS_VERSION && listenForBatch(action, dis, dos)) {
+                    break;
+                }
                 throw new IOException("Illegal Request");
             }
             }
@@ -120,6 +133,55 @@ public class MapCacheServer extends AbstractCacheServer {
         return true;
     }
 
+    /**
+     * Handles the actions that operate on many keys at once. Each of these
+     * is followed by the number of entries and then the entries themselves,
+     * and is answered with one result per entry, in the order that the
+     * entries were given.
+     *
+     * @return <code>false</code> if the action is not a batch action
+     */
+    private boolean listenForBatch(final String action, final DataInputStream dis, final DataOutputStream dos) throws IOException {
+        switch (action) {
+        case "containsKeys": {
+            final byte[][] keys = new byte[dis.readInt()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = readValue(dis);
+            }
+
+            for (final byte[] key : keys) {
+                dos.writeBoolean(cache.containsKey(ByteBuffer.wrap(key)));
+            }
+            return true;
+        }
+        case "putIfAbsentAll":
+        case "getAndPutIfAbsentAll": {
+            final int numEntries = dis.readInt();
+            final byte[][] keys = new byte[numEntries][];
+            final byte[][] values = new byte[numEntries][];
+            for (int i = 0; i < numEntries; i++) {
+                keys[i] = readValue(dis);
+                values[i] = readValue(dis);
+            }
+
+            final boolean returnExisting = action.equals("getAndPutIfAbsentAll");
+            for (int i = 0; i < numEntries; i++) {
+                final MapPutResult putResult = cache.putIfAbsent(ByteBuffer.wrap(keys[i]), ByteBuffer.wrap(values[i]));
+                if (!returnExisting) {
+                    dos.writeBoolean(putResult.isSuccessful());
+                } else if (putResult.isSuccessful()) {
+                    dos.writeInt(0);
+                } else {
+                    writeValue(dos, putResult.getExistingValue());
+                }
+            }
+            return true;
+        }
+        default:
+            return false;
+        }
+    }
+
     @Override
     public void stop() throws IOException {
         try {
@@ -135,6 +197,19 @@ public class MapCacheServer extends AbstractCacheServer {
             stop();
     }
 
+    private void writeValue(final DataOutputStream dos, final ByteBuffer value) throws IOException {
+        // values held off-heap have no backing array, and the cached buffer is shared, so never move its position
+        final int length = value.remaining();
+        dos.writeInt(length);
+        if (value.hasArray()) {
+            dos.write(value.array(), value.arrayOffset() + value.position(), length);
+        } else {
+            final byte[] bytes = new byte[length];
+            value.duplicate().get(bytes);
+            dos.write(bytes);
+        }
+    }
+
     private byte[] readValue(final DataInputStream dis) throws IOException {
         final int numBytes = dis.readInt();
         final byte[] buffer = new byte[numBytes];
@@ -23,26 +23,23 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
-import org.wali.MinimalLockingWriteAheadLog;
+import org.apache.nifi.distributed.cache.server.CacheUpdateLog;
+import org.apache.nifi.distributed.cache.server.PersistenceMode;
 import org.wali.SerDe;
 import org.wali.UpdateType;
-import org.wali.WriteAheadRepository;
 
 public class PersistentMapCache implements MapCache {
 
     private final MapCache wrapped;
-    private final WriteAheadRepository<MapWaliRecord> wali;
+    private final CacheUpdateLog<MapWaliRecord> wali;
     
-    private final AtomicLong modifications = new AtomicLong(0L);
-    
-    public PersistentMapCache(final String serviceIdentifier, final File persistencePath, final MapCache cacheToWrap) throws IOException {
-        wali = new MinimalLockingWriteAheadLog<>(persistencePath.toPath(), 1, new Serde(), null);
+    public PersistentMapCache(final String serviceIdentifier, final File persistencePath, final MapCache cacheToWrap,
+            final PersistenceMode persistenceMode, final long checkpointInterval) throws IOException {
+        wali = new CacheUpdateLog<>(serviceIdentifier, persistencePath.toPath(), new Serde(), persistenceMode, checkpointInterval);
         wrapped = cacheToWrap;
     }
 
@@ -68,12 +65,7 @@ public class PersistentMapCache implements MapCache {
                 records.add(new MapWaliRecord(UpdateType.DELETE, putResult.getEvictedKey(), putResult.getEvictedValue()));
             }
             
-            wali.update(Collections.singletonList(record), false);
-            
-            final long modCount = modifications.getAndIncrement();
-            if ( modCount > 0 && modCount % 100000 == 0 ) {
-                wali.checkpoint();
-            }
+            wali.update(records);
         }
         
         return putResult;
@@ -96,12 +88,7 @@ public class PersistentMapCache implements MapCache {
             final MapWaliRecord record = new MapWaliRecord(UpdateType.DELETE, key, removeResult);
             final List<MapWaliRecord> records = new ArrayList<>(1);
             records.add(record);
-            wali.update(records, false);
-            
-            final long modCount = modifications.getAndIncrement();
-            if ( modCount > 0 && modCount % 1000 == 0 ) {
-                wali.checkpoint();
-            }
+            wali.update(records);
         }
         return removeResult;
     }
@@ -148,13 +135,21 @@ public class PersistentMapCache implements MapCache {
                 out.write(1);
             }
             
-            final byte[] key = newRecordState.getKey().array();
-            final byte[] value = newRecordState.getValue().array();
-            
-            out.writeInt(key.length);
-            out.write(key);
-            out.writeInt(value.length);
-            out.write(value);
+            writeBuffer(newRecordState.getKey(), out);
+            writeBuffer(newRecordState.getValue(), out);
+        }
+
+        private void writeBuffer(final ByteBuffer buffer, final java.io.DataOutputStream out) throws IOException {
+            // buffers handed back by the cache may be held off-heap and have no backing array
+            final int length = buffer.remaining();
+            out.writeInt(length);
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            } else {
+                final byte[] bytes = new byte[length];
+                buffer.duplicate().get(bytes);
+                out.write(bytes);
+            }
         }
 
         @Override
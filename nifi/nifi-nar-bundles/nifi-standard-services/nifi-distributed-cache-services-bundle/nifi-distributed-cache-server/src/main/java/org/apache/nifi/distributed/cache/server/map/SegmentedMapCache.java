@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.server.map;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.nifi.distributed.cache.server.CacheRecord;
+import org.apache.nifi.distributed.cache.server.EvictionPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A MapCache that splits its entries across a number of segments, each with
+ * its own lock, so that operations on different keys rarely contend with one
+ * another. Lookups take only a segment's read lock, as recording a hit does
+ * not change the structure of the segment.
+ *
+ * Rather than keeping every record sorted by the eviction policy, each segment
+ * holds an equal share of the maximum number of entries and, once full, evicts
+ * the lowest ranked of a random sample of its records. Segments that are small
+ * enough are scanned in full, so small caches evict exactly as the eviction
+ * policy dictates.
+ *
+ * The keys and values may optionally be copied into direct buffers, so that
+ * large caches do not add to the size of the heap that the garbage collector
+ * has to work through.
+ */
+public class SegmentedMapCache implements MapCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedMapCache.class);
+
+    static final int MAX_SEGMENTS = 64;
+    static final int MIN_ENTRIES_PER_SEGMENT = 256;
+    static final int EVICTION_SAMPLE_SIZE = 8;
+    static final int EXACT_EVICTION_THRESHOLD = 64;
+
+    private final String serviceIdentifier;
+    private final Comparator<CacheRecord> evictionComparator;
+    private final boolean offHeap;
+    private final Segment[] segments;
+
+    public SegmentedMapCache(final String serviceIdentifier, final int maxSize, final EvictionPolicy evictionPolicy) {
+        this(serviceIdentifier, maxSize, evictionPolicy, false);
+    }
+
+    public SegmentedMapCache(final String serviceIdentifier, final int maxSize, final EvictionPolicy evictionPolicy, final boolean offHeap) {
+        this.serviceIdentifier = serviceIdentifier;
+        this.evictionComparator = evictionPolicy.getComparator();
+        this.offHeap = offHeap;
+
+        int segmentCount = 1;
+        while (segmentCount * 2 <= MAX_SEGMENTS && (long) segmentCount * 2 * MIN_ENTRIES_PER_SEGMENT <= maxSize) {
+            segmentCount *= 2;
+        }
+
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final int capacity = maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedMapCache[service id=" + serviceIdentifier + ", segments=" + segments.length + "]";
+    }
+
+    private Segment getSegment(final ByteBuffer key) {
+        // ByteBuffer's hash code is poorly distributed in its low bits for short keys, so spread it before masking
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    @Override
+    public MapPutResult putIfAbsent(final ByteBuffer key, final ByteBuffer value) {
+        final Segment segment = getSegment(key);
+        segment.writeLock.lock();
+        try {
+            final Entry existing = segment.map.get(key);
+            if (existing != null) {
+                existing.hit();
+                return new MapPutResult(false, key, value, existing.getValue(), null, null);
+            }
+
+            final Entry evicted = segment.isFull() ? segment.evict(evictionComparator) : null;
+            segment.add(createEntry(key, value));
+
+            if (evicted == null) {
+                return new MapPutResult(true, key, value, null, null, null);
+            }
+
+            logger.debug("{} Evicted entry with key {} to make room for new entry", this, evicted.getKey());
+            return new MapPutResult(true, key, value, null, evicted.getKey(), evicted.getValue());
+        } finally {
+            segment.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(final ByteBuffer key) {
+        return getAndHit(key) != null;
+    }
+
+    @Override
+    public ByteBuffer get(final ByteBuffer key) {
+        final Entry entry = getAndHit(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    private Entry getAndHit(final ByteBuffer key) {
+        final Segment segment = getSegment(key);
+        segment.readLock.lock();
+        try {
+            final Entry entry = segment.map.get(key);
+            if (entry != null) {
+                entry.hit();
+            }
+            return entry;
+        } finally {
+            segment.readLock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer remove(final ByteBuffer key) throws IOException {
+        final Segment segment = getSegment(key);
+        segment.writeLock.lock();
+        try {
+            final Entry entry = segment.map.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            segment.remove(entry);
+            return entry.getValue();
+        } finally {
+            segment.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+    }
+
+    /**
+     * @return the number of entries in the cache. The segments are counted one
+     * at a time, so the result is only exact if the cache is not being modified
+     */
+    int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            segment.readLock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.readLock.unlock();
+            }
+        }
+        return size;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    private Entry createEntry(final ByteBuffer key, final ByteBuffer value) {
+        if (!offHeap) {
+            return new Entry(key, value);
+        }
+
+        final ByteBuffer keyCopy = key.duplicate();
+        final ByteBuffer valueCopy = value.duplicate();
+        final int keyLength = keyCopy.remaining();
+        final int valueLength = valueCopy.remaining();
+
+        // one allocation per entry; the key and value are views of its two halves
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(keyLength + valueLength);
+        buffer.put(keyCopy);
+        buffer.put(valueCopy);
+
+        buffer.position(0).limit(keyLength);
+        final ByteBuffer directKey = buffer.slice();
+        buffer.limit(keyLength + valueLength).position(keyLength);
+        final ByteBuffer directValue = buffer.slice();
+
+        return new Entry(directKey, directValue);
+    }
+
+    private static class Entry extends MapCacheRecord {
+        // position of this entry in its segment's list of entries
+        private int index;
+
+        public Entry(final ByteBuffer key, final ByteBuffer value) {
+            super(key, value);
+        }
+    }
+
+    private static class Segment {
+        private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+        private final Lock readLock = rwLock.readLock();
+        private final Lock writeLock = rwLock.writeLock();
+
+        private final int capacity;
+        private final Map<ByteBuffer, Entry> map = new HashMap<>();
+        // the same entries as the map, kept in a list so that they can be sampled at random
+        private final List<Entry> entries = new ArrayList<>();
+
+        public Segment(final int capacity) {
+            this.capacity = capacity;
+        }
+
+        // all of the methods below must be called with the write lock held
+        private boolean isFull() {
+            return entries.size() >= capacity;
+        }
+
+        private void add(final Entry entry) {
+            entry.index = entries.size();
+            entries.add(entry);
+            map.put(entry.getKey(), entry);
+        }
+
+        private void remove(final Entry entry) {
+            map.remove(entry.getKey());
+
+            final Entry last = entries.remove(entries.size() - 1);
+            if (last != entry) {
+                last.index = entry.index;
+                entries.set(entry.index, last);
+            }
+        }
+
+        private Entry evict(final Comparator<CacheRecord> comparator) {
+            final int size = entries.size();
+            if (size == 0) {
+                return null;
+            }
+
+            Entry victim = null;
+            if (size <= EXACT_EVICTION_THRESHOLD) {
+                for (final Entry entry : entries) {
+                    if (victim == null || comparator.compare(entry, victim) < 0) {
+                        victim = entry;
+                    }
+                }
+            } else {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+                    final Entry entry = entries.get(random.nextInt(size));
+                    if (victim == null || comparator.compare(entry, victim) < 0) {
+                        victim = entry;
+                    }
+                }
+            }
+
+            remove(victim);
+            return victim;
+        }
+    }
+}
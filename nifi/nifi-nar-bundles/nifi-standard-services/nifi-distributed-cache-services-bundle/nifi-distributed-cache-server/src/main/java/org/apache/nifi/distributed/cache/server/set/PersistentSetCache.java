@@ -27,22 +27,20 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
-import org.wali.MinimalLockingWriteAheadLog;
+import org.apache.nifi.distributed.cache.server.CacheUpdateLog;
+import org.apache.nifi.distributed.cache.server.PersistenceMode;
 import org.wali.SerDe;
 import org.wali.UpdateType;
-import org.wali.WriteAheadRepository;
 
 public class PersistentSetCache implements SetCache {
 
     private final SetCache wrapped;
-    private final WriteAheadRepository<SetRecord> wali;
+    private final CacheUpdateLog<SetRecord> wali;
     
-    private final AtomicLong modifications = new AtomicLong(0L);
-    
-    public PersistentSetCache(final String serviceIdentifier, final File persistencePath, final SetCache cacheToWrap) throws IOException {
-        wali = new MinimalLockingWriteAheadLog<>(persistencePath.toPath(), 1, new Serde(), null);
+    public PersistentSetCache(final String serviceIdentifier, final File persistencePath, final SetCache cacheToWrap,
+            final PersistenceMode persistenceMode, final long checkpointInterval) throws IOException {
+        wali = new CacheUpdateLog<>(serviceIdentifier, persistencePath.toPath(), new Serde(), persistenceMode, checkpointInterval);
         wrapped = cacheToWrap;
     }
     
@@ -50,7 +48,7 @@ public class PersistentSetCache implements SetCache {
         final Collection<SetRecord> recovered = wali.recoverRecords();
         for ( final SetRecord record : recovered ) {
             if ( record.getUpdateType() == UpdateType.CREATE ) {
-                addIfAbsent(record.getBuffer());
+                wrapped.addIfAbsent(record.getBuffer());
             }
         }
     }
@@ -62,12 +60,7 @@ public class PersistentSetCache implements SetCache {
             final SetRecord record = new SetRecord(UpdateType.DELETE, value);
             final List<SetRecord> records = new ArrayList<>();
             records.add(record);
-            wali.update(records, false);
-            
-            final long modCount = modifications.getAndIncrement();
-            if ( modCount > 0 && modCount % 1000 == 0 ) {
-                wali.checkpoint();
-            }
+            wali.update(records);
         }
 
         return removeResult;
@@ -86,12 +79,7 @@ public class PersistentSetCache implements SetCache {
                 records.add(new SetRecord(UpdateType.DELETE, evictedRecord.getValue()));
             }
             
-            wali.update(records, false);
-            
-            final long modCount = modifications.getAndIncrement();
-            if ( modCount > 0 && modCount % 1000 == 0 ) {
-                wali.checkpoint();
-            }
+            wali.update(records);
         }
         
         return addResult;
@@ -22,15 +22,25 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.distributed.cache.protocol.ProtocolHandshake;
 import org.apache.nifi.distributed.cache.client.Deserializer;
 import org.apache.nifi.distributed.cache.client.DistributedMapCacheClientService;
 import org.apache.nifi.distributed.cache.client.DistributedSetCacheClientService;
@@ -478,6 +488,223 @@ public class TestServerAndClient {
         server.shutdownServer();
     }
 
+    @Test
+    public void testBatchedMapRequests() throws InitializationException, IOException {
+        LOGGER.info("Testing " + Thread.currentThread().getStackTrace()[1].getMethodName());
+        final DistributedMapCacheServer server = new DistributedMapCacheServer();
+        MockControllerServiceInitializationContext serverInitContext = new MockControllerServiceInitializationContext(server, "server");
+        server.initialize(serverInitContext);
+
+        final Map<PropertyDescriptor, String> serverProperties = new HashMap<>();
+        final MockConfigurationContext serverContext = new MockConfigurationContext(serverProperties, serverInitContext.getControllerServiceLookup());
+        server.startServer(serverContext);
+
+        final DistributedMapCacheClientService client = new DistributedMapCacheClientService();
+        MockControllerServiceInitializationContext clientInitContext = new MockControllerServiceInitializationContext(client, "client");
+        client.initialize(clientInitContext);
+
+        final Map<PropertyDescriptor, String> clientProperties = new HashMap<>();
+        clientProperties.put(DistributedMapCacheClientService.HOSTNAME, "localhost");
+        MockConfigurationContext clientContext = new MockConfigurationContext(clientProperties, clientInitContext.getControllerServiceLookup());
+        client.cacheConfig(clientContext);
+        final Serializer<String> serializer = new StringSerializer();
+        final Deserializer<String> deserializer = new StringDeserializer();
+
+        try {
+            final Map<String, String> firstBatch = new LinkedHashMap<>();
+            firstBatch.put("a", "1");
+            firstBatch.put("b", "2");
+            final Map<String, Boolean> added = client.putAllIfAbsent(firstBatch, serializer, serializer);
+            assertEquals(Arrays.asList("a", "b"), Arrays.asList(added.keySet().toArray()));
+            assertTrue(added.get("a"));
+            assertTrue(added.get("b"));
+
+            final Map<String, String> secondBatch = new LinkedHashMap<>();
+            secondBatch.put("c", "3");
+            secondBatch.put("a", "4");
+            final Map<String, String> existing = client.getAndPutAllIfAbsent(secondBatch, serializer, serializer, deserializer);
+            assertEquals(Arrays.asList("c", "a"), Arrays.asList(existing.keySet().toArray()));
+            assertEquals(null, existing.get("c"));
+            assertEquals("1", existing.get("a"));
+
+            final Map<String, Boolean> contained = client.containsKeys(Arrays.asList("a", "c", "d"), serializer);
+            assertTrue(contained.get("a"));
+            assertTrue(contained.get("c"));
+            assertFalse(contained.get("d"));
+
+            // single-key requests are framed the same way as batches
+            assertEquals("3", client.get("c", serializer, deserializer));
+            assertTrue(client.remove("c", serializer));
+            assertFalse(client.containsKey("c", serializer));
+        } finally {
+            client.close();
+            server.shutdownServer();
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws InitializationException, IOException, InterruptedException {
+        LOGGER.info("Testing " + Thread.currentThread().getStackTrace()[1].getMethodName());
+        final DistributedMapCacheServer server = new DistributedMapCacheServer();
+        MockControllerServiceInitializationContext serverInitContext = new MockControllerServiceInitializationContext(server, "server");
+        server.initialize(serverInitContext);
+
+        final Map<PropertyDescriptor, String> serverProperties = new HashMap<>();
+        final MockConfigurationContext serverContext = new MockConfigurationContext(serverProperties, serverInitContext.getControllerServiceLookup());
+        server.startServer(serverContext);
+
+        try {
+            for (final int version : new int[] {1, ProtocolHandshake.FRAMED_REQUESTS_VERSION}) {
+                try (final Socket socket = new Socket("localhost", 4557)) {
+                    socket.setSoTimeout(30000);
+                    final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                    final DataInputStream dis = new DataInputStream(socket.getInputStream());
+
+                    dos.write(ProtocolHandshake.MAGIC_HEADER);
+                    dos.writeInt(version);
+                    dos.flush();
+                    assertEquals(ProtocolHandshake.RESOURCE_OK, dis.read());
+
+                    // send three requests before reading any response, the last of them in two pieces
+                    final String key = "pipelined-" + version;
+                    final byte[] putIfAbsent = createRequest(version, "putIfAbsent", key, "value");
+                    final byte[] containsKey = createRequest(version, "containsKey", key);
+                    final byte[] get = createRequest(version, "get", key);
+                    dos.write(putIfAbsent);
+                    dos.write(containsKey);
+                    dos.write(get, 0, 3);
+                    dos.flush();
+                    Thread.sleep(100L);
+                    dos.write(get, 3, get.length - 3);
+                    dos.flush();
+
+                    assertTrue(dis.readBoolean());
+                    assertTrue(dis.readBoolean());
+                    final byte[] value = new byte[dis.readInt()];
+                    dis.readFully(value);
+                    assertEquals("value", new String(value, StandardCharsets.UTF_8));
+
+                    dos.write(createRequest(version, "close"));
+                    dos.flush();
+                    assertEquals(-1, dis.read());
+                }
+            }
+        } finally {
+            server.shutdownServer();
+        }
+    }
+
+    @Test
+    public void testOversizedRequestClosesConnection() throws InitializationException, IOException {
+        LOGGER.info("Testing " + Thread.currentThread().getStackTrace()[1].getMethodName());
+        final DistributedMapCacheServer server = new DistributedMapCacheServer();
+        MockControllerServiceInitializationContext serverInitContext = new MockControllerServiceInitializationContext(server, "server");
+        server.initialize(serverInitContext);
+
+        final Map<PropertyDescriptor, String> serverProperties = new HashMap<>();
+        final MockConfigurationContext serverContext = new MockConfigurationContext(serverProperties, serverInitContext.getControllerServiceLookup());
+        server.startServer(serverContext);
+
+        try {
+            try (final Socket socket = openFramedConnection(4557)) {
+                // a length that would overflow if added to anything, followed by more than the server reads at once
+                final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                dos.writeInt(Integer.MAX_VALUE);
+                dos.write(new byte[256 * 1024]);
+                dos.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (final SocketException e) {
+                // the server closed the connection while we were still writing to it
+            }
+
+            // the server goes on serving other clients
+            try (final Socket socket = openFramedConnection(4557)) {
+                final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                dos.write(createRequest(ProtocolHandshake.FRAMED_REQUESTS_VERSION, "containsKey", "key"));
+                dos.flush();
+                assertFalse(new DataInputStream(socket.getInputStream()).readBoolean());
+            }
+        } finally {
+            server.shutdownServer();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSlowRequestDoesNotBlockOtherClients() throws IOException, InterruptedException {
+        LOGGER.info("Testing " + Thread.currentThread().getStackTrace()[1].getMethodName());
+        final CountDownLatch slowRequestReceived = new CountDownLatch(1);
+        final CountDownLatch releaseSlowRequest = new CountDownLatch(1);
+
+        // answers each request with its action, once "slow" requests are released
+        final AbstractCacheServer server = new AbstractCacheServer("slow", null, 4557) {
+            @Override
+            protected boolean listen(final InputStream in, final OutputStream out, final int version) throws IOException {
+                final String action = new DataInputStream(in).readUTF();
+                if (action.equals("slow")) {
+                    slowRequestReceived.countDown();
+                    try {
+                        releaseSlowRequest.await();
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                new DataOutputStream(out).writeUTF(action);
+                return true;
+            }
+        };
+        server.start();
+
+        try (final Socket slowSocket = openFramedConnection(4557);
+                final Socket fastSocket = openFramedConnection(4557)) {
+            slowSocket.getOutputStream().write(createRequest(ProtocolHandshake.FRAMED_REQUESTS_VERSION, "slow"));
+            slowSocket.getOutputStream().flush();
+            slowRequestReceived.await();
+
+            fastSocket.getOutputStream().write(createRequest(ProtocolHandshake.FRAMED_REQUESTS_VERSION, "fast"));
+            fastSocket.getOutputStream().flush();
+            assertEquals("fast", new DataInputStream(fastSocket.getInputStream()).readUTF());
+
+            releaseSlowRequest.countDown();
+            assertEquals("slow", new DataInputStream(slowSocket.getInputStream()).readUTF());
+        } finally {
+            releaseSlowRequest.countDown();
+            server.stop();
+        }
+    }
+
+    private Socket openFramedConnection(final int port) throws IOException {
+        final Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(30000);
+        final DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+        dos.write(ProtocolHandshake.MAGIC_HEADER);
+        dos.writeInt(ProtocolHandshake.FRAMED_REQUESTS_VERSION);
+        dos.flush();
+        assertEquals(ProtocolHandshake.RESOURCE_OK, socket.getInputStream().read());
+        return socket;
+    }
+
+    private byte[] createRequest(final int version, final String action, final String... values) throws IOException {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(request);
+        dos.writeUTF(action);
+        for (final String value : values) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+
+        if (version < ProtocolHandshake.FRAMED_REQUESTS_VERSION) {
+            return request.toByteArray();
+        }
+
+        final ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        final DataOutputStream framedOut = new DataOutputStream(framed);
+        framedOut.writeInt(request.size());
+        request.writeTo(framedOut);
+        return framed.toByteArray();
+    }
+
     private void waitABit() {
         try {
             Thread.sleep(10L);
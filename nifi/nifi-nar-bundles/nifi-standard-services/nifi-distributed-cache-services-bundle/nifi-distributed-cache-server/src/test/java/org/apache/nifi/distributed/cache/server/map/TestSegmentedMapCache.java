@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.server.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.nifi.distributed.cache.server.EvictionPolicy;
+import org.junit.Test;
+
+public class TestSegmentedMapCache {
+
+    @Test
+    public void testPutGetRemove() throws IOException {
+        verifyPutGetRemove(new SegmentedMapCache("test", 10000, EvictionPolicy.LFU));
+    }
+
+    @Test
+    public void testPutGetRemoveOffHeap() throws IOException {
+        verifyPutGetRemove(new SegmentedMapCache("test", 10000, EvictionPolicy.LFU, true));
+    }
+
+    private void verifyPutGetRemove(final SegmentedMapCache cache) throws IOException {
+        assertTrue(cache.getSegmentCount() > 1);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.putIfAbsent(buffer("key" + i), buffer("value" + i)).isSuccessful());
+        }
+        assertEquals(1000, cache.size());
+
+        final MapPutResult existing = cache.putIfAbsent(buffer("key5"), buffer("other"));
+        assertFalse(existing.isSuccessful());
+        assertEquals("value5", string(existing.getExistingValue()));
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.containsKey(buffer("key" + i)));
+            assertEquals("value" + i, string(cache.get(buffer("key" + i))));
+        }
+        assertFalse(cache.containsKey(buffer("key1000")));
+        assertNull(cache.get(buffer("key1000")));
+
+        assertEquals("value7", string(cache.remove(buffer("key7"))));
+        assertNull(cache.remove(buffer("key7")));
+        assertFalse(cache.containsKey(buffer("key7")));
+        assertEquals(999, cache.size());
+
+        // the remaining entries must still be found after the entries of a segment are reordered by removal
+        for (int i = 0; i < 1000; i++) {
+            if (i != 7) {
+                assertEquals("value" + i, string(cache.get(buffer("key" + i))));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallCacheEvictsExactlyByPolicy() throws IOException {
+        final SegmentedMapCache lfu = new SegmentedMapCache("test", 3, EvictionPolicy.LFU);
+        lfu.putIfAbsent(buffer("test"), buffer("1"));
+        lfu.putIfAbsent(buffer("test2"), buffer("2"));
+        lfu.putIfAbsent(buffer("test3"), buffer("3"));
+        lfu.containsKey(buffer("test"));
+        lfu.containsKey(buffer("test2"));
+
+        final MapPutResult result = lfu.putIfAbsent(buffer("test4"), buffer("4"));
+        assertTrue(result.isSuccessful());
+        assertEquals("test3", string(result.getEvictedKey()));
+        assertEquals("3", string(result.getEvictedValue()));
+        assertEquals(3, lfu.size());
+
+        final SegmentedMapCache fifo = new SegmentedMapCache("test", 3, EvictionPolicy.FIFO);
+        fifo.putIfAbsent(buffer("test"), buffer("1"));
+        fifo.putIfAbsent(buffer("test2"), buffer("2"));
+        fifo.putIfAbsent(buffer("test3"), buffer("3"));
+        fifo.containsKey(buffer("test"));
+        assertEquals("test", string(fifo.putIfAbsent(buffer("test4"), buffer("4")).getEvictedKey()));
+    }
+
+    @Test
+    public void testLargeCacheEvictsApproximatelyByPolicy() throws IOException {
+        final int maxSize = 10000;
+        final SegmentedMapCache cache = new SegmentedMapCache("test", maxSize, EvictionPolicy.LFU, true);
+        for (int i = 0; i < maxSize; i++) {
+            cache.putIfAbsent(buffer("key" + i), buffer("value" + i));
+        }
+
+        // every other entry is used; adding another 20% of the cache's size should evict almost only unused entries,
+        // where evicting at random would take about 1000 of the used ones
+        for (int i = 0; i < maxSize; i += 2) {
+            cache.get(buffer("key" + i));
+        }
+        for (int i = maxSize; i < maxSize + maxSize / 5; i++) {
+            assertTrue(cache.putIfAbsent(buffer("key" + i), buffer("value" + i)).isSuccessful());
+        }
+        assertEquals(maxSize, cache.size());
+
+        int usedEvicted = 0;
+        for (int i = 0; i < maxSize; i += 2) {
+            if (!cache.containsKey(buffer("key" + i))) {
+                usedEvicted++;
+            }
+        }
+        assertTrue("Evicted " + usedEvicted + " entries that were in use", usedEvicted < maxSize / 40);
+    }
+
+    @Test
+    public void testConcurrentPutIfAbsentAddsEachKeyOnce() throws Exception {
+        final SegmentedMapCache cache = new SegmentedMapCache("test", 100000, EvictionPolicy.LRU);
+        final int threads = 8;
+        final int keys = 20000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int added = 0;
+                        for (int i = 0; i < keys; i++) {
+                            if (cache.putIfAbsent(buffer("key" + i), buffer("value")).isSuccessful()) {
+                                added++;
+                            }
+                            cache.containsKey(buffer("key" + (keys - i - 1)));
+                        }
+                        return added;
+                    }
+                }));
+            }
+
+            int totalAdded = 0;
+            for (final Future<Integer> future : futures) {
+                totalAdded += future.get();
+            }
+            assertEquals(keys, totalAdded);
+            assertEquals(keys, cache.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer buffer(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
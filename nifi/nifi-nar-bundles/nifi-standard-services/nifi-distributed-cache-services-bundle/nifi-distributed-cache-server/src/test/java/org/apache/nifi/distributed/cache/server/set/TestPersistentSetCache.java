@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.distributed.cache.server.set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.nifi.distributed.cache.server.EvictionPolicy;
+import org.apache.nifi.distributed.cache.server.PersistenceMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPersistentSetCache {
+
+    private final File persistenceDir = new File("target/persistent-set-cache");
+
+    @Before
+    @After
+    public void cleanup() throws IOException {
+        deleteRecursively(persistenceDir);
+    }
+
+    @Test
+    public void testRestoreSynchronous() throws IOException {
+        verifyRestore(PersistenceMode.SYNCHRONOUS);
+    }
+
+    @Test
+    public void testRestoreWriteThrough() throws IOException {
+        verifyRestore(PersistenceMode.WRITE_THROUGH);
+    }
+
+    @Test
+    public void testRestoreWriteBehind() throws IOException {
+        verifyRestore(PersistenceMode.WRITE_BEHIND);
+    }
+
+    private void verifyRestore(final PersistenceMode persistenceMode) throws IOException {
+        // a small checkpoint interval, so that the cache is restored from a checkpoint as well as from journals
+        PersistentSetCache cache = createCache(persistenceMode, 10000, 100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.addIfAbsent(buffer("value" + i)).getResult());
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(cache.remove(buffer("value" + i)).getResult());
+        }
+        assertFalse(cache.addIfAbsent(buffer("value1")).getResult());
+        cache.shutdown();
+
+        cache = createCache(persistenceMode, 10000, 100);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 != 0, cache.contains(buffer("value" + i)).getResult());
+        }
+        cache.shutdown();
+    }
+
+    @Test
+    public void testRestoreAfterRepeatedRestarts() throws IOException {
+        for (int restart = 0; restart < 3; restart++) {
+            final PersistentSetCache cache = createCache(PersistenceMode.WRITE_BEHIND, 10000, 50);
+            for (int i = 0; i < restart * 100; i++) {
+                assertTrue(cache.contains(buffer("value" + i)).getResult());
+            }
+            for (int i = restart * 100; i < (restart + 1) * 100; i++) {
+                assertTrue(cache.addIfAbsent(buffer("value" + i)).getResult());
+            }
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    public void testEvictedValuesNotRestored() throws IOException {
+        PersistentSetCache cache = createCache(PersistenceMode.WRITE_BEHIND, 256, 1000);
+        for (int i = 0; i < 300; i++) {
+            cache.addIfAbsent(buffer("value" + i));
+        }
+        final Set<String> cachedValues = getCachedValues(cache, 300);
+        assertEquals(256, cachedValues.size());
+        cache.shutdown();
+
+        // if the evictions were not logged, restoring would have to evict values of its own choosing
+        cache = createCache(PersistenceMode.WRITE_BEHIND, 256, 1000);
+        assertEquals(cachedValues, getCachedValues(cache, 300));
+        cache.shutdown();
+    }
+
+    private Set<String> getCachedValues(final SetCache cache, final int numValues) throws IOException {
+        final Set<String> values = new HashSet<>();
+        for (int i = 0; i < numValues; i++) {
+            if (cache.contains(buffer("value" + i)).getResult()) {
+                values.add("value" + i);
+            }
+        }
+        return values;
+    }
+
+    private PersistentSetCache createCache(final PersistenceMode persistenceMode, final int maxSize, final long checkpointInterval) throws IOException {
+        final SetCache simpleCache = new SimpleSetCache("test", maxSize, EvictionPolicy.FIFO);
+        final PersistentSetCache cache = new PersistentSetCache("test", persistenceDir, simpleCache, persistenceMode, checkpointInterval);
+        cache.restore();
+        return cache;
+    }
+
+    private static ByteBuffer buffer(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(final File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        if (!file.delete()) {
+            throw new IOException("Could not delete " + file.getAbsolutePath());
+        }
+    }
+}